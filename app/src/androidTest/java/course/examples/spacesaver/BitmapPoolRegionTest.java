@@ -0,0 +1,70 @@
+package course.examples.spacesaver;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+/**
+ * Device tests decoding regions of an image through the BitmapPool
+ */
+public class BitmapPoolRegionTest extends AndroidTestCase {
+
+    private File createImage(int width, int height) throws Exception {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        for (int x = 0; x < width; x++) {
+            int color = x < width / 2 ? Color.RED : Color.BLUE;
+            for (int y = 0; y < height; y++) {
+                bitmap.setPixel(x, y, color);
+            }
+        }
+        File file = new File(getContext().getCacheDir(), "pool_region_test.png");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);   //lossless, so colors can be compared exactly
+        } finally {
+            out.close();
+            bitmap.recycle();
+        }
+        return file;
+    }
+
+    public void testDecodeRegion_differentWidthsBackToBack() throws Exception {
+        File file = createImage(200, 64);
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(file.getPath(), false);
+        BitmapPool pool = new BitmapPool(16 * Utility.KILOBYTE * Utility.KILOBYTE);
+        try {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Bitmap wide = pool.decodeRegion(decoder, new Rect(0, 0, 200, 32), options);
+            assertEquals(200, wide.getWidth());
+            pool.put(wide);
+
+            Bitmap narrow = pool.decodeRegion(decoder, new Rect(50, 0, 150, 32), options);     //the wide bitmap is large enough, but not as wide
+            assertEquals(100, narrow.getWidth());
+            assertTrue(narrow.getHeight() >= 32);
+            int[] row = new int[100];
+            narrow.getPixels(row, 0, 100, 0, 10, 100, 1);
+            assertEquals(Color.RED, row[49]);
+            assertEquals(Color.BLUE, row[50]);
+            pool.put(narrow);
+
+            Bitmap lastStrip = pool.decodeRegion(decoder, new Rect(0, 32, 200, 48), options);   //reuses the wide bitmap
+            assertEquals(200, lastStrip.getWidth());
+            assertTrue(lastStrip.getHeight() >= 16);
+            lastStrip.getPixels(row, 0, 100, 50, 5, 100, 1);
+            assertEquals(Color.RED, row[49]);
+            assertEquals(Color.BLUE, row[50]);
+            pool.put(lastStrip);
+        } finally {
+            decoder.recycle();
+            pool.clear();
+            file.delete();
+        }
+    }
+}
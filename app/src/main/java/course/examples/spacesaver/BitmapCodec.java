@@ -0,0 +1,96 @@
+package course.examples.spacesaver;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * ImageCodec of the app, decoding with BitmapFactory into pooled bitmaps and encoding with Bitmap.compress <br/>
+ * The bitmaps between decode and release are counted in the image memory of the PipelineMetrics.
+ */
+public class BitmapCodec implements ImageCodec<Bitmap> {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.BitmapCodec";
+
+    private static BitmapCodec instance = null;
+
+    private final BitmapPool pool;
+    private final String boundsFile;    //image whose size is already known, so decode doesn't read its header again
+    private final int boundsWidth;
+    private final int boundsHeight;
+
+    /**
+     * Method to return the codec decoding into the shared BitmapPool
+     * @return shared BitmapCodec instance
+     */
+    public static synchronized BitmapCodec getInstance() {
+        if (instance == null) {
+            instance = new BitmapCodec(BitmapPool.getInstance());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor taking the pool bitmaps are decoded into and released to
+     * @param pool pool of reusable bitmaps
+     */
+    public BitmapCodec(BitmapPool pool) {
+        this(pool, null, 0, 0);
+    }
+
+    private BitmapCodec(BitmapPool pool, String boundsFile, int boundsWidth, int boundsHeight) {
+        this.pool = pool;
+        this.boundsFile = boundsFile;
+        this.boundsWidth = boundsWidth;
+        this.boundsHeight = boundsHeight;
+    }
+
+    /**
+     * Method to return a codec for an image whose bounds were decoded already, so the pool can pick a bitmap without
+     * decoding them a second time
+     * @param imgFile Absolute path to the image file
+     * @param bounds result of a decode of imgFile with inJustDecodeBounds
+     * @return codec sharing the pool of this one
+     */
+    public BitmapCodec withBounds(String imgFile, BitmapFactory.Options bounds) {
+        return new BitmapCodec(pool, imgFile, bounds.outWidth, bounds.outHeight);
+    }
+
+    @Override
+    public Bitmap decode(File imgFile) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        if (imgFile.getAbsolutePath().equals(boundsFile)) {
+            options.outWidth = boundsWidth;
+            options.outHeight = boundsHeight;
+        }
+        Bitmap bitmap = pool.decodeFile(imgFile.getAbsolutePath(), options);
+        if (bitmap != null) {
+            PipelineMetrics.getInstance().imageAllocated(bitmap.getByteCount());
+        }
+        return bitmap;
+    }
+
+    @Override
+    public int getWidth(Bitmap image) {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight(Bitmap image) {
+        return image.getHeight();
+    }
+
+    @Override
+    public boolean encode(Bitmap image, int quality, OutputStream ostream) throws IOException {
+        return image.compress(Bitmap.CompressFormat.JPEG, quality, ostream);
+    }
+
+    @Override
+    public void release(Bitmap image) {
+        PipelineMetrics.getInstance().imageReleased(image.getByteCount());
+        pool.put(image);
+    }
+}
@@ -0,0 +1,307 @@
+package course.examples.spacesaver;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pool of mutable bitmaps, bucketed by allocation size, that decode sites reuse through BitmapFactory.Options.inBitmap <br/>
+ * Bitmaps are borrowed implicitly by the decode methods of this class and given back with put() once they are no longer
+ * drawn or encoded. The pool never holds more than its byte budget, least recently returned bitmaps are evicted first.
+ */
+public class BitmapPool {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.BitmapPool";
+    public static final long DEFAULT_MAX_BYTES = 64 * Utility.KILOBYTE * Utility.KILOBYTE;
+    private static final int MAX_SIZE_MULTIPLE = 4; //don't reuse a bitmap more than 4 times larger than needed
+
+    private static BitmapPool instance = null;
+
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<Integer, ArrayDeque<Bitmap>>();
+    private final LinkedList<Bitmap> lruOrder = new LinkedList<Bitmap>();
+    private long maxBytes;
+    private long currentBytes = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+    private long evictionCount = 0;
+
+    /**
+     * Method to return the pool shared by all decode sites of the application
+     * @return shared BitmapPool instance
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (instance == null) {
+            instance = new BitmapPool(Math.min(DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 4));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor taking the maximum number of bytes the pooled bitmaps may occupy
+     * @param maxBytes byte budget of the pool
+     */
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Method to decode an image file, reusing a pooled bitmap when one fits the decoded image
+     * @param imgFile Path to the image file on the device storage
+     * @param options decode options, inMutable and inBitmap are set by this method
+     * @return decoded bitmap, null if the file could not be decoded
+     */
+    public Bitmap decodeFile(String imgFile, BitmapFactory.Options options) {
+        prepareOptions(options, imgFile);
+        try {
+            return BitmapFactory.decodeFile(imgFile, options);
+        } catch (IllegalArgumentException e) {
+            //the pooled bitmap didn't fit after all, give it back and decode into a new one
+            put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(imgFile, options);
+        }
+    }
+
+    /**
+     * Method to decode a region of an image, reusing a pooled bitmap when one is available. BitmapRegionDecoder does not
+     * reshape inBitmap, it decodes into its top left corner, so only a bitmap exactly as wide as the sampled region and at
+     * least as high is reused. The bitmap returned can therefore have more rows than the region; the rows below it are stale.
+     * @param decoder region decoder of the image
+     * @param region area of the image to decode
+     * @param options decode options, inMutable and inBitmap are set by this method
+     * @return decoded bitmap as wide as the sampled region, null if the region could not be decoded
+     */
+    public Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, BitmapFactory.Options options) {
+        int sampleSize = Math.max(1, options.inSampleSize);
+        options.inMutable = true;
+        options.inBitmap = get((region.width() + sampleSize - 1) / sampleSize, (region.height() + sampleSize - 1) / sampleSize,
+                options.inPreferredConfig, sampleSize, true);
+        try {
+            return decoder.decodeRegion(region, options);
+        } catch (IllegalArgumentException e) {
+            put(options.inBitmap);
+            options.inBitmap = null;
+            return decoder.decodeRegion(region, options);
+        }
+    }
+
+    /**
+     * Method to fill in inMutable and inBitmap for decoding the given file with the given options
+     * @param options decode options, inSampleSize must already be set
+     * @param imgFile Path to the image file on the device storage
+     */
+    private void prepareOptions(BitmapFactory.Options options, String imgFile) {
+        options.inMutable = true;
+        options.inBitmap = null;
+        int width = options.outWidth;
+        int height = options.outHeight;
+        if (width <= 0 || height <= 0) {  //bounds not known yet
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(imgFile, bounds);
+            width = bounds.outWidth;
+            height = bounds.outHeight;
+        }
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+        int sampleSize = Math.max(1, options.inSampleSize);
+        options.inBitmap = get((width + sampleSize - 1) / sampleSize, (height + sampleSize - 1) / sampleSize,
+                options.inPreferredConfig, sampleSize);
+    }
+
+    /**
+     * Method to take a bitmap out of the pool that can be used as inBitmap for a BitmapFactory decode of the given size
+     * @param width width of the decoded bitmap
+     * @param height height of the decoded bitmap
+     * @param config pixel format of the decoded bitmap, null for ARGB_8888
+     * @param sampleSize inSampleSize of the decode
+     * @return a pooled bitmap, null if none fits
+     */
+    public Bitmap get(int width, int height, Bitmap.Config config, int sampleSize) {
+        return get(width, height, config, sampleSize, false);
+    }
+
+    /**
+     * Method to take a bitmap out of the pool that can be used as inBitmap for a decode of the given size
+     * @param width width of the decoded bitmap
+     * @param height height of the decoded bitmap
+     * @param config pixel format of the decoded bitmap, null for ARGB_8888
+     * @param sampleSize inSampleSize of the decode
+     * @param region true for a BitmapRegionDecoder, which needs the exact width and at least the height
+     * @return a pooled bitmap, null if none fits
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config, int sampleSize, boolean region) {
+        if (config == null) {
+            config = Bitmap.Config.ARGB_8888;
+        }
+        boolean anySize = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        if (!anySize && sampleSize != 1) {
+            missCount++;  //before KitKat inBitmap only works for decodes without sampling
+            return null;
+        }
+        int needed = width * height * bytesPerPixel(config);
+        for (Map.Entry<Integer, ArrayDeque<Bitmap>> entry : buckets.tailMap(needed, true).entrySet()) {
+            if (entry.getKey() > (long) needed * MAX_SIZE_MULTIPLE || (!anySize && entry.getKey() != needed)) {
+                break;
+            }
+            Iterator<Bitmap> iterator = entry.getValue().iterator();
+            while (iterator.hasNext()) {
+                Bitmap bitmap = iterator.next();
+                if (bitmap.getConfig() != config
+                        || !canReuse(bitmap.getWidth(), bitmap.getHeight(), width, height, anySize, region)) {
+                    continue;
+                }
+                iterator.remove();
+                if (entry.getValue().isEmpty()) {
+                    buckets.remove(entry.getKey());
+                }
+                lruOrder.remove(bitmap);
+                currentBytes -= entry.getKey();
+                hitCount++;
+                return bitmap;
+            }
+        }
+        missCount++;
+        return null;
+    }
+
+    /**
+     * Method to check whether a pooled bitmap of the same config and a large enough allocation can be decoded into
+     * @param bitmapWidth width of the pooled bitmap
+     * @param bitmapHeight height of the pooled bitmap
+     * @param width width of the decoded image
+     * @param height height of the decoded image
+     * @param anySize true if BitmapFactory can reshape inBitmap (KitKat and later)
+     * @param region true for a BitmapRegionDecoder, which never reshapes inBitmap
+     * @return true if the bitmap can be used as inBitmap
+     */
+    static boolean canReuse(int bitmapWidth, int bitmapHeight, int width, int height, boolean anySize, boolean region) {
+        if (!anySize) {
+            return bitmapWidth == width && bitmapHeight == height;
+        }
+        if (region) {
+            return bitmapWidth == width && bitmapHeight >= height;  //rows of pixels are read with the width as stride
+        }
+        return true;
+    }
+
+    /**
+     * Method to give a bitmap back to the pool once it is no longer drawn or encoded. Bitmaps that cannot be reused are recycled.
+     * @param bitmap bitmap to be returned, can be null
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        int size = getAllocationSize(bitmap);
+        if (!bitmap.isMutable() || size > maxBytes) {
+            bitmap.recycle();
+            return;
+        }
+        ArrayDeque<Bitmap> bucket = buckets.get(size);
+        if (bucket == null) {
+            bucket = new ArrayDeque<Bitmap>();
+            buckets.put(size, bucket);
+        }
+        bucket.add(bitmap);
+        lruOrder.addLast(bitmap);
+        currentBytes += size;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Method to evict least recently returned bitmaps until the pool holds at most the given number of bytes
+     * @param size number of bytes to be left in the pool
+     */
+    public synchronized void trimToSize(long size) {
+        while (currentBytes > size && !lruOrder.isEmpty()) {
+            Bitmap bitmap = lruOrder.removeFirst();
+            int bitmapSize = getAllocationSize(bitmap);
+            ArrayDeque<Bitmap> bucket = buckets.get(bitmapSize);
+            bucket.remove(bitmap);
+            if (bucket.isEmpty()) {
+                buckets.remove(bitmapSize);
+            }
+            currentBytes -= bitmapSize;
+            evictionCount++;
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * Method to empty the pool, e.g. when the system is low on memory
+     */
+    public void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Method to change the byte budget of the pool, evicting bitmaps if the pool is above the new budget
+     * @param maxBytes new byte budget
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getCurrentBytes() {
+        return currentBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Method to return the pool counters as a string for logging
+     * @return string containing the hit, miss and eviction counters and the memory held
+     */
+    public synchronized String getStats() {
+        return "hits: " + hitCount + " misses: " + missCount + " evictions: " + evictionCount +
+                " size: " + Utility.getSizeInString(currentBytes) + " / " + Utility.getSizeInString(maxBytes);
+    }
+
+    /**
+     * Method to return the number of bytes allocated for the pixels of a bitmap, which can be more than it currently uses
+     */
+    static int getAllocationSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            default:
+                return 4;
+        }
+    }
+}
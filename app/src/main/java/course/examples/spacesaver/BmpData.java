@@ -1,17 +1,15 @@
 package course.examples.spacesaver;
 
-import android.graphics.Bitmap;
-
 import java.io.File;
 
 /**
- * Wrapper class to hold the path to an image file and its bitmap
+ * Wrapper class to hold the path to an image file and its size
  */
 public class BmpData {
-    Bitmap bmap;
     File srcFile;
-    public BmpData(Bitmap bitmap, File file) {
-        bmap = bitmap;
+    long fileSize;
+    public BmpData(File file, long size) {
         srcFile = file;
+        fileSize = size;
     }
 }
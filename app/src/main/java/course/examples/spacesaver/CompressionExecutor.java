@@ -0,0 +1,200 @@
+package course.examples.spacesaver;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared worker pool used to decode, encode and write several images concurrently <br/>
+ * The pool is sized to the number of available cores, bounded by the heap available for full resolution bitmaps.
+ */
+public class CompressionExecutor {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.CompressionExecutor";
+    private static final long BYTES_PER_WORKER = 2 * Utility.MAX_DECODE_BYTES; //heap needed for the largest bitmap decoded at once plus encoder buffers
+
+    private static CompressionExecutor instance = null;
+
+    private final ExecutorService executor;
+    private final int poolSize;
+
+    /**
+     * Callback to be notified each time an image of a batch finishes compressing
+     */
+    public interface ProgressListener {
+        /**
+         * Method invoked on the worker thread once an image is compressed
+         * @param pair source and compressed image of the finished image, null if the worker failed unexpectedly
+         * @param completed number of images of the batch finished so far
+         * @param total number of images in the batch
+         */
+        void onImageCompressed(Pair pair, int completed, int total);
+    }
+
+    /**
+     * Method to return the single executor shared by the activity and the background service
+     * @return shared CompressionExecutor instance
+     */
+    public static synchronized CompressionExecutor getInstance() {
+        if (instance == null) {
+            instance = new CompressionExecutor(calculatePoolSize());
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor creating a fixed pool of background priority worker threads
+     * @param threads number of worker threads
+     */
+    private CompressionExecutor(int threads) {
+        poolSize = threads;
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "SpaceSaver-compress-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Log.i(LOG_TAG_NAME, "Compression pool created with " + threads + " threads");
+    }
+
+    /**
+     * Method to calculate the number of workers: one per core, but no more than the heap can hold decoded images for
+     * @return number of worker threads to be used
+     */
+    static int calculatePoolSize() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int byMemory = (int) (Runtime.getRuntime().maxMemory() / BYTES_PER_WORKER);
+        return Math.max(1, Math.min(cores, byMemory));
+    }
+
+    /**
+     * Method to return the number of worker threads in the pool
+     * @return number of worker threads
+     */
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Method to compress all the images in a given list concurrently. Blocks until the whole batch is done.
+     * @param imgList A list of images that needs to be compressed
+     * @param imageQuality Images to be compressed of the desired (highest) quality
+     * @param qualitySearch adaptive quality target, null to compress every image at imageQuality
+     * @param imgFolder Path to the location where the generated compressed images need to be placed
+     * @param listener Listener notified as each image finishes, can be null
+     * @param savings accumulator fed by the workers as each image finishes, can be null
+     * @return A list of Pair objects in the same order as imgList
+     */
+    public List<Pair> compressImages(List<String> imgList, final int imageQuality, final QualitySearch qualitySearch,
+                                     final String imgFolder, ProgressListener listener, SavingsAccumulator savings) {
+        return processImages(imgList, new ImageTask() {
+            @Override
+            public Pair process(String image) {
+                return Utility.compressImage(image, imageQuality, qualitySearch, imgFolder);
+            }
+        }, listener, savings);
+    }
+
+    /**
+     * Method to optimize all the JPEGs in a given list concurrently without loss, see JpegHuffmanOptimizer. Blocks until
+     * the whole batch is done.
+     * @param imgList A list of images that needs to be optimized
+     * @param stripOptionalSegments true to also drop the metadata not needed to show the images
+     * @param imgFolder Path to the location where the optimized images need to be placed
+     * @param listener Listener notified as each image finishes, can be null
+     * @param savings accumulator fed by the workers as each image finishes, can be null
+     * @return A list of Pair objects in the same order as imgList
+     */
+    public List<Pair> optimizeImages(List<String> imgList, final boolean stripOptionalSegments, final String imgFolder,
+                                     ProgressListener listener, SavingsAccumulator savings) {
+        return processImages(imgList, new ImageTask() {
+            @Override
+            public Pair process(String image) {
+                return Utility.optimizeImage(image, stripOptionalSegments, imgFolder);
+            }
+        }, listener, savings);
+    }
+
+    /**
+     * Work done by a worker for every image of a batch
+     */
+    private interface ImageTask {
+        Pair process(String image);
+    }
+
+    private List<Pair> processImages(List<String> imgList, final ImageTask task, ProgressListener listener,
+                                     final SavingsAccumulator savings) {
+        final int total = imgList.size();
+        CompletionService<Pair> completionService = new ExecutorCompletionService<Pair>(executor);
+        List<Future<Pair>> futures = new ArrayList<Future<Pair>>(total);
+        for (final String image : imgList) {
+            futures.add(completionService.submit(new Callable<Pair>() {
+                @Override
+                public Pair call() throws Exception {
+                    Pair pair = task.process(image);
+                    if (savings != null) {
+                        savings.add(pair);
+                    }
+                    return pair;
+                }
+            }));
+        }
+
+        try {
+            for (int completed = 1; completed <= total; completed++) {
+                Future<Pair> done = completionService.take();
+                Pair pair = null;
+                try {
+                    pair = done.get();
+                } catch (ExecutionException e) {
+                    Log.i(LOG_TAG_NAME, e.toString()); //the tasks handle their own failures, so this is not expected
+                }
+                if (listener != null) {
+                    listener.onImageCompressed(pair, completed, total);
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.i(LOG_TAG_NAME, "batch interrupted, cancelling the remaining images");
+            for (Future<Pair> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+        }
+
+        ArrayList<Pair> list = new ArrayList<Pair>(total);
+        for (int i = 0; i < total; i++) {
+            Future<Pair> future = futures.get(i);
+            if (future.isCancelled() || !future.isDone()) {
+                list.add(new Pair(imgList.get(i), null));   //keep the order of imgList, the image is not compressed
+                continue;
+            }
+            try {
+                list.add(future.get());
+            } catch (Exception e) {
+                list.add(new Pair(imgList.get(i), null));
+            }
+        }
+        return list;
+    }
+}
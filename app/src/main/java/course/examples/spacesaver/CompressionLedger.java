@@ -0,0 +1,395 @@
+package course.examples.spacesaver;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent record of every image compressed on the device, keyed by source path, size and modification time <br/>
+ * The keys are cached in memory the first time they are needed so that candidate selection can skip already
+ * processed images with a constant time lookup per MediaStore row. The perceptual and content hashes of the images on
+ * the device are kept in a second table, so the duplicate scans only read the images added or changed since the last scan.
+ */
+public class CompressionLedger extends SQLiteOpenHelper implements CandidateFilter.ProcessedImages {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.CompressionLedger";
+    private static final String DATABASE_NAME = "compression_ledger.db";
+    private static final int DATABASE_VERSION = 3;
+
+    static final String TABLE_LEDGER = "ledger";
+    static final String COLUMN_SOURCE_PATH = "source_path";
+    static final String COLUMN_SOURCE_SIZE = "source_size";
+    static final String COLUMN_SOURCE_MTIME = "source_mtime";
+    static final String COLUMN_OUTPUT_PATH = "output_path";
+    static final String COLUMN_QUALITY = "quality";
+    static final String COLUMN_BYTES_SAVED = "bytes_saved";
+    static final String COLUMN_COMPRESSED_AT = "compressed_at";
+
+    static final String TABLE_IMAGE_HASH = "image_hash";
+    static final String COLUMN_DHASH = "dhash";
+    static final String COLUMN_PARTIAL_HASH = "partial_hash";
+    static final String COLUMN_FULL_HASH = "full_hash";
+
+    private static CompressionLedger instance = null;
+
+    private Set<String> keys = null;
+
+    /**
+     * Method to return the ledger shared by the activity and the background service
+     * @param context Context used to open the database
+     * @return shared CompressionLedger instance
+     */
+    public static synchronized CompressionLedger getInstance(Context context) {
+        if (instance == null) {
+            instance = new CompressionLedger(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private CompressionLedger(Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_LEDGER + " (" +
+                COLUMN_SOURCE_PATH + " TEXT NOT NULL, " +
+                COLUMN_SOURCE_SIZE + " INTEGER NOT NULL, " +
+                COLUMN_SOURCE_MTIME + " INTEGER NOT NULL, " +
+                COLUMN_OUTPUT_PATH + " TEXT, " +
+                COLUMN_QUALITY + " INTEGER, " +
+                COLUMN_BYTES_SAVED + " INTEGER, " +
+                COLUMN_COMPRESSED_AT + " INTEGER, " +
+                "UNIQUE (" + COLUMN_SOURCE_PATH + ", " + COLUMN_SOURCE_SIZE + ", " + COLUMN_SOURCE_MTIME + ") ON CONFLICT REPLACE)");
+        createImageHashTable(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 3) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_IMAGE_HASH);   //only a cache, recreated with the content hash columns
+            createImageHashTable(db);
+        }
+    }
+
+    /**
+     * Method to create the table of the hashes of the images on the device. Each row belongs to one version of an image:
+     * a row of a previous version is replaced as a whole, so a hash never outlives the content it was computed from.
+     */
+    private static void createImageHashTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_IMAGE_HASH + " (" +
+                COLUMN_SOURCE_PATH + " TEXT PRIMARY KEY ON CONFLICT REPLACE, " +
+                COLUMN_SOURCE_SIZE + " INTEGER NOT NULL, " +
+                COLUMN_SOURCE_MTIME + " INTEGER NOT NULL, " +
+                COLUMN_DHASH + " INTEGER, " +
+                COLUMN_PARTIAL_HASH + " TEXT, " +
+                COLUMN_FULL_HASH + " TEXT)");
+        db.execSQL("CREATE INDEX " + TABLE_IMAGE_HASH + "_" + COLUMN_FULL_HASH + " ON " + TABLE_IMAGE_HASH + " (" + COLUMN_FULL_HASH + ")");
+    }
+
+    /**
+     * Method to store hashes of an image, keeping its other hashes if they belong to the same version of the image
+     * @param db database, in a transaction
+     * @param image image hashed
+     * @param values hash columns to be stored
+     */
+    private static void putHashes(SQLiteDatabase db, ImageCandidate image, ContentValues values) {
+        int updated = db.update(TABLE_IMAGE_HASH, values, COLUMN_SOURCE_PATH + " = ? AND " + COLUMN_SOURCE_SIZE + " = ? AND " +
+                COLUMN_SOURCE_MTIME + " = ?", new String[]{image.path, String.valueOf(image.size), String.valueOf(image.modified)});
+        if (updated == 0) {
+            values.put(COLUMN_SOURCE_PATH, image.path);
+            values.put(COLUMN_SOURCE_SIZE, image.size);
+            values.put(COLUMN_SOURCE_MTIME, image.modified);
+            db.insert(TABLE_IMAGE_HASH, null, values);
+        }
+    }
+
+    /**
+     * Method to build the lookup key of a source image
+     * @param path Absolute path to the source image
+     * @param size Size of the source image in bytes
+     * @param modified Modification time of the source image in seconds
+     * @return key identifying this version of the image
+     */
+    static String key(String path, long size, long modified) {
+        return path + '|' + size + '|' + modified;
+    }
+
+    /**
+     * Method to check if a version of an image has already been compressed
+     * @param path Absolute path to the source image
+     * @param size Size of the source image in bytes
+     * @param modified Modification time of the source image in seconds
+     * @return true if the image was compressed before and hasn't changed since
+     */
+    @Override
+    public synchronized boolean contains(String path, long size, long modified) {
+        if (keys == null) {
+            keys = loadKeys();
+        }
+        return keys.contains(key(path, size, modified));
+    }
+
+    /**
+     * Method to read the keys of all ledger entries
+     * @return set containing a key for each compressed image
+     */
+    private Set<String> loadKeys() {
+        Set<String> set = new HashSet<String>();
+        Cursor cursor = getReadableDatabase().query(TABLE_LEDGER,
+                new String[]{COLUMN_SOURCE_PATH, COLUMN_SOURCE_SIZE, COLUMN_SOURCE_MTIME}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                set.add(key(cursor.getString(0), cursor.getLong(1), cursor.getLong(2)));
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.i(LOG_TAG_NAME, "Loaded " + set.size() + " ledger entries");
+        return set;
+    }
+
+    /**
+     * Wrapper class holding the sizes of the compressed images in primitive arrays
+     */
+    public static class Sizes {
+        int count;
+        long[] original;
+        long[] compressed;
+
+        public int getCount() {
+            return count;
+        }
+
+        public long[] getOriginal() {
+            return original;
+        }
+
+        public long[] getCompressed() {
+            return compressed;
+        }
+    }
+
+    /**
+     * Method to read the original and compressed size of every image in the ledger, oldest first
+     * @return the sizes, read in a single pass without boxing
+     */
+    public synchronized Sizes loadSizes() {
+        Cursor cursor = getReadableDatabase().query(TABLE_LEDGER,
+                new String[]{COLUMN_SOURCE_SIZE, COLUMN_BYTES_SAVED}, null, null, null, null, COLUMN_COMPRESSED_AT);
+        Sizes sizes = new Sizes();
+        try {
+            sizes.original = new long[cursor.getCount()];
+            sizes.compressed = new long[sizes.original.length];
+            while (cursor.moveToNext() && sizes.count < sizes.original.length) {
+                sizes.original[sizes.count] = cursor.getLong(0);
+                sizes.compressed[sizes.count] = cursor.getLong(0) - cursor.getLong(1);
+                sizes.count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return sizes;
+    }
+
+    /**
+     * Method to read the perceptual hash of every image hashed so far
+     * @return hashes by the key of the version of the image they were computed from, see key()
+     */
+    public synchronized Map<String, Long> loadPerceptualHashes() {
+        Map<String, Long> hashes = new HashMap<String, Long>();
+        Cursor cursor = getReadableDatabase().query(TABLE_IMAGE_HASH,
+                new String[]{COLUMN_SOURCE_PATH, COLUMN_SOURCE_SIZE, COLUMN_SOURCE_MTIME, COLUMN_DHASH},
+                COLUMN_DHASH + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                hashes.put(key(cursor.getString(0), cursor.getLong(1), cursor.getLong(2)), cursor.getLong(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.i(LOG_TAG_NAME, "Loaded " + hashes.size() + " perceptual hashes");
+        return hashes;
+    }
+
+    /**
+     * Method to record the perceptual hashes of a batch of images in a single transaction, replacing the hash of
+     * a previous version of each image
+     * @param images images hashed
+     * @param hashes hash of each image, in the same order
+     */
+    public synchronized void recordPerceptualHashes(List<ImageCandidate> images, List<Long> hashes) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < images.size(); i++) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_DHASH, hashes.get(i));
+                putHashes(db, images.get(i), values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Method to read the partial and full content hashes of every image hashed so far, see DuplicateFinder
+     * @return the partial and full hash, either can be null, by the key of the version of the image they were computed from
+     */
+    public synchronized Map<String, String[]> loadContentHashes() {
+        Map<String, String[]> hashes = new HashMap<String, String[]>();
+        Cursor cursor = getReadableDatabase().query(TABLE_IMAGE_HASH,
+                new String[]{COLUMN_SOURCE_PATH, COLUMN_SOURCE_SIZE, COLUMN_SOURCE_MTIME, COLUMN_PARTIAL_HASH, COLUMN_FULL_HASH},
+                COLUMN_PARTIAL_HASH + " IS NOT NULL OR " + COLUMN_FULL_HASH + " IS NOT NULL", null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                hashes.put(key(cursor.getString(0), cursor.getLong(1), cursor.getLong(2)),
+                        new String[]{cursor.getString(3), cursor.getString(4)});
+            }
+        } finally {
+            cursor.close();
+        }
+        Log.i(LOG_TAG_NAME, "Loaded " + hashes.size() + " content hashes");
+        return hashes;
+    }
+
+    /**
+     * Method to record the content hashes of a batch of images in a single transaction
+     * @param hashes partial and full hash of each image, either can be null if it wasn't computed
+     */
+    public synchronized void recordContentHashes(Map<ImageCandidate, String[]> hashes) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<ImageCandidate, String[]> entry : hashes.entrySet()) {
+                ContentValues values = new ContentValues();
+                if (entry.getValue()[0] != null) {
+                    values.put(COLUMN_PARTIAL_HASH, entry.getValue()[0]);
+                }
+                if (entry.getValue()[1] != null) {
+                    values.put(COLUMN_FULL_HASH, entry.getValue()[1]);
+                }
+                putHashes(db, entry.getKey(), values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Method to remove the candidates known to be copies of an image compressed before or of a better ranked candidate,
+     * from the full hashes recorded by the last duplicate scan. No file is read.
+     * @param candidates candidates, best first
+     * @return the candidates that are not known copies, in the same order
+     */
+    public synchronized List<ImageCandidate> dropKnownCopies(List<ImageCandidate> candidates) {
+        if (keys == null) {
+            keys = loadKeys();
+        }
+        SQLiteDatabase db = getReadableDatabase();
+        Set<String> selectedHashes = new HashSet<String>();
+        List<ImageCandidate> result = new ArrayList<ImageCandidate>(candidates.size());
+        for (ImageCandidate candidate : candidates) {
+            String fullHash = null;
+            boolean compressedBefore = false;
+            Cursor cursor = db.query(TABLE_IMAGE_HASH, new String[]{COLUMN_FULL_HASH},
+                    COLUMN_SOURCE_PATH + " = ? AND " + COLUMN_SOURCE_SIZE + " = ? AND " + COLUMN_SOURCE_MTIME + " = ?",
+                    new String[]{candidate.path, String.valueOf(candidate.size), String.valueOf(candidate.modified)}, null, null, null);
+            try {
+                if (cursor.moveToNext()) {
+                    fullHash = cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (fullHash != null) {
+                cursor = db.query(TABLE_IMAGE_HASH, new String[]{COLUMN_SOURCE_PATH, COLUMN_SOURCE_SIZE, COLUMN_SOURCE_MTIME},
+                        COLUMN_FULL_HASH + " = ? AND " + COLUMN_SOURCE_PATH + " != ?", new String[]{fullHash, candidate.path},
+                        null, null, null);
+                try {
+                    while (!compressedBefore && cursor.moveToNext()) {
+                        compressedBefore = keys.contains(key(cursor.getString(0), cursor.getLong(1), cursor.getLong(2)));
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            if (compressedBefore) {
+                if (Utility.VERBOSE) {
+                    Log.v(LOG_TAG_NAME, "skipping " + candidate.path + ", a copy of an image compressed already");
+                }
+                continue;
+            }
+            if (fullHash != null && !selectedHashes.add(fullHash)) {
+                if (Utility.VERBOSE) {
+                    Log.v(LOG_TAG_NAME, "skipping " + candidate.path + ", a copy of another candidate of this batch");
+                }
+                continue;
+            }
+            result.add(candidate);
+        }
+        return result;
+    }
+
+    /**
+     * Method to drop the hashes of images deleted from the device
+     * @param paths Absolute paths to the images deleted
+     */
+    public synchronized void forgetImages(List<String> paths) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (String path : paths) {
+                db.delete(TABLE_IMAGE_HASH, COLUMN_SOURCE_PATH + " = ?", new String[]{path});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Method to record a batch of compressed images in a single transaction. Images that failed to compress are not recorded.
+     * @param pairs A list of Pair objects containing source and compressed images alongwith their sizes and quality
+     */
+    public synchronized void record(List<Pair> pairs) {
+        if (keys == null) {
+            keys = loadKeys();
+        }
+        long now = System.currentTimeMillis();
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (Pair pair : pairs) {
+                if (pair == null || pair.compressedImageFile == null) {
+                    continue;
+                }
+                values.put(COLUMN_SOURCE_PATH, pair.srcImageFile);
+                values.put(COLUMN_SOURCE_SIZE, pair.srcImageSize);
+                values.put(COLUMN_SOURCE_MTIME, pair.srcImageModified);
+                values.put(COLUMN_OUTPUT_PATH, pair.compressedImageFile);
+                values.put(COLUMN_QUALITY, pair.quality);
+                values.put(COLUMN_BYTES_SAVED, pair.srcImageSize - pair.compressedImageSize);
+                values.put(COLUMN_COMPRESSED_AT, now);
+                db.insert(TABLE_LEDGER, null, values);
+                keys.add(key(pair.srcImageFile, pair.srcImageSize, pair.srcImageModified));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -9,16 +9,25 @@ public interface Constants {
     public static final String IMAGE_QUALITY = "ImageQuality";
     public static final String SPACE_THRESHOLD = "SpaceThreshold";
     public static final String DELETE_IMAGES = "DeleteImages";
+    public static final String ADAPTIVE_QUALITY = "AdaptiveQuality";
+    public static final String TARGET_PERCENT = "TargetPercent";
+    public static final String TARGET_PER_MEGAPIXEL = "TargetPerMegapixel";
+    public static final String TARGET_KB_PER_MEGAPIXEL = "TargetKbPerMegapixel";
+    public static final String LOSSLESS_ONLY = "LosslessOnly";
+    public static final String STRIP_METADATA = "StripMetadata";
 
     public static final String IMAGE_LIST = "ImageList";
     public static final String IMAGE_FILENAME = "ImageFileName";
-    public static final String IMAGE_VIEW = "ImageView";
 
-    public static final String SRC_FILE_SIZES = "SrcFileSizes";
-    public static final String COMPRESSED_FILE_SIZES = "CompressedFileSizes";
     public static final String SPACE_SAVED_INFO = "SpaceSavedInfo";
 
     public static final String COMPRESSED_IMAGE_FOLDER = "CompressedImages";
+    public static final String SAVINGS_HISTORY_FOLDER = "SavingsHistory";
+    public static final String METRICS_FILE = "pipeline_metrics.txt";
 
     public static final String USED_SPACE_THRESHOLD = "UsedSpaceThreshold";
+
+    public static final String MEDIA_WATERMARK = "MediaWatermark";
+    public static final String MEDIA_COUNT = "MediaCount";
+    public static final String STORAGE_SNAPSHOT = "StorageSnapshot";
 }
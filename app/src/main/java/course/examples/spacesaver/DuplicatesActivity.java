@@ -0,0 +1,322 @@
+package course.examples.spacesaver;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.graphics.Color;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
+import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Activity showing the copies of the same image and the groups of similar images on the device, such as the shots of a burst <br/>
+ * Copies are found by the ExactDuplicateScanner and listed first, then the images are hashed and grouped by the
+ * NearDuplicateScanner, the groups freeing the most space first; a group of similar images made of copies only is not
+ * listed twice. In each group the best image is selected to be kept; tapping another image keeps that one instead, a long
+ * press opens it. The other images of the group can then be compressed, with the quality chosen on the main screen,
+ * or deleted.
+ */
+public class DuplicatesActivity extends Activity {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.DuplicatesActivity";
+    private static final int KEPT_COLOR = Color.rgb(0x24, 0x4c, 0xc3);
+
+    private final List<NearDuplicateIndex.Group> groups = new ArrayList<NearDuplicateIndex.Group>();
+    private final Map<NearDuplicateIndex.Group, Integer> keptImages = new IdentityHashMap<NearDuplicateIndex.Group, Integer>();
+    private final Set<NearDuplicateIndex.Group> copies = Collections.newSetFromMap(new IdentityHashMap<NearDuplicateIndex.Group, Boolean>());
+    private GroupAdapter adapter = null;
+    private TextView statusText = null;
+    private AsyncTask<Void, Integer, List<NearDuplicateIndex.Group>> scanTask = null;
+
+    /**
+     * Method to initialize the list and start scanning the images in the background
+     * @param savedInstanceState
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_duplicates);
+
+        statusText = (TextView)findViewById(R.id.duplicatesStatus);
+        adapter = new GroupAdapter();
+        ((ListView)findViewById(R.id.duplicatesList)).setAdapter(adapter);
+
+        scanTask = new AsyncTask<Void, Integer, List<NearDuplicateIndex.Group>>() {
+            @Override
+            protected List<NearDuplicateIndex.Group> doInBackground(Void... params) {
+                publishProgress();
+                List<NearDuplicateIndex.Group> result = new ArrayList<NearDuplicateIndex.Group>(
+                        new ExactDuplicateScanner(DuplicatesActivity.this).scan());
+                copies.addAll(result);
+                Set<String> copiedPaths = new HashSet<String>();
+                for (NearDuplicateIndex.Group group : result) {
+                    for (ImageCandidate image : group.getImages()) {
+                        copiedPaths.add(image.path);
+                    }
+                }
+                if (isCancelled()) {
+                    return result;
+                }
+                NearDuplicateIndex index = new NearDuplicateScanner(DuplicatesActivity.this).scan(new NearDuplicateScanner.ProgressListener() {
+                    @Override
+                    public void onProgress(int scanned, int hashed) {
+                        publishProgress(scanned, hashed);
+                    }
+                });
+                for (NearDuplicateIndex.Group group : index.findGroups(NearDuplicateIndex.DEFAULT_MAX_DISTANCE)) {
+                    boolean onlyCopies = true;
+                    for (ImageCandidate image : group.getImages()) {
+                        onlyCopies &= copiedPaths.contains(image.path);
+                    }
+                    if (!onlyCopies) {
+                        result.add(group);
+                    }
+                }
+                return result;
+            }
+
+            @Override
+            protected void onProgressUpdate(Integer... values) {
+                if (values.length == 0) {
+                    statusText.setText("Looking for copies...");
+                } else {
+                    statusText.setText("Looking for similar images... " + values[0] + " scanned, " + values[1] + " new");
+                }
+            }
+
+            @Override
+            protected void onPostExecute(List<NearDuplicateIndex.Group> result) {
+                groups.addAll(result);
+                updateStatus();
+                adapter.notifyDataSetChanged();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);   //not behind the other tasks of the app on the serial executor
+    }
+
+    /**
+     * Method to stop the scan when the user leaves, the hashes computed so far are kept in the ledger
+     */
+    @Override
+    protected void onDestroy() {
+        scanTask.cancel(true);
+        super.onDestroy();
+    }
+
+    private void updateStatus() {
+        long reclaimable = 0;
+        for (NearDuplicateIndex.Group group : groups) {
+            reclaimable += group.getTotalBytes() - getKept(group).size;
+        }
+        int copyGroups = 0;
+        for (NearDuplicateIndex.Group group : groups) {
+            if (copies.contains(group)) {
+                copyGroups++;
+            }
+        }
+        statusText.setText(copyGroups + " images with copies, " + (groups.size() - copyGroups)
+                + " groups of similar images, keeping one image of each frees " + Utility.getSizeInString(reclaimable));
+    }
+
+    private ImageCandidate getKept(NearDuplicateIndex.Group group) {
+        Integer kept = keptImages.get(group);
+        return group.getImages().get(kept == null ? 0 : kept);
+    }
+
+    private List<String> getOthers(NearDuplicateIndex.Group group) {
+        ImageCandidate kept = getKept(group);
+        List<String> others = new ArrayList<String>(group.getImages().size() - 1);
+        for (ImageCandidate image : group.getImages()) {
+            if (image != kept) {
+                others.add(image.path);
+            }
+        }
+        return others;
+    }
+
+    private void removeGroup(NearDuplicateIndex.Group group) {
+        groups.remove(group);
+        keptImages.remove(group);
+        copies.remove(group);
+        updateStatus();
+        adapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Method to compress the images of a group other than the kept one, deleting their originals if the user chose so on the main screen
+     * @param group group of similar images
+     */
+    private void compressOthers(final NearDuplicateIndex.Group group) {
+        final List<String> others = getOthers(group);
+        SharedPreferences prefs = getSharedPreferences(Constants.USER_PREFERENCE, 0);
+        final int imgQuality = prefs.getInt(Constants.IMAGE_QUALITY, 80);
+        final boolean bDeleteImages = prefs.getBoolean(Constants.DELETE_IMAGES, false);
+        removeGroup(group);
+        new AsyncTask<Void, Void, SavingsAccumulator.Snapshot>() {
+            @Override
+            protected SavingsAccumulator.Snapshot doInBackground(Void... params) {
+                SavingsAccumulator savings = new SavingsAccumulator();
+                List<Pair> pairs = CompressionExecutor.getInstance().compressImages(others, imgQuality, null,
+                        Utility.getCompressedImageFolder(), null, savings);
+                CompressionLedger ledger = CompressionLedger.getInstance(DuplicatesActivity.this);
+                ledger.record(pairs);
+                SavingsTimeSeries history = Utility.getSavingsHistory(DuplicatesActivity.this);
+                if (history != null) {
+                    history.record(pairs, SavingsTimeSeries.SOURCE_USER, System.currentTimeMillis());
+                }
+                if (bDeleteImages) {
+                    ledger.forgetImages(Utility.deleteCompressedOriginals(pairs));
+                }
+                return savings.snapshot();
+            }
+
+            @Override
+            protected void onPostExecute(SavingsAccumulator.Snapshot savings) {
+                Log.i(LOG_TAG_NAME, "compressed " + savings.getImages() + " similar images, " + savings.getFailures() + " failed");
+                Toast.makeText(DuplicatesActivity.this, savings.getImages() + " images compressed..." + savings, Toast.LENGTH_LONG).show();
+            }
+        }.execute();
+    }
+
+    /**
+     * Method to delete the images of a group other than the kept one, after asking the user
+     * @param group group of similar images
+     */
+    private void deleteOthers(final NearDuplicateIndex.Group group) {
+        final List<String> others = getOthers(group);
+        long bytes = group.getTotalBytes() - getKept(group).size;
+        new AlertDialog.Builder(this)
+                .setTitle("Delete similar images")
+                .setMessage("Delete " + others.size() + " images, freeing " + Utility.getSizeInString(bytes) + "?")
+                .setNegativeButton(android.R.string.cancel, null)
+                .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        removeGroup(group);
+                        new AsyncTask<Void, Void, Void>() {
+                            @Override
+                            protected Void doInBackground(Void... params) {
+                                Utility.deleteImages(others);
+                                CompressionLedger.getInstance(DuplicatesActivity.this).forgetImages(others);
+                                return null;
+                            }
+                        }.execute();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Adapter showing a group per row: its thumbnails, the kept one highlighted, and the actions on the others
+     */
+    private class GroupAdapter extends BaseAdapter {
+
+        @Override
+        public int getCount() {
+            return groups.size();
+        }
+
+        @Override
+        public NearDuplicateIndex.Group getItem(int position) {
+            return groups.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View row = convertView;
+            if (row == null) {
+                row = LayoutInflater.from(DuplicatesActivity.this).inflate(R.layout.duplicate_group, parent, false);
+            }
+            final NearDuplicateIndex.Group group = getItem(position);
+            ImageCandidate kept = getKept(group);
+
+            ((TextView)row.findViewById(R.id.groupSummary)).setText(group.getImages().size()
+                    + (copies.contains(group) ? " identical copies, " : " similar images, ")
+                    + Utility.getSizeInString(group.getTotalBytes()) + ", keeping one frees "
+                    + Utility.getSizeInString(group.getTotalBytes() - kept.size));
+
+            LinearLayout imagesLayout = (LinearLayout)row.findViewById(R.id.groupImages);
+            ThumbnailLoader loader = ThumbnailLoader.getInstance(DuplicatesActivity.this);
+            for (int i = imagesLayout.getChildCount() - 1; i >= group.getImages().size(); i--) {
+                loader.cancel((ImageView)imagesLayout.getChildAt(i));
+                imagesLayout.removeViewAt(i);
+            }
+            for (int i = 0; i < group.getImages().size(); i++) {
+                final int imageIndex = i;
+                final ImageCandidate image = group.getImages().get(i);
+                ImageView imageView;
+                if (i < imagesLayout.getChildCount()) {
+                    imageView = (ImageView)imagesLayout.getChildAt(i);
+                } else {
+                    imageView = new ImageView(DuplicatesActivity.this);
+                    imageView.setLayoutParams(new LinearLayout.LayoutParams(ThumbnailLoader.THUMBNAIL_WIDTH, ThumbnailLoader.THUMBNAIL_HEIGHT));
+                    imageView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                    imageView.setPadding(8, 8, 8, 8);
+                    imagesLayout.addView(imageView);
+                }
+                loader.load(imageView, new File(image.path), Utility.getSizeInString(image.size));
+                imageView.setBackgroundColor(image == kept ? KEPT_COLOR : Color.TRANSPARENT);
+                imageView.setAlpha(image == kept ? 1f : 0.6f);
+                imageView.setOnClickListener(new View.OnClickListener() {
+                    @Override
+                    public void onClick(View v) {
+                        keptImages.put(group, imageIndex);
+                        updateStatus();
+                        notifyDataSetChanged();
+                    }
+                });
+                imageView.setOnLongClickListener(new View.OnLongClickListener() {
+                    @Override
+                    public boolean onLongClick(View v) {
+                        Intent intent = new Intent(Intent.ACTION_VIEW);
+                        intent.setClass(DuplicatesActivity.this, course.examples.spacesaver.ImageViewer.class);
+                        intent.putExtra(Constants.IMAGE_FILENAME, image.path);
+                        startActivity(intent);
+                        return true;
+                    }
+                });
+            }
+
+            Button compressBtn = (Button)row.findViewById(R.id.groupCompress);
+            compressBtn.setVisibility(copies.contains(group) ? View.GONE : View.VISIBLE);    //copies are deleted, not compressed
+            compressBtn.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    compressOthers(group);
+                }
+            });
+            ((Button)row.findViewById(R.id.groupDelete)).setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    deleteOthers(group);
+                }
+            });
+            return row;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package course.examples.spacesaver;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Finds the copies of the same image on the device, including the compressed images folder, with the DuplicateFinder <br/>
+ * The sizes come from the MediaStore, so only images sharing a size are opened at all. The content hashes computed are
+ * recorded in the CompressionLedger, which makes later scans incremental and lets candidate selection skip known copies.
+ */
+public class ExactDuplicateScanner {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.ExactDuplicateScanner";
+    public static final int PAGE_SIZE = 500;
+
+    private final Context context;
+
+    /**
+     * Constructor taking the context used for querying the content provider and opening the ledger
+     * @param context Context of the activity
+     */
+    public ExactDuplicateScanner(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Method to find the copies among all images on the device, blocks until done or interrupted
+     * @return groups of identical images, the original first; empty if the thread was interrupted
+     */
+    public List<NearDuplicateIndex.Group> scan() {
+        final CompressionLedger ledger = CompressionLedger.getInstance(context);
+        final Map<String, String[]> cached = ledger.loadContentHashes();
+        final Map<ImageCandidate, String[]> computed = new LinkedHashMap<ImageCandidate, String[]>();
+        DuplicateFinder.HashCache cache = new DuplicateFinder.HashCache() {
+            @Override
+            public String getPartialHash(ImageCandidate image) {
+                String[] hashes = cached.get(CompressionLedger.key(image.path, image.size, image.modified));
+                return hashes == null ? null : hashes[0];
+            }
+
+            @Override
+            public String getFullHash(ImageCandidate image) {
+                String[] hashes = cached.get(CompressionLedger.key(image.path, image.size, image.modified));
+                return hashes == null ? null : hashes[1];
+            }
+
+            @Override
+            public void putPartialHash(ImageCandidate image, String hash) {
+                put(image, 0, hash);
+            }
+
+            @Override
+            public void putFullHash(ImageCandidate image, String hash) {
+                put(image, 1, hash);
+            }
+
+            private void put(ImageCandidate image, int column, String hash) {
+                synchronized (computed) {
+                    String[] hashes = computed.get(image);
+                    if (hashes == null) {
+                        String[] known = cached.get(CompressionLedger.key(image.path, image.size, image.modified));
+                        hashes = known == null ? new String[2] : known.clone();
+                        computed.put(image, hashes);
+                    }
+                    hashes[column] = hash;
+                }
+            }
+        };
+
+        MediaStoreImageSource source = new MediaStoreImageSource(context, true);
+        List<ImageCandidate> images = new ArrayList<ImageCandidate>();
+        ImageCandidate last = null;
+        while (true) {
+            List<ImageCandidate> page = source.getPage(last, PAGE_SIZE);
+            images.addAll(page);
+            if (page.size() < PAGE_SIZE) {
+                break;  //last page
+            }
+            last = page.get(page.size() - 1);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        DuplicateFinder finder = new DuplicateFinder(cache, executor);
+        List<NearDuplicateIndex.Group> groups = Collections.emptyList();
+        try {
+            groups = finder.findDuplicates(images);
+        } catch (InterruptedException e) {
+            Log.i(LOG_TAG_NAME, "scan interrupted");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            synchronized (computed) {
+                if (!computed.isEmpty()) {
+                    ledger.recordContentHashes(computed);   //keep what was read, even from an interrupted scan
+                }
+            }
+        }
+        Log.i(LOG_TAG_NAME, groups.size() + " groups of copies among " + images.size() + " images, read "
+                + finder.getFilesRead() + " files, " + Utility.getSizeInString(finder.getBytesRead()));
+        return groups;
+    }
+}
@@ -2,20 +2,16 @@ package course.examples.spacesaver;
 
 import android.app.Activity;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Matrix;
 import android.graphics.PointF;
-import android.graphics.Rect;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.MotionEvent;
-import android.widget.ImageView;
 import android.widget.TextView;
 
 /**
- * Activity class to render a single image in an Image View alongwith its path on the local storage
+ * Activity class to render a single image in a TiledImageView alongwith its path on the local storage
+ * The image is read from its file, so zooming in shows it at full resolution.
  * Created by kannanb on 3/14/2016.
  */
 public class ImageViewer extends Activity {
@@ -47,27 +43,24 @@ public class ImageViewer extends Activity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.image_main);
-        ImageView imageView = (ImageView)findViewById(R.id.imageView);
+        TiledImageView imageView = (TiledImageView)findViewById(R.id.imageView);
         TextView textView = (TextView) findViewById(R.id.fileTextView);
 
         Intent intent = getIntent();
-        byte [] imageBytes = intent.getByteArrayExtra(Constants.IMAGE_VIEW);
-        Log.i(LOG_TAG_NAME, " image bytes is := " + imageBytes);
-        Log.i(LOG_TAG_NAME, " image bytes length is := " + imageBytes.length);
         String imageFile = intent.getStringExtra(Constants.IMAGE_FILENAME);
         Log.i(LOG_TAG_NAME, " image file is := " + imageFile);
         textView.setText(imageFile);
-        Bitmap bmap = BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length).copy(Bitmap.Config.ARGB_8888, true);
-        imageView.setScaleType(ImageView.ScaleType.MATRIX); //This is a must or else imageview draws image in center by default.
-        imageView.setImageBitmap(bmap);
-
-        Drawable d = imageView.getDrawable();
-        Rect bounds = d.getBounds();
-        int top = (int)imageView.getY() + bounds.top;
-        int left = (int)imageView.getX() + bounds.left;
-        Log.i(LOG_TAG_NAME, "x: " + imageView.getX() + "y: " + imageView.getY() + " bounds-top: " + bounds.top + " bounds-left: " + bounds.left);
+        imageView.setImageFile(imageFile);
+        imageView.setImageMatrix(matrix);   //identity: the whole image fitted to the view
+    }
 
-        matrix.setTranslate(top, left);
+    /**
+     * Method to stop decoding tiles and release the bitmaps of the image
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        ((TiledImageView)findViewById(R.id.imageView)).release();
     }
 
     /**
@@ -78,8 +71,7 @@ public class ImageViewer extends Activity {
     @Override
     public boolean onTouchEvent(MotionEvent event)
     {
-        ImageView view = (ImageView)findViewById(R.id.imageView);
-        view.setScaleType(ImageView.ScaleType.MATRIX);
+        TiledImageView view = (TiledImageView)findViewById(R.id.imageView);
         float scale;
 
         switch (event.getAction() & MotionEvent.ACTION_MASK)
@@ -131,7 +123,7 @@ public class ImageViewer extends Activity {
                 }
                 break;
         }
-        view.setImageMatrix(matrix); // refresh imageview with the transformed matrix .
+        view.setImageMatrix(matrix); // refresh the view with the transformed matrix .
         return true; // event is consumed
     }
 
@@ -17,7 +17,6 @@ import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,21 +25,32 @@ import java.util.List;
  */
 public class MainActivity extends Activity {
 
+    private static final int TARGET_KB_STEP = 10;  //KB per megapixel of a step of the target bar
+
     private SharedPreferences prefs = null;
 
     private int imgQuality = 80;
     private int spaceThreshold = 90;
     private GridView gridView = null;
+    private ThumbnailPrefetcher thumbnailPrefetcher = null;
     private TextView storageTextView = null;
     private ImageAdapter imageAdapter = null;
     private List<Pair> imageList = null;
     private boolean bDeleteImages = false;
+    private boolean bAdaptiveQuality = false;
+    private boolean bLosslessOnly = false;
+    private boolean bStripMetadata = false;
     private Button statsBtn = null;
     private String spaceSavingMessage = "";
-    private long [] srcFileSizes = null;
-    private long [] compressedFileSizes = null;
     private Intent serviceIntent = null;
 
+    private final StorageMonitor.Listener storageListener = new StorageMonitor.Listener() {
+        @Override
+        public void onSnapshot(StorageMonitor.Snapshot snapshot) {
+            storageTextView.setText(snapshot.getCapacityString());
+        }
+    };
+
     public static final String LOG_TAG_NAME = "SpaceSaver.MainActivity";
 
     /**
@@ -57,16 +67,21 @@ public class MainActivity extends Activity {
         setContentView(R.layout.activity_main);
 
         prefs = getSharedPreferences(Constants.USER_PREFERENCE, 0);
+        MetricsDumper.getInstance(this).start();
 
         imgQuality = prefs.getInt(Constants.IMAGE_QUALITY, 80);
         spaceThreshold = prefs.getInt(Constants.SPACE_THRESHOLD, 12);
         bDeleteImages = prefs.getBoolean(Constants.DELETE_IMAGES, false);
+        bAdaptiveQuality = prefs.getBoolean(Constants.ADAPTIVE_QUALITY, false);
+        bLosslessOnly = prefs.getBoolean(Constants.LOSSLESS_ONLY, false);
+        bStripMetadata = prefs.getBoolean(Constants.STRIP_METADATA, false);
 
         final TextView tView = (TextView)findViewById(R.id.qualityText);
         tView.setText("Image Quality: " + imgQuality + " / 90");
 
         storageTextView = (TextView)findViewById(R.id.storageCapacity);
-        storageTextView.setText(Utility.getStorageCapacity());
+        StorageMonitor.Snapshot lastSnapshot = StorageMonitor.getInstance(this).getSnapshot();
+        storageTextView.setText(lastSnapshot == null ? "Updating..." : lastSnapshot.getCapacityString()); //last known values until the first sample
 
         CheckBox imgCheckBox = (CheckBox)findViewById(R.id.DeleteImages);
         imgCheckBox.setChecked(bDeleteImages);
@@ -81,6 +96,45 @@ public class MainActivity extends Activity {
             }
         });
 
+        CheckBox adaptiveCheckBox = (CheckBox)findViewById(R.id.AdaptiveQuality);
+        adaptiveCheckBox.setChecked(bAdaptiveQuality);
+
+        adaptiveCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                bAdaptiveQuality = isChecked;
+                SharedPreferences.Editor edit = prefs.edit();
+                edit.putBoolean(Constants.ADAPTIVE_QUALITY, bAdaptiveQuality);
+                edit.commit();
+            }
+        });
+
+        CheckBox losslessCheckBox = (CheckBox)findViewById(R.id.LosslessOnly);
+        losslessCheckBox.setChecked(bLosslessOnly);
+
+        losslessCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                bLosslessOnly = isChecked;
+                SharedPreferences.Editor edit = prefs.edit();
+                edit.putBoolean(Constants.LOSSLESS_ONLY, bLosslessOnly);
+                edit.commit();
+            }
+        });
+
+        CheckBox stripCheckBox = (CheckBox)findViewById(R.id.StripMetadata);
+        stripCheckBox.setChecked(bStripMetadata);
+
+        stripCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                bStripMetadata = isChecked;
+                SharedPreferences.Editor edit = prefs.edit();
+                edit.putBoolean(Constants.STRIP_METADATA, bStripMetadata);
+                edit.commit();
+            }
+        });
+
         final SeekBar imgBar = (SeekBar)findViewById(R.id.imgBar);
         imgBar.setProgress(imgQuality);
         imgBar.setEnabled(true);
@@ -113,34 +167,6 @@ public class MainActivity extends Activity {
 
         thresholdView.setText("Space Threshold: " + spaceThreshold + " / 100");
 
-        final Handler handler = new Handler();
-        Runnable runnable = new Runnable() {
-            @Override
-            public void run() {
-
-                MainActivity.this.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        storageTextView.setText("Updating...");
-                    }
-                });
-                try {
-                       Thread.sleep(1000);
-                } catch (Exception e) {
-
-                }
-                MainActivity.this.runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        storageTextView.setText(Utility.getStorageCapacity());
-                        Log.i(LOG_TAG_NAME, "Updating current storage capacity on the UI...");
-                    }
-                });
-                handler.postDelayed(this, 10000);  //Update current storage capacity on the UI every 10 seconds
-            }
-        };
-        runnable.run();
-
         final SeekBar thresholdBar = (SeekBar)findViewById(R.id.thresholdBar);
         thresholdBar.setProgress(spaceThreshold);
         thresholdBar.setEnabled(true);
@@ -168,6 +194,51 @@ public class MainActivity extends Activity {
             }
         });
 
+        final TextView targetView = (TextView)findViewById(R.id.targetText);
+        final SeekBar targetBar = (SeekBar)findViewById(R.id.targetBar);
+        final CheckBox perMegapixelCheckBox = (CheckBox)findViewById(R.id.TargetPerMegapixel);
+        perMegapixelCheckBox.setChecked(prefs.getBoolean(Constants.TARGET_PER_MEGAPIXEL, false));
+        showTarget(targetView, targetBar, perMegapixelCheckBox.isChecked());
+
+        perMegapixelCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                SharedPreferences.Editor edit = prefs.edit();
+                edit.putBoolean(Constants.TARGET_PER_MEGAPIXEL, isChecked);
+                edit.commit();
+                showTarget(targetView, targetBar, isChecked);
+            }
+        });
+
+        targetBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progressValue, boolean fromUser) {
+                if (!fromUser) {
+                    return;     //moved by showTarget
+                }
+                int value = Math.max(1, progressValue);
+                SharedPreferences.Editor edit = prefs.edit();
+                if (perMegapixelCheckBox.isChecked()) {
+                    edit.putInt(Constants.TARGET_KB_PER_MEGAPIXEL, value * TARGET_KB_STEP);
+                    targetView.setText(getString(R.string.adaptive_target_per_megapixel, value * TARGET_KB_STEP));
+                } else {
+                    edit.putInt(Constants.TARGET_PERCENT, value);
+                    targetView.setText(getString(R.string.adaptive_target_percent, value));
+                }
+                edit.commit();
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+
+            }
+        });
+
         final Button btn = (Button)findViewById(R.id.compressButton);
         btn.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -176,13 +247,10 @@ public class MainActivity extends Activity {
                 btn.setEnabled(false);
                 statsBtn.setEnabled(false);
 
-                srcFileSizes = null;
-                compressedFileSizes = null;
-
                 imageList = new ArrayList<Pair>();
                 Utility.ImageCompressTask task = new Utility.ImageCompressTask(MainActivity.this);
-                task.execute(imgQuality, imageList, bDeleteImages);
-                storageTextView.setText(Utility.getStorageCapacity());
+                QualitySearch qualitySearch = Utility.getQualitySearch(prefs);
+                task.execute(imgQuality, imageList, bDeleteImages, qualitySearch, bLosslessOnly, bStripMetadata);
                 statsBtn.setEnabled(true);
                 btn.setEnabled(true);
             }
@@ -190,20 +258,23 @@ public class MainActivity extends Activity {
 
         gridView = (GridView)findViewById(R.id.imageGrid);
 
+        findViewById(R.id.textView).setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                startActivity(new Intent(MainActivity.this, MetricsActivity.class));   //debug screen of the pipeline metrics
+                return true;
+            }
+        });
+
         statsBtn = (Button)findViewById(R.id.statsBtn);
         statsBtn.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
 
-                if (srcFileSizes == null || compressedFileSizes == null || srcFileSizes.length != compressedFileSizes.length) {
-                    return;
-                }
                 Intent intent = new Intent(Intent.ACTION_VIEW);
                 intent.setClass(MainActivity.this, course.examples.spacesaver.StatsActivity.class);
                 //intent.putExtra(Constants.IMAGE_LIST, list);
 
-                intent.putExtra(Constants.SRC_FILE_SIZES, srcFileSizes);
-                intent.putExtra(Constants.COMPRESSED_FILE_SIZES, compressedFileSizes);
                 intent.putExtra(Constants.SPACE_SAVED_INFO, spaceSavingMessage);
 
                 MainActivity.this.startActivity(intent);
@@ -211,6 +282,14 @@ public class MainActivity extends Activity {
         });
         statsBtn.setEnabled(false);
 
+        Button duplicatesBtn = (Button)findViewById(R.id.duplicatesBtn);
+        duplicatesBtn.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                startActivity(new Intent(MainActivity.this, DuplicatesActivity.class));
+            }
+        });
+
         if (false && serviceIntent == null) {
             serviceIntent = new Intent(MainActivity.this, SpaceSaverService.class);
             serviceIntent.putExtra(Constants.IMAGE_QUALITY, imgQuality);
@@ -220,36 +299,70 @@ public class MainActivity extends Activity {
         }
     }
 
+    /**
+     * Method to show the adaptive quality target of the chosen kind on the target bar and its label
+     * @param view label of the target
+     * @param bar target bar, in percent of the original size or in steps of TARGET_KB_STEP KB per megapixel
+     * @param perMegapixel true if the target is a size per megapixel
+     */
+    private void showTarget(TextView view, SeekBar bar, boolean perMegapixel) {
+        if (perMegapixel) {
+            int kbPerMegapixel = prefs.getInt(Constants.TARGET_KB_PER_MEGAPIXEL, Utility.DEFAULT_TARGET_KB_PER_MEGAPIXEL);
+            bar.setProgress(kbPerMegapixel / TARGET_KB_STEP);
+            view.setText(getString(R.string.adaptive_target_per_megapixel, kbPerMegapixel));
+        } else {
+            int percent = prefs.getInt(Constants.TARGET_PERCENT, Utility.DEFAULT_TARGET_PERCENT);
+            bar.setProgress(percent);
+            view.setText(getString(R.string.adaptive_target_percent, percent));
+        }
+    }
+
+    /**
+     * Method to start showing the storage capacity sampled by the StorageMonitor while the activity is visible
+     */
+    @Override
+    protected void onStart() {
+        super.onStart();
+        StorageMonitor.getInstance(this).addListener(storageListener, new Handler());
+    }
+
+    /**
+     * Method to stop listening to the StorageMonitor, which stops sampling if the service isn't listening either
+     */
+    @Override
+    protected void onStop() {
+        StorageMonitor.getInstance(this).removeListener(storageListener);
+        super.onStop();
+    }
+
+    /**
+     * Method to release pooled bitmaps when the system runs low on memory
+     * @param level the context of the trim, giving a hint of the amount of trimming the application may like to perform
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        Log.i(LOG_TAG_NAME, "onTrimMemory level: " + level + " bitmap pool " + BitmapPool.getInstance().getStats());
+        Log.i(LOG_TAG_NAME, "thumbnails " + ThumbnailLoader.getInstance(this).getStats());
+        BitmapPool.getInstance().clear();
+        ThumbnailLoader.getInstance(this).clear();
+    }
+
     /**
      * Method to update the grid view with the newly compressed images
+     * @param savings totals of the batch collected by the workers while compressing
      */
-    public void updateGridView() {
+    public void updateGridView(SavingsAccumulator.Snapshot savings) {
+        StorageMonitor.getInstance(this).requestUpdate();
         setGridViewAdapter(imageList);
         if (imageList == null || imageList.size() == 0) {
             return;
         }
-        spaceSavingMessage = Utility.calculateSpaceSaved(imageList);
-        Toast.makeText(MainActivity.this, imageList.size() + " images compressed successfully...\n " + spaceSavingMessage, Toast.LENGTH_LONG ).show();
-        populateImageSizes(); //must call this before deleting original images...
+        spaceSavingMessage = savings.toString();
+        String failures = savings.getFailures() == 0 ? "" : " (" + savings.getFailures() + " failed)";
+        Toast.makeText(MainActivity.this, savings.getImages() + " images compressed successfully" + failures + "...\n " + spaceSavingMessage, Toast.LENGTH_LONG ).show();
      }
 
-    /**
-     * Method for populating two lists (original images and compressed images) with their size.
-     * This method needs to be called for displaying comparison on the space savings at image level in a line chart
-     */
-    public void populateImageSizes() {
-        ArrayList<String> list = getImagesList();
-        srcFileSizes = new long[imageList.size()];
-        compressedFileSizes = new long[srcFileSizes.length];
-        int count = 0;
-        for (Pair p : imageList) {
-            srcFileSizes[count] = new File(p.srcImageFile).length();
-            compressedFileSizes[count] = new File(p.compressedImageFile).length();
-            count++;
-        }
-        Log.i(LOG_TAG_NAME, "# of source files length: " + srcFileSizes.length);
-    }
-
     /**
      * Method to return a list containing pairs of the source image and the compressed image
      * @return a list containing pairs of the source image and the compressed image
@@ -275,9 +388,12 @@ public class MainActivity extends Activity {
             }
             if (imageAdapter == null) {
                 imageAdapter = new ImageAdapter(this, list);
+                thumbnailPrefetcher = new ThumbnailPrefetcher(imageAdapter, ThumbnailLoader.getInstance(this));
             } else {
                 imageAdapter.reInitialize(this, list);
+                thumbnailPrefetcher.reset();
             }
             gridView.setAdapter(imageAdapter);
+            gridView.setOnScrollListener(thumbnailPrefetcher);
     }
 }
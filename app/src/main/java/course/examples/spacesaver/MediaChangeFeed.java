@@ -0,0 +1,133 @@
+package course.examples.spacesaver;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.provider.MediaStore;
+import android.util.Log;
+
+/**
+ * Change feed over the MediaStore images table built on ContentObserver notifications <br/>
+ * The highest image _ID seen and the number of images are stored as a watermark in the user preferences, so that
+ * listeners are only woken up when images were really added or removed since the last check, even across restarts.
+ */
+public class MediaChangeFeed {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.MediaChangeFeed";
+    private static final long SETTLE_DELAY = 2000; //MediaStore sends bursts of notifications, wait for them to settle
+
+    /**
+     * Callback invoked on the feed's handler thread when images were added or removed
+     */
+    public interface Listener {
+        /**
+         * @param addedImages number of images with an _ID above the previous watermark
+         * @param removedImages number of images removed since the previous check (approximate, from the image count)
+         */
+        void onMediaChanged(int addedImages, int removedImages);
+    }
+
+    private final Context context;
+    private final Handler handler;
+    private final Listener listener;
+    private final SharedPreferences prefs;
+    private ContentObserver observer = null;   //guarded by this, start and stop may be called from different threads
+
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            checkForChanges();
+        }
+    };
+
+    /**
+     * Constructor for the feed
+     * @param c Context used for querying the content provider
+     * @param h Handler notifications are delivered and checks are run on
+     * @param l Listener to be notified of changes
+     */
+    public MediaChangeFeed(Context c, Handler h, Listener l) {
+        context = c.getApplicationContext();
+        handler = h;
+        listener = l;
+        prefs = context.getSharedPreferences(Constants.USER_PREFERENCE, 0);
+    }
+
+    /**
+     * Method to start observing the MediaStore. Changes made while the feed was stopped are reported by an initial check.
+     */
+    public synchronized void start() {
+        if (observer != null) {
+            return;
+        }
+        observer = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                handler.removeCallbacks(checkRunnable);
+                handler.postDelayed(checkRunnable, SETTLE_DELAY);
+            }
+        };
+        context.getContentResolver().registerContentObserver(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, true, observer);
+        handler.post(checkRunnable);
+    }
+
+    /**
+     * Method to stop observing the MediaStore
+     */
+    public synchronized void stop() {
+        if (observer == null) {
+            return;
+        }
+        context.getContentResolver().unregisterContentObserver(observer);
+        handler.removeCallbacks(checkRunnable);
+        observer = null;
+    }
+
+    /**
+     * Method to compare the MediaStore against the stored watermark and notify the listener if it moved
+     */
+    void checkForChanges() {
+        long watermark = prefs.getLong(Constants.MEDIA_WATERMARK, 0);
+        int lastCount = prefs.getInt(Constants.MEDIA_COUNT, 0);
+        Uri uri = MediaStore.Images.Media.EXTERNAL_CONTENT_URI;
+        String[] projection = {MediaStore.Images.Media._ID};
+
+        int added = 0;
+        long newestId = watermark;
+        Cursor cursor = context.getContentResolver().query(uri, projection,
+                MediaStore.Images.Media._ID + " > ?", new String[]{String.valueOf(watermark)},
+                MediaStore.Images.Media._ID + " DESC");
+        if (cursor == null) {
+            return;
+        }
+        try {
+            added = cursor.getCount();
+            if (cursor.moveToFirst()) {
+                newestId = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int count = lastCount;
+        cursor = context.getContentResolver().query(uri, projection, null, null, null);
+        if (cursor != null) {
+            count = cursor.getCount();
+            cursor.close();
+        }
+        int removed = Math.max(0, lastCount + added - count);
+
+        if (added == 0 && removed == 0) {
+            return;
+        }
+        Log.i(LOG_TAG_NAME, "MediaStore changed, added: " + added + " removed: " + removed + " newest _ID: " + newestId);
+        SharedPreferences.Editor edit = prefs.edit();
+        edit.putLong(Constants.MEDIA_WATERMARK, newestId);
+        edit.putInt(Constants.MEDIA_COUNT, count);
+        edit.commit();
+        listener.onMediaChanged(added, removed);
+    }
+}
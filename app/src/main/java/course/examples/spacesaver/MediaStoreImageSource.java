@@ -0,0 +1,79 @@
+package course.examples.spacesaver;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.provider.MediaStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ImageSource reading the images on the device from the MediaStore <br/>
+ * Empty files and, unless asked otherwise, images in our own folder are filtered by the query, and paging is done on
+ * the (size, _ID) key so each page costs the same whatever its position.
+ */
+public class MediaStoreImageSource implements ImageSource {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.MediaStoreImageSource";
+
+    private static final String[] PROJECTION = { MediaStore.Images.Media._ID, MediaStore.Images.Media.DATA, MediaStore.MediaColumns.SIZE,
+            MediaStore.MediaColumns.DATE_MODIFIED, MediaStore.MediaColumns.WIDTH, MediaStore.MediaColumns.HEIGHT };
+
+    private final Context context;
+    private final boolean includeCompressedFolder;
+
+    /**
+     * Constructor taking the context used for querying the content provider
+     * @param context Context of the activity or service
+     */
+    public MediaStoreImageSource(Context context) {
+        this(context, false);
+    }
+
+    /**
+     * Constructor taking the context used for querying the content provider and whether to read our own folder too
+     * @param context Context of the activity or service
+     * @param includeCompressedFolder true to return the compressed images as well, e.g. to find copies among them
+     */
+    public MediaStoreImageSource(Context context, boolean includeCompressedFolder) {
+        this.context = context;
+        this.includeCompressedFolder = includeCompressedFolder;
+    }
+
+    @Override
+    public List<ImageCandidate> getPage(ImageCandidate after, int pageSize) {
+        //skip empty files and our own folder to prevent recompressing and deleting the already compressed images
+        String selection = MediaStore.MediaColumns.SIZE + " > 0";
+        ArrayList<String> args = new ArrayList<String>(4);
+        if (!includeCompressedFolder) {
+            selection += " AND " + MediaStore.Images.Media.DATA + " NOT LIKE ?";
+            args.add("%/" + Constants.COMPRESSED_IMAGE_FOLDER + "/%");
+        }
+        if (after != null) {
+            selection += " AND (" + MediaStore.MediaColumns.SIZE + " < ? OR (" + MediaStore.MediaColumns.SIZE + " = ? AND " +
+                    MediaStore.Images.Media._ID + " < ?))";
+            args.add(String.valueOf(after.size));
+            args.add(String.valueOf(after.size));
+            args.add(String.valueOf(after.id));
+        }
+        String[] selectionArgs = args.toArray(new String[args.size()]);
+        final Cursor cursor = context.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                PROJECTION,
+                selection,
+                selectionArgs,
+                MediaStore.MediaColumns.SIZE + " DESC, " + MediaStore.Images.Media._ID + " DESC LIMIT " + pageSize);
+        ArrayList<ImageCandidate> result = new ArrayList<ImageCandidate>(pageSize);
+        if (cursor == null) {
+            return result;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                result.add(new ImageCandidate(cursor.getLong(0), cursor.getString(1), cursor.getLong(2),
+                        cursor.getLong(3), cursor.getInt(4), cursor.getInt(5)));
+            }
+        } finally {
+            cursor.close();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+package course.examples.spacesaver;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.view.View;
+import android.widget.Button;
+import android.widget.CheckBox;
+import android.widget.CompoundButton;
+import android.widget.TextView;
+import android.widget.Toast;
+
+/**
+ * Debug screen showing the PipelineMetrics of the running process <br/>
+ * The table is refreshed every REFRESH_INTERVAL while the screen is visible, so a batch can be watched while it runs.
+ * It is opened with a long press on the title of the main screen.
+ */
+public class MetricsActivity extends Activity {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.MetricsActivity";
+    private static final long REFRESH_INTERVAL = 1000;
+
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+    private final Handler handler = new Handler();
+    private TextView metricsText = null;
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            refresh();
+            handler.postDelayed(this, REFRESH_INTERVAL);
+        }
+    };
+
+    /**
+     * Method to initialize the widgets and their listeners
+     * @param savedInstanceState
+     */
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        metricsText = (TextView)findViewById(R.id.metricsText);
+
+        CheckBox enabledCheckBox = (CheckBox)findViewById(R.id.metricsEnabled);
+        enabledCheckBox.setChecked(metrics.isEnabled());
+        enabledCheckBox.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                metrics.setEnabled(isChecked);
+            }
+        });
+
+        Button resetBtn = (Button)findViewById(R.id.metricsReset);
+        resetBtn.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                metrics.reset();
+                refresh();
+            }
+        });
+
+        Button dumpBtn = (Button)findViewById(R.id.metricsDump);
+        dumpBtn.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                MetricsDumper dumper = MetricsDumper.getInstance(MetricsActivity.this);
+                dumper.requestDump();
+                Toast.makeText(MetricsActivity.this, "Metrics written to " + dumper.getFile(), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Method to start refreshing the table while the activity is visible
+     */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refreshRunnable);
+    }
+
+    /**
+     * Method to stop refreshing the table
+     */
+    @Override
+    protected void onPause() {
+        handler.removeCallbacks(refreshRunnable);
+        super.onPause();
+    }
+
+    private void refresh() {
+        metricsText.setText(metrics.report() + "\nbitmap pool " + BitmapPool.getInstance().getStats()
+                + "\nthumbnails " + ThumbnailLoader.getInstance(this).getStats());
+    }
+}
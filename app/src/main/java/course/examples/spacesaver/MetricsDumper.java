@@ -0,0 +1,96 @@
+package course.examples.spacesaver;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Periodic dump of the PipelineMetrics to a file in the private files of the application <br/>
+ * The report is written every DUMP_INTERVAL on a background thread, and only when a stage was recorded since the last
+ * dump, so an idle process doesn't touch the storage. Read it with adb shell run-as course.examples.spacesaver cat files/pipeline_metrics.txt
+ */
+public class MetricsDumper {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.MetricsDumper";
+    private static final long DUMP_INTERVAL = 60 * 1000;
+
+    private static MetricsDumper instance = null;
+
+    private final File file;
+    private final Handler handler;
+    private final PipelineMetrics metrics = PipelineMetrics.getInstance();
+    private long dumpedUpdateCount = 0;
+    private boolean started = false;
+
+    private final Runnable dumpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dump();
+            handler.postDelayed(this, DUMP_INTERVAL);
+        }
+    };
+
+    /**
+     * Method to return the dumper shared by the activity and the background service
+     * @param context Context used to locate the private files of the application
+     * @return shared MetricsDumper instance
+     */
+    public static synchronized MetricsDumper getInstance(Context context) {
+        if (instance == null) {
+            instance = new MetricsDumper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private MetricsDumper(Context context) {
+        file = new File(context.getFilesDir(), Constants.METRICS_FILE);
+        HandlerThread thread = new HandlerThread("SpaceSaver-metrics", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Method to start the periodic dump, calling it again has no effect
+     */
+    public synchronized void start() {
+        if (!started) {
+            started = true;
+            handler.postDelayed(dumpRunnable, DUMP_INTERVAL);
+        }
+    }
+
+    /**
+     * Method to write the file on the next turn of the background thread, whether or not anything changed
+     */
+    public void requestDump() {
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                dumpedUpdateCount = -1;
+                dump();
+            }
+        });
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    private void dump() {
+        long updateCount = metrics.getUpdateCount();
+        if (updateCount == dumpedUpdateCount) {
+            return;
+        }
+        try {
+            metrics.dump(file);
+            dumpedUpdateCount = updateCount;
+        } catch (IOException e) {
+            Log.i(LOG_TAG_NAME, "cannot dump the metrics: " + e.toString());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package course.examples.spacesaver;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds the NearDuplicateIndex of the images on the device <br/>
+ * The MediaStore is read one page at a time. Images whose hash is in the CompressionLedger for their current size and
+ * modification time are indexed right away, the others are decoded heavily sampled (JPEG decoders scale down while
+ * decoding, so this costs a fraction of a full decode) and hashed in parallel, then recorded in the ledger page by page
+ * so an interrupted scan is not lost.
+ */
+public class NearDuplicateScanner {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.NearDuplicateScanner";
+    public static final int HASH_DECODE_SIZE = 32; //smallest side of the sampled decode, a few times the 9x8 grid of the hash
+    public static final int PAGE_SIZE = 200;
+
+    private final Context context;
+
+    /**
+     * Interface notified as the scan goes through the images
+     */
+    public interface ProgressListener {
+        /**
+         * Method called after each page of images
+         * @param scanned number of images indexed so far
+         * @param hashed number of them that had to be decoded
+         */
+        void onProgress(int scanned, int hashed);
+    }
+
+    /**
+     * Constructor taking the context used for querying the content provider and opening the ledger
+     * @param context Context of the activity
+     */
+    public NearDuplicateScanner(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Method to hash and index every image on the device, blocks until done or interrupted
+     * @param listener listener notified after each page, can be null
+     * @return index of the images hashed, partial if the thread was interrupted
+     */
+    public NearDuplicateIndex scan(ProgressListener listener) {
+        CompressionLedger ledger = CompressionLedger.getInstance(context);
+        Map<String, Long> cached = ledger.loadPerceptualHashes();
+        MediaStoreImageSource source = new MediaStoreImageSource(context);
+        NearDuplicateIndex index = new NearDuplicateIndex();
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        int hashed = 0;
+        try {
+            ImageCandidate last = null;
+            while (true) {
+                List<ImageCandidate> page = source.getPage(last, PAGE_SIZE);
+                List<ImageCandidate> pending = new ArrayList<ImageCandidate>();
+                List<Future<Long>> futures = new ArrayList<Future<Long>>();
+                for (final ImageCandidate image : page) {
+                    Long hash = cached.get(CompressionLedger.key(image.path, image.size, image.modified));
+                    if (hash != null) {
+                        index.add(image, hash);
+                        continue;
+                    }
+                    pending.add(image);
+                    futures.add(executor.submit(new Callable<Long>() {
+                        @Override
+                        public Long call() throws Exception {
+                            return computeHash(image.path);
+                        }
+                    }));
+                }
+                List<ImageCandidate> images = new ArrayList<ImageCandidate>(pending.size());
+                List<Long> hashes = new ArrayList<Long>(pending.size());
+                for (int i = 0; i < pending.size(); i++) {
+                    Long hash = null;
+                    try {
+                        hash = futures.get(i).get();
+                    } catch (ExecutionException e) {
+                        Log.i(LOG_TAG_NAME, "cannot hash " + pending.get(i).path + ": " + e.getCause());
+                    }
+                    if (hash != null) {
+                        index.add(pending.get(i), hash);
+                        images.add(pending.get(i));
+                        hashes.add(hash);
+                    }
+                }
+                if (!images.isEmpty()) {
+                    ledger.recordPerceptualHashes(images, hashes);
+                    hashed += images.size();
+                }
+                if (listener != null) {
+                    listener.onProgress(index.size(), hashed);
+                }
+                if (page.size() < PAGE_SIZE) {
+                    break;  //last page
+                }
+                last = page.get(page.size() - 1);
+            }
+        } catch (InterruptedException e) {
+            Log.i(LOG_TAG_NAME, "scan interrupted after " + index.size() + " images");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        Log.i(LOG_TAG_NAME, "Indexed " + index.size() + " images, " + hashed + " of them decoded");
+        return index;
+    }
+
+    /**
+     * Method to compute the perceptual hash of an image from a decode sampled down to about HASH_DECODE_SIZE pixels
+     * @param path Absolute path to the image
+     * @return dHash of the image, null if it cannot be decoded
+     */
+    static Long computeHash(String path) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(path, options);
+        int shortSide = Math.min(options.outWidth, options.outHeight);
+        if (shortSide <= 0) {
+            return null;
+        }
+        int sampleSize = 1;
+        while (shortSide / (sampleSize * 2) >= HASH_DECODE_SIZE) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        Bitmap bitmap = BitmapFactory.decodeFile(path, options);
+        if (bitmap == null) {
+            return null;
+        }
+        try {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] pixels = new int[width * height];
+            bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+            return PerceptualHash.dHash(pixels, width, height);
+        } finally {
+            bitmap.recycle();
+        }
+    }
+}
@@ -2,17 +2,21 @@ package course.examples.spacesaver;
 
 import android.app.Service;
 import android.content.Intent;
-import android.os.Environment;
+import android.content.SharedPreferences;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
-import java.io.File;
 import java.util.List;
 
 /**
  * Service class for constantly monitoring the disk usage and compress images to bring the free space below the threshold defined by the user <br/>
+ * All checks, queries and compressions run on a dedicated background HandlerThread, the main thread only shows toasts.
  * Created by kannanb on 4/11/2016.
  */
 public class SpaceSaverService extends Service {
@@ -22,103 +26,252 @@ public class SpaceSaverService extends Service {
     private boolean bDeleteImages = false;
     private int spaceThreshold = 90;
 
+    private static final long MIN_IDLE_CHECK_INTERVAL = 60 * 1000; //first check after a check that found nothing to do
+    private static final long MAX_IDLE_CHECK_INTERVAL = 15 * 60 * 1000; //catches threshold crossings caused by files other than images
+    private static final long BUSY_CHECK_INTERVAL = 2000;
+    private static final long MIN_TOAST_INTERVAL = 60 * 1000; //toasts shown more often than this are only logged
+
+    private HandlerThread workerThread = null;
+    private Handler handler = null;         //runs on workerThread, all fields below are only used there
+    private Handler mainHandler = null;
+    private MediaChangeFeed mediaFeed = null;
+    private StorageMonitor storageMonitor = null;
+    private final SpaceBudgetPlanner planner = new SpaceBudgetPlanner(Utility.MAX_IMAGES_PER_PLAN);
+    private final SavingsAccumulator savings = new SavingsAccumulator();  //totals since the service was created
+    private long idleCheckInterval = MIN_IDLE_CHECK_INTERVAL;
+    private long nextCheckAt = -1;          //uptime of the pending check, -1 if none is pending
+    private long lastToastAt = -MIN_TOAST_INTERVAL;
+
+    private final StorageMonitor.ThresholdListener thresholdListener = new StorageMonitor.ThresholdListener() {
+        @Override
+        public void onThresholdCrossed(StorageMonitor.Snapshot snapshot, boolean above) {
+            if (above) {
+                Log.i(LOG_TAG_NAME, "space used reached " + snapshot.getUsedPercentage() + "%, checking space usage");
+                triggerCheck();
+            }
+        }
+    };
+
+    private final Runnable checkRunnable = new Runnable() {
+        @Override
+        public void run() {
+            nextCheckAt = -1;
+            checkSpace();
+        }
+    };
+
+    /**
+     * Method to create the background thread the checks run on, the MediaStore change feed and the storage monitor waking the service up
+     */
     @Override
     public void onCreate() {
-
+        workerThread = new HandlerThread("SpaceSaver-service", Process.THREAD_PRIORITY_BACKGROUND);
+        workerThread.start();
+        handler = new Handler(workerThread.getLooper());
+        mainHandler = new Handler(Looper.getMainLooper());
+        MetricsDumper.getInstance(this).start();
+        storageMonitor = StorageMonitor.getInstance(this);
+        mediaFeed = new MediaChangeFeed(this, handler, new MediaChangeFeed.Listener() {
+            @Override
+            public void onMediaChanged(int addedImages, int removedImages) {
+                if (addedImages > 0) {
+                    Log.i(LOG_TAG_NAME, addedImages + " new images, checking space usage");
+                    triggerCheck();
+                }
+            }
+        });
     }
 
     /**
-     * Method to initialize class parameters and start a background thread for monitoring space usage
-     * @param intent Intent passed to service
+     * Method to initialize class parameters and start monitoring space usage on the background thread
+     * @param intent Intent passed to service, null when the service is restarted by the system
      * @param flags
      * @param startId
      * @return START_STICKY for the service to be always active
      */
     @Override
-    public int onStartCommand(Intent intent, int flags, int startId) {
+    public int onStartCommand(final Intent intent, int flags, int startId) {
 
         Log.i(LOG_TAG_NAME, "Starting background SpaceSaverService...");
-        Toast.makeText(this, "Starting background SpaceSaverService...", Toast.LENGTH_LONG).show();
-        imageQuality = intent.getIntExtra(Constants.IMAGE_QUALITY, imageQuality);
-        bDeleteImages = intent.getBooleanExtra(Constants.DELETE_IMAGES, bDeleteImages);
-        spaceThreshold = intent.getIntExtra(Constants.USED_SPACE_THRESHOLD, spaceThreshold);
-        runBackgroundThread();
+        notifyUser("Starting background SpaceSaverService...");
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (intent != null) {
+                    imageQuality = intent.getIntExtra(Constants.IMAGE_QUALITY, imageQuality);
+                    bDeleteImages = intent.getBooleanExtra(Constants.DELETE_IMAGES, bDeleteImages);
+                    spaceThreshold = intent.getIntExtra(Constants.USED_SPACE_THRESHOLD, spaceThreshold);
+                }
+                runBackgroundThread();
+            }
+        });
         return START_STICKY;
     }
 
     /**
-     * Method for performing the following operations at regular intervals
-     * 1. Check if available free space is less than the threshold defined by user
-     * 2. If free space is less, start compressing images of higher size (few images at a time)
-     * 3. Perform compression until the available free space is brought below the desired threshold from the user
-     * 4. Continue monitoring at regular intervals on the available free space.
+     * Method to start monitoring, called on the background thread. Space usage is checked right away, then whenever new
+     * images show up in the MediaStore or the used space crosses the threshold, repeatedly while compression is still
+     * needed and otherwise at an interval backing off from MIN_IDLE_CHECK_INTERVAL to MAX_IDLE_CHECK_INTERVAL.
      */
     public void runBackgroundThread() {
+        mediaFeed.start();
+        storageMonitor.removeListener(thresholdListener);   //the threshold may have changed
+        storageMonitor.addThresholdListener(spaceThreshold, StorageMonitor.DEFAULT_HYSTERESIS_PERCENT, thresholdListener, handler);
+        triggerCheck();
+    }
 
-        final Handler handler = new Handler();
-        Runnable runnable = new Runnable() {
-            private boolean bDeleteImages = false;
-            private List<String> imageFiles = null;
-            @Override
-            public void run() {
+    /**
+     * Method to check space usage as soon as possible because something changed. Resets the idle backoff.
+     */
+    private void triggerCheck() {
+        idleCheckInterval = MIN_IDLE_CHECK_INTERVAL;
+        scheduleCheck(0);
+    }
 
-                long spaceUsed = Utility.getUsedSpacePercentage();
-                if (spaceUsed < spaceThreshold)  {
-                    Log.i(LOG_TAG_NAME, "No compression required: " + spaceUsed + " threshold: " + spaceThreshold);
-                    handler.postDelayed(this, 1000);
-                    Toast.makeText(SpaceSaverService.this, "No compression required: " + spaceUsed + " threshold: " + spaceThreshold, Toast.LENGTH_LONG).show();
-                    return;
-                }
+    /**
+     * Method to schedule the next space check. Triggers are coalesced: a check already pending at or before the requested
+     * time makes the request a no-op, a later one is moved forward.
+     * @param delay delay in milliseconds
+     */
+    private void scheduleCheck(long delay) {
+        long at = SystemClock.uptimeMillis() + delay;
+        if (nextCheckAt != -1 && nextCheckAt <= at) {
+            return;
+        }
+        handler.removeCallbacks(checkRunnable);
+        handler.postAtTime(checkRunnable, at);
+        nextCheckAt = at;
+    }
 
-                int imgQuality = SpaceSaverService.this.imageQuality;
-                bDeleteImages = SpaceSaverService.this.bDeleteImages;
-                Log.i(LOG_TAG_NAME, "Fetching images on the device");
-                imageFiles = Utility.getCameraImages(SpaceSaverService.this);
-                Log.i(LOG_TAG_NAME, "Fetched " + imageFiles.size() + " images");
-                if (imageFiles == null || imageFiles.size() == 0) {
-                    handler.postDelayed(this, 10000);
-                    return;
-                }
-                Toast.makeText(SpaceSaverService.this, "Current space used before compression: " + spaceUsed + " threshold: " + spaceThreshold, Toast.LENGTH_LONG).show();
-                Log.i(LOG_TAG_NAME, "Begin compressing images - # of images found := " + imageFiles.size() + " with imageQuality := " + imgQuality);
-
-                String imgFolder = Environment.getExternalStorageDirectory().toString() + "/" + Constants.COMPRESSED_IMAGE_FOLDER + "/";
-                File folder = new File(imgFolder);
-                if (! folder.exists()) {
-                    folder.mkdir();
-                    Log.i(LOG_TAG_NAME, "Folder: " + folder + " created ");
-                } else {
-                    Log.i(LOG_TAG_NAME, "Folder: " + folder + " already exists ");
-                }
-                Log.i(LOG_TAG_NAME, "compressImages, compressing images with image Quality value := " + imgQuality);
-                int progressvalue = (int)Math.round((double)(90 / imageFiles.size()));
-                int currentprogress = 10;
-                for (String image : imageFiles) {
-                    String compressedImage = Utility.compressImage(image, imgQuality, imgFolder);
-                    currentprogress += progressvalue;
-                }
+    /**
+     * Method to schedule the next check after one that found nothing to do, doubling the interval each time
+     */
+    private void scheduleIdleCheck() {
+        scheduleCheck(idleCheckInterval);
+        idleCheckInterval = Math.min(MAX_IDLE_CHECK_INTERVAL, idleCheckInterval * 2);
+    }
 
-                Log.i(LOG_TAG_NAME, "image compression done");
-                if ( bDeleteImages && imageFiles != null) {
-                    Utility.deleteImages(imageFiles); //Delete all original (uncompressed) images
-                }
-                spaceUsed = Utility.getUsedSpacePercentage();
-                Log.i(LOG_TAG_NAME, "Current space used after compression: " + spaceUsed + " threshold: " + spaceThreshold);
-                Toast.makeText(SpaceSaverService.this, "Current space used after compression: " + spaceUsed + " threshold: " + spaceThreshold, Toast.LENGTH_LONG).show();
-
-                if (spaceUsed < spaceThreshold) {
-                    handler.postDelayed(this, 2000); // We still haven't brought the free space below threshold. Compress again soon...
-                } else {
-                    handler.postDelayed(this, 10000);
+    /**
+     * Method for performing the following operations on the background thread
+     * 1. Check if available free space is less than the threshold defined by user
+     * 2. If free space is less, plan the cheapest set of images predicted to free the missing bytes and compress exactly those
+     * 3. Check again soon if the free space is still less than the desired threshold from the user, e.g. if the plan was capped
+     * 4. Otherwise wait for new images or the next idle check, backing off while there is nothing to do.
+     */
+    private void checkSpace() {
+        StorageMonitor.Snapshot snapshot = storageMonitor.sampleNow();
+        long spaceUsed = snapshot.getUsedPercentage();
+        if (spaceUsed < spaceThreshold)  {
+            Log.i(LOG_TAG_NAME, "No compression required: " + spaceUsed + " threshold: " + spaceThreshold);
+            scheduleIdleCheck();
+            return;
+        }
+
+        if (!bDeleteImages) {
+            Log.i(LOG_TAG_NAME, "Original images are kept, compressing them would not free any space");
+            scheduleIdleCheck();
+            return;
+        }
+
+        int imgQuality = imageQuality;
+        SharedPreferences prefs = getSharedPreferences(Constants.USER_PREFERENCE, 0);   //read on every batch so changes apply without a restart
+        boolean lossless = prefs.getBoolean(Constants.LOSSLESS_ONLY, false);
+        long deficit = SpaceBudgetPlanner.getDeficit(snapshot.getTotal(), snapshot.getFree(), spaceThreshold,
+                StorageMonitor.DEFAULT_HYSTERESIS_PERCENT);
+        Log.i(LOG_TAG_NAME, "Fetching images on the device to free " + Utility.getSizeInString(deficit));
+        List<ImageCandidate> candidates = Utility.getCameraImageCandidates(this, Utility.MAX_PLAN_CANDIDATES, imgQuality, lossless);
+        SpaceBudgetPlanner.Plan plan = planner.plan(candidates, deficit, bDeleteImages);
+        Log.i(LOG_TAG_NAME, "Planned " + plan + " from " + candidates.size() + " candidates");
+        List<String> imageFiles = plan.getPaths();
+        if (imageFiles.size() == 0) {
+            scheduleIdleCheck();  //nothing left to compress until new images are added
+            return;
+        }
+        notifyUser("Current space used before compression: " + spaceUsed + " threshold: " + spaceThreshold);
+        Log.i(LOG_TAG_NAME, "Begin compressing images - # of images found := " + imageFiles.size() + " with imageQuality := " + imgQuality);
+
+        String imgFolder = Utility.getCompressedImageFolder();
+        SavingsAccumulator.Snapshot before = savings.snapshot();
+        List<Pair> pairs;
+        if (lossless) {
+            Log.i(LOG_TAG_NAME, "optimizeImages, re-encoding the Huffman tables only");
+            pairs = CompressionExecutor.getInstance().optimizeImages(imageFiles, prefs.getBoolean(Constants.STRIP_METADATA, false),
+                    imgFolder, null, savings);
+        } else {
+            Log.i(LOG_TAG_NAME, "compressImages, compressing images with image Quality value := " + imgQuality);
+            pairs = CompressionExecutor.getInstance().compressImages(imageFiles, imgQuality, Utility.getQualitySearch(prefs),
+                    imgFolder, null, savings);
+        }
+        SavingsAccumulator.Snapshot after = savings.snapshot();
+        CompressionLedger.getInstance(this).record(pairs);
+        SavingsTimeSeries history = Utility.getSavingsHistory(this);
+        if (history != null) {
+            history.record(pairs, SavingsTimeSeries.SOURCE_SERVICE, System.currentTimeMillis());
+        }
+
+        Log.i(LOG_TAG_NAME, "image compression done, " + (after.getImages() - before.getImages()) + " images saved "
+                + Utility.getSizeInString(after.getSaved() - before.getSaved()) + ", since start: " + after.getImages()
+                + " images, " + after.getFailures() + " failures," + after);
+        if (bDeleteImages) {
+            Utility.deleteCompressedOriginals(pairs);   //originals that failed or were cancelled are kept
+        }
+        spaceUsed = storageMonitor.sampleNow().getUsedPercentage();
+        Log.i(LOG_TAG_NAME, "Current space used after compression: " + spaceUsed + " threshold: " + spaceThreshold);
+        notifyUser("Current space used after compression: " + spaceUsed + " threshold: " + spaceThreshold);
+
+        if (after.getImages() == before.getImages()) {
+            scheduleIdleCheck();  //every image failed, don't retry them in a tight loop
+        } else if (spaceUsed >= spaceThreshold) {
+            idleCheckInterval = MIN_IDLE_CHECK_INTERVAL;
+            scheduleCheck(BUSY_CHECK_INTERVAL); // We still haven't brought the free space below threshold. Compress again soon...
+        } else {
+            idleCheckInterval = MIN_IDLE_CHECK_INTERVAL;
+            scheduleIdleCheck();
+        }
+    }
+
+    /**
+     * Method to show a message to the user on the main thread. Messages following the previous toast within
+     * MIN_TOAST_INTERVAL are only logged, so a busy service doesn't flood the screen.
+     * @param message message to be shown
+     */
+    private void notifyUser(final String message) {
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                long now = SystemClock.uptimeMillis();
+                if (now - lastToastAt < MIN_TOAST_INTERVAL) {
+                    Log.i(LOG_TAG_NAME, "toast suppressed: " + message);
+                    return;
                 }
+                lastToastAt = now;
+                Toast.makeText(SpaceSaverService.this, message, Toast.LENGTH_LONG).show();
             }
-        };
-        runnable.run();
+        });
     }
 
+    /**
+     * Method to stop observing the MediaStore and the storage, cancel pending checks and stop the background thread
+     * once the check in progress, if any, is done. The teardown is posted to the background thread so that it runs
+     * after a start that onStartCommand already posted, which would otherwise register its observers again.
+     */
     @Override
     public void onDestroy() {
-
+        if (mainHandler != null) {
+            mainHandler.removeCallbacksAndMessages(null);
+        }
+        if (handler == null) {
+            return;
+        }
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                mediaFeed.stop();
+                storageMonitor.removeListener(thresholdListener);
+                handler.removeCallbacks(checkRunnable);
+                workerThread.quit();    //nothing left worth running, checks queued meanwhile are dropped
+            }
+        });
     }
 
     @Override
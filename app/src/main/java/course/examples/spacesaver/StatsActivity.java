@@ -3,12 +3,13 @@ package course.examples.spacesaver;
 import android.app.Activity;
 import android.content.Intent;
 import android.graphics.Color;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.widget.LinearLayout;
-import android.widget.TextView;
 
 import org.achartengine.ChartFactory;
+import org.achartengine.chart.BarChart;
 import org.achartengine.chart.PointStyle;
 import org.achartengine.model.XYMultipleSeriesDataset;
 import org.achartengine.model.XYSeries;
@@ -16,27 +17,42 @@ import org.achartengine.renderer.XYSeriesRenderer;
 import org.achartengine.renderer.XYMultipleSeriesRenderer;
 import org.achartengine.GraphicalView;
 
-import java.io.File;
-import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.util.ArrayList;
-import java.util.List;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 /*
  * Class for displaying Line Chart representing statistical comparisions between original and the respective compressed images
+ * The sizes of all images in the CompressionLedger are summarized off the UI thread. The line chart is downsampled to
+ * StatsAggregator.DEFAULT_MAX_POINTS images, the same ones in both series, and followed by a histogram of the image sizes and the daily
+ * savings of the last weeks from the SavingsTimeSeries, split between the user and the background service.
  */
 public class StatsActivity extends Activity {
 
     public static final String LOG_TAG_NAME = "SpaceSaver.StatsActivity";
+    private static final int MAX_LABELLED_POINTS = 30; //values are drawn next to the points only if they stay readable
+    private static final int HISTORY_DAYS = 8 * 7;
 
-    private List<Double> srcFileList = new ArrayList<Double>();
-    private List<Double> compressedFileList = new ArrayList<Double>();
-    private double maxsize = 0;
     private String sizestr = "Mbytes";
     private String spaceSavedMessage = "";
 
     /**
-     * Method to initialize UI components and populate the chart with data on all the source and compressed images.
+     * Wrapper class holding what the charts are built from
+     */
+    private static class ChartData {
+        CompressionLedger.Sizes sizes;
+        StatsAggregator.Summary summary;
+        int[] points;       //indices of the images plotted, picked on the original sizes and shared by both series
+        long firstDay = 0;          //start of the first day of the history
+        long[] userSaved = new long[0];     //bytes saved per day from the activity
+        long[] serviceSaved = new long[0];  //bytes saved per day by the background service
+        SavingsTimeSeries.Totals lastWeek = null;
+        SavingsTimeSeries.Totals allTime = null;
+    }
+
+    /**
+     * Method to initialize UI components and load the data on all the source and compressed images in the background.
      * @param savedInstanceState
      */
     @Override
@@ -44,68 +60,101 @@ public class StatsActivity extends Activity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_stats);
 
-        LinearLayout linearLayout =  (LinearLayout)findViewById(R.id.layoutinfo);
-
         Intent intent = getIntent();
         spaceSavedMessage = intent.getStringExtra(Constants.SPACE_SAVED_INFO);
+        if (spaceSavedMessage == null) {
+            spaceSavedMessage = "";
+        }
 
-        //TextView textView = (TextView)findViewById(R.id.spaceSavedText);
-        //textView.setText(spaceSavedMessage);
-
-        long [] srcFileSizes = intent.getLongArrayExtra(Constants.SRC_FILE_SIZES);
-        long [] compressedFileSizes = intent.getLongArrayExtra(Constants.COMPRESSED_FILE_SIZES);
-
-        Log.i(LOG_TAG_NAME, "# of source files length: " + srcFileSizes.length + " compressed files length: " + compressedFileSizes.length);
+        new AsyncTask<Void, Void, ChartData>() {
+            @Override
+            protected ChartData doInBackground(Void... params) {
+                ChartData data = new ChartData();
+                data.sizes = CompressionLedger.getInstance(StatsActivity.this).loadSizes();
+                data.summary = StatsAggregator.summarize(data.sizes.getOriginal(), data.sizes.getCompressed(), data.sizes.getCount());
+                data.points = StatsAggregator.downsample(data.sizes.getOriginal(), data.sizes.getCount(),
+                        StatsAggregator.DEFAULT_MAX_POINTS);
+                Log.i(LOG_TAG_NAME, data.summary.toString());
+                loadHistory(data);
+                return data;
+            }
 
-        maxsize = 0;
-        for (int i=0; i<srcFileSizes.length; i++) {
-            double srcsize = Utility.getSizeInMbytes(srcFileSizes[i]);
-            if (srcsize > maxsize) {
-                maxsize = srcsize;
+            @Override
+            protected void onPostExecute(ChartData data) {
+                if (!isFinishing()) {
+                    showCharts(data);
+                }
             }
-            BigDecimal bd = new BigDecimal(srcsize).setScale(1, RoundingMode.HALF_EVEN);
-            srcsize = bd.doubleValue();
-            srcFileList.add(srcsize);
-
-            double compressedsize = Utility.getSizeInMbytes(compressedFileSizes[i]);
-            bd = new BigDecimal(compressedsize).setScale(1, RoundingMode.HALF_EVEN);
-            compressedsize = bd.doubleValue();
-            compressedFileList.add(compressedsize);
+        }.execute();
+    }
+
+    /**
+     * Method to read the daily savings of the last HISTORY_DAYS days up to the last one recorded and the totals of the last week and of all time
+     * @param data chart data to be filled in
+     */
+    private void loadHistory(ChartData data) {
+        SavingsTimeSeries history = Utility.getSavingsHistory(this);
+        if (history == null) {
+            return;
+        }
+        SavingsTimeSeries.Resolution daily = SavingsTimeSeries.Resolution.DAILY;
+        long now = System.currentTimeMillis();
+        long today = now - now % daily.getInterval();
+        data.lastWeek = history.query(daily, today - 6 * daily.getInterval(), now + 1);    //today and the 6 UTC days before
+        data.allTime = history.query(daily, 0, Long.MAX_VALUE);
+        long count = history.getBucketCount(daily);
+        long first = Math.max(0, count - HISTORY_DAYS);
+        int days = (int) (count - first);
+        data.userSaved = new long[days];
+        data.serviceSaved = new long[days];
+        if (days > 0) {
+            data.firstDay = history.getBucketStart(daily, first);
         }
+        for (int i = 0; i < days; i++) {
+            SavingsTimeSeries.Totals day = history.getBucket(daily, first + i);
+            data.serviceSaved[i] = day.getServiceSaved();
+            data.userSaved[i] = day.getSaved() - day.getServiceSaved();
+        }
+        Log.i(LOG_TAG_NAME, "history, last week: " + data.lastWeek + " all time: " + data.allTime);
+    }
+
+    /**
+     * Method to add the size comparison line chart, the size histogram and the savings history to the layout
+     * @param data sizes, summary and the points of each series to be plotted
+     */
+    private void showCharts(ChartData data) {
+        LinearLayout linearLayout =  (LinearLayout)findViewById(R.id.layoutinfo);
+        StatsAggregator.Summary summary = data.summary;
 
+        double unit = Utility.KILOBYTE * Utility.KILOBYTE;
+        double maxsize = summary.getMaxSize() / unit;
         if (maxsize < 1) {  //Less than 1MB image
-            maxsize = maxsize * Utility.KILOBYTE;  //kilobytes
+            unit = Utility.KILOBYTE;
+            maxsize = summary.getMaxSize() / unit;  //kilobytes
             sizestr = "Kbytes";
         } else {
             maxsize += 2; //A little additional buffering on Y-axis
         }
 
         XYSeries series1 = new XYSeries("Original image size");
-        int index = 0;
-        for (int i=0; i<srcFileList.size(); i++) {
-            series1.add(index++, srcFileList.get(i));
-        }
-
-        Log.i(LOG_TAG_NAME, "first series added: " + srcFileList.size());
         XYSeries series2 = new XYSeries("Compressed image size");
-        index = 0;
-        for (int i=0; i<compressedFileList.size(); i++) {
-            series2.add(index++, compressedFileList.get(i));
+        for (int index : data.points) {
+            series1.add(index, roundSize(data.sizes.getOriginal()[index], unit));
+            series2.add(index, roundSize(data.sizes.getCompressed()[index], unit));
         }
-
-        Log.i(LOG_TAG_NAME, "second series added: " + compressedFileList.size());
+        Log.i(LOG_TAG_NAME, "series added: " + series1.getItemCount() + " and " + series2.getItemCount() + " of "
+                + summary.getCount() + " points");
         XYMultipleSeriesDataset dataset = new XYMultipleSeriesDataset();
         dataset.addSeries(series1);
         dataset.addSeries(series2);
 
-        Log.i(LOG_TAG_NAME, "both series added to series dataset");
-
         // Now we create the renderer
+        boolean labelled = series1.getItemCount() <= MAX_LABELLED_POINTS;
         XYSeriesRenderer renderer1 = new XYSeriesRenderer();
         renderer1.setLineWidth(2);
         renderer1.setColor(Color.RED);
         renderer1.setDisplayBoundingPoints(true);
-        renderer1.setDisplayChartValues(true);
+        renderer1.setDisplayChartValues(labelled);
         renderer1.setPointStyle(PointStyle.CIRCLE);
         renderer1.setPointStrokeWidth(3);
 
@@ -113,44 +162,160 @@ public class StatsActivity extends Activity {
         renderer2.setLineWidth(2);
         renderer2.setColor(Color.GREEN);
         renderer2.setDisplayBoundingPoints(true);
-        renderer2.setDisplayChartValues(true);
+        renderer2.setDisplayChartValues(labelled);
         renderer2.setPointStyle(PointStyle.CIRCLE);
         renderer2.setPointStrokeWidth(3);
 
-
-        XYMultipleSeriesRenderer mRenderer = new XYMultipleSeriesRenderer();
-        mRenderer.setApplyBackgroundColor(true);
-        mRenderer.setBackgroundColor(Color.BLACK);
-
+        XYMultipleSeriesRenderer mRenderer = createRenderer();
         mRenderer.addSeriesRenderer(renderer1);
         mRenderer.addSeriesRenderer(renderer2);
         mRenderer.setYTitle("Image size in " + sizestr);
         mRenderer.setXTitle("Images");
+        mRenderer.setYAxisMax(maxsize);
+        mRenderer.setYAxisMin(0);
+        mRenderer.setChartTitle("Original image vs Compressed image comparison, all compressed images \n\n"
+                + summary.getCount() + " images, " + Math.round(summary.getSavedPercent()) + "% saved, median "
+                + Utility.getSizeInString(summary.getOriginalPercentile(50)) + " -> "
+                + Utility.getSizeInString(summary.getCompressedPercentile(50)) + ", p90 "
+                + Utility.getSizeInString(summary.getOriginalPercentile(90)) + " -> "
+                + Utility.getSizeInString(summary.getCompressedPercentile(90))
+                + (spaceSavedMessage.length() > 0 ? "\nLast batch: " + spaceSavedMessage : ""));
+
+        GraphicalView chartView = ChartFactory.getLineChartView(this, dataset, mRenderer);
+        linearLayout.addView(chartView, new LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT, 0, 1));
+        linearLayout.addView(createHistogramView(summary), new LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT, 0, 1));
+        if (data.userSaved.length > 0) {
+            linearLayout.addView(createHistoryView(data), new LinearLayout.LayoutParams(LinearLayout.LayoutParams.MATCH_PARENT, 0, 1));
+        }
+        Log.i(LOG_TAG_NAME, "chartViews added to Linear layout...");
+    }
+
+    /**
+     * Method to create a bar chart of the number of original and compressed images per size bucket
+     * @param summary summary holding the histograms
+     * @return chart view
+     */
+    private GraphicalView createHistogramView(StatsAggregator.Summary summary) {
+        XYSeries original = new XYSeries("Original images");
+        XYSeries compressed = new XYSeries("Compressed images");
+        int[] originalHistogram = summary.getOriginalHistogram();
+        int[] compressedHistogram = summary.getCompressedHistogram();
+        int maxCount = 0;
+        for (int i = 0; i < originalHistogram.length; i++) {
+            original.add(i, originalHistogram[i]);
+            compressed.add(i, compressedHistogram[i]);
+            maxCount = Math.max(maxCount, Math.max(originalHistogram[i], compressedHistogram[i]));
+        }
+        XYMultipleSeriesDataset dataset = new XYMultipleSeriesDataset();
+        dataset.addSeries(original);
+        dataset.addSeries(compressed);
+
+        XYSeriesRenderer renderer1 = new XYSeriesRenderer();
+        renderer1.setColor(Color.RED);
+        XYSeriesRenderer renderer2 = new XYSeriesRenderer();
+        renderer2.setColor(Color.GREEN);
+
+        XYMultipleSeriesRenderer mRenderer = createRenderer();
+        mRenderer.addSeriesRenderer(renderer1);
+        mRenderer.addSeriesRenderer(renderer2);
+        mRenderer.setYTitle("Images");
+        mRenderer.setXTitle("Image size");
+        mRenderer.setXLabels(0);
+        for (int i = 0; i < originalHistogram.length; i++) {
+            mRenderer.addXTextLabel(i, i < StatsAggregator.BUCKET_LIMITS.length
+                    ? "<" + Utility.getSizeInString(StatsAggregator.BUCKET_LIMITS[i])
+                    : ">" + Utility.getSizeInString(StatsAggregator.BUCKET_LIMITS[i - 1]));
+        }
+        mRenderer.setXAxisMin(-0.5);
+        mRenderer.setXAxisMax(originalHistogram.length - 0.5);
+        mRenderer.setYAxisMin(0);
+        mRenderer.setYAxisMax(maxCount + 1);
+        mRenderer.setBarSpacing(0.5);
+        mRenderer.setChartTitle("Image size distribution");
+        return ChartFactory.getBarChartView(this, dataset, mRenderer, BarChart.Type.DEFAULT);
+    }
+
+    /**
+     * Method to create a bar chart of the space saved per day by the user and by the background service
+     * @param data chart data holding the daily savings
+     * @return chart view
+     */
+    private GraphicalView createHistoryView(ChartData data) {
+        XYSeries user = new XYSeries("Saved by user");
+        XYSeries service = new XYSeries("Saved by service");
+        double unit = Utility.KILOBYTE * Utility.KILOBYTE;
+        double max = 0;
+        for (int i = 0; i < data.userSaved.length; i++) {
+            user.add(i, roundSize(data.userSaved[i], unit));
+            service.add(i, roundSize(data.serviceSaved[i], unit));
+            max = Math.max(max, Math.max(data.userSaved[i], data.serviceSaved[i]) / unit);
+        }
+        XYMultipleSeriesDataset dataset = new XYMultipleSeriesDataset();
+        dataset.addSeries(user);
+        dataset.addSeries(service);
+
+        XYSeriesRenderer renderer1 = new XYSeriesRenderer();
+        renderer1.setColor(Color.CYAN);
+        XYSeriesRenderer renderer2 = new XYSeriesRenderer();
+        renderer2.setColor(Color.YELLOW);
+
+        XYMultipleSeriesRenderer mRenderer = createRenderer();
+        mRenderer.addSeriesRenderer(renderer1);
+        mRenderer.addSeriesRenderer(renderer2);
+        mRenderer.setYTitle("Space saved in Mbytes");
+        mRenderer.setXTitle("Day");
+        mRenderer.setXLabels(0);
+        SimpleDateFormat format = new SimpleDateFormat("MM/dd", Locale.getDefault());
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));    //days of the history are UTC days
+        long day = SavingsTimeSeries.Resolution.DAILY.getInterval();
+        for (int i = data.userSaved.length - 1; i >= 0; i -= 7) {
+            mRenderer.addXTextLabel(i, format.format(new Date(data.firstDay + i * day)));
+        }
+        mRenderer.setXAxisMin(-0.5);
+        mRenderer.setXAxisMax(data.userSaved.length - 0.5);
+        mRenderer.setYAxisMin(0);
+        mRenderer.setYAxisMax(max * 1.1 + 0.1);
+        mRenderer.setBarSpacing(0.2);
+        mRenderer.setChartTitle("Space saved per day, last 7 days: " + Utility.getSizeInString(data.lastWeek.getSaved())
+                + " (service: " + Utility.getSizeInString(data.lastWeek.getServiceSaved()) + "), all time: "
+                + Utility.getSizeInString(data.allTime.getSaved()) + " in " + data.allTime.getCount() + " images");
+        return ChartFactory.getBarChartView(this, dataset, mRenderer, BarChart.Type.DEFAULT);
+    }
+
+    /**
+     * Method to create a chart renderer with the look shared by all charts of the activity
+     * @return renderer without series renderers
+     */
+    private static XYMultipleSeriesRenderer createRenderer() {
+        XYMultipleSeriesRenderer mRenderer = new XYMultipleSeriesRenderer();
+        mRenderer.setApplyBackgroundColor(true);
+        mRenderer.setBackgroundColor(Color.BLACK);
 
         mRenderer.setLabelsTextSize(20);
         mRenderer.setXLabelsColor(Color.BLUE);
 
         mRenderer.setAxesColor(Color.MAGENTA);
-        mRenderer.setXLabelsColor(Color.BLUE);
 
         // We want to avoid black border
         mRenderer.setMarginsColor(Color.argb(0x00, 0xff, 0x00, 0x00)); // transparent margins
 // Disable Pan on two axis
         mRenderer.setPanEnabled(false, false);
-        mRenderer.setYAxisMax(maxsize);
-        mRenderer.setYAxisMin(0);
         mRenderer.setShowGrid(true);
 
         mRenderer.setLabelsColor(Color.GREEN);
-        mRenderer.setChartTitle("Original image vs Compressed image comparison \n\n" + spaceSavedMessage);
         mRenderer.setChartTitleTextSize(15);
 
         mRenderer.setInScroll(true);
+        return mRenderer;
+    }
 
-        Log.i(LOG_TAG_NAME, "fetching line chart view...  dataset: " + dataset + " renderer: " + mRenderer);
-
-        GraphicalView chartView = ChartFactory.getLineChartView(this, dataset, mRenderer);
-        linearLayout.addView(chartView);
-        Log.i(LOG_TAG_NAME, "chartView added to Linear layout...");
+    /**
+     * Method to convert a size to the unit of the chart, rounded to one decimal
+     * @param size size in bytes
+     * @param unit bytes per unit
+     * @return size in units
+     */
+    private static double roundSize(long size, double unit) {
+        return Math.round(size / unit * 10) / 10.0;
     }
 }
@@ -0,0 +1,418 @@
+package course.examples.spacesaver;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.StatFs;
+import android.util.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Single source of the storage usage of the device, shared by the activity and the background service <br/>
+ * All volumes are sampled with StatFs on one background thread while anybody is listening. The rate adapts to the
+ * activity on the storage: every sample showing a significant change resets the interval to MIN_SAMPLE_INTERVAL, every
+ * quiet sample doubles it up to MAX_SAMPLE_INTERVAL. Each sample is published as an immutable Snapshot, and the last
+ * one is kept in the user preferences so it can be shown instantly when the activity is created.
+ */
+public class StorageMonitor {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.StorageMonitor";
+    public static final int DEFAULT_HYSTERESIS_PERCENT = 2; //used space must drop this far below a threshold to count as below again
+    private static final long MIN_SAMPLE_INTERVAL = 2000;
+    private static final long MAX_SAMPLE_INTERVAL = 60 * 1000;
+    private static final long SIGNIFICANT_CHANGE = Utility.KILOBYTE * Utility.KILOBYTE; //changes in free space smaller than this are noise
+
+    private static StorageMonitor instance = null;
+
+    /**
+     * Immutable usage of all volumes at one point in time
+     */
+    public static final class Snapshot {
+        private final long timestamp;
+        private final List<Volume> volumes;
+        private final long total;
+        private final long free;
+
+        /**
+         * Constructor taking the volumes sampled
+         * @param timestamp time of the sample, as returned by System.currentTimeMillis()
+         * @param volumes usage of each volume
+         */
+        Snapshot(long timestamp, List<Volume> volumes) {
+            this.timestamp = timestamp;
+            this.volumes = Collections.unmodifiableList(new ArrayList<Volume>(volumes));
+            long totalBytes = 0;
+            long freeBytes = 0;
+            for (Volume volume : volumes) {
+                totalBytes += volume.total;
+                freeBytes += volume.free;
+            }
+            total = totalBytes;
+            free = freeBytes;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public List<Volume> getVolumes() {
+            return volumes;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getFree() {
+            return free;
+        }
+
+        public long getUsed() {
+            return total - free;
+        }
+
+        /**
+         * @return used space as a percentage of the capacity of all volumes, 0 if the capacity is not known
+         */
+        public long getUsedPercentage() {
+            return total == 0 ? 0 : getUsed() * 100 / total;
+        }
+
+        /**
+         * Method to return the capacity of the device storage for display
+         * @return string containing the total, available and used space
+         */
+        public String getCapacityString() {
+            return "Total : " + Utility.getSizeInString(total) + " Available : " + Utility.getSizeInString(free)
+                    + " Used : " + Utility.getSizeInString(getUsed()) + "  [ " + getUsedPercentage() + "%used ]";
+        }
+
+        /**
+         * Method to serialize the snapshot for the user preferences, one line per volume after the timestamp
+         */
+        String encode() {
+            StringBuilder builder = new StringBuilder().append(timestamp);
+            for (Volume volume : volumes) {
+                builder.append('\n').append(volume.total).append('\t').append(volume.free).append('\t').append(volume.path);
+            }
+            return builder.toString();
+        }
+
+        /**
+         * Method to read a snapshot written by encode()
+         * @param encoded serialized snapshot, can be null
+         * @return the snapshot, null if there is none or it cannot be read
+         */
+        static Snapshot decode(String encoded) {
+            if (encoded == null) {
+                return null;
+            }
+            try {
+                String[] lines = encoded.split("\n");
+                ArrayList<Volume> volumes = new ArrayList<Volume>(lines.length - 1);
+                for (int i = 1; i < lines.length; i++) {
+                    String[] fields = lines[i].split("\t", 3);
+                    volumes.add(new Volume(fields[2], Long.parseLong(fields[0]), Long.parseLong(fields[1])));
+                }
+                return new Snapshot(Long.parseLong(lines[0]), volumes);
+            } catch (RuntimeException e) {
+                Log.i(LOG_TAG_NAME, "ignoring unreadable stored snapshot: " + e.toString());
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Immutable usage of one volume
+     */
+    public static final class Volume {
+        public final String path;
+        public final long total;
+        public final long free;
+
+        Volume(String path, long total, long free) {
+            this.path = path;
+            this.total = total;
+            this.free = free;
+        }
+    }
+
+    /**
+     * Callback notified of every new snapshot
+     */
+    public interface Listener {
+        void onSnapshot(Snapshot snapshot);
+    }
+
+    /**
+     * Callback notified when the used space crosses a threshold
+     */
+    public interface ThresholdListener {
+        /**
+         * @param snapshot the sample that crossed the threshold
+         * @param above true if the used space rose to or above the threshold, false if it fell below threshold minus hysteresis
+         */
+        void onThresholdCrossed(Snapshot snapshot, boolean above);
+    }
+
+    /**
+     * Wrapper class holding a listener with the handler it is notified on and, for threshold listeners, its state
+     */
+    private static class Registration {
+        Listener listener;
+        ThresholdListener thresholdListener;
+        int threshold;
+        int hysteresis;
+        Handler handler;
+        Boolean above = null;   //unknown until the first snapshot
+    }
+
+    private final SharedPreferences prefs;
+    private final Handler handler;
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+    private final List<File> volumePaths;
+    private volatile Snapshot snapshot;
+    private long sampleInterval = MIN_SAMPLE_INTERVAL;
+    private long lastPersisted = 0;
+
+    private final Runnable sampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            Snapshot previous = snapshot;
+            Snapshot current = sampleNow();
+            if (previous != null && Math.abs(current.getFree() - previous.getFree()) < SIGNIFICANT_CHANGE) {
+                sampleInterval = Math.min(MAX_SAMPLE_INTERVAL, sampleInterval * 2);
+            } else {
+                sampleInterval = MIN_SAMPLE_INTERVAL;
+            }
+            if (!registrations.isEmpty()) {
+                handler.postDelayed(this, sampleInterval);
+            }
+        }
+    };
+
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            sampleInterval = MIN_SAMPLE_INTERVAL;
+            handler.removeCallbacks(sampleRunnable);
+            sampleRunnable.run();
+        }
+    };
+
+    /**
+     * Method to return the monitor shared by the activity and the background service
+     * @param context Context of the caller, only its application context is kept
+     * @return shared StorageMonitor instance
+     */
+    public static synchronized StorageMonitor getInstance(Context context) {
+        if (instance == null) {
+            instance = new StorageMonitor(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private StorageMonitor(Context context) {
+        prefs = context.getSharedPreferences(Constants.USER_PREFERENCE, 0);
+        snapshot = Snapshot.decode(prefs.getString(Constants.STORAGE_SNAPSHOT, null));
+        volumePaths = getVolumePaths(context);
+        HandlerThread thread = new HandlerThread("SpaceSaver-storage", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Method to return the volumes making up the device storage: the system partition, the primary external storage and,
+     * on KitKat and above, removable volumes
+     */
+    private static List<File> getVolumePaths(Context context) {
+        ArrayList<File> paths = new ArrayList<File>();
+        paths.add(Environment.getRootDirectory());
+        paths.add(Environment.getExternalStorageDirectory());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            File[] dirs = context.getExternalFilesDirs(null);
+            for (int i = 1; i < dirs.length; i++) {  //the first one is on the primary external storage
+                if (dirs[i] != null) {
+                    paths.add(dirs[i]);
+                }
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Method to return the latest snapshot without touching the storage. Until the first sample of this process it is
+     * the last snapshot of the previous run.
+     * @return latest snapshot, null if the storage was never sampled
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Method to sample all volumes on the calling thread and publish the result. Meant for callers that need an up to
+     * date value right away, e.g. after compressing images, and already run off the UI thread.
+     * @return the new snapshot
+     */
+    public synchronized Snapshot sampleNow() {
+        ArrayList<Volume> volumes = new ArrayList<Volume>(volumePaths.size());
+        for (File path : volumePaths) {
+            Volume volume = sampleVolume(path);
+            if (volume != null) {
+                volumes.add(volume);
+            }
+        }
+        Snapshot previous = snapshot;
+        Snapshot current = new Snapshot(System.currentTimeMillis(), volumes);
+        snapshot = current;
+        if (previous == null || Math.abs(current.getFree() - previous.getFree()) >= SIGNIFICANT_CHANGE
+                || current.getTimestamp() - lastPersisted >= MAX_SAMPLE_INTERVAL) {
+            prefs.edit().putString(Constants.STORAGE_SNAPSHOT, current.encode()).apply();
+            lastPersisted = current.getTimestamp();
+        }
+        for (Registration registration : registrations) {
+            notify(registration, current);
+        }
+        return current;
+    }
+
+    /**
+     * Method to sample one volume with StatFs
+     * @param path any path on the volume
+     * @return usage of the volume, null if it cannot be read
+     */
+    private static Volume sampleVolume(File path) {
+        try {
+            StatFs statFs = new StatFs(path.getAbsolutePath());
+            long blockSize;
+            long total;
+            long free;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                blockSize = statFs.getBlockSizeLong();
+                total = statFs.getBlockCountLong() * blockSize;
+                free = statFs.getAvailableBlocksLong() * blockSize;
+            } else {
+                blockSize = statFs.getBlockSize();
+                total = (long) statFs.getBlockCount() * blockSize;
+                free = (long) statFs.getAvailableBlocks() * blockSize;
+            }
+            return new Volume(path.getAbsolutePath(), total, free);
+        } catch (IllegalArgumentException e) {
+            Log.i(LOG_TAG_NAME, "cannot read " + path + ": " + e.toString());  //volume unmounted
+            return null;
+        }
+    }
+
+    /**
+     * Method to notify one registration of a new snapshot on its handler
+     */
+    private void notify(final Registration registration, final Snapshot current) {
+        final boolean above;
+        if (registration.listener != null) {
+            above = false;
+        } else {
+            long used = current.getUsedPercentage();
+            if (registration.above == null) {
+                registration.above = used >= registration.threshold;
+                if (!registration.above) {
+                    return;  //only a start above the threshold is worth a notification
+                }
+            } else if (!registration.above && used >= registration.threshold) {
+                registration.above = true;
+            } else if (registration.above && used < registration.threshold - registration.hysteresis) {
+                registration.above = false;
+            } else {
+                return;  //no crossing, or still inside the hysteresis band
+            }
+            above = registration.above;
+        }
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                if (!registrations.contains(registration)) {
+                    return;  //removed while the notification was pending
+                }
+                if (registration.listener != null) {
+                    registration.listener.onSnapshot(current);
+                } else {
+                    registration.thresholdListener.onThresholdCrossed(current, above);
+                }
+            }
+        };
+        if (registration.handler == null) {
+            delivery.run();
+        } else {
+            registration.handler.post(delivery);
+        }
+    }
+
+    /**
+     * Method to be notified of every snapshot. Sampling starts with the first listener and the listener is notified of
+     * a fresh sample right away.
+     * @param listener listener to be added
+     * @param callbackHandler Handler the listener is notified on, null for the monitor thread
+     */
+    public void addListener(Listener listener, Handler callbackHandler) {
+        Registration registration = new Registration();
+        registration.listener = listener;
+        registration.handler = callbackHandler;
+        register(registration);
+    }
+
+    /**
+     * Method to be notified when the used space crosses a threshold. The listener is notified right away if the used
+     * space is already at or above the threshold.
+     * @param thresholdPercent used space percentage to be watched
+     * @param hysteresisPercent distance below the threshold the used space must fall before it counts as below again
+     * @param listener listener to be added
+     * @param callbackHandler Handler the listener is notified on, null for the monitor thread
+     */
+    public void addThresholdListener(int thresholdPercent, int hysteresisPercent, ThresholdListener listener, Handler callbackHandler) {
+        Registration registration = new Registration();
+        registration.thresholdListener = listener;
+        registration.threshold = thresholdPercent;
+        registration.hysteresis = hysteresisPercent;
+        registration.handler = callbackHandler;
+        register(registration);
+    }
+
+    private void register(Registration registration) {
+        registrations.add(registration);
+        requestUpdate();    //the new listener is notified by this sample
+    }
+
+    /**
+     * Method to stop notifying a listener added with addListener or addThresholdListener. Sampling stops with the last listener.
+     * @param listener listener to be removed
+     */
+    public void removeListener(Object listener) {
+        for (Registration registration : registrations) {
+            if (registration.listener == listener || registration.thresholdListener == listener) {
+                registrations.remove(registration);
+            }
+        }
+        if (registrations.isEmpty()) {
+            handler.removeCallbacks(sampleRunnable);
+        }
+    }
+
+    /**
+     * Method to sample right away and return to the fastest rate, e.g. after images were compressed or deleted
+     */
+    public void requestUpdate() {
+        if (registrations.isEmpty()) {
+            return;
+        }
+        handler.removeCallbacks(updateRunnable);   //coalesce requests made before the sample ran
+        handler.post(updateRunnable);
+    }
+}
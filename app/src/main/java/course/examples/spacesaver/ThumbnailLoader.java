@@ -0,0 +1,327 @@
+package course.examples.spacesaver;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class loading image thumbnails into ImageViews off the UI thread <br/>
+ * Thumbnails come from the cheapest ThumbnailSource large enough for a cell and are kept in a memory cache bounded in
+ * bytes and keyed by path, modification time and size, so a file that changes on disk is decoded again. A view shows a placeholder until its thumbnail is decoded. When a view is recycled for
+ * another image before its thumbnail arrives, the pending request is cancelled. Requests are served newest first, so
+ * the views the user is looking at are decoded before the ones scrolled past. Prefetches of thumbnails not shown yet only
+ * run once no view is waiting, and are promoted when a view asks for the same thumbnail.
+ */
+public class ThumbnailLoader {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.ThumbnailLoader";
+    public static final int THUMBNAIL_WIDTH = 200;
+    public static final int THUMBNAIL_HEIGHT = 200;
+    private static final int DECODE_THREADS = 2;
+    private static final int PLACEHOLDER_COLOR = Color.DKGRAY;
+    private static final int RESOLVED_KEYS = 512;   //prefetches of thumbnails decoded lately are skipped without a stat
+
+    private static ThumbnailLoader instance = null;
+
+    private final ThumbnailSource source;
+    private final LruCache<String, Bitmap> cache;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Paint labelPaint = new Paint();
+    private final AtomicInteger hitCount = new AtomicInteger();
+    private final AtomicInteger missCount = new AtomicInteger();
+    private final AtomicInteger cancelCount = new AtomicInteger();
+    private final AtomicInteger decodeCount = new AtomicInteger();
+    private final HashMap<String, LoadTask> prefetches = new HashMap<String, LoadTask>();  //only used on the UI thread
+    private final LruCache<String, String> resolvedKeys = new LruCache<String, String>(RESOLVED_KEYS);  //request key to cache key
+
+    /**
+     * Method to return the loader shared by all thumbnail grids of the application
+     * @param context Context of the activity, only its application context is kept
+     * @return shared ThumbnailLoader instance
+     */
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            //an eighth of the heap, like the usual recommendation for bitmap caches
+            instance = new ThumbnailLoader(context.getApplicationContext(),
+                    (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8));
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor taking the context used for finding MediaStore thumbnails and the memory budget of the cache
+     * @param context Context of the application
+     * @param maxBytes maximum number of bytes of the cached thumbnails
+     */
+    public ThumbnailLoader(Context context, int maxBytes) {
+        source = new ThumbnailSource(context, THUMBNAIL_WIDTH, THUMBNAIL_HEIGHT);
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return BitmapPool.getAllocationSize(value);    //a reused bitmap can hold more than its pixels
+            }
+        };
+        BlockingQueue<Runnable> lifoQueue = new LinkedBlockingDeque<Runnable>() {
+            @Override
+            public boolean offer(Runnable runnable) {
+                //prefetches wait behind every view, in the order they were requested
+                return ((LoadTask) runnable).view == null ? offerLast(runnable) : offerFirst(runnable);
+            }
+        };
+        executor = new ThreadPoolExecutor(DECODE_THREADS, DECODE_THREADS, 0, TimeUnit.MILLISECONDS, lifoQueue, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "SpaceSaver-thumbnail-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        labelPaint.setColor(Color.GREEN);
+        labelPaint.setStyle(Paint.Style.FILL);
+        labelPaint.setTextSize(25);
+    }
+
+    /**
+     * Request of one thumbnail for one view, tagged on the view while it is pending. The view is null for a prefetch
+     * until a view asks for the same thumbnail. A prefetch only knows its request key, the cache key is read from the
+     * file on the decode thread.
+     */
+    private class LoadTask implements Runnable {
+        final String requestKey;
+        final String cacheKey;
+        final File imgFile;
+        final String label;
+        volatile ImageView view;
+        volatile boolean cancelled = false;
+
+        LoadTask(String requestKey, String cacheKey, File imgFile, String label, ImageView view) {
+            this.requestKey = requestKey;
+            this.cacheKey = cacheKey;
+            this.imgFile = imgFile;
+            this.label = label;
+            this.view = view;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled) {
+                return;
+            }
+            final String key = cacheKey != null ? cacheKey : getKey(imgFile, label);
+            Bitmap cached = cache.get(key);    //another view may have loaded the same image meanwhile
+            final Bitmap bitmap = cached != null ? cached : decode(imgFile, label);
+            if (bitmap != null && cached == null) {
+                cache.put(key, bitmap);
+            }
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (prefetches.get(requestKey) == LoadTask.this) {
+                        prefetches.remove(requestKey);
+                    }
+                    resolvedKeys.put(requestKey, key);
+                    ImageView view = LoadTask.this.view;
+                    if (!cancelled && view != null && view.getTag(R.id.thumbnail_task) == LoadTask.this) {
+                        view.setTag(R.id.thumbnail_task, null);
+                        if (bitmap != null) {
+                            view.setImageBitmap(bitmap);   //an image that cannot be decoded keeps the placeholder
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Method to show the thumbnail of an image in a view. Must be called on the UI thread.
+     * @param view view the thumbnail is shown in, a request still pending for another image is cancelled
+     * @param imgFile image file
+     * @param label text drawn in the corner of the thumbnail, null for none
+     */
+    public void load(ImageView view, File imgFile, String label) {
+        String requestKey = getRequestKey(imgFile, label);
+        String key = getKey(imgFile, label);
+        LoadTask pending = (LoadTask) view.getTag(R.id.thumbnail_task);
+        if (pending != null) {
+            if (pending.requestKey.equals(requestKey)) {
+                return;     //already on its way
+            }
+            cancel(pending);
+        }
+        Bitmap bitmap = cache.get(key);
+        if (bitmap != null) {
+            hitCount.incrementAndGet();
+            view.setTag(R.id.thumbnail_task, null);
+            view.setImageBitmap(bitmap);
+            return;
+        }
+        missCount.incrementAndGet();
+        view.setImageDrawable(getPlaceholder());
+        LoadTask task = prefetches.remove(requestKey);
+        if (task != null) {
+            //promote the prefetch: a queued one moves to the front, a running one delivers to the view when done
+            task.view = view;
+            view.setTag(R.id.thumbnail_task, task);
+            if (executor.remove(task)) {
+                executor.execute(task);
+            }
+            return;
+        }
+        task = new LoadTask(requestKey, key, imgFile, label, view);
+        view.setTag(R.id.thumbnail_task, task);
+        executor.execute(task);
+    }
+
+    /**
+     * Method to decode a thumbnail into the cache before a view asks for it. Must be called on the UI thread, which it
+     * doesn't block on the file system: whether the file changed is only checked on the decode thread.
+     * Prefetches run only when no view is waiting for its thumbnail.
+     * @param imgFile image file
+     * @param label text drawn in the corner of the thumbnail, null for none
+     * @return request key of the thumbnail, to be passed to retainPrefetches
+     */
+    public String prefetch(File imgFile, String label) {
+        String requestKey = getRequestKey(imgFile, label);
+        String key = resolvedKeys.get(requestKey);
+        if (prefetches.containsKey(requestKey) || (key != null && cache.get(key) != null)) {
+            return requestKey;
+        }
+        LoadTask task = new LoadTask(requestKey, null, imgFile, label, null);
+        prefetches.put(requestKey, task);
+        executor.execute(task);
+        return requestKey;
+    }
+
+    /**
+     * Method to cancel the pending prefetches whose key is not in the given set, e.g. the ones scrolled out of the
+     * prefetch window. Must be called on the UI thread.
+     * @param keys request keys of the prefetches still wanted
+     */
+    public void retainPrefetches(Set<String> keys) {
+        Iterator<Map.Entry<String, LoadTask>> iterator = prefetches.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, LoadTask> entry = iterator.next();
+            if (!keys.contains(entry.getKey())) {
+                cancel(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Method to cancel the pending request of a view, e.g. when it is recycled for an image that needs no thumbnail
+     * @param view view whose request is cancelled
+     */
+    public void cancel(ImageView view) {
+        LoadTask pending = (LoadTask) view.getTag(R.id.thumbnail_task);
+        if (pending != null) {
+            cancel(pending);
+            view.setTag(R.id.thumbnail_task, null);
+        }
+    }
+
+    private void cancel(LoadTask task) {
+        task.cancelled = true;
+        executor.remove(task);
+        cancelCount.incrementAndGet();
+    }
+
+    /**
+     * Method to return the key of a request for a thumbnail, computed without touching the file system
+     */
+    static String getRequestKey(File imgFile, String label) {
+        String key = imgFile.getAbsolutePath();
+        return label == null ? key : key + '|' + label;
+    }
+
+    /**
+     * Method to return the key of a thumbnail: the same file changed on disk gets a new key
+     */
+    static String getKey(File imgFile, String label) {
+        String key = imgFile.getAbsolutePath() + '|' + imgFile.lastModified() + '|' + imgFile.length();
+        return label == null ? key : key + '|' + label;
+    }
+
+    private static Drawable getPlaceholder() {
+        return new ColorDrawable(PLACEHOLDER_COLOR);
+    }
+
+    /**
+     * Method to produce a thumbnail from the cheapest suitable source and draw its label
+     * @param imgFile image file
+     * @param label text drawn in the corner of the thumbnail, null for none
+     * @return the thumbnail, null if the file could not be decoded
+     */
+    Bitmap decode(File imgFile, String label) {
+        decodeCount.incrementAndGet();
+        Bitmap bitmap = source.load(imgFile);
+        if (bitmap != null && label != null) {
+            new Canvas(bitmap).drawText(label, 50, 50, labelPaint);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Method to empty the memory cache, e.g. when the system is low on memory. Thumbnails still shown are left to the
+     * garbage collector rather than the BitmapPool, since a view may still draw them.
+     */
+    public void clear() {
+        cache.evictAll();
+    }
+
+    public int getHitCount() {
+        return hitCount.get();
+    }
+
+    public int getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return fraction of the requests served from the memory cache, 0 if there were none
+     */
+    public double getHitRate() {
+        int requests = hitCount.get() + missCount.get();
+        return requests == 0 ? 0 : (double) hitCount.get() / requests;
+    }
+
+    /**
+     * Method to return the loader counters as a string for logging
+     * @return string containing the hit rate, decode and cancel counters, the sources used and the memory held
+     */
+    public String getStats() {
+        return "hits: " + hitCount.get() + " misses: " + missCount.get() + " hit rate: " + (int) (getHitRate() * 100) + "%"
+                + " decodes: " + decodeCount.get() + " cancelled: " + cancelCount.get() + " " + source.getStats()
+                + " size: " + Utility.getSizeInString(cache.size()) + " / " + Utility.getSizeInString(cache.maxSize());
+    }
+}
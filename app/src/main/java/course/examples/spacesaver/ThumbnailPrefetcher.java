@@ -0,0 +1,119 @@
+package course.examples.spacesaver;
+
+import android.os.SystemClock;
+import android.widget.AbsListView;
+
+import java.util.HashSet;
+
+/**
+ * Scroll listener prefetching the thumbnails of the grid cells about to scroll into view <br/>
+ * The visible range and the scroll velocity are tracked from the scroll callbacks. The window ahead of the visible range,
+ * in the scroll direction, grows with the velocity so a fast fling is prefetched further ahead, and is rounded to whole
+ * original/compressed pairs. Prefetches falling outside the window are cancelled on every change of the visible range.
+ * The window is computed from the adapter's list alone, files are only touched on the loader's decode threads.
+ */
+public class ThumbnailPrefetcher implements AbsListView.OnScrollListener {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.ThumbnailPrefetcher";
+    private static final int MIN_PREFETCH_PAIRS = 2;    //prefetched even when the grid is idle
+    private static final int MAX_PREFETCH_PAIRS = 12;   //bounded well below the thumbnail cache capacity
+    private static final long LOOKAHEAD_MS = 500;       //the window covers the cells that scroll into view within this time
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+
+    private final ImageAdapter adapter;
+    private final ThumbnailLoader loader;
+    private final HashSet<String> window = new HashSet<String>();
+    private int firstVisible = -1;
+    private int visibleCount = 0;
+    private long lastScrollAt = 0;
+    private float velocity = 0;     //positions per second, negative when scrolling back
+    private int scrollState = SCROLL_STATE_IDLE;
+
+    /**
+     * Constructor taking the adapter of the grid and the loader its thumbnails are decoded by
+     * @param adapter adapter of the grid
+     * @param loader loader shared with the adapter
+     */
+    public ThumbnailPrefetcher(ImageAdapter adapter, ThumbnailLoader loader) {
+        this.adapter = adapter;
+        this.loader = loader;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        this.scrollState = scrollState;
+        if (scrollState == SCROLL_STATE_IDLE) {
+            velocity = 0;
+            updateWindow();
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+        if (firstVisibleItem == firstVisible && visibleItemCount == visibleCount) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        if (firstVisible != -1 && scrollState != SCROLL_STATE_IDLE && now > lastScrollAt) {
+            float current = (firstVisibleItem - firstVisible) * 1000f / (now - lastScrollAt);
+            velocity = VELOCITY_SMOOTHING * current + (1 - VELOCITY_SMOOTHING) * velocity;
+        }
+        firstVisible = firstVisibleItem;
+        visibleCount = visibleItemCount;
+        lastScrollAt = now;
+        updateWindow();
+    }
+
+    /**
+     * Method to forget the scroll state and cancel all prefetches, e.g. when the adapter gets a new list of images
+     */
+    public void reset() {
+        firstVisible = -1;
+        visibleCount = 0;
+        velocity = 0;
+        window.clear();
+        loader.retainPrefetches(window);
+    }
+
+    /**
+     * Method to prefetch the cells of the window ahead of the visible range, nearest first, and cancel the others. The
+     * window starts and ends on pair boundaries, so it may overlap a visible cell by one
+     */
+    private void updateWindow() {
+        window.clear();
+        int count = adapter.getCount();
+        if (firstVisible >= 0 && count > 0) {
+            int positions = 2 * getPrefetchPairs(velocity);
+            if (velocity >= 0) {
+                int start = (firstVisible + visibleCount) & ~1;    //even positions are originals, the compressed copy follows
+                int end = Math.min(count, start + positions);
+                for (int position = start; position < end; position++) {
+                    prefetch(position);
+                }
+            } else {
+                int end = Math.max(0, (firstVisible - positions) & ~1);
+                for (int position = firstVisible - 1; position >= end; position--) {
+                    prefetch(position);
+                }
+            }
+        }
+        loader.retainPrefetches(window);
+    }
+
+    private void prefetch(int position) {
+        BmpData data = adapter.getImageData(position);  //a deleted file just fails to decode
+        if (data != null) {
+            window.add(loader.prefetch(data.srcFile, Utility.getSizeInString(data.fileSize)));
+        }
+    }
+
+    /**
+     * Method to return the number of original/compressed pairs to prefetch at a scroll velocity
+     * @param velocity grid positions per second
+     * @return number of pairs between MIN_PREFETCH_PAIRS and MAX_PREFETCH_PAIRS
+     */
+    static int getPrefetchPairs(float velocity) {
+        int pairs = (int) Math.ceil(Math.abs(velocity) * LOOKAHEAD_MS / 1000 / 2);
+        return Math.max(MIN_PREFETCH_PAIRS, Math.min(MAX_PREFETCH_PAIRS, pairs));
+    }
+}
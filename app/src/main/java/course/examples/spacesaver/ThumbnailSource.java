@@ -0,0 +1,231 @@
+package course.examples.spacesaver;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.ExifInterface;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Class producing the thumbnail of an image from the cheapest source large enough for a grid cell <br/>
+ * Sources are tried in order: the thumbnail embedded in the EXIF header of a JPEG (a few KB read from the start of the
+ * file), the mini thumbnail the MediaStore already keeps for the image, and finally a sampled decode of the image itself.
+ * An embedded or MediaStore thumbnail is only used if it is about as large as the cell and has the aspect ratio of the
+ * image, so letterboxed or tiny thumbnails fall through to the next source.
+ */
+public class ThumbnailSource {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.ThumbnailSource";
+    private static final double MAX_ASPECT_DIFFERENCE = 0.05; //thumbnails padded to another aspect ratio show black bars
+    static final int EXIF_THUMBNAIL_SIZE = 160;     //long side of the usual 160x120 EXIF thumbnail, slightly scaled up in a cell
+
+    private final Context context;
+    private final int minWidth;
+    private final int minHeight;
+    private final AtomicInteger exifCount = new AtomicInteger();
+    private final AtomicInteger mediaStoreCount = new AtomicInteger();
+    private final AtomicInteger decodeCount = new AtomicInteger();
+
+    /**
+     * Constructor taking the context used for querying the MediaStore and the size of a grid cell
+     * @param context Context of the application
+     * @param minWidth width a thumbnail must at least have
+     * @param minHeight height a thumbnail must at least have
+     */
+    public ThumbnailSource(Context context, int minWidth, int minHeight) {
+        this.context = context;
+        this.minWidth = minWidth;
+        this.minHeight = minHeight;
+    }
+
+    /**
+     * Method to return a mutable thumbnail of an image of at least minWidth x minHeight, unless the image itself is smaller
+     * @param imgFile image file
+     * @return the thumbnail, null if the file could not be decoded
+     */
+    public Bitmap load(File imgFile) {
+        Bitmap bitmap = fromExif(imgFile);
+        if (bitmap != null) {
+            exifCount.incrementAndGet();
+            return bitmap;
+        }
+        bitmap = fromMediaStore(imgFile);
+        if (bitmap != null) {
+            mediaStoreCount.incrementAndGet();
+            return bitmap;
+        }
+        bitmap = fromFile(imgFile);
+        if (bitmap != null) {
+            decodeCount.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Method to decode the thumbnail embedded in the EXIF header of a JPEG
+     * @param imgFile image file
+     * @return the thumbnail, null if there is none or it is not suitable for the cell
+     */
+    Bitmap fromExif(File imgFile) {
+        String name = imgFile.getName().toLowerCase();
+        if (!name.endsWith(".jpg") && !name.endsWith(".jpeg")) {
+            return null;
+        }
+        byte[] data;
+        int imageWidth;
+        int imageHeight;
+        try {
+            ExifInterface exif = new ExifInterface(imgFile.getAbsolutePath());
+            if (!exif.hasThumbnail()) {
+                return null;
+            }
+            data = exif.getThumbnail();
+            imageWidth = exif.getAttributeInt(ExifInterface.TAG_IMAGE_WIDTH, 0);
+            imageHeight = exif.getAttributeInt(ExifInterface.TAG_IMAGE_LENGTH, 0);
+        } catch (IOException e) {
+            Log.i(LOG_TAG_NAME, "cannot read exif of " + imgFile + ": " + e);
+            return null;
+        }
+        if (data == null) {
+            return null;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (!isSuitable(options.outWidth, options.outHeight, imageWidth, imageHeight)) {
+            return null;
+        }
+        options.inSampleSize = SizeUtility.calculateInSampleSize(options.outWidth, options.outHeight, minWidth, minHeight);
+        options.inJustDecodeBounds = false;
+        options.inMutable = true;   //the size label is drawn on it
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
+
+    /**
+     * Method to decode the mini thumbnail the MediaStore already has for an image. Thumbnails are never generated here,
+     * an image without one falls through to the sampled decode.
+     * @param imgFile image file
+     * @return the thumbnail, null if the MediaStore has none or it is not suitable for the cell
+     */
+    Bitmap fromMediaStore(File imgFile) {
+        ContentResolver resolver = context.getContentResolver();
+        long id = -1;
+        Cursor cursor = resolver.query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
+                new String[] { MediaStore.Images.Media._ID, MediaStore.MediaColumns.WIDTH, MediaStore.MediaColumns.HEIGHT },
+                MediaStore.Images.Media.DATA + " = ?",
+                new String[] { imgFile.getAbsolutePath() },
+                null);
+        int imageWidth = 0;
+        int imageHeight = 0;
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                id = cursor.getLong(0);
+                imageWidth = cursor.getInt(1);
+                imageHeight = cursor.getInt(2);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (id == -1) {
+            return null;
+        }
+
+        String thumbPath = null;
+        cursor = MediaStore.Images.Thumbnails.queryMiniThumbnail(resolver, id, MediaStore.Images.Thumbnails.MINI_KIND,
+                new String[] { MediaStore.Images.Thumbnails.DATA });
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                thumbPath = cursor.getString(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        if (thumbPath == null) {
+            return null;
+        }
+        File thumbFile = new File(thumbPath);
+        if (!thumbFile.exists() || thumbFile.lastModified() < imgFile.lastModified()) {
+            return null;    //missing or older than the image it was made from
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(thumbPath, options);
+        if (!isSuitable(options.outWidth, options.outHeight, imageWidth, imageHeight)) {
+            return null;
+        }
+        options.inSampleSize = SizeUtility.calculateInSampleSize(options.outWidth, options.outHeight, minWidth, minHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapPool.getInstance().decodeFile(thumbPath, options);
+    }
+
+    /**
+     * Method to decode the image itself, sampled down to about minWidth x minHeight
+     * @param imgFile image file
+     * @return the thumbnail, null if the file could not be decoded
+     */
+    Bitmap fromFile(File imgFile) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;  //calculate only image dimensions and not allocate memory for constructing bitmap
+        BitmapFactory.decodeFile(imgFile.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            Log.i(LOG_TAG_NAME, "cannot decode " + imgFile);
+            return null;
+        }
+        options.inSampleSize = SizeUtility.calculateInSampleSize(options.outWidth, options.outHeight, minWidth, minHeight);
+        options.inJustDecodeBounds = false;
+        return BitmapPool.getInstance().decodeFile(imgFile.getAbsolutePath(), options);
+    }
+
+    /**
+     * Method to check that a thumbnail is about as large as the cell and shows the whole image
+     * @param width width of the thumbnail
+     * @param height height of the thumbnail
+     * @param imageWidth width of the image, 0 if unknown
+     * @param imageHeight height of the image, 0 if unknown
+     * @return true if the thumbnail can be shown in place of the image
+     */
+    boolean isSuitable(int width, int height, int imageWidth, int imageHeight) {
+        return isSuitable(width, height, imageWidth, imageHeight, Math.min(EXIF_THUMBNAIL_SIZE, Math.max(minWidth, minHeight)));
+    }
+
+    /**
+     * Method to check that a thumbnail is large enough and shows the whole image
+     * @param minLongSide size the longer side of the thumbnail must at least have
+     * @return true if the thumbnail can be shown in place of the image
+     */
+    static boolean isSuitable(int width, int height, int imageWidth, int imageHeight, int minLongSide) {
+        if (width <= 0 || height <= 0 || Math.max(width, height) < minLongSide) {
+            return false;
+        }
+        if (imageWidth <= 0 || imageHeight <= 0) {
+            return true;    //nothing to compare with
+        }
+        double aspect = (double) width / height;
+        double imageAspect = (double) imageWidth / imageHeight;
+        //the thumbnail may be stored unrotated while the dimensions of the image are rotated
+        return Math.abs(aspect / imageAspect - 1) <= MAX_ASPECT_DIFFERENCE
+                || Math.abs(aspect * imageAspect - 1) <= MAX_ASPECT_DIFFERENCE;
+    }
+
+    /**
+     * Method to return the number of thumbnails produced by each source as a string for logging
+     * @return string containing the exif, MediaStore and decode counters
+     */
+    public String getStats() {
+        return "exif: " + exifCount.get() + " mediastore: " + mediaStoreCount.get() + " decoded: " + decodeCount.get();
+    }
+}
@@ -0,0 +1,334 @@
+package course.examples.spacesaver;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * View rendering a large image file at any zoom level with a bounded amount of memory <br/>
+ * A base bitmap sampled down to about the screen size is always drawn. When the image is zoomed in further than the base
+ * bitmap resolves, the visible part is covered by tiles decoded with a BitmapRegionDecoder at the sample size of the
+ * current zoom level. Only visible tiles are decoded, on a background thread, and requests for tiles scrolled out of view
+ * or of another zoom level are dropped. Decoded tiles are kept in a cache of a few screens of tiles. Bitmaps come from
+ * the BitmapPool and can have more rows than their region, so only the decoded part of each one is drawn.
+ */
+public class TiledImageView extends View {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.TiledImageView";
+    private static final int TILE_SIZE = 256; //width and height of a decoded tile in pixels
+    private static final int CACHED_SCREENS = 3; //screens of tiles kept, enough to pan back and forth without decoding again
+
+    private final Matrix imageMatrix = new Matrix();   //user transformation, applied after fitting the image to the view
+    private final Matrix drawMatrix = new Matrix();
+    private final Matrix inverseMatrix = new Matrix();
+    private final RectF imageBounds = new RectF();
+    private final RectF viewBounds = new RectF();
+    private final RectF visible = new RectF();
+    private final Rect tileRect = new Rect();
+    private final Rect srcRect = new Rect();
+    private final float[] values = new float[9];
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    //everything below is only used on the UI thread, except decoder which is only used on decodeThread
+    private final LruCache<String, Bitmap> tiles;
+    private final HashMap<String, TileTask> pending = new HashMap<String, TileTask>();
+    private final HashSet<String> wanted = new HashSet<String>();
+    private HandlerThread decodeThread = null;
+    private Handler decodeHandler = null;
+    private BitmapRegionDecoder decoder = null;
+    private Bitmap.Config config = Bitmap.Config.ARGB_8888;
+    private Bitmap baseBitmap = null;
+    private int baseSample = 1;
+    private int imageWidth = 0;
+    private int imageHeight = 0;
+    private boolean released = false;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        //tiles cover the screen at one decoded pixel per screen pixel or more, up to a tile more on each side
+        long screenBytes = 4L * (metrics.widthPixels + 2 * TILE_SIZE) * (metrics.heightPixels + 2 * TILE_SIZE);
+        tiles = new LruCache<String, Bitmap>((int) Math.min(Runtime.getRuntime().maxMemory() / 8, CACHED_SCREENS * screenBytes)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return BitmapPool.getAllocationSize(value);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                //evictions happen on the UI thread between two draws, so the tile is no longer in use
+                BitmapPool.getInstance().put(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Request for decoding one tile, run on the decode thread
+     */
+    private class TileTask implements Runnable {
+        final String key;
+        final Rect region;
+        final int sampleSize;
+        volatile boolean cancelled = false;
+
+        TileTask(String key, Rect region, int sampleSize) {
+            this.key = key;
+            this.region = region;
+            this.sampleSize = sampleSize;
+        }
+
+        @Override
+        public void run() {
+            if (cancelled || decoder == null) {
+                return;
+            }
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inPreferredConfig = config;
+            final Bitmap tile = BitmapPool.getInstance().decodeRegion(decoder, region, options);
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (pending.get(key) == TileTask.this) {
+                        pending.remove(key);
+                    }
+                    if (tile == null) {
+                        return;
+                    }
+                    if (released) {
+                        BitmapPool.getInstance().put(tile);
+                        return;
+                    }
+                    tiles.put(key, tile);
+                    invalidate();
+                }
+            });
+        }
+    }
+
+    /**
+     * Method to show an image file. The image is opened on a background thread and drawn once its base bitmap is decoded.
+     * @param imgFile Path to the image file on the device storage
+     */
+    public void setImageFile(final String imgFile) {
+        String name = imgFile.toLowerCase();
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            config = Bitmap.Config.RGB_565; //no alpha channel to keep, tiles take half the memory
+        }
+        decodeThread = new HandlerThread("SpaceSaver-tiles", Process.THREAD_PRIORITY_BACKGROUND);
+        decodeThread.start();
+        decodeHandler = new Handler(decodeThread.getLooper());
+        final DisplayMetrics metrics = getResources().getDisplayMetrics();
+        decodeHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                open(imgFile, metrics.widthPixels, metrics.heightPixels);
+            }
+        });
+    }
+
+    /**
+     * Method to open the region decoder and decode the base bitmap, called on the decode thread
+     * @param imgFile Path to the image file on the device storage
+     * @param screenWidth width the base bitmap should at least have
+     * @param screenHeight height the base bitmap should at least have
+     */
+    private void open(String imgFile, int screenWidth, int screenHeight) {
+        try {
+            decoder = BitmapRegionDecoder.newInstance(imgFile, false);
+        } catch (IOException e) {
+            Log.i(LOG_TAG_NAME, "cannot open " + imgFile + ": " + e);
+            return;
+        }
+        final int width = decoder.getWidth();
+        final int height = decoder.getHeight();
+        final int sampleSize = SizeUtility.calculateInSampleSize(width, height, screenWidth, screenHeight);
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        final Bitmap base = BitmapPool.getInstance().decodeRegion(decoder, new Rect(0, 0, width, height), options);
+        Log.i(LOG_TAG_NAME, imgFile + " " + width + "x" + height + " base sample size: " + sampleSize);
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (released) {
+                    BitmapPool.getInstance().put(base);
+                    return;
+                }
+                imageWidth = width;
+                imageHeight = height;
+                baseSample = sampleSize;
+                baseBitmap = base;
+                invalidate();
+            }
+        });
+    }
+
+    /**
+     * Method to set the transformation of the image, e.g. from pan and pinch-zoom gestures
+     * @param matrix scale and translation applied after fitting the image to the view, identity to show the whole image
+     */
+    public void setImageMatrix(Matrix matrix) {
+        imageMatrix.set(matrix);
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (baseBitmap == null) {
+            return;
+        }
+        imageBounds.set(0, 0, imageWidth, imageHeight);
+        viewBounds.set(0, 0, getWidth(), getHeight());
+        drawMatrix.setRectToRect(imageBounds, viewBounds, Matrix.ScaleToFit.CENTER);
+        drawMatrix.postConcat(imageMatrix);
+
+        canvas.save();
+        canvas.concat(drawMatrix);  //from here on, coordinates are image pixels
+        tileRect.set(0, 0, imageWidth, imageHeight);
+        canvas.drawBitmap(baseBitmap, getDecodedRect(baseBitmap, tileRect, baseSample), tileRect, paint);
+        drawTiles(canvas);
+        canvas.restore();
+    }
+
+    /**
+     * Method to draw the decoded tiles covering the visible part of the image, request the missing ones and drop the
+     * requests no longer needed
+     * @param canvas canvas already transformed to image coordinates
+     */
+    private void drawTiles(Canvas canvas) {
+        wanted.clear();
+        drawMatrix.getValues(values);
+        int sampleSize = getSampleSize(values[Matrix.MSCALE_X]);  //gestures only scale uniformly and translate
+        if (sampleSize < baseSample && drawMatrix.invert(inverseMatrix)) {
+            visible.set(0, 0, getWidth(), getHeight());
+            inverseMatrix.mapRect(visible);
+            int span = TILE_SIZE * sampleSize;  //image pixels covered by a tile
+            int firstColumn = Math.max(0, (int) visible.left / span);
+            int lastColumn = Math.min((imageWidth - 1) / span, (int) visible.right / span);
+            int firstRow = Math.max(0, (int) visible.top / span);
+            int lastRow = Math.min((imageHeight - 1) / span, (int) visible.bottom / span);
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    tileRect.set(column * span, row * span, Math.min(imageWidth, (column + 1) * span),
+                            Math.min(imageHeight, (row + 1) * span));
+                    String key = sampleSize + ":" + column + ":" + row;
+                    Bitmap tile = tiles.get(key);
+                    if (tile != null) {
+                        canvas.drawBitmap(tile, getDecodedRect(tile, tileRect, sampleSize), tileRect, paint);
+                    } else {
+                        wanted.add(key);
+                        if (!pending.containsKey(key)) {
+                            TileTask task = new TileTask(key, new Rect(tileRect), sampleSize);
+                            pending.put(key, task);
+                            decodeHandler.post(task);
+                        }
+                    }
+                }
+            }
+        }
+
+        //tiles scrolled out of view or of another zoom level are not decoded
+        Iterator<Map.Entry<String, TileTask>> iterator = pending.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, TileTask> entry = iterator.next();
+            if (!wanted.contains(entry.getKey())) {
+                entry.getValue().cancelled = true;
+                decodeHandler.removeCallbacks(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Method to return the part of a bitmap holding a decoded region, as a pooled bitmap can be larger than the region
+     * @param bitmap bitmap the region was decoded into
+     * @param region area of the image that was decoded
+     * @param sampleSize sample size of the decode
+     * @return the decoded part of the bitmap, only valid until the next call
+     */
+    private Rect getDecodedRect(Bitmap bitmap, Rect region, int sampleSize) {
+        srcRect.set(0, 0, Math.min(bitmap.getWidth(), (region.width() + sampleSize - 1) / sampleSize),
+                Math.min(bitmap.getHeight(), (region.height() + sampleSize - 1) / sampleSize));
+        return srcRect;
+    }
+
+    /**
+     * Method to return the sample size tiles are decoded at for a zoom level: the largest power of 2 that still gives at
+     * least one decoded pixel per screen pixel
+     * @param scale screen pixels per image pixel
+     * @return sample size
+     */
+    static int getSampleSize(float scale) {
+        int sampleSize = 1;
+        while (sampleSize * 2 * scale <= 1) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Method to stop decoding and give all bitmaps back to the BitmapPool, to be called when the view is no longer shown
+     */
+    public void release() {
+        released = true;
+        for (TileTask task : pending.values()) {
+            task.cancelled = true;
+        }
+        pending.clear();
+        tiles.evictAll();
+        if (baseBitmap != null) {
+            BitmapPool.getInstance().put(baseBitmap);
+            baseBitmap = null;
+        }
+        if (decodeThread != null) {
+            decodeHandler.removeCallbacksAndMessages(null);
+            decodeHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (decoder != null) {
+                        decoder.recycle();
+                        decoder = null;
+                    }
+                }
+            });
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                decodeThread.quitSafely();
+            } else {
+                decodeThread.quit();
+            }
+        }
+    }
+}
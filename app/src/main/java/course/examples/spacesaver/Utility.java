@@ -2,19 +2,19 @@ package course.examples.spacesaver;
 
 import android.app.ProgressDialog;
 import android.content.Context;
-import android.database.Cursor;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
 import android.os.AsyncTask;
-import android.os.Build;
 import android.os.Environment;
-import android.os.StatFs;
-import android.provider.MediaStore;
 import android.util.Log;
 import android.widget.Toast;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -25,9 +25,24 @@ import java.util.List;
 public class Utility {
 
     public static final String LOG_TAG_NAME = "SpaceSaver.Utility";
-    public static final long KILOBYTE = 1024;
+    public static final long KILOBYTE = SizeUtility.KILOBYTE;
     public static final int MAX_IMAGES_TO_COMPRESS = 15;
-    public static final int MAX_FILE_SIZE = 8; //8 MB file size
+    public static final int MAX_PLAN_CANDIDATES = 60; //candidates the service plans from, their headers are read on every pass
+    public static final int MAX_IMAGES_PER_PLAN = 40; //bounds the duration of one pass of the service
+    public static final int QUERY_PAGE_SIZE = 100; //number of MediaStore rows read per query
+    public static final int DEFAULT_TARGET_PERCENT = 50; //adaptive quality target as a percentage of the original size
+    public static final int DEFAULT_TARGET_KB_PER_MEGAPIXEL = 300; //adaptive quality target as a size per million pixels
+    public static final long MAX_DECODE_BYTES = 32 * KILOBYTE * KILOBYTE; //images needing a larger bitmap are compressed strip by strip
+    public static final int STRIP_HEIGHT = 64; //rows decoded at a time when compressing strip by strip
+    public static final String VERBOSE_LOG_TAG = "SpaceSaver";  //isLoggable rejects tags longer than 23 characters before API 24
+
+    /**
+     * Whether the per image messages are logged, enabled with adb shell setprop log.tag.SpaceSaver VERBOSE before the app
+     * starts. It is read once, so the hot loops test a constant instead of building messages nobody reads.
+     */
+    public static final boolean VERBOSE = Log.isLoggable(VERBOSE_LOG_TAG, Log.VERBOSE);
+
+    private static SavingsTimeSeries savingsHistory = null;
 
     /**
      * Method to return hashcode of a given path
@@ -39,63 +54,60 @@ public class Utility {
     }
 
     /**
-     * Retrieves list of images on the device from the location /DCIM/Camera
+     * Retrieves list of images on the device that are worth compressing, skipping images already in the CompressionLedger
      * @param context Context used for querying content provider in retrieving images
-     * @return returns a list containing absolute path to images on the device
+     * @param imageQuality quality level the images are going to be compressed with
+     * @param lossless true if the images are going to be optimized without loss, imageQuality is then not used
+     * @return returns a list containing absolute path to at most MAX_IMAGES_TO_COMPRESS images on the device
      */
-    public static List<String> getCameraImages(Context context) {
-
-        final String CAMERA_IMAGE_BUCKET_NAME = Environment.getExternalStorageDirectory().toString() + "/DCIM/Camera";
-        final String CAMERA_IMAGE_BUCKET_ID = getBucketId(CAMERA_IMAGE_BUCKET_NAME);
-
-        final String[] projection = { MediaStore.Images.Media.DATA, MediaStore.Images.Media._ID };
-        final String selection = MediaStore.Images.Media.BUCKET_ID + " = ?";
-        final String[] selectionArgs = { CAMERA_IMAGE_BUCKET_ID };
-        final Cursor cursor = context.getContentResolver().query(MediaStore.Images.Media.EXTERNAL_CONTENT_URI,
-                projection,
-                null, //selection,
-                null, //selectionArgs,
-                MediaStore.MediaColumns.SIZE + " DESC");
-        int maxCount = MAX_IMAGES_TO_COMPRESS;  //compress only MAX_IMAGES_TO_COMPRESS images at a time lest we run out of memory.
-        int count = 0;
-        int size = cursor.getCount() < maxCount ? cursor.getCount() : maxCount;
-        Log.i(LOG_TAG_NAME, "Total # of images fetched from the device : " + cursor.getCount());
-        ArrayList<String> result = new ArrayList<String>(size);
-        if (cursor.moveToFirst()) {
-            final int dataColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.Media.DATA);
-            do {
-                final String data = cursor.getString(dataColumn);
-                long filesize = new File(data).length();
-                Log.i(LOG_TAG_NAME, data + " " + " size = " + filesize);
-                if (filesize == 0 || Utility.getSizeInMbytes(filesize) > MAX_FILE_SIZE ) {
-                    continue;   //It's too memory and compute intensive to compress and load images with higher size on smaller devices. Just skip them.
-                }
-                if (data.indexOf(Constants.COMPRESSED_IMAGE_FOLDER) != -1) {  //skip our own folder to prevent recompressing and deleting the already compressed images
-                    continue;
-                }
-                result.add(data);
-                count++;
-            } while (count < maxCount && cursor.moveToNext());
+    public static List<String> getCameraImages(Context context, int imageQuality, boolean lossless) {
+        List<ImageCandidate> candidates = getCameraImageCandidates(context, MAX_IMAGES_TO_COMPRESS, imageQuality, lossless);  //compress only MAX_IMAGES_TO_COMPRESS images at a time lest we run out of memory.
+        ArrayList<String> result = new ArrayList<String>(candidates.size());
+        for (ImageCandidate candidate : candidates) {
+            result.add(candidate.path);
         }
-        cursor.close();
         return result;
     }
 
+    /**
+     * Retrieves the images on the device giving the most savings for the least work, skipping images already in the
+     * CompressionLedger or known from the last duplicate scan to be copies of another image that is compressed already
+     * or selected. See CompressionPipeline.selectCandidates for how candidates are chosen and ranked.
+     * @param context Context used for querying content provider in retrieving images
+     * @param maxCount maximum number of images to be returned
+     * @param imageQuality quality level the images are going to be compressed with
+     * @param lossless true if the images are going to be optimized without loss, imageQuality is then not used
+     * @return returns a list of at most maxCount candidates, best first
+     */
+    public static List<ImageCandidate> getCameraImageCandidates(Context context, int maxCount, int imageQuality, boolean lossless) {
+        CompressionLedger ledger = CompressionLedger.getInstance(context);
+        return ledger.dropKnownCopies(CompressionPipeline.selectCandidates(new MediaStoreImageSource(context), ledger,
+                maxCount, imageQuality, lossless, QUERY_PAGE_SIZE));
+    }
+
+    /**
+     * Method to return the adaptive quality target chosen by the user
+     * @param prefs preferences of the user
+     * @return adaptive quality target, null if the user compresses at a fixed quality
+     */
+    public static QualitySearch getQualitySearch(SharedPreferences prefs) {
+        if (!prefs.getBoolean(Constants.ADAPTIVE_QUALITY, false)) {
+            return null;
+        }
+        if (prefs.getBoolean(Constants.TARGET_PER_MEGAPIXEL, false)) {
+            return QualitySearch.bytesPerMegapixel(
+                    prefs.getInt(Constants.TARGET_KB_PER_MEGAPIXEL, DEFAULT_TARGET_KB_PER_MEGAPIXEL) * KILOBYTE);
+        }
+        return QualitySearch.percentOfOriginal(prefs.getInt(Constants.TARGET_PERCENT, DEFAULT_TARGET_PERCENT));
+    }
+
     /**
      * Deletes the first maxCount images from the provided list. The images are deleted from the physical device
      * @param imgList  list containing path to images that needs to be deleted
      * @param maxCount delete maxCount images from the imgList
      */
     public static void deleteImages(List<String> imgList, int maxCount) {
-        int count = 0;
-        for (String image : imgList) {
-            File imageFile = new File(image);
-            if (imageFile.exists()) {
-                imageFile.delete();
-            }
-            count++;
-            if (count >= maxCount) break;
-        }
+        CompressionPipeline.deleteImages(imgList, maxCount);
     }
 
     /**
@@ -106,46 +118,46 @@ public class Utility {
         deleteImages(imgList, imgList.size());
     }
 
+    /**
+     * Deletes the original images of the pairs that have a compressed image, which the writer verified already.
+     * Originals whose compression failed or was cancelled are kept.
+     * @param pairs result of a batch, null entries are ignored
+     * @return paths of the originals deleted
+     */
+    public static List<String> deleteCompressedOriginals(List<Pair> pairs) {
+        List<String> compressed = new ArrayList<String>(pairs.size());
+        for (Pair pair : pairs) {
+            if (pair != null && pair.compressedImageFile != null) {
+                compressed.add(pair.srcImageFile);
+            }
+        }
+        deleteImages(compressed);
+        return compressed;
+    }
+
     /**
      * Deletes imageFile from the physical device
      * @param imgFile file to be deleted
      */
     public static void deleteImage(File imgFile) {
-        if (imgFile.exists()) {
-            imgFile.delete();
-        }
+        CompressionPipeline.deleteImage(imgFile);
     }
 
     /**
      * Method to evaluate the space saved as a result of compressed images
-     * @param pairs A list of Pair objects (containing source file and compressed image)
+     * @param pairs A list of Pair objects (containing source file and compressed image alongwith their sizes)
      * @return A string containing information on space occupied by original images, compressed images and total savings
      */
     public static String calculateSpaceSaved(List<Pair> pairs) {
-        int totalSourceFilesLength = 0;
-        int totalCompressedFilesLength = 0;
-        for (Pair pair : pairs) {
-            File srcFile = new File(pair.srcImageFile);
-            File compressedFile = new File(pair.compressedImageFile);
-            totalSourceFilesLength += srcFile.length();
-            totalCompressedFilesLength += compressedFile.length();
-        }
-        int totalSaved = totalSourceFilesLength - totalCompressedFilesLength;
-        int percentSaved = (totalSaved * 100)/ totalSourceFilesLength;
-        String savedString = " Original files capacity : " + getSizeInString(totalSourceFilesLength) +
-                            " Compressed files capacity : " + getSizeInString(totalCompressedFilesLength) +
-                            " Total Savings : [ " + percentSaved + " %]";
-        return savedString;
+        return SizeUtility.calculateSpaceSaved(pairs);
     }
 
     /**
-     * Method to compress all the images in a given list of images of desired image quality
-     * @param imgList  A list of images that needs to be compressed
-     * @param imageQuality Images to be compressed of the desired quality
-     * @return Returns a list of Pair objects containing path to source and compressed image
+     * Method to return the folder where compressed images are placed, creating it if it doesn't exist yet.
+     * Temporary files left behind by an interrupted compression are removed.
+     * @return Path to the compressed images folder, ending with a separator
      */
-    public static ArrayList<Pair> compressImages(List<String> imgList, int imageQuality) {
-        ArrayList<Pair> list = new ArrayList<Pair>();
+    public static String getCompressedImageFolder() {
         String imgFolder = Environment.getExternalStorageDirectory().toString() + "/" + Constants.COMPRESSED_IMAGE_FOLDER + "/";
         File folder = new File(imgFolder);
         if (! folder.exists()) {
@@ -154,12 +166,37 @@ public class Utility {
         } else {
             Log.i(LOG_TAG_NAME, "Folder: " + folder + " already exists ");
         }
-        Log.i(LOG_TAG_NAME, "compressImages, compressing images with image Quality value := " + imageQuality);
-        for (String image : imgList) {
-            String compressedImage = compressImage(image, imageQuality, imgFolder);
-            list.add(new Pair(image, compressedImage));
+        new CompressedImageWriter(imgFolder).deleteStaleTempFiles();
+        return imgFolder;
+    }
+
+    /**
+     * Method to return the savings history shared by the activity and the background service, opened on first use
+     * @param context Context used to locate the private files of the application
+     * @return shared SavingsTimeSeries, null if its files cannot be opened
+     */
+    public static synchronized SavingsTimeSeries getSavingsHistory(Context context) {
+        if (savingsHistory == null) {
+            try {
+                savingsHistory = new SavingsTimeSeries(new File(context.getFilesDir(), Constants.SAVINGS_HISTORY_FOLDER));
+            } catch (IOException e) {
+                Log.i(LOG_TAG_NAME, "cannot open the savings history: " + e.toString());
+            }
         }
-        return list;
+        return savingsHistory;
+    }
+
+    /**
+     * Method to compress all the images in a given list of images of desired image quality.
+     * Images are compressed concurrently on the shared CompressionExecutor
+     * @param imgList  A list of images that needs to be compressed
+     * @param imageQuality Images to be compressed of the desired quality
+     * @return Returns a list of Pair objects containing path to source and compressed image
+     */
+    public static List<Pair> compressImages(List<String> imgList, int imageQuality) {
+        String imgFolder = getCompressedImageFolder();
+        Log.i(LOG_TAG_NAME, "compressImages, compressing images with image Quality value := " + imageQuality);
+        return CompressionExecutor.getInstance().compressImages(imgList, imageQuality, null, imgFolder, null, null);
     }
 
     /**
@@ -167,125 +204,138 @@ public class Utility {
      * @param imgFile Absolute path to image file that needs to be compressed
      * @param imageQuality The quality level of the compressed image
      * @param imgFolder  Path to the location where the generated compressed image needs to be placed
-     * @return Absolute path to the newly generated image
+     * @return Pair containing the source and compressed image alongwith their sizes, the compressed image is null if compression failed
      */
-    public static String compressImage(String imgFile, int imageQuality, String imgFolder) {
+    public static Pair compressImage(String imgFile, int imageQuality, String imgFolder) {
+        return compressImage(imgFile, imageQuality, null, imgFolder);
+    }
+
+    /**
+     * Method to compress an image and place the generated compressed image in the imgFolder, using the CompressionPipeline
+     * with the BitmapCodec. With a QualitySearch the highest quality up to imageQuality meeting its target is chosen.
+     * Images too large to be decoded at once are compressed strip by strip, always at imageQuality.
+     * @param imgFile Absolute path to image file that needs to be compressed
+     * @param imageQuality The (highest) quality level of the compressed image
+     * @param qualitySearch adaptive quality target, null to always use imageQuality
+     * @param imgFolder  Path to the location where the generated compressed image needs to be placed
+     * @return Pair containing the source and compressed image alongwith their sizes and quality, the compressed image is null if compression failed
+     */
+    public static Pair compressImage(final String imgFile, final int imageQuality, QualitySearch qualitySearch, String imgFolder) {
         try {
-            final String PREFIX_COMPRESSED = "compressed_";
-            String srcFileName = imgFile;
-            int index = imgFile.lastIndexOf(File.separator);
-            if (index != -1) {
-                srcFileName = imgFile.substring(index + 1, imgFile.length());
+            if (VERBOSE) {
+                Log.v(LOG_TAG_NAME, " srcfile: " + imgFile);
             }
-            Log.i(LOG_TAG_NAME, " srcfile: " + srcFileName);
-            Bitmap bmap = BitmapFactory.decodeFile(imgFile);
-            FileOutputStream ostream = new FileOutputStream(imgFolder + PREFIX_COMPRESSED + srcFileName);
-            boolean bcompress = bmap.compress(Bitmap.CompressFormat.JPEG, imageQuality, ostream);
-            ostream.flush();
-            ostream.close();
-            if (!bcompress) {
-                Log.i(LOG_TAG_NAME, "compression of image file : " + imgFile + " failed!");
+            PipelineMetrics metrics = PipelineMetrics.getInstance();
+            long start = metrics.start();
+            BitmapFactory.Options bounds = new BitmapFactory.Options();
+            bounds.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(imgFile, bounds);
+            metrics.record(PipelineMetrics.Stage.BOUNDS, start);
+            CompressedImageWriter store = new CompressedImageWriter(imgFolder);
+            Pair pair;
+            if ((long) bounds.outWidth * bounds.outHeight * 4 > MAX_DECODE_BYTES) {
+                if (VERBOSE) {
+                    Log.v(LOG_TAG_NAME, "compressing " + bounds.outWidth + "x" + bounds.outHeight + " image strip by strip");
+                }
+                pair = store.write(imgFile, new OutputStore.Encoder() {
+                    @Override
+                    public boolean encode(OutputStream ostream) throws IOException {
+                        return compressImageInStrips(imgFile, imageQuality, ostream);
+                    }
+                });
+                pair.quality = imageQuality;
             } else {
-                long size = new File(imgFolder + "compressed_" + srcFileName).length();
-                Log.i(LOG_TAG_NAME, "compression image : " + imgFolder + PREFIX_COMPRESSED + srcFileName + " size: " + size);
+                BitmapCodec codec = BitmapCodec.getInstance().withBounds(new File(imgFile).getAbsolutePath(), bounds);
+                pair = new CompressionPipeline<Bitmap>(codec, store).compress(imgFile, imageQuality, qualitySearch);
+            }
+            if (pair.compressedImageFile == null) {
+                Log.i(LOG_TAG_NAME, "compression of image file : " + imgFile + " failed!");
+            } else if (VERBOSE) {
+                Log.v(LOG_TAG_NAME, "compression image : " + pair.compressedImageFile + " size: " + pair.compressedImageSize);
             }
-            return imgFolder + PREFIX_COMPRESSED + srcFileName;
+            return pair;
         } catch (Exception e) {
             e.printStackTrace();
             Log.i(LOG_TAG_NAME, e.toString());
         }
-        return null;
+        return new Pair(imgFile, null);
     }
 
     /**
-     * Method to print the storage capacity details (total, used, free)
-     * @return String containing details on the capacity details
+     * Method to optimize a JPEG without loss and place the optimized image in the imgFolder, see JpegHuffmanOptimizer.
+     * The image is never decoded, so images of any size are optimized with little memory.
+     * @param imgFile Absolute path to image file that needs to be optimized
+     * @param stripOptionalSegments true to also drop the metadata not needed to show the image
+     * @param imgFolder  Path to the location where the optimized image needs to be placed
+     * @return Pair containing the source and optimized image alongwith their sizes, the optimized image is null if optimization failed
      */
-    public static String getStorageCapacity() {
-        Log.i(LOG_TAG_NAME, Environment.getExternalStorageDirectory().toString());
-        Log.i(LOG_TAG_NAME, Environment.getDataDirectory().toString());
-        Log.i(LOG_TAG_NAME, Environment.getDownloadCacheDirectory().toString());
-        Log.i(LOG_TAG_NAME, Environment.getRootDirectory().toString());
-        Log.i(LOG_TAG_NAME, Environment.getExternalStorageState());
-
-        StatFs sfs = new StatFs(Environment.getExternalStorageDirectory().getAbsolutePath());
+    public static Pair optimizeImage(String imgFile, boolean stripOptionalSegments, String imgFolder) {
         try {
-            StatFs internalStatFs = new StatFs( Environment.getRootDirectory().getAbsolutePath() );
-            long internalTotal;
-            long internalFree;
-
-            StatFs externalStatFs = new StatFs( Environment.getExternalStorageDirectory().getAbsolutePath() );
-            long externalTotal;
-            long externalFree;
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                internalTotal = ( internalStatFs.getBlockCountLong() * internalStatFs.getBlockSizeLong() ) / ( KILOBYTE * KILOBYTE );
-                internalFree = ( internalStatFs.getAvailableBlocksLong() * internalStatFs.getBlockSizeLong() ) / ( KILOBYTE * KILOBYTE );
-                externalTotal = ( externalStatFs.getBlockCountLong() * externalStatFs.getBlockSizeLong() ) / ( KILOBYTE * KILOBYTE );
-                externalFree = ( externalStatFs.getAvailableBlocksLong() * externalStatFs.getBlockSizeLong() ) / ( KILOBYTE * KILOBYTE );
-            }
-            else {
-                internalTotal = ( (long) internalStatFs.getBlockCount() * (long) internalStatFs.getBlockSize() ) / ( KILOBYTE * KILOBYTE );
-                internalFree = ( (long) internalStatFs.getAvailableBlocks() * (long) internalStatFs.getBlockSize() ) / ( KILOBYTE * KILOBYTE );
-                externalTotal = ( (long) externalStatFs.getBlockCount() * (long) externalStatFs.getBlockSize() ) / ( KILOBYTE * KILOBYTE );
-                externalFree = ( (long) externalStatFs.getAvailableBlocks() * (long) externalStatFs.getBlockSize() ) / ( KILOBYTE * KILOBYTE );
+            Pair pair = new CompressionPipeline<Bitmap>(BitmapCodec.getInstance(), new CompressedImageWriter(imgFolder))
+                    .optimize(imgFile, stripOptionalSegments);
+            if (pair.compressedImageFile == null) {
+                Log.i(LOG_TAG_NAME, "optimization of image file : " + imgFile + " failed!");
+            } else if (VERBOSE) {
+                Log.v(LOG_TAG_NAME, "optimized image : " + pair.compressedImageFile + " size: " + pair.compressedImageSize);
             }
-
-            long total = internalTotal + externalTotal;
-            long free = internalFree + externalFree;
-            long used = total - free;
-            Log.i(LOG_TAG_NAME, "Total bytes = " + total);
-            Log.i(LOG_TAG_NAME, "Available bytes = " + free);
-            Log.i(LOG_TAG_NAME, "Used bytes = " + used);
-            Log.i(LOG_TAG_NAME, " % capacity used " + (used * 100 / total));
-            Log.i(LOG_TAG_NAME, " % capacity unused " + (free * 100 / total)) ;
-
-            String capacityStr = "Total : " + getSizeInString(total * KILOBYTE * KILOBYTE) + " Available : " + getSizeInString(free * KILOBYTE * KILOBYTE)
-                                        + " Used : " + getSizeInString(used * KILOBYTE * KILOBYTE) + "  [ " + (used * 100 / total) + "%used ]";
-            return capacityStr;
-        } catch (Throwable t) {
-            t.printStackTrace();
-            Log.i(LOG_TAG_NAME, t.toString());
-            return "";
+            return pair;
+        } catch (Exception e) {
+            e.printStackTrace();
+            Log.i(LOG_TAG_NAME, e.toString());
         }
+        return new Pair(imgFile, null);
     }
 
     /**
-     * Method to retrieve the percentage of space used on the device
-     * @return percentage of space used on the device
+     * Method to compress an image without decoding it into a single Bitmap. The image is decoded STRIP_HEIGHT rows at a time
+     * with a BitmapRegionDecoder and each strip is streamed into a StripJpegEncoder, so the memory needed depends on the
+     * image width only and images of any size can be compressed. Every strip is recorded as a decode and an encode in the PipelineMetrics.
+     * @param imgFile Absolute path to image file that needs to be compressed
+     * @param imageQuality The quality level of the compressed image
+     * @param ostream Stream the compressed image is written to, ideally buffered
+     * @return true if the image was compressed, false if it could not be decoded
+     * @throws IOException if reading the source or writing the compressed image fails
      */
-    public static long getUsedSpacePercentage() {
-        StatFs sfs = new StatFs(Environment.getExternalStorageDirectory().getAbsolutePath());
-        long usedPercentage = 0;
+    public static boolean compressImageInStrips(String imgFile, int imageQuality, OutputStream ostream) throws IOException {
+        BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(imgFile, false);
         try {
-            StatFs internalStatFs = new StatFs(Environment.getRootDirectory().getAbsolutePath());
-            long internalTotal;
-            long internalFree;
-
-            StatFs externalStatFs = new StatFs(Environment.getExternalStorageDirectory().getAbsolutePath());
-            long externalTotal;
-            long externalFree;
-
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
-                internalTotal = (internalStatFs.getBlockCountLong() * internalStatFs.getBlockSizeLong()) / (KILOBYTE * KILOBYTE);
-                internalFree = (internalStatFs.getAvailableBlocksLong() * internalStatFs.getBlockSizeLong()) / (KILOBYTE * KILOBYTE);
-                externalTotal = (externalStatFs.getBlockCountLong() * externalStatFs.getBlockSizeLong()) / (KILOBYTE * KILOBYTE);
-                externalFree = (externalStatFs.getAvailableBlocksLong() * externalStatFs.getBlockSizeLong()) / (KILOBYTE * KILOBYTE);
-            } else {
-                internalTotal = ((long) internalStatFs.getBlockCount() * (long) internalStatFs.getBlockSize()) / (KILOBYTE * KILOBYTE);
-                internalFree = ((long) internalStatFs.getAvailableBlocks() * (long) internalStatFs.getBlockSize()) / (KILOBYTE * KILOBYTE);
-                externalTotal = ((long) externalStatFs.getBlockCount() * (long) externalStatFs.getBlockSize()) / (KILOBYTE * KILOBYTE);
-                externalFree = ((long) externalStatFs.getAvailableBlocks() * (long) externalStatFs.getBlockSize()) / (KILOBYTE * KILOBYTE);
+            int width = decoder.getWidth();
+            int height = decoder.getHeight();
+            StripJpegEncoder encoder = new StripJpegEncoder(ostream, width, height, imageQuality);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            int[] pixels = new int[width * STRIP_HEIGHT];
+            Rect region = new Rect();
+            BitmapPool pool = BitmapPool.getInstance();
+            PipelineMetrics metrics = PipelineMetrics.getInstance();
+            for (int top = 0; top < height; top += STRIP_HEIGHT) {
+                int rows = Math.min(STRIP_HEIGHT, height - top);
+                region.set(0, top, width, top + rows);
+                long start = metrics.start();
+                Bitmap strip = pool.decodeRegion(decoder, region, options);
+                if (strip == null) {
+                    return false;
+                }
+                metrics.record(PipelineMetrics.Stage.DECODE, start);
+                if (strip.getWidth() != width || strip.getHeight() < rows) {
+                    pool.put(strip);    //pixels would be read with the wrong stride
+                    throw new IOException("strip decoded as " + strip.getWidth() + "x" + strip.getHeight() + ", expected "
+                            + width + "x" + rows);
+                }
+                long stripBytes = strip.getByteCount();
+                metrics.imageAllocated(stripBytes);
+                strip.getPixels(pixels, 0, width, 0, 0, width, rows);
+                pool.put(strip);  //the next strip is decoded into the same bitmap
+                metrics.imageReleased(stripBytes);
+                start = metrics.start();
+                encoder.writeRows(pixels, 0, width, rows);
+                metrics.record(PipelineMetrics.Stage.ENCODE, start);
             }
-
-            long total = internalTotal + externalTotal;
-            long free = internalFree + externalFree;
-            long used = total - free;
-            usedPercentage = used * 100 / total;
-        } catch (Exception e) {
-
+            encoder.finish();
+            return true;
+        } finally {
+            decoder.recycle();
         }
-        return usedPercentage;
     }
 
     /**
@@ -294,21 +344,7 @@ public class Utility {
      * @return Return a string containing the size converted to K, M, G bytes
      */
     public static String getSizeInString(long filesize) {
-        double size = filesize;
-        String sizeStr = String.valueOf(filesize) + " bytes";
-        if (size >= KILOBYTE) {
-            size = size / KILOBYTE;
-            sizeStr = String.format("%.2f", size) + "K bytes";
-        }
-        if (size >= KILOBYTE) {
-            size = size / KILOBYTE;
-            sizeStr = String.format("%.2f", size) + "M bytes";
-        }
-        if (size >= KILOBYTE) {
-            size = size / KILOBYTE;
-            sizeStr = String.format("%.2f", size) + "G bytes";
-        }
-        return sizeStr;
+        return SizeUtility.getSizeInString(filesize);
     }
 
     /**
@@ -317,9 +353,7 @@ public class Utility {
      * @return size in Mega bytes
      */
     public static double getSizeInMbytes(long filesize) {
-        double size = filesize;
-        size = size / (KILOBYTE * KILOBYTE);
-        return size;
+        return SizeUtility.getSizeInMbytes(filesize);
     }
 
     /**
@@ -331,6 +365,8 @@ public class Utility {
         private MainActivity  activity = null;
         private boolean bDeleteImages = false;
         private List<String> imageFiles = null;
+        private List<Pair> batch = null;      //pairs of this run, imageList may also hold earlier ones
+        private final SavingsAccumulator savings = new SavingsAccumulator();
 
         private String dialogMessage = "";
 
@@ -360,7 +396,8 @@ public class Utility {
 
         /**
          * Method to perform compression of chosen images on the device, all in the background thread
-         * @param params  Additional parameter if any to be passed on to the AsyncTask
+         * @param params  image quality, list to be filled with the compressed images, delete flag, an optional QualitySearch and
+         *                optionally the lossless only and strip metadata flags
          * @return list containing path to both source images and the corresponding compressed images
          */
         @Override
@@ -368,9 +405,12 @@ public class Utility {
             int imgQuality = (int)params[0];
             List<Pair> imageList = (List<Pair>)params[1];
             bDeleteImages = (boolean)params[2];
+            QualitySearch qualitySearch = params.length > 3 ? (QualitySearch)params[3] : null;
+            boolean lossless = params.length > 4 && (boolean)params[4];
+            boolean stripMetadata = params.length > 5 && (boolean)params[5];
             Log.i(LOG_TAG_NAME, "Fetching images on the device");
             publishProgress(10);
-            imageFiles = Utility.getCameraImages(activity);
+            imageFiles = Utility.getCameraImages(activity, imgQuality, lossless);
             Log.i(LOG_TAG_NAME, "Fetched " + imageFiles.size() + " images");
             if (imageFiles == null || imageFiles.size() == 0) {
                 dialogMessage = "No images available for compression...";
@@ -378,25 +418,30 @@ public class Utility {
             }
             Log.i(LOG_TAG_NAME, "Begin compressing images - # of images found := " + imageFiles.size() + " with imageQuality := " + imgQuality);
 
-            String imgFolder = Environment.getExternalStorageDirectory().toString() + "/" + Constants.COMPRESSED_IMAGE_FOLDER + "/";
-            File folder = new File(imgFolder);
-            if (! folder.exists()) {
-                folder.mkdir();
-                Log.i(LOG_TAG_NAME, "Folder: " + folder + " created ");
+            String imgFolder = getCompressedImageFolder();
+            CompressionExecutor.ProgressListener listener = new CompressionExecutor.ProgressListener() {
+                @Override
+                public void onImageCompressed(Pair pair, int completed, int total) {
+                    publishProgress(10 + (90 * completed) / total);
+                }
+            };
+            if (lossless) {
+                Log.i(LOG_TAG_NAME, "optimizing images without loss, strip metadata := " + stripMetadata);
+                dialogMessage = "Optimizing images ...";
+                batch = CompressionExecutor.getInstance().optimizeImages(imageFiles, stripMetadata, imgFolder, listener, savings);
             } else {
-                Log.i(LOG_TAG_NAME, "Folder: " + folder + " already exists ");
-            }
-            Log.i(LOG_TAG_NAME, "compressImages, compressing images with image Quality value := " + imgQuality);
-            int progressvalue = (int)Math.round((double)(90 / imageFiles.size()));
-            int currentprogress = 10;
-            dialogMessage = "Compressing images ...";
-            for (String image : imageFiles) {
-                String compressedImage = compressImage(image, imgQuality, imgFolder);
-                imageList.add(new Pair(image, compressedImage));
-                currentprogress += progressvalue;
-                publishProgress(currentprogress);
+                Log.i(LOG_TAG_NAME, "compressImages, compressing images with image Quality value := " + imgQuality);
+                dialogMessage = "Compressing images ...";
+                batch = CompressionExecutor.getInstance().compressImages(imageFiles, imgQuality, qualitySearch, imgFolder,
+                        listener, savings);
             }
+            imageList.addAll(batch);
 
+            CompressionLedger.getInstance(activity).record(imageList);
+            SavingsTimeSeries history = getSavingsHistory(activity);
+            if (history != null) {
+                history.record(imageList, SavingsTimeSeries.SOURCE_USER, System.currentTimeMillis());
+            }
             dialogMessage = "image compression completed...";
             Log.i(LOG_TAG_NAME, "image compression done");
             return imageList;
@@ -410,13 +455,15 @@ public class Utility {
         protected void onProgressUpdate(Integer... value) {
             super.onProgressUpdate(value);
             dialog.setMessage(dialogMessage);
-            Log.i(LOG_TAG_NAME, "progess update: " + value[0]);
+            if (VERBOSE) {
+                Log.v(LOG_TAG_NAME, "progess update: " + value[0]);
+            }
             dialog.setProgress(value[0]);
         }
 
         /**
          * Method to clean up the UI dialog and give the caller of this class to perform any post task operation to be performed on the UI
-         * Also deletes all the original images on the device
+         * Also deletes the original images that were compressed, the ones that failed are kept
          * @param result containing the success or failure of the task performed
          */
         @Override
@@ -424,9 +471,9 @@ public class Utility {
             super.onPostExecute(result);
             Log.i(LOG_TAG_NAME, "progress dialog dismissed!");
             Toast.makeText(activity, dialogMessage, Toast.LENGTH_SHORT).show();
-            activity.updateGridView();
-            if ( bDeleteImages && imageFiles != null) {
-                deleteImages(imageFiles); //Delete all original (uncompressed) images
+            activity.updateGridView(savings.snapshot());
+            if (bDeleteImages && batch != null) {
+                deleteCompressedOriginals(batch);
             }
             dialog.dismiss();
         }
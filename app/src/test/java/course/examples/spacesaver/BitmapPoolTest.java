@@ -0,0 +1,27 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the reuse rules of BitmapPool, see BitmapPoolRegionTest for decodes on a device
+ */
+public class BitmapPoolTest {
+
+    @Test
+    public void canReuse_regionDecodesNeedTheExactWidth() {
+        assertTrue(BitmapPool.canReuse(4000, 64, 4000, 64, true, true));
+        assertTrue(BitmapPool.canReuse(4000, 64, 4000, 17, true, true));     //last strip of an image
+        assertFalse(BitmapPool.canReuse(4000, 64, 3000, 64, true, true));    //large enough, but another stride
+        assertFalse(BitmapPool.canReuse(4000, 16, 4000, 64, true, true));
+    }
+
+    @Test
+    public void canReuse_fileDecodesReshapeTheBitmapFromKitKatOn() {
+        assertTrue(BitmapPool.canReuse(4000, 64, 3000, 80, true, false));
+        assertFalse(BitmapPool.canReuse(4000, 64, 3000, 80, false, false));
+        assertTrue(BitmapPool.canReuse(3000, 80, 3000, 80, false, false));
+        assertFalse(BitmapPool.canReuse(3000, 80, 3000, 40, false, true));
+    }
+}
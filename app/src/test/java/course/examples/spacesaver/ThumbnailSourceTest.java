@@ -0,0 +1,26 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for the rules choosing which thumbnails ThumbnailSource can show in place of an image
+ */
+public class ThumbnailSourceTest {
+
+    @Test
+    public void isSuitable_acceptsExifThumbnails() {
+        ThumbnailSource source = new ThumbnailSource(null, 200, 200);
+        assertTrue(source.isSuitable(160, 120, 4000, 3000));
+        assertTrue(source.isSuitable(120, 160, 4000, 3000));     //stored unrotated
+        assertFalse(source.isSuitable(96, 72, 4000, 3000));
+        assertFalse(source.isSuitable(0, 0, 0, 0));
+    }
+
+    @Test
+    public void isSuitable_rejectsAnotherAspectRatio() {
+        assertFalse(ThumbnailSource.isSuitable(160, 160, 4000, 3000, 160));     //letterboxed
+        assertTrue(ThumbnailSource.isSuitable(512, 384, 0, 0, 160));             //image size unknown
+    }
+}
@@ -0,0 +1,41 @@
+package course.examples.spacesaver;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Deterministic synthetic photos used as benchmark input, so results do not depend on files on the machine <br/>
+ */
+class BenchmarkImages {
+
+    /**
+     * Method to create a photo-like image: smooth gradients with a little seeded noise
+     * @param width width of the image
+     * @param height height of the image
+     * @return ARGB pixels of the image, row by row
+     */
+    static int[] createPixels(int width, int height) {
+        int[] pixels = new int[width * height];
+        long seed = 0x5DEECE66DL;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                seed = seed * 6364136223846793005L + 1442695040888963407L;
+                int noise = (int) ((seed >>> 59) & 0xF) - 8;
+                int r = clamp(x * 255 / width + noise);
+                int g = clamp(y * 255 / height + noise);
+                int b = clamp((x + y) * 127 / (width + height) + 64 + noise);
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    static BufferedImage createImage(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, createPixels(width, height), 0, width);
+        return image;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,73 @@
+package course.examples.spacesaver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of filtering and ranking a scan of the camera folder, without the cost of reading the headers <br/>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CandidateFilterBenchmark {
+
+    private static final int MAX_CANDIDATES = 15;   //same as Utility.MAX_IMAGES_TO_COMPRESS
+
+    @Param({"400", "4000"})
+    public int imageCount;
+
+    private ImageCandidate[] candidates;
+    private JpegHeaderEstimator.Estimate[] estimates;
+    private CandidateFilter.ProcessedImages ledger;
+
+    @Setup
+    public void setUp() {
+        candidates = new ImageCandidate[imageCount];
+        estimates = new JpegHeaderEstimator.Estimate[imageCount];
+        final HashSet<String> processed = new HashSet<String>();
+        for (int i = 0; i < imageCount; i++) {
+            candidates[i] = new ImageCandidate(i, "/sdcard/DCIM/Camera/IMG_" + i + ".jpg", 4 * SizeUtility.KILOBYTE * SizeUtility.KILOBYTE - i * 331,
+                    1460000000L + i, 4160, 3120);
+            if (i % 5 == 0) {
+                processed.add(candidates[i].path);
+            }
+            JpegHeaderEstimator.Estimate estimate = new JpegHeaderEstimator.Estimate();
+            estimate.width = 4160;
+            estimate.height = 3120;
+            estimate.sourceQuality = 70 + (i * 37) % 30;
+            estimate.sourceSize = candidates[i].size;
+            JpegHeaderEstimator.predict(estimate, 50);
+            estimates[i] = estimate;
+        }
+        ledger = new CandidateFilter.ProcessedImages() {
+            @Override
+            public boolean contains(String path, long size, long modified) {
+                return processed.contains(path);
+            }
+        };
+    }
+
+    @Benchmark
+    public List<ImageCandidate> filterAndRank() {
+        CandidateFilter filter = new CandidateFilter(ledger, new CandidateFilter.Estimator() {
+            @Override
+            public JpegHeaderEstimator.Estimate estimate(ImageCandidate candidate) {
+                return estimates[(int) candidate.id];
+            }
+        }, JpegHeaderEstimator.MIN_PREDICTED_GAIN_PERCENT, imageCount);
+        for (ImageCandidate candidate : candidates) {
+            filter.offer(candidate);
+        }
+        return filter.getRanked(MAX_CANDIDATES);
+    }
+}
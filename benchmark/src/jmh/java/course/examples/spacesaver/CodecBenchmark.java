@@ -0,0 +1,104 @@
+package course.examples.spacesaver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the decode, encode and header parsing steps of compressing one image <br/>
+ * The JVM codec stands in for the Android one, so the numbers are meant for spotting regressions between commits,
+ * not for predicting the time taken on a device.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CodecBenchmark {
+
+    private static final int STRIP_HEIGHT = 64;  //same as Utility.STRIP_HEIGHT
+
+    @Param({"1024x768"})
+    public String resolution;
+
+    @Param({"75"})
+    public int quality;
+
+    private int width;
+    private int height;
+    private int[] pixels;
+    private BufferedImage image;
+    private byte[] jpeg;
+    private File jpegFile;
+    private ImageIoCodec codec;
+    private ByteArrayOutputStream buffer;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        String[] dimensions = resolution.split("x");
+        width = Integer.parseInt(dimensions[0]);
+        height = Integer.parseInt(dimensions[1]);
+        pixels = BenchmarkImages.createPixels(width, height);
+        image = BenchmarkImages.createImage(width, height);
+        codec = new ImageIoCodec();
+        buffer = new ByteArrayOutputStream(width * height);
+        codec.encode(image, 95, buffer);
+        jpeg = buffer.toByteArray();
+        jpegFile = File.createTempFile("spacesaver", ".jpg");
+        FileOutputStream out = new FileOutputStream(jpegFile);
+        try {
+            out.write(jpeg);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (!jpegFile.delete()) {
+            jpegFile.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return codec.decode(jpegFile);
+    }
+
+    @Benchmark
+    public int encodeImageIo() throws IOException {
+        buffer.reset();
+        codec.encode(image, quality, buffer);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public int encodeStrips() throws IOException {
+        buffer.reset();
+        StripJpegEncoder encoder = new StripJpegEncoder(buffer, width, height, quality);
+        for (int y = 0; y < height; y += STRIP_HEIGHT) {
+            encoder.writeRows(pixels, y * width, width, Math.min(STRIP_HEIGHT, height - y));
+        }
+        encoder.finish();
+        return buffer.size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public JpegHeaderEstimator.Estimate readHeader() throws IOException {
+        return JpegHeaderEstimator.readHeader(new ByteArrayInputStream(jpeg));
+    }
+}
@@ -0,0 +1,74 @@
+package course.examples.spacesaver;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the size helpers used to label images and report savings in the UI <br/>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SizeBenchmark {
+
+    //fields rather than constants, so the JIT cannot fold the calls away
+    public int imageWidth = 4160;
+    public int imageHeight = 3120;
+    public int thumbnailSize = 200;
+
+    private long[] sizes;
+    private int index = 0;
+
+    /**
+     * Pairs of a batch, in a state of their own so only calculateSpaceSaved runs once per pairCount
+     */
+    @State(Scope.Benchmark)
+    public static class Batch {
+        @Param({"15", "1000"})
+        public int pairCount;
+
+        List<Pair> pairs;
+
+        @Setup
+        public void setUp() {
+            pairs = new ArrayList<Pair>(pairCount);
+            for (int i = 0; i < pairCount; i++) {
+                long srcSize = 1500 * SizeUtility.KILOBYTE + i * 7919;
+                pairs.add(new Pair("/sdcard/DCIM/Camera/IMG_" + i + ".jpg", "/sdcard/CompressedImages/compressed_IMG_" + i + ".jpg",
+                        srcSize, srcSize / 3, 1460000000L + i));
+            }
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        sizes = new long[] {512, 48 * SizeUtility.KILOBYTE, 3 * SizeUtility.KILOBYTE * SizeUtility.KILOBYTE,
+                5 * SizeUtility.KILOBYTE * SizeUtility.KILOBYTE * SizeUtility.KILOBYTE};
+    }
+
+    @Benchmark
+    public String getSizeInString() {
+        index = (index + 1) & 3;
+        return SizeUtility.getSizeInString(sizes[index]);
+    }
+
+    @Benchmark
+    public int calculateInSampleSize() {
+        return SizeUtility.calculateInSampleSize(imageWidth, imageHeight, thumbnailSize, thumbnailSize);
+    }
+
+    @Benchmark
+    public String calculateSpaceSaved(Batch batch) {
+        return SizeUtility.calculateSpaceSaved(batch.pairs);
+    }
+}
@@ -0,0 +1,322 @@
+package course.examples.spacesaver;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Command line runner compressing the JPEG images of a directory tree with the same pipeline and policies as the app <br/>
+ * The tree is walked and the images are compressed on a fork-join pool with a configurable number of threads. Images
+ * that already have an up to date compressed version in the output tree are skipped, so a run can be repeated on a
+ * growing backup. Throughput and bytes saved are printed at the end.
+ */
+public class BatchCompressor {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.BatchCompressor";
+    public static final int DEFAULT_QUALITY = 80;   //same as the default of the app
+    public static final int PAGE_SIZE = 500;
+
+    private static final String USAGE = "usage: spacesaver <source-dir> --out <output-dir> [--threads n] [--quality 1-100]\n"
+            + "                  [--target-percent 1-100 | --target-kb-per-megapixel n] [--lossless [--strip-metadata]]\n"
+            + "                  [--max n] [--delete] [--verbose]\n"
+            + "  --threads         number of worker threads, default: number of cores\n"
+            + "  --quality         (highest) JPEG quality of the compressed images, default: " + DEFAULT_QUALITY + "\n"
+            + "  --target-percent  choose the quality per image to reach this percentage of the original size\n"
+            + "  --target-kb-per-megapixel  choose the quality per image to reach this size in KB per million pixels\n"
+            + "  --lossless        only re-encode the Huffman tables of baseline JPEGs, pixels and quality stay the same\n"
+            + "  --strip-metadata  with --lossless, also drop comments, XMP, the Exif thumbnail and other optional segments\n"
+            + "  --max             compress at most n images, the ones giving the most savings for the least work\n"
+            + "  --delete          delete the source of every image compressed successfully\n"
+            + "  --verbose         log every image and print the time spent in every stage";
+
+    private final File sourceDir;
+    private final File outputDir;
+    private final int threads;
+    private final int imageQuality;
+    private final QualitySearch qualitySearch;
+    private final int maxCount;
+    private final boolean deleteSources;
+    private final boolean lossless;
+    private final boolean stripMetadata;
+
+    /**
+     * Wrapper class holding the outcome of a run
+     */
+    public static class Summary {
+        List<Pair> pairs;
+        int candidates;
+        int failed;
+        long sourceBytes;
+        long elapsedMs;
+
+        /**
+         * @return the pairs of the images compressed successfully
+         */
+        public List<Pair> getCompressed() {
+            ArrayList<Pair> compressed = new ArrayList<Pair>(pairs.size());
+            for (Pair pair : pairs) {
+                if (pair != null && pair.compressedImageFile != null) {
+                    compressed.add(pair);
+                }
+            }
+            return compressed;
+        }
+    }
+
+    /**
+     * Constructor taking the settings of a run
+     * @param sourceDir top directory of the images to be compressed
+     * @param outputDir top directory compressed images are written to, mirroring the source tree
+     * @param threads number of worker threads
+     * @param imageQuality (highest) quality level of the compressed images
+     * @param qualitySearch adaptive quality target, null to compress every image at imageQuality
+     * @param maxCount maximum number of images to be compressed
+     * @param deleteSources true to delete the source of every image compressed successfully
+     */
+    public BatchCompressor(File sourceDir, File outputDir, int threads, int imageQuality, QualitySearch qualitySearch,
+                           int maxCount, boolean deleteSources) {
+        this(sourceDir, outputDir, threads, imageQuality, qualitySearch, maxCount, deleteSources, false, false);
+    }
+
+    /**
+     * Constructor taking the settings of a run, optionally optimizing the images without loss instead of compressing them
+     * @param sourceDir top directory of the images to be compressed
+     * @param outputDir top directory compressed images are written to, mirroring the source tree
+     * @param threads number of worker threads
+     * @param imageQuality (highest) quality level of the compressed images, used to select the images
+     * @param qualitySearch adaptive quality target, null to compress every image at imageQuality
+     * @param maxCount maximum number of images to be compressed
+     * @param deleteSources true to delete the source of every image compressed successfully
+     * @param lossless true to optimize the images with the JpegHuffmanOptimizer instead of re-encoding them
+     * @param stripMetadata true to also drop the metadata not needed to show the images, lossless only
+     */
+    public BatchCompressor(File sourceDir, File outputDir, int threads, int imageQuality, QualitySearch qualitySearch,
+                           int maxCount, boolean deleteSources, boolean lossless, boolean stripMetadata) {
+        this.sourceDir = sourceDir;
+        this.outputDir = outputDir;
+        this.threads = threads;
+        this.imageQuality = imageQuality;
+        this.qualitySearch = qualitySearch;
+        this.maxCount = maxCount;
+        this.deleteSources = deleteSources;
+        this.lossless = lossless;
+        this.stripMetadata = stripMetadata;
+    }
+
+    public static void main(String[] args) {
+        BatchCompressor compressor;
+        try {
+            compressor = parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        Summary summary = compressor.run();
+        compressor.print(summary, System.out);
+        System.exit(summary.failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Method to parse the command line
+     * @param args command line arguments
+     * @return compressor configured from the arguments
+     * @throws IllegalArgumentException if the arguments are invalid
+     */
+    static BatchCompressor parse(String[] args) {
+        File source = null;
+        File output = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int quality = DEFAULT_QUALITY;
+        QualitySearch search = null;
+        int max = Integer.MAX_VALUE;
+        boolean delete = false;
+        boolean lossless = false;
+        boolean strip = false;
+        boolean verbose = false;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--out")) {
+                output = new File(value(args, ++i, arg));
+            } else if (arg.equals("--threads")) {
+                threads = intValue(args, ++i, arg, 1, 1024);
+            } else if (arg.equals("--quality")) {
+                quality = intValue(args, ++i, arg, 1, 100);
+            } else if (arg.equals("--target-percent")) {
+                search = QualitySearch.percentOfOriginal(intValue(args, ++i, arg, 1, 100));
+            } else if (arg.equals("--target-kb-per-megapixel")) {
+                search = QualitySearch.bytesPerMegapixel(intValue(args, ++i, arg, 1, 100000) * SizeUtility.KILOBYTE);
+            } else if (arg.equals("--max")) {
+                max = intValue(args, ++i, arg, 1, Integer.MAX_VALUE);
+            } else if (arg.equals("--lossless")) {
+                lossless = true;
+            } else if (arg.equals("--strip-metadata")) {
+                strip = true;
+            } else if (arg.equals("--delete")) {
+                delete = true;
+            } else if (arg.equals("--verbose")) {
+                verbose = true;
+            } else if (arg.startsWith("--") || source != null) {
+                throw new IllegalArgumentException("unexpected argument: " + arg);
+            } else {
+                source = new File(arg);
+            }
+        }
+        if (source == null || !source.isDirectory()) {
+            throw new IllegalArgumentException("source directory missing or not a directory: " + source);
+        }
+        if (output == null) {
+            throw new IllegalArgumentException("--out is required");
+        }
+        if (strip && !lossless) {
+            throw new IllegalArgumentException("--strip-metadata needs --lossless");
+        }
+        if (lossless && search != null) {
+            throw new IllegalArgumentException("an adaptive quality target cannot be combined with --lossless");
+        }
+        Logger root = Logger.getLogger("");
+        root.setLevel(verbose ? Level.FINE : Level.WARNING);
+        for (Handler handler : root.getHandlers()) {
+            handler.setLevel(root.getLevel());  //the console handler drops FINE records by default
+        }
+        return new BatchCompressor(source, output, threads, quality, search, max, delete, lossless, strip);
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static int intValue(String[] args, int index, String option, int min, int max) {
+        try {
+            int value = Integer.parseInt(value(args, index, option));
+            if (value >= min && value <= max) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            //reported below
+        }
+        throw new IllegalArgumentException(option + " needs a number between " + min + " and " + max);
+    }
+
+    /**
+     * Method to select and compress the images of the source tree
+     * @return outcome of the run
+     */
+    public Summary run() {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final DirectoryOutputStore store = new DirectoryOutputStore(sourceDir, outputDir);
+            store.deleteStaleTempFiles();
+            DirectoryImageSource source = new DirectoryImageSource(sourceDir, outputDir, pool);
+            List<ImageCandidate> candidates = CompressionPipeline.selectCandidates(source, new CandidateFilter.ProcessedImages() {
+                @Override
+                public boolean contains(String path, long size, long modified) {
+                    File compressed = new File(store.getOutputPath(path));
+                    return compressed.exists() && compressed.lastModified() / 1000 >= modified;
+                }
+            }, maxCount, imageQuality, lossless, PAGE_SIZE);
+
+            CompressionPipeline<BufferedImage> pipeline = new CompressionPipeline<BufferedImage>(new ImageIoCodec(), store);
+            Summary summary = new Summary();
+            summary.candidates = candidates.size();
+            summary.pairs = pool.invoke(new CompressTask(pipeline, candidates, 0, candidates.size()));
+            for (Pair pair : summary.pairs) {
+                summary.sourceBytes += pair.srcImageSize;
+                if (pair.compressedImageFile == null) {
+                    summary.failed++;
+                }
+            }
+            if (deleteSources) {
+                ArrayList<String> compressed = new ArrayList<String>();
+                for (Pair pair : summary.getCompressed()) {
+                    compressed.add(pair.srcImageFile);
+                }
+                CompressionPipeline.deleteImages(compressed, compressed.size());
+            }
+            summary.elapsedMs = (System.nanoTime() - start) / 1000000;
+            return summary;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Method to print the throughput and savings of a run
+     * @param summary outcome of the run
+     * @param out stream the report is printed to
+     */
+    public void print(Summary summary, PrintStream out) {
+        List<Pair> compressed = summary.getCompressed();
+        double seconds = Math.max(summary.elapsedMs, 1) / 1000.0;
+        out.println(String.format(Locale.US, "compressed %d of %d images in %.1f s with %d threads, %d failed",
+                compressed.size(), summary.candidates, seconds, threads, summary.failed));
+        out.println(String.format(Locale.US, "throughput: %.2f images/s, %s/s of source images",
+                compressed.size() / seconds, SizeUtility.getSizeInString((long) (summary.sourceBytes / seconds))));
+        if (!compressed.isEmpty()) {
+            out.println(SizeUtility.calculateSpaceSaved(compressed));
+        }
+        if (Logger.getLogger("").isLoggable(Level.FINE)) {
+            out.print(PipelineMetrics.getInstance().report());
+        }
+    }
+
+    /**
+     * Fork-join task compressing a range of the candidates, splitting it in halves until a single image is left
+     */
+    private class CompressTask extends RecursiveTask<List<Pair>> {
+        private static final long serialVersionUID = 1L;
+        private final CompressionPipeline<BufferedImage> pipeline;
+        private final List<ImageCandidate> candidates;
+        private final int from;
+        private final int to;
+
+        CompressTask(CompressionPipeline<BufferedImage> pipeline, List<ImageCandidate> candidates, int from, int to) {
+            this.pipeline = pipeline;
+            this.candidates = candidates;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected List<Pair> compute() {
+            if (to - from <= 1) {
+                ArrayList<Pair> result = new ArrayList<Pair>(1);
+                if (to > from) {
+                    result.add(compress(candidates.get(from).path));
+                }
+                return result;
+            }
+            int middle = (from + to) >>> 1;
+            CompressTask right = new CompressTask(pipeline, candidates, middle, to);
+            right.fork();
+            List<Pair> result = new CompressTask(pipeline, candidates, from, middle).compute();
+            result.addAll(right.join());
+            return result;
+        }
+
+        private Pair compress(String imgFile) {
+            try {
+                if (lossless) {
+                    return pipeline.optimize(imgFile, stripMetadata);
+                }
+                return pipeline.compress(imgFile, imageQuality, qualitySearch);
+            } catch (RuntimeException e) {
+                Logger.getLogger(LOG_TAG_NAME).warning("compression of " + imgFile + " failed: " + e);
+                return new Pair(imgFile, null, new File(imgFile).length(), 0, new File(imgFile).lastModified() / 1000);
+            }
+        }
+    }
+}
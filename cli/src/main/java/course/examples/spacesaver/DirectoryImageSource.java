@@ -0,0 +1,119 @@
+package course.examples.spacesaver;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * ImageSource reading the JPEG images of a directory tree <br/>
+ * The tree is walked once, in parallel on a fork-join pool with one task per directory, and the images found are kept
+ * ordered by size and then path, both descending. Ids are assigned in that order so pages can be found without searching.
+ */
+public class DirectoryImageSource implements ImageSource {
+
+    private static final Comparator<ImageCandidate> LARGEST_FIRST = new Comparator<ImageCandidate>() {
+        @Override
+        public int compare(ImageCandidate lhs, ImageCandidate rhs) {
+            if (lhs.size != rhs.size) {
+                return lhs.size < rhs.size ? 1 : -1;
+            }
+            return rhs.path.compareTo(lhs.path);
+        }
+    };
+
+    private final File root;
+    private final File excluded;
+    private final ForkJoinPool pool;
+    private List<ImageCandidate> images = null;
+
+    /**
+     * Constructor taking the tree to be read
+     * @param root top directory of the tree
+     * @param excluded directory to be left out of the walk, e.g. the output directory, null to walk the whole tree
+     * @param pool fork-join pool the walk runs on
+     */
+    public DirectoryImageSource(File root, File excluded, ForkJoinPool pool) {
+        this.root = root;
+        this.excluded = excluded == null ? null : excluded.getAbsoluteFile();
+        this.pool = pool;
+    }
+
+    /**
+     * Method to return all the images of the tree, walking it on first use
+     * @return images ordered by size and path, both descending
+     */
+    public synchronized List<ImageCandidate> getImages() {
+        if (images == null) {
+            List<ImageCandidate> found = pool.invoke(new ScanTask(root.getAbsoluteFile()));
+            Collections.sort(found, LARGEST_FIRST);
+            for (int i = 0; i < found.size(); i++) {
+                found.get(i).id = found.size() - i;   //descending like the order, as the MediaStore source pages on (size, id)
+            }
+            images = Collections.unmodifiableList(found);
+        }
+        return images;
+    }
+
+    @Override
+    public List<ImageCandidate> getPage(ImageCandidate after, int pageSize) {
+        List<ImageCandidate> all = getImages();
+        int start = after == null ? 0 : (int) (all.size() - after.id + 1);
+        int end = (int) Math.min(all.size(), (long) start + pageSize);
+        if (start >= end) {
+            return new ArrayList<ImageCandidate>();
+        }
+        return new ArrayList<ImageCandidate>(all.subList(start, end));
+    }
+
+    /**
+     * Method to check whether a file is an image the pipeline can compress
+     * @param file regular file
+     * @return true for non empty, non hidden JPEG files
+     */
+    static boolean isJpeg(File file) {
+        String name = file.getName().toLowerCase(Locale.US);
+        return !name.startsWith(".") && (name.endsWith(".jpg") || name.endsWith(".jpeg")) && file.length() > 0;
+    }
+
+    /**
+     * Fork-join task collecting the images of one directory, forking a task for each of its sub directories
+     */
+    private class ScanTask extends RecursiveTask<List<ImageCandidate>> {
+        private static final long serialVersionUID = 1L;
+        private final File dir;
+
+        ScanTask(File dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected List<ImageCandidate> compute() {
+            ArrayList<ImageCandidate> found = new ArrayList<ImageCandidate>();
+            File[] files = dir.listFiles();
+            if (files == null) {
+                return found;   //not readable
+            }
+            List<ScanTask> subTasks = new ArrayList<ScanTask>();
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    if (!file.equals(excluded) && !file.getName().startsWith(".") && !Files.isSymbolicLink(file.toPath())) {
+                        subTasks.add(new ScanTask(file));
+                    }
+                } else if (isJpeg(file)) {
+                    found.add(new ImageCandidate(0, file.getPath(), file.length(), file.lastModified() / 1000, 0, 0));
+                }
+            }
+            invokeAll(subTasks);
+            for (ScanTask task : subTasks) {
+                found.addAll(task.join());
+            }
+            return found;
+        }
+    }
+}
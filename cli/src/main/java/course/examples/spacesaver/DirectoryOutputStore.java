@@ -0,0 +1,56 @@
+package course.examples.spacesaver;
+
+import java.io.File;
+import java.util.ArrayDeque;
+
+/**
+ * OutputStore mirroring a source tree: the compressed version of root/a/b.jpg is written to output/a/compressed_b.jpg <br/>
+ */
+public class DirectoryOutputStore extends CompressedImageWriter {
+
+    private final String root;
+    private final String output;
+
+    /**
+     * Constructor taking the top of the source tree and of the output tree
+     * @param root top directory of the source images
+     * @param output top directory compressed images are written to
+     */
+    public DirectoryOutputStore(File root, File output) {
+        super(output.getAbsolutePath() + File.separator);
+        this.root = root.getAbsolutePath() + File.separator;
+        this.output = output.getAbsolutePath() + File.separator;
+    }
+
+    @Override
+    public String getOutputPath(String imgFile) {
+        File srcFile = new File(imgFile).getAbsoluteFile();
+        String parent = srcFile.getParent() + File.separator;
+        String relative = parent.startsWith(root) ? parent.substring(root.length()) : "";
+        return output + relative + PREFIX_COMPRESSED + srcFile.getName();
+    }
+
+    /**
+     * Method to delete the temporary files left by a crash anywhere in the output tree, as they are written next to
+     * their output
+     */
+    @Override
+    public void deleteStaleTempFiles() {
+        long now = System.currentTimeMillis();
+        ArrayDeque<File> folders = new ArrayDeque<File>();
+        folders.add(new File(output));
+        while (!folders.isEmpty()) {
+            File folder = folders.poll();
+            deleteStaleTempFiles(folder, now);
+            File[] children = folder.listFiles();
+            if (children == null) {
+                continue;
+            }
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    folders.add(child);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package course.examples.spacesaver;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * ImageCodec backed by javax.imageio, used to run the compression pipeline on a plain JVM <br/>
+ * Decoded images are converted to RGB, since the JPEG writer rejects images with an alpha channel.
+ */
+public class ImageIoCodec implements ImageCodec<BufferedImage> {
+
+    @Override
+    public BufferedImage decode(File imgFile) throws IOException {
+        BufferedImage image = ImageIO.read(imgFile);
+        if (image == null) {
+            return null;
+        }
+        PipelineMetrics.getInstance().imageAllocated(getPixelBytes(image));
+        if (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_3BYTE_BGR
+                || image.getType() == BufferedImage.TYPE_BYTE_GRAY) {
+            return image;
+        }
+        BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        PipelineMetrics.getInstance().imageAllocated(getPixelBytes(rgb));
+        release(image);
+        return rgb;
+    }
+
+    @Override
+    public int getWidth(BufferedImage image) {
+        return image.getWidth();
+    }
+
+    @Override
+    public int getHeight(BufferedImage image) {
+        return image.getHeight();
+    }
+
+    @Override
+    public boolean encode(BufferedImage image, int quality, OutputStream ostream) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            return false;
+        }
+        ImageWriter writer = writers.next();
+        ImageOutputStream out = ImageIO.createImageOutputStream(ostream);
+        try {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality / 100f);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+            return true;
+        } finally {
+            writer.dispose();
+            out.close();
+        }
+    }
+
+    @Override
+    public void release(BufferedImage image) {
+        if (image != null) {
+            PipelineMetrics.getInstance().imageReleased(getPixelBytes(image));
+            image.flush();
+        }
+    }
+
+    private static long getPixelBytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * image.getColorModel().getPixelSize() / 8;
+    }
+}
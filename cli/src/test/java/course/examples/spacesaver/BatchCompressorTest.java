@@ -0,0 +1,120 @@
+package course.examples.spacesaver;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the batch compressor over a small generated tree of JPEG images
+ */
+public class BatchCompressorTest {
+
+    private File root;
+    private File source;
+    private File output;
+
+    @Before
+    public void setUp() throws IOException {
+        root = File.createTempFile("spacesaver", "");
+        assertTrue(root.delete() && root.mkdir());
+        source = new File(root, "photos");
+        output = new File(root, "compressed");
+        writeJpeg(new File(source, "a.jpg"), 320, 240);
+        writeJpeg(new File(source, "2016/b.jpg"), 640, 480);
+        writeJpeg(new File(source, "2016/03/c.JPEG"), 200, 100);
+        writeJpeg(new File(source, "2016/.hidden.jpg"), 200, 100);
+        assertTrue(new File(source, "notes.txt").createNewFile());
+    }
+
+    @After
+    public void tearDown() {
+        delete(root);
+    }
+
+    @Test
+    public void pagesLargestFirst() {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        DirectoryImageSource imageSource = new DirectoryImageSource(source, null, pool);
+        List<ImageCandidate> first = imageSource.getPage(null, 2);
+        assertEquals(2, first.size());
+        assertTrue(first.get(0).path.endsWith("b.jpg"));
+        assertTrue(first.get(0).size >= first.get(1).size);
+        List<ImageCandidate> second = imageSource.getPage(first.get(1), 2);
+        assertEquals(1, second.size());
+        assertTrue(second.get(0).path.endsWith("c.JPEG"));
+        assertTrue(imageSource.getPage(second.get(0), 2).isEmpty());
+        pool.shutdown();
+    }
+
+    @Test
+    public void compressesIntoMirroredTreeOnce() {
+        BatchCompressor compressor = new BatchCompressor(source, output, 2, 50, null, Integer.MAX_VALUE, false);
+        BatchCompressor.Summary summary = compressor.run();
+        assertEquals(0, summary.failed);
+        assertEquals(3, summary.getCompressed().size());
+        assertTrue(new File(output, "compressed_a.jpg").isFile());
+        assertTrue(new File(output, "2016/compressed_b.jpg").isFile());
+        assertTrue(new File(output, "2016/03/compressed_c.JPEG").isFile());
+        for (Pair pair : summary.getCompressed()) {
+            assertTrue(pair.compressedImageSize < pair.srcImageSize);
+            assertTrue(new File(pair.srcImageFile).exists());
+        }
+
+        assertEquals(0, compressor.run().candidates);  //up to date outputs are skipped
+    }
+
+    @Test
+    public void losslessTakesJpegsOfAnyQuality() throws IOException {
+        File lowQuality = new File(source, "low.jpg");
+        writeJpeg(lowQuality, 320, 240, 40);     //below the quality slider, not worth a lossy re-encode
+        BatchCompressor lossy = new BatchCompressor(source, new File(root, "lossy"), 2, 50, null, Integer.MAX_VALUE, false);
+        assertEquals(3, lossy.run().candidates);
+        BatchCompressor.Summary summary = new BatchCompressor(source, output, 2, 50, null, Integer.MAX_VALUE, false, true, false).run();
+        assertEquals(0, summary.failed);
+        assertEquals(4, summary.getCompressed().size());
+        for (Pair pair : summary.getCompressed()) {
+            assertEquals(Pair.LOSSLESS, pair.quality);
+            assertTrue(pair.compressedImageSize < pair.srcImageSize);
+        }
+    }
+
+    private static void writeJpeg(File file, int width, int height) throws IOException {
+        writeJpeg(file, width, height, 95);
+    }
+
+    private static void writeJpeg(File file, int width, int height, int quality) throws IOException {
+        assertTrue(file.getParentFile().isDirectory() || file.getParentFile().mkdirs());
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, ((x * 255 / width) << 16) | ((y * 255 / height) << 8) | ((x * y) & 0xFF));
+            }
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            assertTrue(new ImageIoCodec().encode(image, quality, out));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,124 @@
+package course.examples.spacesaver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class collecting compression candidates as they are read from the image source, dropping images that were already
+ * compressed or are predicted to save too little, and ranking the rest by predicted bytes saved per estimated CPU millisecond <br/>
+ */
+public class CandidateFilter {
+
+    /**
+     * Lookup of images that were compressed before, such as the compression ledger
+     */
+    public interface ProcessedImages {
+        /**
+         * @param path Absolute path to the source image
+         * @param size Size of the source image in bytes
+         * @param modified Modification time of the source image in seconds
+         * @return true if this version of the image was compressed before
+         */
+        boolean contains(String path, long size, long modified);
+    }
+
+    /**
+     * Source of savings estimates for candidates
+     */
+    public interface Estimator {
+        /**
+         * @param candidate image to be estimated
+         * @return the estimate, null if nothing can be predicted for the image
+         */
+        JpegHeaderEstimator.Estimate estimate(ImageCandidate candidate);
+    }
+
+    private static final Comparator<ImageCandidate> BEST_FIRST = new Comparator<ImageCandidate>() {
+        @Override
+        public int compare(ImageCandidate lhs, ImageCandidate rhs) {
+            return Double.compare(rhs.getSavingPerCpuMs(), lhs.getSavingPerCpuMs());
+        }
+    };
+
+    private static final int MAX_INITIAL_CAPACITY = 1024; //poolSize can be unbounded for batch runs
+
+    private final ProcessedImages processedImages;
+    private final Estimator estimator;
+    private final int minGainPercent;
+    private final int poolSize;
+    private final ArrayList<ImageCandidate> pool;
+    private int offered = 0;
+    private int skipped = 0;
+
+    /**
+     * Constructor for the filter
+     * @param processed lookup of images compressed before, null to consider every image
+     * @param estimator source of savings estimates, null to rank without estimates
+     * @param minGainPercent minimum predicted saving as a percentage of the source size
+     * @param poolSize number of candidates to be collected before ranking
+     */
+    public CandidateFilter(ProcessedImages processed, Estimator estimator, int minGainPercent, int poolSize) {
+        this.processedImages = processed;
+        this.estimator = estimator;
+        this.minGainPercent = minGainPercent;
+        this.poolSize = poolSize;
+        this.pool = new ArrayList<ImageCandidate>(Math.min(poolSize, MAX_INITIAL_CAPACITY));
+    }
+
+    /**
+     * Method to offer the next image read from the source
+     * @param candidate image to be considered
+     * @return true if the image was kept as a candidate
+     */
+    public boolean offer(ImageCandidate candidate) {
+        offered++;
+        if (isFull()) {
+            return false;
+        }
+        if (processedImages != null && processedImages.contains(candidate.path, candidate.size, candidate.modified)) {
+            return false;   //compressed in an earlier run and unchanged since
+        }
+        if (estimator != null) {
+            candidate.estimate = estimator.estimate(candidate);
+            if (candidate.estimate != null && !candidate.estimate.isWorthCompressing(minGainPercent)) {
+                skipped++;  //already saved at a quality close to or below the target quality
+                return false;
+            }
+        }
+        pool.add(candidate);
+        return true;
+    }
+
+    /**
+     * @return true once poolSize candidates have been collected
+     */
+    public boolean isFull() {
+        return pool.size() >= poolSize;
+    }
+
+    /**
+     * @return number of images offered so far
+     */
+    public int getOfferedCount() {
+        return offered;
+    }
+
+    /**
+     * @return number of images skipped because their predicted saving was too small
+     */
+    public int getSkippedCount() {
+        return skipped;
+    }
+
+    /**
+     * Method to rank the collected candidates and return the best ones
+     * @param maxCount maximum number of candidates to be returned
+     * @return at most maxCount candidates, best first
+     */
+    public List<ImageCandidate> getRanked(int maxCount) {
+        Collections.sort(pool, BEST_FIRST);
+        return pool.size() > maxCount ? new ArrayList<ImageCandidate>(pool.subList(0, maxCount)) : new ArrayList<ImageCandidate>(pool);
+    }
+}
@@ -0,0 +1,165 @@
+package course.examples.spacesaver;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.logging.Logger;
+
+/**
+ * OutputStore writing compressed images into a folder, the compressed images folder on the device <br/>
+ * The image is encoded into a buffered temporary file first, which is synced and then atomically renamed to its final
+ * "compressed_" name. A crash while encoding can therefore only leave a temporary file behind, never a truncated image.
+ * Before the original may be deleted the image in place is verified to have the size written and JPEG start and end markers.
+ */
+public class CompressedImageWriter implements OutputStore {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.CompressedImageWriter";
+    public static final String PREFIX_COMPRESSED = "compressed_";
+    public static final String TEMP_SUFFIX = ".tmp";
+    private static final int BUFFER_SIZE = 64 * (int) SizeUtility.KILOBYTE;
+    private static final long STALE_TEMP_FILE_AGE = 60 * 60 * 1000; //temporary files older than an hour were left by a crash
+    private static final Logger LOG = Logger.getLogger(LOG_TAG_NAME);  //java.util.logging is forwarded to logcat on Android
+
+    private final String imgFolder;
+
+    /**
+     * Constructor taking the folder compressed images are placed in
+     * @param imgFolder Path to the compressed images folder, ending with a separator
+     */
+    public CompressedImageWriter(String imgFolder) {
+        this.imgFolder = imgFolder;
+    }
+
+    /**
+     * Method to return the path the compressed version of an image is placed at
+     * @param imgFile Absolute path to the source image
+     * @return Absolute path to the compressed image
+     */
+    @Override
+    public String getOutputPath(String imgFile) {
+        String srcFileName = imgFile;
+        int index = imgFile.lastIndexOf(File.separator);
+        if (index != -1) {
+            srcFileName = imgFile.substring(index + 1, imgFile.length());
+        }
+        return imgFolder + PREFIX_COMPRESSED + srcFileName;
+    }
+
+    /**
+     * Method to encode the compressed version of an image into a temporary file next to its output path and move it into place
+     * @param imgFile Absolute path to the source image
+     * @param encoder Encoder producing the compressed image
+     * @return Pair containing the source and compressed image with their sizes, the compressed image is null if encoding failed
+     */
+    @Override
+    public Pair write(String imgFile, Encoder encoder) {
+        String outputPath = getOutputPath(imgFile);
+        File outputFile = new File(outputPath);
+        File outputFolder = outputFile.getParentFile();
+        if (outputFolder != null && !outputFolder.exists()) {
+            outputFolder.mkdirs();
+        }
+        File tempFile = new File(outputFolder, "." + outputFile.getName() + "." + Thread.currentThread().getId() + TEMP_SUFFIX);
+        File srcFile = new File(imgFile);
+        long srcSize = srcFile.length();
+        long srcModified = srcFile.lastModified() / 1000;
+        boolean success = false;
+        long compressedSize = 0;
+        long start = System.nanoTime();
+        PipelineMetrics metrics = PipelineMetrics.getInstance();
+        long writeStart = 0;
+        try {
+            FileOutputStream fileStream = new FileOutputStream(tempFile);
+            try {
+                CountingOutputStream ostream = new CountingOutputStream(new BufferedOutputStream(fileStream, BUFFER_SIZE));
+                success = encoder.encode(ostream);
+                writeStart = metrics.start();
+                ostream.flush();
+                fileStream.getFD().sync();  //the data must be on disk before the rename makes it visible
+                compressedSize = ostream.getCount();
+            } finally {
+                fileStream.close();
+            }
+            if (success && !tempFile.renameTo(outputFile)) {
+                LOG.info("rename of " + tempFile + " to " + outputFile + " failed!");
+                success = false;
+            }
+            if (success) {
+                metrics.record(PipelineMetrics.Stage.WRITE, writeStart, compressedSize);
+                long verifyStart = metrics.start();
+                if (!verify(outputFile, compressedSize)) {
+                    LOG.info("verification of " + outputFile + " failed!");
+                    outputFile.delete();
+                    success = false;
+                }
+                metrics.record(PipelineMetrics.Stage.VERIFY, verifyStart);
+            }
+        } catch (IOException e) {
+            LOG.info("writing compressed image of " + imgFile + " failed: " + e.toString());
+            success = false;
+        } finally {
+            if (!success) {
+                tempFile.delete();
+            }
+        }
+        if (!success) {
+            return new Pair(imgFile, null, srcSize, 0, srcModified);
+        }
+        Pair pair = new Pair(imgFile, outputPath, srcSize, compressedSize, srcModified);
+        pair.durationMs = (System.nanoTime() - start) / 1000000;
+        return pair;
+    }
+
+    /**
+     * Method to check a compressed image on disk without decoding it
+     * @param file compressed image
+     * @param expectedSize number of bytes the encoder wrote
+     * @return true if the file has the expected size, starts with a JPEG SOI and ends with an EOI marker
+     * @throws IOException if the file cannot be read
+     */
+    static boolean verify(File file, long expectedSize) throws IOException {
+        if (expectedSize < 4 || file.length() != expectedSize) {
+            return false;
+        }
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            byte[] marker = new byte[2];
+            input.readFully(marker);
+            if ((marker[0] & 0xFF) != 0xFF || (marker[1] & 0xFF) != 0xD8) {
+                return false;
+            }
+            input.seek(expectedSize - 2);
+            input.readFully(marker);
+            return (marker[0] & 0xFF) == 0xFF && (marker[1] & 0xFF) == 0xD9;
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Method to delete temporary files left in the folder by a crash while writing
+     */
+    public void deleteStaleTempFiles() {
+        deleteStaleTempFiles(new File(imgFolder), System.currentTimeMillis());
+    }
+
+    /**
+     * Method to delete the stale temporary files directly in a folder
+     * @param folder folder temporary files are written to
+     * @param now current time in milliseconds
+     */
+    protected void deleteStaleTempFiles(File folder, long now) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX) && now - file.lastModified() > STALE_TEMP_FILE_AGE) {
+                LOG.info("deleting stale temporary file " + file);
+                file.delete();
+            }
+        }
+    }
+}
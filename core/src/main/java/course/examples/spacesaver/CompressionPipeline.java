@@ -0,0 +1,234 @@
+package course.examples.spacesaver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Platform independent compression pipeline: selects the images worth compressing from an ImageSource, decodes and
+ * re-encodes them with an ImageCodec and writes the result to an OutputStore <br/>
+ * The app runs it with the MediaStore, Bitmap and the compressed images folder, the batch compressor with a directory
+ * tree and ImageIO. A pipeline holds no per-image state, so one instance can be used by several threads at once.
+ * Every stage is timed into the shared PipelineMetrics.
+ * @param <T> type of a decoded image of the codec
+ */
+public class CompressionPipeline<T> {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.CompressionPipeline";
+    public static final int RANKING_POOL_FACTOR = 4; //number of candidates ranked for every image compressed
+    public static final int MAX_RETAINED_BUFFER_BYTES = 8 * (int) (SizeUtility.KILOBYTE * SizeUtility.KILOBYTE); //per trial encode buffer kept by a worker
+    private static final Logger LOG = Logger.getLogger(LOG_TAG_NAME);
+
+    /**
+     * Trial encode buffers of the adaptive quality search, one pair per compression worker so they can be reused across images.
+     * Buffers grown past MAX_RETAINED_BUFFER_BYTES by an unusually large image are dropped once that image is written.
+     */
+    private static final ThreadLocal<ByteArrayOutputStream[]> ENCODE_BUFFERS = new ThreadLocal<ByteArrayOutputStream[]>() {
+        @Override
+        protected ByteArrayOutputStream[] initialValue() {
+            return new ByteArrayOutputStream[] { new ByteArrayOutputStream(), new ByteArrayOutputStream() };
+        }
+    };
+
+    private final ImageCodec<T> codec;
+    private final OutputStore store;
+
+    /**
+     * Constructor taking the codec images are decoded and encoded with and the store they are written to
+     * @param codec codec of the platform
+     * @param store store compressed images are written to
+     */
+    public CompressionPipeline(ImageCodec<T> codec, OutputStore store) {
+        this.codec = codec;
+        this.store = store;
+    }
+
+    public OutputStore getStore() {
+        return store;
+    }
+
+    /**
+     * Method to find the images giving the most savings for the least work. The source is read one page at a time,
+     * largest images first. Images that have been compressed before are skipped, the JPEG header of the others is read to
+     * predict their savings at imageQuality and images predicted to shrink less than JpegHeaderEstimator.MIN_PREDICTED_GAIN_PERCENT
+     * are skipped. Up to RANKING_POOL_FACTOR times maxCount images are collected, then ranked by predicted bytes saved
+     * per estimated CPU millisecond.
+     * @param source source of the images
+     * @param processed lookup of images compressed before, null to consider every image
+     * @param maxCount maximum number of images to be returned
+     * @param imageQuality quality level the images are going to be compressed with
+     * @param pageSize number of images read from the source at a time
+     * @return a list of at most maxCount candidates, best first
+     */
+    public static List<ImageCandidate> selectCandidates(ImageSource source, CandidateFilter.ProcessedImages processed, int maxCount,
+                                                        int imageQuality, int pageSize) {
+        return selectCandidates(source, processed, maxCount, imageQuality, false, pageSize);
+    }
+
+    /**
+     * Method to find the images giving the most savings for the least work, see above. For a lossless optimization
+     * the quality is not used: every baseline JPEG is a candidate, whatever its quality, predicted to save
+     * JpegHeaderEstimator.LOSSLESS_GAIN_PERCENT, and every other image is skipped.
+     * @param lossless true if the images are going to be optimized with optimize rather than compressed
+     */
+    public static List<ImageCandidate> selectCandidates(ImageSource source, CandidateFilter.ProcessedImages processed, int maxCount,
+                                                        final int imageQuality, final boolean lossless, int pageSize) {
+        final PipelineMetrics metrics = PipelineMetrics.getInstance();
+        int poolSize = maxCount > Integer.MAX_VALUE / RANKING_POOL_FACTOR ? Integer.MAX_VALUE : maxCount * RANKING_POOL_FACTOR;
+        CandidateFilter filter = new CandidateFilter(processed, new CandidateFilter.Estimator() {
+            @Override
+            public JpegHeaderEstimator.Estimate estimate(ImageCandidate candidate) {
+                long start = metrics.start();
+                File imgFile = new File(candidate.path);
+                JpegHeaderEstimator.Estimate estimate = lossless
+                        ? JpegHeaderEstimator.estimateLossless(imgFile) : JpegHeaderEstimator.estimate(imgFile, imageQuality);
+                metrics.record(PipelineMetrics.Stage.BOUNDS, start);
+                return estimate;
+            }
+        }, lossless ? 1 : JpegHeaderEstimator.MIN_PREDICTED_GAIN_PERCENT, poolSize);  //lossless: any image predicted to shrink
+        ImageCandidate last = null;
+        while (!filter.isFull()) {
+            long start = metrics.start();
+            List<ImageCandidate> page = source.getPage(last, pageSize);
+            metrics.record(PipelineMetrics.Stage.QUERY, start);
+            for (ImageCandidate candidate : page) {
+                filter.offer(candidate);
+            }
+            if (page.size() < pageSize) {
+                break;  //last page
+            }
+            last = page.get(page.size() - 1);
+        }
+        List<ImageCandidate> result = filter.getRanked(maxCount);
+        LOG.info("Total # of images scanned : " + filter.getOfferedCount() + " skipped as not worth it: "
+                + filter.getSkippedCount() + " candidates: " + result.size());
+        return result;
+    }
+
+    /**
+     * Method to compress an image and write it to the store. With a QualitySearch the highest quality up to imageQuality
+     * meeting its target is chosen, reusing the decoded image for every trial encode.
+     * @param imgFile Absolute path to image file that needs to be compressed
+     * @param imageQuality The (highest) quality level of the compressed image
+     * @param qualitySearch adaptive quality target, null to always use imageQuality
+     * @return Pair containing the source and compressed image alongwith their sizes and quality, the compressed image is null if compression failed
+     */
+    public Pair compress(final String imgFile, final int imageQuality, final QualitySearch qualitySearch) {
+        final long srcSize = new File(imgFile).length();
+        final int[] chosenQuality = { imageQuality };
+        final long[] largestTrial = { 0 };
+        final PipelineMetrics metrics = PipelineMetrics.getInstance();
+        Pair pair = store.write(imgFile, new OutputStore.Encoder() {
+            @Override
+            public boolean encode(OutputStream ostream) throws IOException {
+                long start = metrics.start();
+                final T image = codec.decode(new File(imgFile));
+                if (image == null) {
+                    return false;
+                }
+                metrics.record(PipelineMetrics.Stage.DECODE, start, srcSize);
+                try {
+                    start = metrics.start();
+                    if (qualitySearch == null) {
+                        boolean encoded = codec.encode(image, imageQuality, ostream);
+                        metrics.record(PipelineMetrics.Stage.ENCODE, start);
+                        return encoded;
+                    }
+                    long targetSize = qualitySearch.getTargetSize(srcSize, codec.getWidth(image), codec.getHeight(image));
+                    QualitySearch.Result result = qualitySearch.search(imageQuality, targetSize, new QualitySearch.TrialEncoder() {
+                        @Override
+                        public boolean encode(int quality, ByteArrayOutputStream buffer) throws IOException {
+                            boolean encoded = codec.encode(image, quality, buffer);
+                            largestTrial[0] = Math.max(largestTrial[0], buffer.size());
+                            return encoded;
+                        }
+                    }, ENCODE_BUFFERS.get());
+                    metrics.record(PipelineMetrics.Stage.ENCODE, start);
+                    if (result == null) {
+                        return false;
+                    }
+                    if (LOG.isLoggable(Level.FINE)) {   //per image, so only built when asked for
+                        LOG.fine("adaptive quality " + result.quality + " after " + result.trials + " trials, size: "
+                                + result.output.size() + " target: " + targetSize);
+                    }
+                    chosenQuality[0] = result.quality;
+                    result.output.writeTo(ostream);
+                    return true;
+                } finally {
+                    codec.release(image);
+                    trimEncodeBuffers(largestTrial[0]);
+                }
+            }
+        });
+        pair.quality = chosenQuality[0];
+        return pair;
+    }
+
+    /**
+     * Method to drop the trial encode buffers of this thread after an image larger than MAX_RETAINED_BUFFER_BYTES. Buffers
+     * double when they grow, so the buffers kept never hold more than twice that.
+     * @param largestTrial size of the largest trial encode of the image
+     */
+    static void trimEncodeBuffers(long largestTrial) {
+        if (largestTrial > MAX_RETAINED_BUFFER_BYTES) {
+            ENCODE_BUFFERS.remove();    //a new pair is created for the next image
+        }
+    }
+
+    /**
+     * Method to optimize a JPEG without loss and write it to the store, see JpegHuffmanOptimizer. Nothing is decoded, so
+     * the codec is not used and the image can be much larger than one that can be decoded.
+     * @param imgFile Absolute path to image file that needs to be optimized
+     * @param stripOptionalSegments true to also drop the metadata not needed to show the image
+     * @return Pair containing the source and optimized image alongwith their sizes, the optimized image is null if the
+     * image is not a baseline JPEG or optimization failed
+     */
+    public Pair optimize(final String imgFile, final boolean stripOptionalSegments) {
+        final long srcSize = new File(imgFile).length();
+        final PipelineMetrics metrics = PipelineMetrics.getInstance();
+        Pair pair = store.write(imgFile, new OutputStore.Encoder() {
+            @Override
+            public boolean encode(OutputStream ostream) throws IOException {
+                long start = metrics.start();
+                boolean optimized = JpegHuffmanOptimizer.optimize(new File(imgFile), ostream, stripOptionalSegments);
+                metrics.record(PipelineMetrics.Stage.ENCODE, start, srcSize);
+                return optimized;
+            }
+        });
+        pair.quality = Pair.LOSSLESS;
+        return pair;
+    }
+
+    /**
+     * Deletes the first maxCount images from the provided list. The images are deleted from the physical device
+     * @param imgList  list containing path to images that needs to be deleted
+     * @param maxCount delete maxCount images from the imgList
+     */
+    public static void deleteImages(List<String> imgList, int maxCount) {
+        int count = 0;
+        for (String image : imgList) {
+            if (count >= maxCount) break;
+            deleteImage(new File(image));
+            count++;
+        }
+    }
+
+    /**
+     * Deletes imageFile from the physical device
+     * @param imgFile file to be deleted
+     */
+    public static void deleteImage(File imgFile) {
+        if (imgFile.exists()) {
+            PipelineMetrics metrics = PipelineMetrics.getInstance();
+            long start = metrics.start();
+            long size = imgFile.length();
+            if (imgFile.delete()) {
+                metrics.record(PipelineMetrics.Stage.DELETE, start, size);
+            }
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package course.examples.spacesaver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream wrapper counting the number of bytes written through it <br/>
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    private long count = 0;
+
+    /**
+     * Constructor taking the stream the bytes are forwarded to
+     * @param out underlying output stream
+     */
+    public CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        count += len;
+    }
+
+    /**
+     * Method to return the number of bytes written so far
+     * @return number of bytes written
+     */
+    public long getCount() {
+        return count;
+    }
+}
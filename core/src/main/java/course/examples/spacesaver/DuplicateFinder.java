@@ -0,0 +1,346 @@
+package course.examples.spacesaver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Finds the images that are byte for byte copies of each other while reading as little as possible <br/>
+ * Only images of the same size can be copies, so the sizes known from the ImageSource split the images first and most
+ * images are never opened. Images sharing a size get a partial hash of their first and last PARTIAL_HASH_BYTES, which
+ * tells apart nearly all images that merely share a size, and only the images whose partial hashes still collide are
+ * hashed in full. Files no larger than two partial blocks are read whole by the partial hash, which is then their full
+ * hash. Hashes are looked up in and stored to a HashCache, so a later run only reads the images that changed.
+ */
+public class DuplicateFinder {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.DuplicateFinder";
+    public static final int PARTIAL_HASH_BYTES = 64 * (int) SizeUtility.KILOBYTE;
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    private static final Logger LOG = Logger.getLogger(LOG_TAG_NAME);
+
+    private final HashCache cache;
+    private final ExecutorService executor;
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong filesRead = new AtomicLong();
+
+    /**
+     * Interface to a persistent store of the hashes of the images, keyed by path, size and modification time
+     */
+    public interface HashCache {
+        /**
+         * @return the hash of the first and last PARTIAL_HASH_BYTES of this version of the image, null if not known
+         */
+        String getPartialHash(ImageCandidate image);
+
+        /**
+         * @return the hash of the whole of this version of the image, null if not known
+         */
+        String getFullHash(ImageCandidate image);
+
+        /**
+         * Method to store a partial hash, called from the hashing threads
+         */
+        void putPartialHash(ImageCandidate image, String hash);
+
+        /**
+         * Method to store a full hash, called from the hashing threads
+         */
+        void putFullHash(ImageCandidate image, String hash);
+    }
+
+    /**
+     * Orders the copies of an image: the oldest one first, as the one the others were copied from, then by path
+     */
+    static final Comparator<ImageCandidate> ORIGINAL_FIRST = new Comparator<ImageCandidate>() {
+        @Override
+        public int compare(ImageCandidate a, ImageCandidate b) {
+            if (a.modified != b.modified) {
+                return a.modified < b.modified ? -1 : 1;
+            }
+            return a.path.compareTo(b.path);
+        }
+    };
+
+    /**
+     * Constructor taking the cache of the hashes and the threads hashing the files
+     * @param cache cache of the hashes, null to always read the files
+     * @param executor threads hashing the files in parallel, null to hash them on the calling thread
+     */
+    public DuplicateFinder(HashCache cache, ExecutorService executor) {
+        this.cache = cache;
+        this.executor = executor;
+    }
+
+    /**
+     * Method to find the images having the same content
+     * @param images images to compare, with their size
+     * @return groups of at least two identical images, the original first, the groups wasting the most bytes first
+     * @throws InterruptedException if the thread was interrupted while waiting for the hashing threads
+     */
+    public List<NearDuplicateIndex.Group> findDuplicates(Collection<ImageCandidate> images) throws InterruptedException {
+        Map<Long, List<ImageCandidate>> bySize = new HashMap<Long, List<ImageCandidate>>();
+        for (ImageCandidate image : images) {
+            if (image.size <= 0) {
+                continue;
+            }
+            List<ImageCandidate> sameSize = bySize.get(image.size);
+            if (sameSize == null) {
+                sameSize = new ArrayList<ImageCandidate>(1);
+                bySize.put(image.size, sameSize);
+            }
+            sameSize.add(image);
+        }
+        List<ImageCandidate> sizeCollisions = collisions(bySize.values());
+
+        Map<ImageCandidate, String> partialHashes = hashAll(sizeCollisions, false);
+        Map<String, List<ImageCandidate>> byPartialHash = groupBy(sizeCollisions, partialHashes);
+        List<List<ImageCandidate>> identical = new ArrayList<List<ImageCandidate>>();
+        List<ImageCandidate> partialCollisions = new ArrayList<ImageCandidate>();
+        for (List<ImageCandidate> group : byPartialHash.values()) {
+            if (group.size() < 2) {
+                continue;
+            }
+            if (group.get(0).size <= 2L * PARTIAL_HASH_BYTES) {
+                identical.add(group);   //the partial hash covered the whole file
+            } else {
+                partialCollisions.addAll(group);
+            }
+        }
+
+        Map<ImageCandidate, String> fullHashes = hashAll(partialCollisions, true);
+        for (List<ImageCandidate> group : groupBy(partialCollisions, fullHashes).values()) {
+            if (group.size() > 1) {
+                identical.add(group);
+            }
+        }
+
+        List<NearDuplicateIndex.Group> groups = new ArrayList<NearDuplicateIndex.Group>(identical.size());
+        for (List<ImageCandidate> group : identical) {
+            Collections.sort(group, ORIGINAL_FIRST);
+            groups.add(new NearDuplicateIndex.Group(group));
+        }
+        Collections.sort(groups, NearDuplicateIndex.MOST_RECLAIMABLE_FIRST);
+        LOG.info(images.size() + " images, " + sizeCollisions.size() + " sharing a size, " + partialCollisions.size()
+                + " sharing a partial hash, " + groups.size() + " groups of copies; read " + filesRead.get() + " files, "
+                + SizeUtility.getSizeInString(bytesRead.get()));
+        return groups;
+    }
+
+    /**
+     * @return bytes read from the files so far, the measure of the work saved by the prefilters and the cache
+     */
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    /**
+     * @return number of files opened so far
+     */
+    public long getFilesRead() {
+        return filesRead.get();
+    }
+
+    private static List<ImageCandidate> collisions(Collection<List<ImageCandidate>> groups) {
+        List<ImageCandidate> result = new ArrayList<ImageCandidate>();
+        for (List<ImageCandidate> group : groups) {
+            if (group.size() > 1) {
+                result.addAll(group);
+            }
+        }
+        return result;
+    }
+
+    private static Map<String, List<ImageCandidate>> groupBy(List<ImageCandidate> images, Map<ImageCandidate, String> hashes) {
+        Map<String, List<ImageCandidate>> groups = new LinkedHashMap<String, List<ImageCandidate>>();
+        for (ImageCandidate image : images) {
+            String hash = hashes.get(image);
+            if (hash == null) {
+                continue;   //unreadable
+            }
+            String key = image.size + ":" + hash;
+            List<ImageCandidate> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<ImageCandidate>(2);
+                groups.put(key, group);
+            }
+            group.add(image);
+        }
+        return groups;
+    }
+
+    /**
+     * Method to hash images, taking the hashes from the cache when possible and reading the others in parallel
+     * @param images images to be hashed
+     * @param full true for the hash of the whole file, false for the partial hash
+     * @return hash of every image that could be read
+     */
+    private Map<ImageCandidate, String> hashAll(List<ImageCandidate> images, final boolean full) throws InterruptedException {
+        Map<ImageCandidate, String> hashes = new HashMap<ImageCandidate, String>(images.size() * 2);
+        List<ImageCandidate> pending = new ArrayList<ImageCandidate>();
+        for (ImageCandidate image : images) {
+            String hash = null;
+            if (cache != null) {
+                hash = full ? cache.getFullHash(image) : cache.getPartialHash(image);
+            }
+            if (hash != null) {
+                hashes.put(image, hash);
+            } else {
+                pending.add(image);
+            }
+        }
+        if (executor == null) {
+            for (ImageCandidate image : pending) {
+                String hash = hashAndCache(image, full);
+                if (hash != null) {
+                    hashes.put(image, hash);
+                }
+            }
+            return hashes;
+        }
+        List<Future<String>> futures = new ArrayList<Future<String>>(pending.size());
+        for (final ImageCandidate image : pending) {
+            futures.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return hashAndCache(image, full);
+                }
+            }));
+        }
+        try {
+            for (int i = 0; i < pending.size(); i++) {
+                try {
+                    String hash = futures.get(i).get();
+                    if (hash != null) {
+                        hashes.put(pending.get(i), hash);
+                    }
+                } catch (ExecutionException e) {
+                    LOG.info("cannot hash " + pending.get(i).path + ": " + e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            for (Future<String> future : futures) {
+                future.cancel(true);
+            }
+            throw e;
+        }
+        return hashes;
+    }
+
+    private String hashAndCache(ImageCandidate image, boolean full) {
+        try {
+            if (full) {
+                String hash = fullHash(new File(image.path));
+                if (cache != null) {
+                    cache.putFullHash(image, hash);
+                }
+                return hash;
+            }
+            String hash = partialHash(new File(image.path), image.size);
+            if (cache != null) {
+                cache.putPartialHash(image, hash);
+                if (image.size <= 2L * PARTIAL_HASH_BYTES) {
+                    cache.putFullHash(image, hash);
+                }
+            }
+            return hash;
+        } catch (IOException e) {
+            LOG.info("cannot hash " + image.path + ": " + e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Method to hash the first and last PARTIAL_HASH_BYTES of a file, or all of it if it isn't larger than both
+     * @param file file to be hashed
+     * @param size size of the file as known by the caller, a file of another size is not read
+     * @return hex encoded digest
+     * @throws IOException if the file cannot be read or its size changed
+     */
+    String partialHash(File file, long size) throws IOException {
+        MessageDigest digest = newDigest();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if (input.length() != size) {
+                throw new IOException("size changed from " + size + " to " + input.length());
+            }
+            byte[] buffer = new byte[(int) Math.min(size, PARTIAL_HASH_BYTES)];
+            input.readFully(buffer);
+            digest.update(buffer);
+            long tail = Math.max(buffer.length, size - PARTIAL_HASH_BYTES);
+            if (tail < size) {
+                int length = (int) (size - tail);
+                input.seek(tail);
+                input.readFully(buffer, 0, length);
+                digest.update(buffer, 0, length);
+            }
+            bytesRead.addAndGet(Math.min(size, 2L * PARTIAL_HASH_BYTES));
+            filesRead.incrementAndGet();
+        } finally {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Method to hash a whole file, streaming it through the digest
+     * @param file file to be hashed
+     * @return hex encoded digest
+     * @throws IOException if the file cannot be read
+     */
+    String fullHash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream input = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[PARTIAL_HASH_BYTES];
+            int count;
+            while ((count = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, count);
+                bytesRead.addAndGet(count);
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new IOException("interrupted");
+                }
+            }
+            filesRead.incrementAndGet();
+        } finally {
+            input.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is required on every Java platform", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = digits[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = digits[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,40 @@
+package course.examples.spacesaver;
+
+/**
+ * Wrapper class holding the MediaStore columns of an image that is a candidate for compression <br/>
+ */
+public class ImageCandidate {
+    long id;
+    String path;
+    long size;
+    long modified;  //in seconds
+    int width;
+    int height;
+    JpegHeaderEstimator.Estimate estimate;  //null until estimated, or if the image is not a JPEG
+
+    /**
+     * Constructor taking the MediaStore columns of the image
+     * @param id MediaStore _ID of the image
+     * @param path Absolute path to the image
+     * @param size Size of the image in bytes
+     * @param modified Modification time of the image in seconds
+     * @param width Width of the image in pixels, 0 if unknown
+     * @param height Height of the image in pixels, 0 if unknown
+     */
+    public ImageCandidate(long id, String path, long size, long modified, int width, int height) {
+        this.id = id;
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Method to return the predicted bytes saved per estimated CPU millisecond, used to rank candidates
+     * @return predicted saving per CPU millisecond, 0 if nothing could be predicted
+     */
+    public double getSavingPerCpuMs() {
+        return estimate == null ? 0 : estimate.getSavingPerCpuMs();
+    }
+}
@@ -0,0 +1,49 @@
+package course.examples.spacesaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Abstraction of the image decoder and JPEG encoder used by the compression pipeline, so the same pipeline can run
+ * on Android (Bitmap) and on a plain JVM (ImageIO) <br/>
+ * @param <T> type of a decoded image
+ */
+public interface ImageCodec<T> {
+
+    /**
+     * Method to decode an image file at full resolution
+     * @param imgFile image file to be decoded
+     * @return the decoded image, null if the file could not be decoded
+     * @throws IOException if reading the file fails
+     */
+    T decode(File imgFile) throws IOException;
+
+    /**
+     * @param image decoded image
+     * @return width of the image in pixels
+     */
+    int getWidth(T image);
+
+    /**
+     * @param image decoded image
+     * @return height of the image in pixels
+     */
+    int getHeight(T image);
+
+    /**
+     * Method to encode a decoded image as JPEG
+     * @param image decoded image
+     * @param quality quality level between 1 and 100
+     * @param ostream stream the JPEG is written to
+     * @return true if the image was encoded
+     * @throws IOException if writing fails
+     */
+    boolean encode(T image, int quality, OutputStream ostream) throws IOException;
+
+    /**
+     * Method to release a decoded image once it is no longer needed
+     * @param image decoded image, can be null
+     */
+    void release(T image);
+}
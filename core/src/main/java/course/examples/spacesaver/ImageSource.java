@@ -0,0 +1,19 @@
+package course.examples.spacesaver;
+
+import java.util.List;
+
+/**
+ * Abstraction of the collection images to be compressed are read from, e.g. the MediaStore or a directory tree <br/>
+ * Images are returned one page at a time ordered by size and then id, both descending, so the largest images are
+ * considered first and a scan can stop as soon as enough candidates are found.
+ */
+public interface ImageSource {
+
+    /**
+     * Method to return the page of images following a given image
+     * @param after last image of the previous page, null for the first page
+     * @param pageSize maximum number of images in the page
+     * @return a list of at most pageSize images, fewer only on the last page
+     */
+    List<ImageCandidate> getPage(ImageCandidate after, int pageSize);
+}
@@ -0,0 +1,249 @@
+package course.examples.spacesaver;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Class predicting how much space re-encoding a JPEG would save, from its header alone <br/>
+ * Only the markers before the first scan are read: the frame header (SOF) gives the dimensions and the luminance
+ * quantization table (DQT) gives the quality the image was saved with, by comparing it with the scaled IJG standard table.
+ * The re-encoded size is then predicted from the ratio of typical bits per pixel at both qualities. A lossless rewrite
+ * of the Huffman coding only saves a few percent, and only of baseline JPEGs, see estimateLossless.
+ */
+public class JpegHeaderEstimator {
+
+    public static final int MIN_PREDICTED_GAIN_PERCENT = 10; //images predicted to shrink less than this are not worth decoding
+    private static final double DECODE_ENCODE_NS_PER_PIXEL = 40; //rough cost of a decode plus an encode on a phone
+    public static final int LOSSLESS_GAIN_PERCENT = 4;  //typical saving of optimized Huffman tables over the standard ones
+    private static final double HUFFMAN_NS_PER_PIXEL = 8;  //two passes over the entropy coded data, no DCT
+
+    /**
+     * Typical bits per pixel of IJG encoded camera images at the qualities in BPP_QUALITIES
+     */
+    private static final int[] BPP_QUALITIES = {10, 20, 30, 40, 50, 60, 70, 75, 80, 85, 90, 95, 100};
+    private static final double[] BPP = {0.25, 0.40, 0.52, 0.62, 0.71, 0.82, 0.97, 1.06, 1.21, 1.45, 1.85, 2.70, 5.00};
+
+    /**
+     * Wrapper class holding what was read from the header and the predictions derived from it
+     */
+    public static class Estimate {
+        int width;
+        int height;
+        int sourceQuality;      //estimated quality of the source, 0 if not known
+        boolean baseline;       //Huffman coded sequential frame, which JpegHuffmanOptimizer supports
+        long sourceSize;
+        long predictedSize;
+        double estimatedCpuMs;
+
+        /**
+         * @return bytes expected to be saved by re-encoding, 0 or more
+         */
+        public long getPredictedSaving() {
+            return Math.max(0, sourceSize - predictedSize);
+        }
+
+        /**
+         * @return bytes expected to be saved for every millisecond of decoding and encoding
+         */
+        public double getSavingPerCpuMs() {
+            return estimatedCpuMs > 0 ? getPredictedSaving() / estimatedCpuMs : 0;
+        }
+
+        /**
+         * @param minGainPercent minimum predicted saving as a percentage of the source size
+         * @return true if the predicted saving is at least minGainPercent of the source
+         */
+        public boolean isWorthCompressing(int minGainPercent) {
+            return sourceSize > 0 && getPredictedSaving() * 100 >= sourceSize * minGainPercent;
+        }
+    }
+
+    /**
+     * Method to estimate the savings of re-encoding a JPEG file
+     * @param imgFile JPEG file
+     * @param targetQuality quality the image would be re-encoded with
+     * @return the estimate, null if the file is not a JPEG or its header could not be read
+     */
+    public static Estimate estimate(File imgFile, int targetQuality) {
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(imgFile), 8 * 1024);
+            try {
+                Estimate estimate = readHeader(in);
+                if (estimate == null) {
+                    return null;
+                }
+                estimate.sourceSize = imgFile.length();
+                predict(estimate, targetQuality);
+                return estimate;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method to estimate the savings of optimizing the Huffman coding of a JPEG without re-encoding it
+     * @param imgFile image file
+     * @return the estimate, never null: an image JpegHuffmanOptimizer cannot optimize, e.g. a progressive JPEG or not a
+     * JPEG at all, is predicted to save nothing
+     */
+    public static Estimate estimateLossless(File imgFile) {
+        Estimate estimate = null;
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(imgFile), 8 * 1024);
+            try {
+                estimate = readHeader(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            //predicted to save nothing below
+        }
+        if (estimate == null) {
+            estimate = new Estimate();
+        }
+        estimate.sourceSize = imgFile.length();
+        predictLossless(estimate);
+        return estimate;
+    }
+
+    /**
+     * Method to read the dimensions and the luminance quality from the markers before the first scan
+     * @param stream JPEG data
+     * @return estimate with width, height and sourceQuality filled in, null if the data is not a JPEG with a frame header
+     * @throws IOException if reading fails
+     */
+    static Estimate readHeader(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readUnsignedByte() != 0xFF || in.readUnsignedByte() != 0xD8) {
+            return null;
+        }
+        Estimate estimate = new Estimate();
+        boolean frameFound = false;
+        try {
+            while (true) {
+                int marker = in.readUnsignedByte();
+                if (marker != 0xFF) {
+                    return null;
+                }
+                do {
+                    marker = in.readUnsignedByte();
+                } while (marker == 0xFF);  //fill bytes
+                if (marker == 0xD9 || marker == 0xDA) {  //EOI or SOS, no more tables before the image data
+                    break;
+                }
+                int length = in.readUnsignedShort() - 2;
+                if (marker == 0xDB) {
+                    length -= readQuantTables(in, length, estimate);
+                } else if (isStartOfFrame(marker)) {
+                    in.readUnsignedByte();  //precision
+                    estimate.height = in.readUnsignedShort();
+                    estimate.width = in.readUnsignedShort();
+                    estimate.baseline = marker == 0xC0 || marker == 0xC1;
+                    length -= 5;
+                    frameFound = true;
+                }
+                skipFully(in, length);
+            }
+        } catch (EOFException e) {
+            //truncated file, use what was found
+        }
+        return frameFound ? estimate : null;
+    }
+
+    private static boolean isStartOfFrame(int marker) {
+        return marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC;
+    }
+
+    /**
+     * Method to read the tables of a DQT segment and estimate the quality from table 0 (luminance)
+     * @return number of bytes of the segment consumed
+     */
+    private static int readQuantTables(DataInputStream in, int length, Estimate estimate) throws IOException {
+        int consumed = 0;
+        int[] table = new int[64];
+        while (length - consumed >= 65) {
+            int info = in.readUnsignedByte();
+            boolean sixteenBit = (info >> 4) != 0;
+            int id = info & 0x0F;
+            for (int k = 0; k < 64; k++) {
+                table[JpegTables.ZIGZAG[k]] = sixteenBit ? in.readUnsignedShort() : in.readUnsignedByte();
+            }
+            consumed += sixteenBit ? 129 : 65;
+            if (id == 0) {
+                estimate.sourceQuality = estimateQuality(table);
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Method to estimate the IJG quality a luminance quantization table was produced with
+     * @param table quantization table in natural order
+     * @return quality between 1 and 100
+     */
+    static int estimateQuality(int[] table) {
+        double sum = 0;
+        for (int i = 0; i < 64; i++) {
+            sum += table[i] * 100.0 / JpegTables.STD_LUMINANCE_QUANT[i];
+        }
+        double scale = sum / 64;   //average scaling percentage applied to the standard table
+        int quality = scale <= 100 ? (int) Math.round((200 - scale) / 2) : (int) Math.round(5000 / scale);
+        return Math.max(1, Math.min(100, quality));
+    }
+
+    /**
+     * Method to fill in the predicted size and cost of re-encoding at the target quality
+     */
+    static void predict(Estimate estimate, int targetQuality) {
+        if (estimate.sourceQuality == 0 || targetQuality >= estimate.sourceQuality) {
+            estimate.predictedSize = estimate.sourceSize;  //re-encoding at the same or a higher quality saves nothing
+        } else {
+            double ratio = bitsPerPixel(targetQuality) / bitsPerPixel(estimate.sourceQuality);
+            estimate.predictedSize = (long) (estimate.sourceSize * ratio);
+        }
+        estimate.estimatedCpuMs = (double) estimate.width * estimate.height * DECODE_ENCODE_NS_PER_PIXEL / 1000000.0;
+    }
+
+    /**
+     * Method to fill in the predicted size and cost of optimizing the Huffman coding
+     */
+    static void predictLossless(Estimate estimate) {
+        estimate.predictedSize = estimate.baseline
+                ? estimate.sourceSize - estimate.sourceSize * LOSSLESS_GAIN_PERCENT / 100 : estimate.sourceSize;
+        estimate.estimatedCpuMs = (double) estimate.width * estimate.height * HUFFMAN_NS_PER_PIXEL / 1000000.0;
+    }
+
+    /**
+     * Method to interpolate the typical bits per pixel at a quality level
+     */
+    static double bitsPerPixel(int quality) {
+        if (quality <= BPP_QUALITIES[0]) {
+            return BPP[0];
+        }
+        for (int i = 1; i < BPP_QUALITIES.length; i++) {
+            if (quality <= BPP_QUALITIES[i]) {
+                double t = (double) (quality - BPP_QUALITIES[i - 1]) / (BPP_QUALITIES[i] - BPP_QUALITIES[i - 1]);
+                return BPP[i - 1] + t * (BPP[i] - BPP[i - 1]);
+            }
+        }
+        return BPP[BPP.length - 1];
+    }
+
+    private static void skipFully(DataInputStream in, int count) throws IOException {
+        while (count > 0) {
+            int skipped = in.skipBytes(count);
+            if (skipped <= 0) {
+                throw new EOFException();
+            }
+            count -= skipped;
+        }
+    }
+}
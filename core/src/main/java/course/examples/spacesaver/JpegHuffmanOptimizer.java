@@ -0,0 +1,912 @@
+package course.examples.spacesaver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Lossless JPEG optimizer rewriting the entropy coded data of a baseline JPEG with Huffman tables built for the image <br/>
+ * Cameras and most encoders use the example tables of the JPEG standard, which waste several percent of the file. The
+ * file is read twice: the first pass decodes the Huffman symbols of every block and counts them, optimal code lengths of
+ * at most 16 bits are computed from the counts, and the second pass decodes the symbols again and writes each one with
+ * its new code followed by the same extra bits. The coefficients, and therefore the pixels, stay exactly those of the
+ * original; no block is dequantized or transformed and the memory used does not depend on the size of the image.
+ * Progressive, arithmetic coded and lossless JPEGs are left alone. Optionally the segments not needed to show the image
+ * are stripped: comments, XMP, the thumbnail of the Exif data, other application segments and the images following the
+ * primary one in a multi picture file. The JFIF and Adobe segments, the ICC profile and the rest of the Exif data
+ * (orientation, date, location) are always kept.
+ */
+public class JpegHuffmanOptimizer {
+
+    public static final String LOG_TAG_NAME = "SpaceSaver.JpegHuffmanOptimizer";
+    private static final Logger LOG = Logger.getLogger(LOG_TAG_NAME);
+    private static final int BUFFER_SIZE = 64 * (int) SizeUtility.KILOBYTE;
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private static final int SOI = 0xD8;
+    private static final int EOI = 0xD9;
+    private static final int SOS = 0xDA;
+    private static final int DHT = 0xC4;
+    private static final int DRI = 0xDD;
+    private static final int DNL = 0xDC;
+    private static final int SOF0 = 0xC0;
+    private static final int SOF1 = 0xC1;
+    private static final int SOF15 = 0xCF;
+    private static final int RST0 = 0xD0;
+    private static final int RST7 = 0xD7;
+    private static final int TEM = 0x01;
+    private static final int APP0 = 0xE0;
+    private static final int APP1 = 0xE1;
+    private static final int APP2 = 0xE2;
+    private static final int APP14 = 0xEE;
+    private static final int APP15 = 0xEF;
+    private static final int COM = 0xFE;
+
+    private static final int DC = 0;    //table classes
+    private static final int AC = 1;
+    private static final int MAX_CODE_LENGTH = 16;
+
+    private final boolean stripOptionalSegments;
+    private final HuffmanEncoder[][] encoders;  //[class][slot], null in the counting pass
+    private final long[][][] frequencies = new long[2][4][257];
+    private final HuffmanDecoder[][] decoders = new HuffmanDecoder[2][4];
+
+    private InputStream in;
+    private long inputPosition;
+    private CountingOutputStream out;           //null in the counting pass
+    private boolean tablesWritten;
+
+    private int frameWidth;
+    private int frameHeight;
+    private int[] componentIds;
+    private int[] hSampling;
+    private int[] vSampling;
+    private int maxHSampling;
+    private int maxVSampling;
+    private int restartInterval;
+
+    private int bitBuffer;                      //entropy decoder
+    private int bitCount;
+    private long outBits;                       //entropy encoder
+    private int outBitCount;
+
+    private boolean hasMultiPicture;            //MPF segment, offsets of the images following the primary one
+    private boolean dropTrailingData;
+    private long mpHeaderInput = -1;
+    private long mpHeaderOutput = -1;
+    private int[] mpEntryPositions;             //of the entries of the MP index, relative to the MP header
+    private boolean mpLittleEndian;
+    private long trailingInput;
+    private long trailingOutput;
+
+    private JpegHuffmanOptimizer(boolean stripOptionalSegments, HuffmanEncoder[][] encoders) {
+        this.stripOptionalSegments = stripOptionalSegments;
+        this.encoders = encoders;
+    }
+
+    /**
+     * Method to write the optimized version of a JPEG
+     * @param src baseline JPEG file
+     * @param ostream stream the optimized JPEG is written to, nothing is written if false is returned
+     * @param stripOptionalSegments true to also drop the segments not needed to show the image
+     * @return true if the image was optimized, false if it is not a JPEG this optimizer supports
+     * @throws IOException if reading or writing fails or the entropy coded data is corrupt
+     */
+    public static boolean optimize(File src, OutputStream ostream, boolean stripOptionalSegments) throws IOException {
+        JpegHuffmanOptimizer counting = new JpegHuffmanOptimizer(stripOptionalSegments, null);
+        if (!counting.run(src, null)) {
+            return false;
+        }
+        JpegHuffmanOptimizer writing = new JpegHuffmanOptimizer(stripOptionalSegments, counting.buildEncoders());
+        if (!counting.hasMultiPicture || stripOptionalSegments) {
+            return writing.run(src, ostream);
+        }
+        //the MP index points past the primary image, so its offsets are fixed once the new size is known
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream((int) Math.min(src.length(), Integer.MAX_VALUE - 8));
+        if (!writing.run(src, buffer)) {
+            return false;
+        }
+        byte[] optimized = buffer.toByteArray();
+        writing.patchMultiPicture(optimized);
+        ostream.write(optimized);
+        return true;
+    }
+
+    /**
+     * Method to read the whole file once, counting the symbols or writing the optimized image
+     * @return false if the image is not supported
+     */
+    private boolean run(File src, OutputStream ostream) throws IOException {
+        in = new BufferedInputStream(new FileInputStream(src), BUFFER_SIZE);
+        out = ostream == null ? null : new CountingOutputStream(ostream);
+        try {
+            return process();
+        } finally {
+            in.close();
+        }
+    }
+
+    private boolean process() throws IOException {
+        if (readByte() != 0xFF || readByte() != SOI) {
+            return false;
+        }
+        writeMarker(SOI);
+        int marker = nextMarker();
+        while (true) {
+            if (marker == EOI) {
+                writeMarker(EOI);
+                copyTrailingData();
+                return true;
+            }
+            if (marker == TEM || (marker >= RST0 && marker <= RST7)) {
+                writeMarker(marker);    //no length, stray restart markers are copied as they are
+                marker = nextMarker();
+                continue;
+            }
+            int length = readUnsignedShort();
+            if (length < 2) {
+                throw new IOException("invalid length of segment " + Integer.toHexString(marker));
+            }
+            long payloadInput = inputPosition;
+            byte[] payload = readFully(length - 2);
+            if (marker == SOS) {
+                if (!scan(payload)) {
+                    return false;
+                }
+                marker = nextMarker();
+                continue;
+            }
+            if (marker == SOF0 || marker == SOF1) {
+                parseFrame(payload);
+                writeSegment(marker, payload);
+            } else if (marker == DHT) {
+                parseHuffmanTables(payload);    //replaced by the optimized tables
+            } else if (marker == DRI) {
+                restartInterval = unsignedShort(payload, 0);
+                writeSegment(marker, payload);
+            } else if ((marker > SOF1 && marker <= SOF15 && marker != DHT) || marker == DNL) {
+                LOG.fine("unsupported JPEG process " + Integer.toHexString(marker));
+                return false;   //progressive, lossless, hierarchical or arithmetic coded
+            } else if ((marker >= APP0 && marker <= APP15) || marker == COM) {
+                if (!optionalSegment(marker, payload, payloadInput)) {
+                    return false;
+                }
+            } else {
+                writeSegment(marker, payload);
+            }
+            marker = nextMarker();
+        }
+    }
+
+    /**
+     * Method to keep, strip or shrink an application or comment segment
+     * @return false if the image cannot be optimized without breaking the segment
+     */
+    private boolean optionalSegment(int marker, byte[] payload, long payloadInput) throws IOException {
+        if (marker == APP2 && startsWith(payload, "MPF\0")) {
+            if (stripOptionalSegments) {
+                dropTrailingData = true;    //the other images of the file go with their index
+                return true;
+            }
+            hasMultiPicture = true;
+            if (out != null) {
+                mpHeaderInput = payloadInput + 4;
+                mpHeaderOutput = out.getCount() + 4 + 4;   //marker, length and identifier
+                if (!parseMultiPicture(payload)) {
+                    return false;
+                }
+            }
+            writeSegment(marker, payload);
+            return true;
+        }
+        if (!stripOptionalSegments) {
+            writeSegment(marker, payload);
+        } else if (marker == APP1 && startsWith(payload, "Exif\0\0")) {
+            writeSegment(marker, stripExifThumbnail(payload));
+        } else if ((marker == APP0 && startsWith(payload, "JFIF\0"))
+                || (marker == APP2 && startsWith(payload, "ICC_PROFILE\0"))
+                || (marker == APP14 && startsWith(payload, "Adobe"))) {
+            writeSegment(marker, payload);
+        } else if (out != null && LOG.isLoggable(Level.FINE)) {
+            LOG.fine("stripped segment " + Integer.toHexString(marker) + " of " + payload.length + " bytes");
+        }
+        return true;
+    }
+
+    private void parseFrame(byte[] payload) throws IOException {
+        if (payload.length < 6) {
+            throw new IOException("frame header too short");
+        }
+        frameHeight = unsignedShort(payload, 1);
+        frameWidth = unsignedShort(payload, 3);
+        int count = payload[5] & 0xFF;
+        if (frameHeight == 0 || frameWidth == 0 || count == 0 || payload.length < 6 + 3 * count) {
+            throw new IOException("unsupported frame header");   //a height of 0 is only defined later by a DNL marker
+        }
+        componentIds = new int[count];
+        hSampling = new int[count];
+        vSampling = new int[count];
+        maxHSampling = 1;
+        maxVSampling = 1;
+        for (int i = 0; i < count; i++) {
+            componentIds[i] = payload[6 + 3 * i] & 0xFF;
+            hSampling[i] = Math.max(1, (payload[7 + 3 * i] >> 4) & 0xF);
+            vSampling[i] = Math.max(1, payload[7 + 3 * i] & 0xF);
+            maxHSampling = Math.max(maxHSampling, hSampling[i]);
+            maxVSampling = Math.max(maxVSampling, vSampling[i]);
+        }
+    }
+
+    private void parseHuffmanTables(byte[] payload) throws IOException {
+        int pos = 0;
+        while (pos < payload.length) {
+            int tableClass = (payload[pos] >> 4) & 0xF;
+            int slot = payload[pos] & 0xF;
+            if (tableClass > AC || slot > 3 || pos + 17 > payload.length) {
+                throw new IOException("invalid Huffman table");
+            }
+            int[] counts = new int[MAX_CODE_LENGTH + 1];
+            int total = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                counts[length] = payload[pos + length] & 0xFF;
+                total += counts[length];
+            }
+            pos += 17;
+            if (total > 256 || pos + total > payload.length) {
+                throw new IOException("invalid Huffman table");
+            }
+            int[] values = new int[total];
+            for (int i = 0; i < total; i++) {
+                values[i] = payload[pos + i] & 0xFF;
+            }
+            pos += total;
+            decoders[tableClass][slot] = new HuffmanDecoder(counts, values);
+        }
+    }
+
+    /**
+     * Method to transcode one scan, the entropy coded data following its header
+     * @return false if the scan is not a sequential one
+     */
+    private boolean scan(byte[] payload) throws IOException {
+        if (componentIds == null) {
+            throw new IOException("scan before frame header");
+        }
+        int count = payload.length > 0 ? payload[0] & 0xFF : 0;
+        if (count < 1 || count > 4 || payload.length < 4 + 2 * count) {
+            throw new IOException("invalid scan header");
+        }
+        int start = payload[1 + 2 * count] & 0xFF;
+        int end = payload[2 + 2 * count] & 0xFF;
+        int approximation = payload[3 + 2 * count] & 0xFF;
+        if (start != 0 || end != 63 || approximation != 0) {
+            return false;   //spectral selection or successive approximation of a progressive image
+        }
+        int[] components = new int[count];
+        int[] dcSlots = new int[count];
+        int[] acSlots = new int[count];
+        for (int i = 0; i < count; i++) {
+            components[i] = componentIndex(payload[1 + 2 * i] & 0xFF);
+            dcSlots[i] = (payload[2 + 2 * i] >> 4) & 0x3;
+            acSlots[i] = payload[2 + 2 * i] & 0x3;
+            if (decoders[DC][dcSlots[i]] == null || decoders[AC][acSlots[i]] == null) {
+                throw new IOException("scan uses an undefined Huffman table");
+            }
+        }
+        if (out != null && !tablesWritten) {
+            writeOptimizedTables();
+            tablesWritten = true;
+        }
+        writeSegment(SOS, payload);
+
+        long mcuCount;
+        int[] blocksPerMcu = new int[count];
+        if (count == 1) {   //non interleaved: one block per MCU, covering only the component itself
+            int c = components[0];
+            long blocksWide = ceil(ceil(frameWidth * (long) hSampling[c], maxHSampling), 8);
+            long blocksHigh = ceil(ceil(frameHeight * (long) vSampling[c], maxVSampling), 8);
+            mcuCount = blocksWide * blocksHigh;
+            blocksPerMcu[0] = 1;
+        } else {
+            mcuCount = ceil(frameWidth, 8L * maxHSampling) * ceil(frameHeight, 8L * maxVSampling);
+            for (int i = 0; i < count; i++) {
+                blocksPerMcu[i] = hSampling[components[i]] * vSampling[components[i]];
+            }
+        }
+
+        bitCount = 0;
+        int restart = 0;
+        for (long mcu = 0; mcu < mcuCount; mcu++) {
+            if (restartInterval > 0 && mcu > 0 && mcu % restartInterval == 0) {
+                bitCount = 0;   //the rest of the byte is padding
+                int marker = nextMarker();
+                if (marker != RST0 + restart) {
+                    throw new IOException("expected restart marker " + restart + ", found " + Integer.toHexString(marker));
+                }
+                flushBits();
+                writeMarker(marker);
+                restart = (restart + 1) & 7;
+            }
+            for (int i = 0; i < count; i++) {
+                for (int block = 0; block < blocksPerMcu[i]; block++) {
+                    transcodeBlock(decoders[DC][dcSlots[i]], decoders[AC][acSlots[i]], dcSlots[i], acSlots[i]);
+                }
+            }
+        }
+        bitCount = 0;
+        flushBits();
+        return true;
+    }
+
+    private int componentIndex(int id) throws IOException {
+        for (int i = 0; i < componentIds.length; i++) {
+            if (componentIds[i] == id) {
+                return i;
+            }
+        }
+        throw new IOException("scan of unknown component " + id);
+    }
+
+    private static long ceil(long value, long divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    /**
+     * Method to decode the symbols of one 8x8 block and count or re-encode them, the extra bits are passed through
+     */
+    private void transcodeBlock(HuffmanDecoder dcDecoder, HuffmanDecoder acDecoder, int dcSlot, int acSlot) throws IOException {
+        int size = decode(dcDecoder);
+        if (size > 15) {
+            throw new IOException("invalid DC difference size " + size);
+        }
+        emit(DC, dcSlot, size);
+        if (size > 0) {
+            writeBits(readBits(size), size);
+        }
+        int k = 1;
+        while (k < 64) {
+            int symbol = decode(acDecoder);
+            int run = symbol >> 4;
+            size = symbol & 0xF;
+            emit(AC, acSlot, symbol);
+            if (size == 0) {
+                if (run != 15) {
+                    if (run != 0) {
+                        throw new IOException("invalid AC symbol " + Integer.toHexString(symbol));
+                    }
+                    break;  //end of block
+                }
+                k += 16;    //run of 16 zeros
+                continue;
+            }
+            k += run;
+            if (k > 63) {
+                throw new IOException("AC coefficients beyond the block");
+            }
+            writeBits(readBits(size), size);
+            k++;
+        }
+    }
+
+    private void emit(int tableClass, int slot, int symbol) throws IOException {
+        if (encoders == null) {
+            frequencies[tableClass][slot][symbol]++;
+            return;
+        }
+        HuffmanEncoder encoder = encoders[tableClass][slot];
+        if (encoder == null || encoder.sizes[symbol] == 0) {
+            throw new IOException("symbol not seen in the counting pass, the file changed");
+        }
+        writeBits(encoder.codes[symbol], encoder.sizes[symbol]);
+    }
+
+    private int decode(HuffmanDecoder decoder) throws IOException {
+        int code = readBit();
+        for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+            if (code <= decoder.maxCode[length]) {
+                return decoder.values[decoder.valuePointer[length] + code - decoder.minCode[length]];
+            }
+            code = (code << 1) | readBit();
+        }
+        throw new IOException("invalid Huffman code");
+    }
+
+    private int readBits(int count) throws IOException {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            value = (value << 1) | readBit();
+        }
+        return value;
+    }
+
+    private int readBit() throws IOException {
+        if (bitCount == 0) {
+            int b = readByte();
+            if (b == 0xFF) {
+                int next = readByte();
+                if (next != 0) {
+                    throw new IOException("entropy coded data ends early at marker " + Integer.toHexString(next));
+                }
+            }
+            bitBuffer = b;
+            bitCount = 8;
+        }
+        bitCount--;
+        return (bitBuffer >> bitCount) & 1;
+    }
+
+    private void writeBits(int value, int count) throws IOException {
+        if (out == null) {
+            return;
+        }
+        outBits = (outBits << count) | (value & ((1 << count) - 1));
+        outBitCount += count;
+        while (outBitCount >= 8) {
+            int b = (int) (outBits >> (outBitCount - 8)) & 0xFF;
+            out.write(b);
+            if (b == 0xFF) {
+                out.write(0);   //byte stuffing
+            }
+            outBitCount -= 8;
+        }
+        outBits &= (1L << outBitCount) - 1;
+    }
+
+    /**
+     * Method to pad the last byte of the entropy coded data with 1 bits, before a restart marker or the end of a scan
+     */
+    private void flushBits() throws IOException {
+        if (outBitCount > 0) {
+            writeBits((1 << (8 - outBitCount)) - 1, 8 - outBitCount);
+        }
+    }
+
+    /**
+     * Method to build the optimal Huffman tables from the symbols counted in the first pass
+     * @return encoders of every table used by the image
+     */
+    private HuffmanEncoder[][] buildEncoders() {
+        HuffmanEncoder[][] result = new HuffmanEncoder[2][4];
+        for (int tableClass = DC; tableClass <= AC; tableClass++) {
+            for (int slot = 0; slot < 4; slot++) {
+                long[] freq = frequencies[tableClass][slot];
+                for (int symbol = 0; symbol < 256; symbol++) {
+                    if (freq[symbol] > 0) {
+                        result[tableClass][slot] = HuffmanEncoder.optimal(freq);
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private void writeOptimizedTables() throws IOException {
+        int length = 2;
+        for (HuffmanEncoder[] classEncoders : encoders) {
+            for (HuffmanEncoder encoder : classEncoders) {
+                if (encoder != null) {
+                    length += 1 + MAX_CODE_LENGTH + encoder.values.length;
+                }
+            }
+        }
+        writeMarker(DHT);
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        for (int tableClass = DC; tableClass <= AC; tableClass++) {
+            for (int slot = 0; slot < 4; slot++) {
+                HuffmanEncoder encoder = encoders[tableClass][slot];
+                if (encoder == null) {
+                    continue;
+                }
+                out.write((tableClass << 4) | slot);
+                for (int codeLength = 1; codeLength <= MAX_CODE_LENGTH; codeLength++) {
+                    out.write(encoder.counts[codeLength]);
+                }
+                for (int value : encoder.values) {
+                    out.write(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Method to copy whatever follows the end of the image, typically the other images of a multi picture file
+     */
+    private void copyTrailingData() throws IOException {
+        trailingInput = inputPosition;
+        if (out == null || dropTrailingData) {
+            return;
+        }
+        trailingOutput = out.getCount();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        out.flush();
+    }
+
+    /**
+     * Method to find the entries of the MP index, the offsets of which change with the size of the primary image
+     * @return false if the MPF segment cannot be parsed
+     */
+    private boolean parseMultiPicture(byte[] payload) {
+        final int header = 4;
+        try {
+            mpLittleEndian = payload[header] == 'I' && payload[header + 1] == 'I';
+            long ifd = mpValue(payload, header + 4, 4);
+            int entryCount = (int) mpValue(payload, header + (int) ifd, 2);
+            for (int i = 0; i < entryCount; i++) {
+                int pos = header + (int) ifd + 2 + 12 * i;
+                if (mpValue(payload, pos, 2) == 0xB002) {   //MP entry: 16 bytes per image
+                    int images = (int) (mpValue(payload, pos + 4, 4) / 16);
+                    int entries = (int) mpValue(payload, pos + 8, 4);
+                    mpEntryPositions = new int[images];
+                    for (int image = 0; image < images; image++) {
+                        mpEntryPositions[image] = entries + 16 * image;
+                        mpValue(payload, header + mpEntryPositions[image] + 15, 1);    //bounds check
+                    }
+                    return true;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            //reported below
+        }
+        LOG.info("cannot parse the MPF segment, image not optimized");
+        return false;
+    }
+
+    /**
+     * Method to fix the size of the primary image and the offsets of the other images in the MP index
+     * @param image the optimized file
+     */
+    private void patchMultiPicture(byte[] image) {
+        if (mpEntryPositions == null) {
+            return;
+        }
+        int header = (int) mpHeaderOutput;
+        long shift = (trailingOutput - trailingInput) - (mpHeaderOutput - mpHeaderInput);
+        for (int entry : mpEntryPositions) {
+            int pos = header + entry;
+            long offset = mpValue(image, pos + 8, 4);
+            if (offset == 0) {
+                putMpValue(image, pos + 4, trailingOutput);  //the primary image
+            } else if (mpHeaderInput + offset >= trailingInput) {
+                putMpValue(image, pos + 8, offset + shift);
+            }
+        }
+    }
+
+    private long mpValue(byte[] data, int pos, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            int b = data[mpLittleEndian ? pos + size - 1 - i : pos + i] & 0xFF;
+            value = (value << 8) | b;
+        }
+        return value;
+    }
+
+    private void putMpValue(byte[] data, int pos, long value) {
+        for (int i = 0; i < 4; i++) {
+            data[mpLittleEndian ? pos + i : pos + 3 - i] = (byte) (value >> (8 * i));
+        }
+    }
+
+    /**
+     * Method to remove the thumbnail from an Exif segment. The thumbnail lives in IFD1, which is unlinked from IFD0 and
+     * cut off when it and the thumbnail follow everything the other IFDs point to; otherwise the segment is left as it is.
+     * @param payload Exif segment without its marker and length
+     * @return the segment without the thumbnail, or payload itself
+     */
+    static byte[] stripExifThumbnail(byte[] payload) {
+        ExifReader exif = new ExifReader(payload);
+        try {
+            long ifd0 = exif.u32(4);
+            int nextPointer = (int) ifd0 + 2 + 12 * exif.u16((int) ifd0);
+            long ifd1 = exif.walk(ifd0, 0);
+            if (ifd1 == 0 || exif.end > ifd1) {
+                return payload;
+            }
+            int count = exif.u16((int) ifd1);
+            for (int i = 0; i < count; i++) {
+                int pos = (int) ifd1 + 2 + 12 * i;
+                int tag = exif.u16(pos);
+                if ((tag == 0x0201 || tag == 0x0111) && exif.u32(pos + 8) < ifd1) {
+                    return payload; //thumbnail data in the middle of the other IFDs
+                }
+            }
+            byte[] result = new byte[ExifReader.TIFF_HEADER + (int) ifd1];
+            System.arraycopy(payload, 0, result, 0, result.length);
+            for (int i = 0; i < 4; i++) {
+                result[ExifReader.TIFF_HEADER + nextPointer + i] = 0;
+            }
+            return result;
+        } catch (IndexOutOfBoundsException e) {
+            return payload;
+        } catch (IllegalArgumentException e) {
+            return payload;
+        }
+    }
+
+    /**
+     * Reader of the TIFF structure of an Exif segment, finding the end of the data IFD0 and its sub IFDs point to
+     */
+    private static class ExifReader {
+        static final int TIFF_HEADER = 6;   //"Exif\0\0"
+        private static final int[] TYPE_SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8 };
+
+        private final byte[] data;
+        private final boolean littleEndian;
+        long end;
+
+        ExifReader(byte[] payload) {
+            data = payload;
+            littleEndian = payload.length > TIFF_HEADER && payload[TIFF_HEADER] == 'I';
+        }
+
+        /**
+         * Method to walk an IFD and the sub IFDs it points to, extending end
+         * @return offset of the next IFD
+         */
+        long walk(long offset, int depth) {
+            int count = u16((int) offset);
+            end = Math.max(end, offset + 2 + 12L * count + 4);
+            for (int i = 0; i < count; i++) {
+                int pos = (int) offset + 2 + 12 * i;
+                int tag = u16(pos);
+                int type = u16(pos + 2);
+                if (type >= TYPE_SIZES.length || TYPE_SIZES[type] == 0) {
+                    throw new IllegalArgumentException("unknown type " + type);
+                }
+                long size = TYPE_SIZES[type] * u32(pos + 4);
+                if (size > 4) {
+                    long value = u32(pos + 8);
+                    if (TIFF_HEADER + value + size > data.length) {
+                        throw new IllegalArgumentException("value beyond the segment");
+                    }
+                    end = Math.max(end, value + size);
+                }
+                if ((tag == 0x8769 || tag == 0x8825 || tag == 0xA005) && depth < 2) {   //Exif, GPS and interoperability IFDs
+                    walk(u32(pos + 8), depth + 1);
+                }
+            }
+            return u32((int) offset + 2 + 12 * count);
+        }
+
+        int u16(int pos) {
+            int a = data[TIFF_HEADER + pos] & 0xFF;
+            int b = data[TIFF_HEADER + pos + 1] & 0xFF;
+            return littleEndian ? (b << 8) | a : (a << 8) | b;
+        }
+
+        long u32(int pos) {
+            long a = u16(pos);
+            long b = u16(pos + 2);
+            return littleEndian ? (b << 16) | a : (a << 16) | b;
+        }
+    }
+
+    /**
+     * Canonical Huffman decoding table of a DHT segment, as described in annex F of the JPEG standard
+     */
+    private static class HuffmanDecoder {
+        final int[] minCode = new int[MAX_CODE_LENGTH + 1];
+        final int[] maxCode = new int[MAX_CODE_LENGTH + 1];
+        final int[] valuePointer = new int[MAX_CODE_LENGTH + 1];
+        final int[] values;
+
+        HuffmanDecoder(int[] counts, int[] values) {
+            this.values = values;
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                valuePointer[length] = index;
+                minCode[length] = code;
+                code += counts[length];
+                index += counts[length];
+                maxCode[length] = counts[length] == 0 ? -1 : code - 1;
+                code <<= 1;
+            }
+        }
+    }
+
+    /**
+     * Huffman encoding table with the code of every symbol
+     */
+    private static class HuffmanEncoder {
+        final int[] counts = new int[MAX_CODE_LENGTH + 1];  //number of codes of every length
+        final int[] values;
+        final int[] codes = new int[256];
+        final int[] sizes = new int[256];
+
+        private HuffmanEncoder(int[] values) {
+            this.values = values;
+        }
+
+        /**
+         * Method to build the optimal table for the symbol frequencies, as in annex K.2 of the JPEG standard: a Huffman
+         * tree including a reserved symbol so no code is all 1 bits, with the codes longer than 16 bits moved up
+         * @param symbolFrequencies number of times each of the 256 symbols occurs
+         */
+        static HuffmanEncoder optimal(long[] symbolFrequencies) {
+            long[] freq = new long[257];
+            System.arraycopy(symbolFrequencies, 0, freq, 0, 256);
+            freq[256] = 1;  //reserved
+            int[] codeSize = new int[257];
+            int[] others = new int[257];
+            Arrays.fill(others, -1);
+            while (true) {
+                int c1 = -1;
+                long v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] > 0 && freq[i] <= v) {
+                        v = freq[i];
+                        c1 = i;
+                    }
+                }
+                int c2 = -1;
+                v = Long.MAX_VALUE;
+                for (int i = 0; i <= 256; i++) {
+                    if (freq[i] > 0 && freq[i] <= v && i != c1) {
+                        v = freq[i];
+                        c2 = i;
+                    }
+                }
+                if (c2 < 0) {
+                    break;  //a single tree left
+                }
+                freq[c1] += freq[c2];
+                freq[c2] = 0;
+                codeSize[c1]++;
+                while (others[c1] >= 0) {
+                    c1 = others[c1];
+                    codeSize[c1]++;
+                }
+                others[c1] = c2;
+                codeSize[c2]++;
+                while (others[c2] >= 0) {
+                    c2 = others[c2];
+                    codeSize[c2]++;
+                }
+            }
+
+            int[] bits = new int[258];
+            for (int i = 0; i <= 256; i++) {
+                if (codeSize[i] > 0) {
+                    bits[codeSize[i]]++;
+                }
+            }
+            for (int i = bits.length - 1; i > MAX_CODE_LENGTH; i--) {
+                while (bits[i] > 0) {
+                    int j = i - 2;
+                    while (bits[j] == 0) {
+                        j--;
+                    }
+                    bits[i] -= 2;       //two leaves of the longest length
+                    bits[i - 1]++;      //one goes one level up
+                    bits[j + 1] += 2;   //the other becomes the sibling of a shorter leaf
+                    bits[j]--;
+                }
+            }
+            int longest = MAX_CODE_LENGTH;
+            while (bits[longest] == 0) {
+                longest--;
+            }
+            bits[longest]--;    //drop the reserved symbol, which has the longest code
+
+            int total = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                total += bits[length];
+            }
+            int[] values = new int[total];
+            int index = 0;
+            for (int length = 1; length < bits.length && index < total; length++) {
+                for (int symbol = 0; symbol < 256; symbol++) {
+                    if (codeSize[symbol] == length) {
+                        values[index++] = symbol;
+                    }
+                }
+            }
+            HuffmanEncoder encoder = new HuffmanEncoder(values);
+            System.arraycopy(bits, 1, encoder.counts, 1, MAX_CODE_LENGTH);
+            int code = 0;
+            index = 0;
+            for (int length = 1; length <= MAX_CODE_LENGTH; length++) {
+                for (int i = 0; i < encoder.counts[length]; i++) {
+                    encoder.codes[values[index]] = code++;
+                    encoder.sizes[values[index]] = length;
+                    index++;
+                }
+                code <<= 1;
+            }
+            return encoder;
+        }
+    }
+
+    private int nextMarker() throws IOException {
+        int b = readByte();
+        if (b != 0xFF) {
+            throw new IOException("marker expected, found " + Integer.toHexString(b));
+        }
+        while (b == 0xFF) {
+            b = readByte(); //fill bytes
+        }
+        if (b == 0) {
+            throw new IOException("stuffed byte outside of entropy coded data");
+        }
+        return b;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException("unexpected end of JPEG");
+        }
+        inputPosition++;
+        return b;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return (readByte() << 8) | readByte();
+    }
+
+    private byte[] readFully(int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = in.read(data, read, length - read);
+            if (count < 0) {
+                throw new EOFException("unexpected end of JPEG");
+            }
+            read += count;
+        }
+        inputPosition += length;
+        return data;
+    }
+
+    private static int unsignedShort(byte[] data, int pos) throws IOException {
+        if (pos + 2 > data.length) {
+            throw new IOException("segment too short");
+        }
+        return ((data[pos] & 0xFF) << 8) | (data[pos + 1] & 0xFF);
+    }
+
+    private static boolean startsWith(byte[] payload, String identifier) {
+        byte[] prefix = identifier.getBytes(ASCII);
+        if (payload.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (payload[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeMarker(int marker) throws IOException {
+        if (out != null) {
+            out.write(0xFF);
+            out.write(marker);
+        }
+    }
+
+    private void writeSegment(int marker, byte[] payload) throws IOException {
+        if (out != null) {
+            writeMarker(marker);
+            out.write((payload.length + 2) >> 8);
+            out.write((payload.length + 2) & 0xFF);
+            out.write(payload);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package course.examples.spacesaver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Multi-index hash of 64 bit hashes under the Hamming distance, finding every hash within a distance of a query <br/>
+ * The bits of a hash are split into maxDistance + 1 bands, each with a hash table from the value of the band to the
+ * entries having it. Two hashes within maxDistance differ in at most maxDistance bands, so they agree exactly on at least
+ * one, and a search only checks the entries sharing a band with the query. With random hashes a band of b bits matches
+ * one entry in 2^b, so a search at a distance of 6 over 7 bands of 9 bits checks about one entry in 80. Values with the
+ * same hash are separate entries. Not thread-safe.
+ * @param <V> type of the values stored with the hashes
+ */
+public class MultiIndexHash<V> {
+
+    private final int bandCount;
+    private final List<HashMap<Long, List<Integer>>> bands;
+    private final List<V> values = new ArrayList<V>();
+    private long[] hashes = new long[16];
+
+    /**
+     * Constructor taking the greatest distance searches are indexed for
+     * @param maxDistance greatest Hamming distance a search can use without scanning every entry, between 0 and 63
+     */
+    public MultiIndexHash(int maxDistance) {
+        if (maxDistance < 0 || maxDistance > 63) {
+            throw new IllegalArgumentException("maxDistance " + maxDistance);
+        }
+        bandCount = maxDistance + 1;
+        bands = new ArrayList<HashMap<Long, List<Integer>>>(bandCount);
+        for (int band = 0; band < bandCount; band++) {
+            bands.add(new HashMap<Long, List<Integer>>());
+        }
+    }
+
+    /**
+     * Method to return the bits of a hash in a band, bands split the 64 bits as evenly as possible
+     */
+    private long getBand(long hash, int band) {
+        int start = band * 64 / bandCount;
+        int end = (band + 1) * 64 / bandCount;
+        long mask = end - start == 64 ? -1L : (1L << (end - start)) - 1;
+        return (hash >>> start) & mask;
+    }
+
+    /**
+     * Method to add a value under its hash
+     * @param hash hash of the value
+     * @param value value returned by the searches matching the hash
+     */
+    public void add(long hash, V value) {
+        int entry = values.size();
+        if (entry == hashes.length) {
+            hashes = Arrays.copyOf(hashes, entry * 2);
+        }
+        hashes[entry] = hash;
+        values.add(value);
+        for (int band = 0; band < bandCount; band++) {
+            HashMap<Long, List<Integer>> table = bands.get(band);
+            Long key = getBand(hash, band);
+            List<Integer> entries = table.get(key);
+            if (entries == null) {
+                entries = new ArrayList<Integer>(1);
+                table.put(key, entries);
+            }
+            entries.add(entry);
+        }
+    }
+
+    /**
+     * Method to find the values of every hash within a distance of a hash
+     * @param hash hash searched for
+     * @param maxDistance greatest Hamming distance of a match, above the distance of the constructor every entry is checked
+     * @param result list the values found are added to
+     * @return number of entries checked, a measure of the cost of the search
+     */
+    public int search(long hash, int maxDistance, List<V> result) {
+        int checked = 0;
+        if (maxDistance >= bandCount) {
+            for (int entry = 0; entry < values.size(); entry++) {
+                checked++;
+                if (PerceptualHash.distance(hash, hashes[entry]) <= maxDistance) {
+                    result.add(values.get(entry));
+                }
+            }
+            return checked;
+        }
+        for (int band = 0; band < bandCount; band++) {
+            List<Integer> entries = bands.get(band).get(getBand(hash, band));
+            if (entries == null) {
+                continue;
+            }
+            for (Integer entry : entries) {
+                if (isFoundInEarlierBand(hash, hashes[entry], band)) {
+                    continue;   //already checked
+                }
+                checked++;
+                if (PerceptualHash.distance(hash, hashes[entry]) <= maxDistance) {
+                    result.add(values.get(entry));
+                }
+            }
+        }
+        return checked;
+    }
+
+    private boolean isFoundInEarlierBand(long hash, long other, int band) {
+        for (int earlier = 0; earlier < band; earlier++) {
+            if (getBand(hash, earlier) == getBand(other, earlier)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of values added
+     */
+    public int size() {
+        return values.size();
+    }
+}
@@ -0,0 +1,189 @@
+package course.examples.spacesaver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the perceptual hashes of the images, grouping images that look alike such as the shots of a burst <br/>
+ * Grouping puts the hashes in a MultiIndexHash for the distance asked, so finding the neighbours of an image costs a
+ * small fraction of a scan of all images.
+ * Groups are closed under "near": if A is near B and B near C then A, B and C form one group, which keeps a burst
+ * whose first and last shots drifted apart together.
+ */
+public class NearDuplicateIndex {
+
+    public static final int DEFAULT_MAX_DISTANCE = 6;  //bits out of 64, re-encoded copies differ in 0-2 and shots of a burst rarely in more
+
+    private final List<ImageCandidate> images = new ArrayList<ImageCandidate>();
+    private long[] hashes = new long[16];
+
+    /**
+     * Images that look alike, best first; also used by the DuplicateFinder for identical images, original first
+     */
+    public static class Group {
+        final List<ImageCandidate> images;
+
+        Group(List<ImageCandidate> images) {
+            this.images = Collections.unmodifiableList(images);
+        }
+
+        public List<ImageCandidate> getImages() {
+            return images;
+        }
+
+        /**
+         * @return image suggested to be kept
+         */
+        public ImageCandidate getBest() {
+            return images.get(0);
+        }
+
+        /**
+         * @return total size of the images of the group
+         */
+        public long getTotalBytes() {
+            long total = 0;
+            for (ImageCandidate image : images) {
+                total += image.size;
+            }
+            return total;
+        }
+
+        /**
+         * @return bytes freed by deleting every image but the best one
+         */
+        public long getReclaimableBytes() {
+            return getTotalBytes() - getBest().size;
+        }
+    }
+
+    /**
+     * Orders the images of a group best first: the most pixels, then the largest file, since at the same resolution
+     * the sharper shot of a burst is the one that compresses worst; the oldest one last, as a tie-breaker
+     */
+    static final Comparator<ImageCandidate> BEST_FIRST = new Comparator<ImageCandidate>() {
+        @Override
+        public int compare(ImageCandidate a, ImageCandidate b) {
+            long pixelsA = (long) a.width * a.height;
+            long pixelsB = (long) b.width * b.height;
+            if (pixelsA != pixelsB) {
+                return pixelsA > pixelsB ? -1 : 1;
+            }
+            if (a.size != b.size) {
+                return a.size > b.size ? -1 : 1;
+            }
+            return a.modified == b.modified ? 0 : (a.modified > b.modified ? -1 : 1);
+        }
+    };
+
+    /**
+     * Orders groups by the bytes freed by keeping only their first image, most first
+     */
+    static final Comparator<Group> MOST_RECLAIMABLE_FIRST = new Comparator<Group>() {
+        @Override
+        public int compare(Group a, Group b) {
+            long bytesA = a.getReclaimableBytes();
+            long bytesB = b.getReclaimableBytes();
+            return bytesA == bytesB ? 0 : (bytesA > bytesB ? -1 : 1);
+        }
+    };
+
+    /**
+     * Method to add an image to the index
+     * @param image image, its size, dimensions and modification time are used to choose the best image of a group
+     * @param hash perceptual hash of the image, see PerceptualHash.dHash
+     */
+    public void add(ImageCandidate image, long hash) {
+        int index = images.size();
+        if (index == hashes.length) {
+            hashes = Arrays.copyOf(hashes, index * 2);
+        }
+        hashes[index] = hash;
+        images.add(image);
+    }
+
+    public int size() {
+        return images.size();
+    }
+
+    /**
+     * Method to find the images within a distance of a hash with a scan of all images, cheaper than indexing them for
+     * a single query
+     * @param hash perceptual hash searched for
+     * @param maxDistance greatest Hamming distance of an image returned
+     * @return images found, in no particular order
+     */
+    public List<ImageCandidate> findNear(long hash, int maxDistance) {
+        List<ImageCandidate> result = new ArrayList<ImageCandidate>();
+        for (int i = 0; i < images.size(); i++) {
+            if (PerceptualHash.distance(hash, hashes[i]) <= maxDistance) {
+                result.add(images.get(i));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Method to group the images that look alike
+     * @param maxDistance greatest Hamming distance between two images of a group
+     * @return groups of at least two images, the ones freeing the most bytes first
+     */
+    public List<Group> findGroups(int maxDistance) {
+        int count = images.size();
+        int[] parent = new int[count];
+        for (int i = 0; i < count; i++) {
+            parent[i] = i;
+        }
+        MultiIndexHash<Integer> index = new MultiIndexHash<Integer>(Math.max(0, Math.min(63, maxDistance)));
+        List<Integer> found = new ArrayList<Integer>();
+        for (int i = 0; i < count; i++) {
+            found.clear();
+            index.search(hashes[i], maxDistance, found);   //images added before, each pair is found once
+            index.add(hashes[i], i);
+            for (Integer j : found) {
+                int rootI = find(parent, i);
+                int rootJ = find(parent, j);
+                if (rootI != rootJ) {
+                    parent[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+                }
+            }
+        }
+        int[] groupSize = new int[count];
+        for (int i = 0; i < count; i++) {
+            groupSize[find(parent, i)]++;
+        }
+        Map<Integer, List<ImageCandidate>> members = new LinkedHashMap<Integer, List<ImageCandidate>>();
+        for (int i = 0; i < count; i++) {
+            int root = find(parent, i);
+            if (groupSize[root] < 2) {
+                continue;   //most images have no near duplicate
+            }
+            List<ImageCandidate> group = members.get(root);
+            if (group == null) {
+                group = new ArrayList<ImageCandidate>(groupSize[root]);
+                members.put(root, group);
+            }
+            group.add(images.get(i));
+        }
+        List<Group> groups = new ArrayList<Group>(members.size());
+        for (List<ImageCandidate> group : members.values()) {
+            Collections.sort(group, BEST_FIRST);
+            groups.add(new Group(group));
+        }
+        Collections.sort(groups, MOST_RECLAIMABLE_FIRST);
+        return groups;
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];  //path halving
+            i = parent[i];
+        }
+        return i;
+    }
+}
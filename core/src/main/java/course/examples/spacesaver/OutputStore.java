@@ -0,0 +1,40 @@
+package course.examples.spacesaver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Abstraction of the place compressed images are written to <br/>
+ * A store decides where the compressed version of a source image lives and makes sure a partly written image is never
+ * visible there.
+ */
+public interface OutputStore {
+
+    /**
+     * Callback encoding an image into the stream handed out by the store
+     */
+    interface Encoder {
+        /**
+         * Method to write the compressed image
+         * @param ostream buffered stream to the compressed image
+         * @return true if the image was encoded, false otherwise
+         * @throws IOException if writing fails
+         */
+        boolean encode(OutputStream ostream) throws IOException;
+    }
+
+    /**
+     * Method to return the path the compressed version of an image is placed at
+     * @param imgFile Absolute path to the source image
+     * @return Absolute path to the compressed image
+     */
+    String getOutputPath(String imgFile);
+
+    /**
+     * Method to encode the compressed version of an image and move it into place
+     * @param imgFile Absolute path to the source image
+     * @param encoder Encoder producing the compressed image
+     * @return Pair containing the source and compressed image with their sizes, the compressed image is null if encoding failed
+     */
+    Pair write(String imgFile, Encoder encoder);
+}
@@ -0,0 +1,42 @@
+package course.examples.spacesaver;
+
+/**
+ * Wrapper class containing absolute path to source image and the compressed image <br/>
+ * Created by kannanb on 3/8/2016.
+ */
+public class Pair {
+    public static final int LOSSLESS = -1;  //quality of an image optimized without re-encoding it, never a real quality
+
+    String srcImageFile;
+    String compressedImageFile;
+    long srcImageSize;
+    long compressedImageSize;
+    long srcImageModified;  //in seconds, like MediaStore.MediaColumns.DATE_MODIFIED
+    int quality;            //quality the image was compressed with
+    long durationMs;        //time spent encoding and writing the compressed image
+
+    /**
+     * Constructor for passing path to source and compressed image
+     * @param srcImage Path to the source (original) image
+     * @param cImage Path to the compressed image
+     */
+    public Pair(String srcImage, String cImage) {
+        srcImageFile = srcImage;
+        compressedImageFile = cImage;
+    }
+
+    /**
+     * Constructor for passing path to source and compressed image alongwith their sizes, so they don't need to be looked up again
+     * @param srcImage Path to the source (original) image
+     * @param cImage Path to the compressed image, null if compression failed
+     * @param srcSize Size of the source image in bytes
+     * @param cSize Size of the compressed image in bytes
+     * @param srcModified Modification time of the source image in seconds
+     */
+    public Pair(String srcImage, String cImage, long srcSize, long cSize, long srcModified) {
+        this(srcImage, cImage);
+        srcImageSize = srcSize;
+        compressedImageSize = cSize;
+        srcImageModified = srcModified;
+    }
+}
@@ -0,0 +1,67 @@
+package course.examples.spacesaver;
+
+/**
+ * Difference hash (dHash) of an image, a 64 bit fingerprint that stays the same when an image is re-encoded or scaled <br/>
+ * The image is reduced to a 9x8 grid of average luminance and each bit tells whether a cell is brighter than its right
+ * neighbour. Shots of a burst differ in a few bits only, unrelated images in about half of them, so the Hamming distance
+ * between two hashes measures how alike two images look. The pixels can come from a heavily sampled decode, as the
+ * grid averages away the detail anyway.
+ */
+public class PerceptualHash {
+
+    public static final int GRID_WIDTH = 9;
+    public static final int GRID_HEIGHT = 8;
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * Method to compute the dHash of an image
+     * @param argb pixels of the image, row by row, in the packed ARGB format of Bitmap.getPixels and BufferedImage.getRGB
+     * @param width width of the image in pixels
+     * @param height height of the image in pixels
+     * @return 64 bit hash, the bit of cell (x, y) is bit 8 * y + x
+     */
+    public static long dHash(int[] argb, int width, int height) {
+        if (width <= 0 || height <= 0 || argb.length < width * height) {
+            throw new IllegalArgumentException("no pixels for a " + width + "x" + height + " image");
+        }
+        long[] grid = new long[GRID_WIDTH * GRID_HEIGHT];
+        for (int cy = 0; cy < GRID_HEIGHT; cy++) {
+            int top = cy * height / GRID_HEIGHT;
+            int bottom = Math.max(top + 1, (cy + 1) * height / GRID_HEIGHT);   //images smaller than the grid repeat pixels
+            for (int cx = 0; cx < GRID_WIDTH; cx++) {
+                int left = cx * width / GRID_WIDTH;
+                int right = Math.max(left + 1, (cx + 1) * width / GRID_WIDTH);
+                long sum = 0;
+                for (int y = top; y < bottom; y++) {
+                    int offset = y * width;
+                    for (int x = left; x < right; x++) {
+                        int pixel = argb[offset + x];
+                        sum += ((pixel >> 16) & 0xFF) * 299 + ((pixel >> 8) & 0xFF) * 587 + (pixel & 0xFF) * 114;
+                    }
+                }
+                grid[cy * GRID_WIDTH + cx] = sum / ((long) (bottom - top) * (right - left));
+            }
+        }
+        long hash = 0;
+        for (int y = 0; y < GRID_HEIGHT; y++) {
+            for (int x = 0; x < GRID_WIDTH - 1; x++) {
+                if (grid[y * GRID_WIDTH + x] > grid[y * GRID_WIDTH + x + 1]) {
+                    hash |= 1L << (y * (GRID_WIDTH - 1) + x);
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Method to count the bits two hashes differ in
+     * @param a first hash
+     * @param b second hash
+     * @return Hamming distance between 0 and 64
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
@@ -0,0 +1,290 @@
+package course.examples.spacesaver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms, byte counters and a peak image memory gauge of every stage of the compression pipeline <br/>
+ * All counters are atomics updated without locks, so the compression workers never wait for each other or for a reader.
+ * A stage is timed by taking start() before it and passing it to record() after it; when metrics are disabled start()
+ * returns 0 and record() returns at once, so the instrumented code costs no more than a field read. The image memory
+ * gauge is kept even while disabled, so images allocated before a toggle and released after it still balance out.
+ * Latencies are kept in power of 2 microsecond buckets, percentiles are therefore accurate within a factor of 2.
+ */
+public class PipelineMetrics {
+
+    public static final int BUCKET_COUNT = 40;  //the last bucket holds everything above 2^38 microseconds, about 3 days
+
+    /**
+     * Stages of the pipeline, in the order an image goes through them
+     */
+    public enum Stage {
+        QUERY,      //reading a page of images from the ImageSource
+        BOUNDS,     //reading the header or bounds of an image
+        DECODE,     //decoding an image, or a strip of it
+        ENCODE,     //encoding a decoded image, including the trials of the adaptive quality search
+        WRITE,      //flushing, syncing and renaming the compressed image
+        VERIFY,     //checking the compressed image on disk
+        DELETE      //deleting an original image
+    }
+
+    private static PipelineMetrics instance = null;
+
+    private final Histogram[] histograms = new Histogram[Stage.values().length];
+    private final AtomicLong imageBytes = new AtomicLong();
+    private final AtomicLong peakImageBytes = new AtomicLong();
+    private final AtomicLong updates = new AtomicLong();
+    private volatile boolean enabled = true;
+
+    /**
+     * Latencies and bytes of one stage
+     */
+    public static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        void record(long nanos, long byteCount) {
+            long micros = nanos / 1000;
+            int bucket = Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            bytes.addAndGet(byteCount);
+            updateMax(maxNanos, nanos);
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            totalNanos.set(0);
+            maxNanos.set(0);
+            bytes.set(0);
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        /**
+         * @return mean latency in microseconds, 0 if nothing was recorded
+         */
+        public long getMeanMicros() {
+            long n = count.get();
+            return n == 0 ? 0 : totalNanos.get() / 1000 / n;
+        }
+
+        /**
+         * Method to estimate a latency percentile from the buckets
+         * @param percentile percentile between 0 and 100
+         * @return upper bound of the bucket holding the percentile in microseconds, at most the maximum recorded; 0 if nothing was recorded
+         */
+        public long getPercentileMicros(double percentile) {
+            long n = 0;
+            long[] counts = new long[BUCKET_COUNT];
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                counts[i] = buckets.get(i);
+                n += counts[i];
+            }
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(n * percentile / 100);
+            long seen = 0;
+            int bucket = BUCKET_COUNT - 1;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank && counts[i] > 0) {
+                    bucket = i;
+                    break;
+                }
+            }
+            long upper = bucket == 0 ? 0 : 1L << bucket;
+            return Math.min(upper, maxNanos.get() / 1000);
+        }
+    }
+
+    /**
+     * Method to return the metrics shared by the whole process
+     * @return shared PipelineMetrics instance
+     */
+    public static synchronized PipelineMetrics getInstance() {
+        if (instance == null) {
+            instance = new PipelineMetrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Constructor creating an empty histogram per stage
+     */
+    public PipelineMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new Histogram();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Method to turn recording on or off, counters keep their values while disabled
+     * @param enabled false to make start() and record() no-ops, the image memory gauge is always kept
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Method to take the start time of a stage
+     * @return current time in nanoseconds, 0 if metrics are disabled
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Method to record a stage that moved no bytes
+     * @param stage stage that finished
+     * @param start value of start() taken before the stage
+     */
+    public void record(Stage stage, long start) {
+        record(stage, start, 0);
+    }
+
+    /**
+     * Method to record the latency and bytes of a stage
+     * @param stage stage that finished
+     * @param start value of start() taken before the stage, nothing is recorded if it is 0
+     * @param byteCount bytes read, written or deleted by the stage
+     */
+    public void record(Stage stage, long start, long byteCount) {
+        if (start == 0) {
+            return;
+        }
+        histograms[stage.ordinal()].record(System.nanoTime() - start, byteCount);
+        updates.incrementAndGet();
+    }
+
+    /**
+     * Method to count the memory of a decoded image, raising the peak if needed
+     * @param byteCount size of the pixels of the image
+     */
+    public void imageAllocated(long byteCount) {
+        updateMax(peakImageBytes, imageBytes.addAndGet(byteCount));
+    }
+
+    /**
+     * Method to count the release of a decoded image counted by imageAllocated
+     * @param byteCount size of the pixels of the image
+     */
+    public void imageReleased(long byteCount) {
+        imageBytes.addAndGet(-byteCount);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    public Histogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    /**
+     * @return bytes of decoded images currently held by the pipeline
+     */
+    public long getImageBytes() {
+        return imageBytes.get();
+    }
+
+    /**
+     * @return highest value of getImageBytes() since the last reset
+     */
+    public long getPeakImageBytes() {
+        return peakImageBytes.get();
+    }
+
+    /**
+     * @return number of stages recorded so far, used to tell whether anything changed since the last dump
+     */
+    public long getUpdateCount() {
+        return updates.get();
+    }
+
+    /**
+     * Method to clear every histogram and restart the peak from the memory currently held
+     */
+    public void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+        peakImageBytes.set(imageBytes.get());
+    }
+
+    /**
+     * Method to return a table of the metrics, one line per stage. The counters are read one by one while the workers
+     * may be updating them, so the columns of a line can be off by the images in flight.
+     * @return the metrics as text
+     */
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.US, "%-7s %8s %10s %9s %9s %9s %9s %10s%n",
+                "stage", "count", "mean(us)", "p50(us)", "p95(us)", "p99(us)", "max(us)", "bytes"));
+        for (Stage stage : Stage.values()) {
+            Histogram histogram = getHistogram(stage);
+            builder.append(String.format(Locale.US, "%-7s %8d %10d %9d %9d %9d %9d %10s%n", stage.name().toLowerCase(),
+                    histogram.getCount(), histogram.getMeanMicros(), histogram.getPercentileMicros(50),
+                    histogram.getPercentileMicros(95), histogram.getPercentileMicros(99), histogram.getMaxNanos() / 1000,
+                    SizeUtility.getSizeInString(histogram.getBytes())));
+        }
+        builder.append("image memory: ").append(SizeUtility.getSizeInString(getImageBytes()))
+                .append(" peak: ").append(SizeUtility.getSizeInString(getPeakImageBytes())).append(String.format(Locale.US, "%n"));
+        return builder.toString();
+    }
+
+    /**
+     * Method to write the report to a file, replacing it atomically so a reader never sees half a report
+     * @param file file the report is written to
+     * @throws IOException if the file cannot be written
+     */
+    public void dump(File file) throws IOException {
+        File tempFile = new File(file.getPath() + CompressedImageWriter.TEMP_SUFFIX);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try {
+            writer.write("time: " + System.currentTimeMillis() + String.format(Locale.US, "%n"));
+            writer.write(report());
+        } finally {
+            writer.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("rename of " + tempFile + " to " + file + " failed");
+        }
+    }
+}
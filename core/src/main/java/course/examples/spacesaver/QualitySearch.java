@@ -0,0 +1,129 @@
+package course.examples.spacesaver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Class searching the highest JPEG quality whose output meets a size target, with a bounded number of trial encodes <br/>
+ * The target is either a percentage of the original file size or a number of bytes per megapixel. Trial encodes go to
+ * two in-memory buffers that are reused for every trial, the output of the highest quality meeting the target is kept,
+ * or the smallest output if no trial meets it.
+ */
+public class QualitySearch {
+
+    public static final int MIN_QUALITY = 30;
+    public static final int DEFAULT_MAX_TRIALS = 4;
+
+    private final int targetPercent;
+    private final long targetBytesPerMegapixel;
+    private final int maxTrials;
+
+    /**
+     * Callback encoding the image being searched at a given quality
+     */
+    public interface TrialEncoder {
+        /**
+         * @param quality quality level to encode with
+         * @param buffer buffer the encoded image is written to, already reset
+         * @return true if the image was encoded
+         * @throws IOException if encoding fails
+         */
+        boolean encode(int quality, ByteArrayOutputStream buffer) throws IOException;
+    }
+
+    /**
+     * Wrapper class holding the outcome of a search
+     */
+    public static class Result {
+        int quality;
+        ByteArrayOutputStream output;
+        int trials;
+    }
+
+    private QualitySearch(int percent, long bytesPerMegapixel, int trials) {
+        targetPercent = percent;
+        targetBytesPerMegapixel = bytesPerMegapixel;
+        maxTrials = trials;
+    }
+
+    /**
+     * Method to create a search targeting a percentage of the original file size
+     * @param percent size of the compressed image as a percentage of the original
+     * @return the quality search
+     */
+    public static QualitySearch percentOfOriginal(int percent) {
+        return new QualitySearch(percent, 0, DEFAULT_MAX_TRIALS);
+    }
+
+    /**
+     * Method to create a search targeting a number of bytes per megapixel
+     * @param bytesPerMegapixel size of the compressed image for every million pixels
+     * @return the quality search
+     */
+    public static QualitySearch bytesPerMegapixel(long bytesPerMegapixel) {
+        return new QualitySearch(0, bytesPerMegapixel, DEFAULT_MAX_TRIALS);
+    }
+
+    /**
+     * Method to calculate the size the compressed image should not exceed
+     * @param srcSize size of the original file in bytes
+     * @param width width of the image in pixels
+     * @param height height of the image in pixels
+     * @return target size in bytes
+     */
+    public long getTargetSize(long srcSize, int width, int height) {
+        if (targetBytesPerMegapixel > 0) {
+            return (long) ((double) width * height * targetBytesPerMegapixel / 1000000.0);
+        }
+        return srcSize * targetPercent / 100;
+    }
+
+    /**
+     * Method to search the highest quality not above maxQuality whose output meets the target. The first trial is at maxQuality,
+     * then the range is halved on every trial. If no trial meets the target, the smallest output is returned.
+     * @param maxQuality highest quality to be considered
+     * @param targetSize target size in bytes
+     * @param encoder encoder of the image
+     * @param buffers two buffers used for the trial encodes, reused across images
+     * @return the chosen quality and its encoded output (one of the buffers), null if the image could not be encoded
+     * @throws IOException if encoding fails
+     */
+    public Result search(int maxQuality, long targetSize, TrialEncoder encoder, ByteArrayOutputStream[] buffers) throws IOException {
+        Result best = null;
+        ByteArrayOutputStream trialBuffer = buffers[0];
+        ByteArrayOutputStream spareBuffer = buffers[1];
+        int low = Math.min(MIN_QUALITY, maxQuality);
+        int high = maxQuality;
+        int quality = maxQuality;
+        int trials = 0;
+        while (trials < maxTrials && low <= high) {
+            trialBuffer.reset();
+            if (!encoder.encode(quality, trialBuffer)) {
+                return null;
+            }
+            trials++;
+            boolean meetsTarget = trialBuffer.size() <= targetSize;
+            boolean keep = best == null || meetsTarget || (best.output.size() > targetSize && trialBuffer.size() < best.output.size());
+            if (keep) {
+                if (best == null) {
+                    best = new Result();
+                } else {
+                    spareBuffer = best.output;
+                }
+                best.quality = quality;
+                best.output = trialBuffer;
+                trialBuffer = spareBuffer;
+            }
+            if (meetsTarget) {
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+            quality = (low + high) / 2;
+        }
+        if (best != null) {
+            best.trials = trials;
+        }
+        return best;
+    }
+}
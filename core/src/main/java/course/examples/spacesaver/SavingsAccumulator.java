@@ -0,0 +1,175 @@
+package course.examples.spacesaver;
+
+/**
+ * Thread-safe totals of a compression batch, fed by the workers as each image finishes <br/>
+ * Counters are 64 bit and striped by thread, so parallel workers rarely contend for the same lock. Each image updates
+ * all the counters of its stripe under that stripe's lock, and a snapshot reads every stripe under its lock, so a
+ * snapshot never holds the bytes of an image without its count. Reading a snapshot needs no filesystem access: the sizes
+ * come from the Pairs produced by the pipeline.
+ */
+public class SavingsAccumulator {
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    /**
+     * Counters of the threads hashed to one stripe
+     */
+    private static class Stripe {
+        long images;
+        long failures;
+        long bytesIn;
+        long bytesOut;
+        long p1, p2, p3, p4;    //padding, keeps the counters of two stripes out of the same cache line
+    }
+
+    /**
+     * Immutable totals at one point in time
+     */
+    public static class Snapshot {
+        final long images;
+        final long failures;
+        final long bytesIn;
+        final long bytesOut;
+
+        Snapshot(long images, long failures, long bytesIn, long bytesOut) {
+            this.images = images;
+            this.failures = failures;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+        }
+
+        /**
+         * @return number of images compressed successfully
+         */
+        public long getImages() {
+            return images;
+        }
+
+        /**
+         * @return number of images that failed to compress
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return total size of the original images compressed successfully
+         */
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        /**
+         * @return total size of their compressed images
+         */
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getSaved() {
+            return bytesIn - bytesOut;
+        }
+
+        /**
+         * @return space saved in percent of the original size, 0 if nothing was compressed
+         */
+        public long getSavedPercent() {
+            return bytesIn == 0 ? 0 : getSaved() * 100 / bytesIn;
+        }
+
+        /**
+         * Method to return the totals to be shown to the user
+         * @return A string containing information on space occupied by original images, compressed images and total savings
+         */
+        @Override
+        public String toString() {
+            return " Original files capacity : " + SizeUtility.getSizeInString(bytesIn) +
+                    " Compressed files capacity : " + SizeUtility.getSizeInString(bytesOut) +
+                    " Total Savings : [ " + getSavedPercent() + " %]";
+        }
+    }
+
+    /**
+     * Constructor creating a stripe per available processor
+     */
+    public SavingsAccumulator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor taking the number of stripes
+     * @param concurrency number of threads expected to add at the same time, rounded up to a power of 2
+     */
+    public SavingsAccumulator(int concurrency) {
+        int size = 1;
+        while (size < concurrency) {
+            size <<= 1;
+        }
+        stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = size - 1;
+    }
+
+    /**
+     * Method to count an image the pipeline finished with
+     * @param pair source and compressed image, the compressed image is null if compression failed; null if the worker failed
+     */
+    public void add(Pair pair) {
+        if (pair == null || pair.compressedImageFile == null) {
+            addFailure();
+        } else {
+            addImage(pair.srcImageSize, pair.compressedImageSize);
+        }
+    }
+
+    /**
+     * Method to count an image compressed successfully
+     * @param bytesIn size of the original image
+     * @param bytesOut size of the compressed image
+     */
+    public void addImage(long bytesIn, long bytesOut) {
+        Stripe stripe = getStripe();
+        synchronized (stripe) {
+            stripe.images++;
+            stripe.bytesIn += bytesIn;
+            stripe.bytesOut += bytesOut;
+        }
+    }
+
+    /**
+     * Method to count an image that failed to compress
+     */
+    public void addFailure() {
+        Stripe stripe = getStripe();
+        synchronized (stripe) {
+            stripe.failures++;
+        }
+    }
+
+    private Stripe getStripe() {
+        return stripes[(int) Thread.currentThread().getId() & mask];
+    }
+
+    /**
+     * Method to read the totals
+     * @return totals of every image counted so far
+     */
+    public Snapshot snapshot() {
+        long images = 0;
+        long failures = 0;
+        long bytesIn = 0;
+        long bytesOut = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                images += stripe.images;
+                failures += stripe.failures;
+                bytesIn += stripe.bytesIn;
+                bytesOut += stripe.bytesOut;
+            }
+        }
+        return new Snapshot(images, failures, bytesIn, bytesOut);
+    }
+}
@@ -0,0 +1,452 @@
+package course.examples.spacesaver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Persistent history of compression events with hourly and daily rollups <br/>
+ * Events are appended to a memory-mapped file of fixed size records. Each rollup is a memory-mapped file holding, per
+ * hour or day since the first event, the cumulative totals of all events up to the end of that bucket. Appending an
+ * event only updates the last bucket of each rollup, and the totals of any range of buckets are the difference of two
+ * prefix sums, so a query takes constant time whatever the length of the history. Buckets are aligned to UTC.
+ * A rollup remembers how many events it has applied. An event updates several buckets before that number, so a rollup
+ * that is behind the event file when opened, e.g. after a crash between appending an event and updating the rollups,
+ * may hold part of an event and is rebuilt from all the events rather than caught up.
+ */
+public class SavingsTimeSeries {
+
+    private static final Logger LOG = Logger.getLogger(SavingsTimeSeries.class.getName());
+
+    public static final int SOURCE_USER = 0;        //compressed from the activity
+    public static final int SOURCE_SERVICE = 1;     //compressed by the background service
+
+    static final String EVENTS_FILE = "events.bin";
+    private static final int EVENTS_MAGIC = 0x53534556;    //"SSEV"
+    private static final int ROLLUP_MAGIC = 0x5353524f;    //"SSRO"
+    private static final int EVENT_SIZE = 40;      //timestamp, before, after, duration: 4 longs, quality and source: 2 ints
+    private static final int BUCKET_SIZE = 40;     //cumulative count, before, after, duration, saved by the service: 5 longs
+
+    /**
+     * Granularity of a rollup
+     */
+    public enum Resolution {
+        HOURLY(60 * 60 * 1000L, "hourly.bin"),
+        DAILY(24 * 60 * 60 * 1000L, "daily.bin");
+
+        final long interval;
+        final String fileName;
+
+        Resolution(long interval, String fileName) {
+            this.interval = interval;
+            this.fileName = fileName;
+        }
+
+        /**
+         * @return length of a bucket in milliseconds
+         */
+        public long getInterval() {
+            return interval;
+        }
+    }
+
+    /**
+     * One compressed image
+     */
+    public static class Event {
+        long timestamp;
+        long bytesBefore;
+        long bytesAfter;
+        long durationMs;
+        int quality;
+        int source;
+
+        /**
+         * Constructor taking all the fields of an event
+         * @param timestamp time of the compression in milliseconds since the epoch
+         * @param bytesBefore size of the original image
+         * @param bytesAfter size of the compressed image
+         * @param durationMs time spent compressing the image
+         * @param quality quality the image was compressed with
+         * @param source SOURCE_USER or SOURCE_SERVICE
+         */
+        public Event(long timestamp, long bytesBefore, long bytesAfter, long durationMs, int quality, int source) {
+            this.timestamp = timestamp;
+            this.bytesBefore = bytesBefore;
+            this.bytesAfter = bytesAfter;
+            this.durationMs = durationMs;
+            this.quality = quality;
+            this.source = source;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public long getBytesBefore() {
+            return bytesBefore;
+        }
+
+        public long getBytesAfter() {
+            return bytesAfter;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public int getQuality() {
+            return quality;
+        }
+
+        public int getSource() {
+            return source;
+        }
+    }
+
+    /**
+     * Wrapper class holding the totals of the events of a range of buckets
+     */
+    public static class Totals {
+        long count;
+        long bytesBefore;
+        long bytesAfter;
+        long durationMs;
+        long serviceSaved;
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBytesBefore() {
+            return bytesBefore;
+        }
+
+        public long getBytesAfter() {
+            return bytesAfter;
+        }
+
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        public long getSaved() {
+            return bytesBefore - bytesAfter;
+        }
+
+        /**
+         * @return bytes saved by the images compressed by the background service
+         */
+        public long getServiceSaved() {
+            return serviceSaved;
+        }
+
+        @Override
+        public String toString() {
+            return count + " images, saved: " + SizeUtility.getSizeInString(getSaved()) + " (service: "
+                    + SizeUtility.getSizeInString(serviceSaved) + ") in " + durationMs + " ms";
+        }
+    }
+
+    private final MappedFile events;
+    private final MappedFile[] rollups = new MappedFile[Resolution.values().length];
+
+    /**
+     * Constructor opening or creating the history in a folder
+     * @param folder folder holding the event and rollup files, created if needed
+     * @throws IOException if the files cannot be opened or mapped
+     */
+    public SavingsTimeSeries(File folder) throws IOException {
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+        events = new MappedFile(new File(folder, EVENTS_FILE), EVENTS_MAGIC, EVENT_SIZE);
+        for (Resolution resolution : Resolution.values()) {
+            MappedFile rollup = new MappedFile(new File(folder, resolution.fileName), ROLLUP_MAGIC, BUCKET_SIZE);
+            rollups[resolution.ordinal()] = rollup;
+            if (rollup.getApplied() != events.count) {
+                LOG.info(resolution + " rollup applied " + rollup.getApplied() + " of " + events.count + " events, rebuilding it");
+                rollup.reset();
+            }
+            for (long i = rollup.getApplied(); i < events.count; i++) {
+                apply(rollup, resolution.interval, getEvent(i));
+            }
+        }
+    }
+
+    /**
+     * Method to append an event and update the rollups
+     * @param event compressed image
+     */
+    public synchronized void append(Event event) {
+        try {
+            events.ensureCapacity(events.count + 1);
+            int offset = events.offset(events.count);
+            events.buffer.putLong(offset, event.timestamp);
+            events.buffer.putLong(offset + 8, event.bytesBefore);
+            events.buffer.putLong(offset + 16, event.bytesAfter);
+            events.buffer.putLong(offset + 24, event.durationMs);
+            events.buffer.putInt(offset + 32, event.quality);
+            events.buffer.putInt(offset + 36, event.source);
+            events.setCount(events.count + 1);  //the count is written last, so a torn record is never read back
+            for (Resolution resolution : Resolution.values()) {
+                apply(rollups[resolution.ordinal()], resolution.interval, event);
+            }
+        } catch (IOException e) {
+            LOG.info("appending to the savings history failed: " + e.toString());
+        }
+    }
+
+    /**
+     * Method to append an event for every image of a batch that was compressed successfully
+     * @param pairs source and compressed images of the batch
+     * @param source SOURCE_USER or SOURCE_SERVICE
+     * @param timestamp time of the batch in milliseconds since the epoch
+     */
+    public synchronized void record(List<Pair> pairs, int source, long timestamp) {
+        for (Pair pair : pairs) {
+            if (pair == null || pair.compressedImageFile == null) {
+                continue;
+            }
+            append(new Event(timestamp, pair.srcImageSize, pair.compressedImageSize, pair.durationMs, pair.quality, source));
+        }
+    }
+
+    /**
+     * Method to add an event to the cumulative totals of a rollup. Events older than the first bucket are counted in
+     * the first bucket, e.g. after the clock was set back.
+     */
+    private static void apply(MappedFile rollup, long interval, Event event) throws IOException {
+        long bucketStart = floorDiv(event.timestamp, interval) * interval;
+        if (rollup.count == 0) {
+            rollup.setOrigin(bucketStart);
+        }
+        long index = Math.max(0, (bucketStart - rollup.getOrigin()) / interval);
+        if (index >= rollup.count) {
+            //buckets without events repeat the totals of the previous bucket
+            rollup.ensureCapacity(index + 1);
+            for (long i = rollup.count; i <= index; i++) {
+                int offset = rollup.offset(i);
+                for (int field = 0; field < 5; field++) {
+                    rollup.buffer.putLong(offset + field * 8, i == 0 ? 0 : rollup.buffer.getLong(offset - BUCKET_SIZE + field * 8));
+                }
+            }
+            rollup.setCount(index + 1);
+        }
+        long saved = event.bytesBefore - event.bytesAfter;
+        for (long i = index; i < rollup.count; i++) {  //only the last bucket unless the event is late
+            int offset = rollup.offset(i);
+            rollup.buffer.putLong(offset, rollup.buffer.getLong(offset) + 1);
+            rollup.buffer.putLong(offset + 8, rollup.buffer.getLong(offset + 8) + event.bytesBefore);
+            rollup.buffer.putLong(offset + 16, rollup.buffer.getLong(offset + 16) + event.bytesAfter);
+            rollup.buffer.putLong(offset + 24, rollup.buffer.getLong(offset + 24) + event.durationMs);
+            if (event.source == SOURCE_SERVICE) {
+                rollup.buffer.putLong(offset + 32, rollup.buffer.getLong(offset + 32) + saved);
+            }
+        }
+        rollup.setApplied(rollup.getApplied() + 1);
+    }
+
+    /**
+     * @return number of events recorded
+     */
+    public synchronized long getEventCount() {
+        return events.count;
+    }
+
+    /**
+     * Method to read an event back
+     * @param index index of the event, in the order they were appended
+     * @return the event
+     */
+    public synchronized Event getEvent(long index) {
+        if (index < 0 || index >= events.count) {
+            throw new IndexOutOfBoundsException("event " + index + " of " + events.count);
+        }
+        int offset = events.offset(index);
+        return new Event(events.buffer.getLong(offset), events.buffer.getLong(offset + 8), events.buffer.getLong(offset + 16),
+                events.buffer.getLong(offset + 24), events.buffer.getInt(offset + 32), events.buffer.getInt(offset + 36));
+    }
+
+    /**
+     * @param resolution rollup
+     * @return number of buckets from the first event to the last one
+     */
+    public synchronized long getBucketCount(Resolution resolution) {
+        return rollups[resolution.ordinal()].count;
+    }
+
+    /**
+     * @param resolution rollup
+     * @param index index of a bucket
+     * @return start of the bucket in milliseconds since the epoch
+     */
+    public synchronized long getBucketStart(Resolution resolution, long index) {
+        return rollups[resolution.ordinal()].getOrigin() + index * resolution.interval;
+    }
+
+    /**
+     * Method to return the totals of a single bucket
+     * @param resolution rollup
+     * @param index index of the bucket
+     * @return totals of the events in the bucket
+     */
+    public synchronized Totals getBucket(Resolution resolution, long index) {
+        return getTotals(rollups[resolution.ordinal()], index, index);
+    }
+
+    /**
+     * Method to return the totals of the events in a time range, in constant time
+     * @param resolution rollup the range is rounded to: every bucket overlapping the range is counted in full, so a range
+     *                   not aligned to the buckets covers up to one bucket more than its length
+     * @param from start of the range in milliseconds since the epoch, inclusive
+     * @param to end of the range in milliseconds since the epoch, exclusive
+     * @return totals of the events in the range
+     */
+    public synchronized Totals query(Resolution resolution, long from, long to) {
+        MappedFile rollup = rollups[resolution.ordinal()];
+        if (rollup.count == 0 || to <= from) {
+            return new Totals();
+        }
+        long first = Math.max(0, floorDiv(from - rollup.getOrigin(), resolution.interval));
+        long last = Math.min(rollup.count - 1, floorDiv(to - 1 - rollup.getOrigin(), resolution.interval));
+        return getTotals(rollup, first, last);
+    }
+
+    /**
+     * Method to return the totals of the buckets first to last as the difference of their prefix sums
+     */
+    private static Totals getTotals(MappedFile rollup, long first, long last) {
+        Totals totals = new Totals();
+        if (last < first || last < 0 || first >= rollup.count) {
+            return totals;
+        }
+        int end = rollup.offset(last);
+        totals.count = rollup.buffer.getLong(end);
+        totals.bytesBefore = rollup.buffer.getLong(end + 8);
+        totals.bytesAfter = rollup.buffer.getLong(end + 16);
+        totals.durationMs = rollup.buffer.getLong(end + 24);
+        totals.serviceSaved = rollup.buffer.getLong(end + 32);
+        if (first > 0) {
+            int start = rollup.offset(first - 1);
+            totals.count -= rollup.buffer.getLong(start);
+            totals.bytesBefore -= rollup.buffer.getLong(start + 8);
+            totals.bytesAfter -= rollup.buffer.getLong(start + 16);
+            totals.durationMs -= rollup.buffer.getLong(start + 24);
+            totals.serviceSaved -= rollup.buffer.getLong(start + 32);
+        }
+        return totals;
+    }
+
+    /**
+     * Method to write the mapped files to disk and close them
+     */
+    public synchronized void close() {
+        events.close();
+        for (MappedFile rollup : rollups) {
+            rollup.close();
+        }
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    /**
+     * File of fixed size records behind a header, mapped into memory and grown by doubling.
+     * Header: magic, version, record count, origin of the first bucket and number of events applied (rollups only).
+     */
+    private static class MappedFile {
+        static final int HEADER_SIZE = 32;
+        static final int VERSION = 1;
+        static final int INITIAL_RECORDS = 256;
+
+        final File file;
+        final int magic;
+        final int recordSize;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        MappedByteBuffer buffer;
+        long count;
+
+        MappedFile(File file, int magic, int recordSize) throws IOException {
+            this.file = file;
+            this.magic = magic;
+            this.recordSize = recordSize;
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            long size = channel.size();
+            map(Math.max(size, HEADER_SIZE + (long) INITIAL_RECORDS * recordSize));
+            count = buffer.getLong(8);
+            if (size < HEADER_SIZE || buffer.getInt(0) != magic || buffer.getInt(4) != VERSION
+                    || count < 0 || HEADER_SIZE + count * recordSize > buffer.capacity()) {
+                if (size > 0) {
+                    LOG.info(file + " is not a valid history file, starting over");
+                }
+                reset();
+            }
+        }
+
+        void reset() {
+            buffer.putInt(0, magic);
+            buffer.putInt(4, VERSION);
+            setCount(0);
+            setOrigin(0);
+            setApplied(0);
+        }
+
+        void map(long size) throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        void ensureCapacity(long records) throws IOException {
+            long needed = HEADER_SIZE + records * recordSize;
+            if (needed > buffer.capacity()) {
+                if (needed > Integer.MAX_VALUE) {
+                    throw new IOException(file + " is full");
+                }
+                map(Math.min(Integer.MAX_VALUE, Math.max(needed, 2L * buffer.capacity())));
+            }
+        }
+
+        int offset(long index) {
+            return (int) (HEADER_SIZE + index * recordSize);
+        }
+
+        void setCount(long count) {
+            this.count = count;
+            buffer.putLong(8, count);
+        }
+
+        long getOrigin() {
+            return buffer.getLong(16);
+        }
+
+        void setOrigin(long origin) {
+            buffer.putLong(16, origin);
+        }
+
+        long getApplied() {
+            return buffer.getLong(24);
+        }
+
+        void setApplied(long applied) {
+            buffer.putLong(24, applied);
+        }
+
+        void close() {
+            try {
+                buffer.force();
+                channel.close();
+                raf.close();
+            } catch (IOException e) {
+                LOG.info("closing " + file + " failed: " + e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package course.examples.spacesaver;
+
+import java.util.List;
+
+/**
+ * Platform independent size calculations shared by the app, the benchmarks and the command line tools <br/>
+ */
+public class SizeUtility {
+
+    public static final long KILOBYTE = 1024;
+
+    /**
+     * Method to evaluate the space saved as a result of compressed images. Sizes are summed in 64 bits, and images that
+     * failed to compress are not counted as saved.
+     * @param pairs A list of Pair objects (containing source file and compressed image alongwith their sizes)
+     * @return A string containing information on space occupied by original images, compressed images and total savings
+     */
+    public static String calculateSpaceSaved(List<Pair> pairs) {
+        long images = 0;
+        long failures = 0;
+        long totalSourceFilesLength = 0;
+        long totalCompressedFilesLength = 0;
+        for (Pair pair : pairs) {
+            if (pair == null || pair.compressedImageFile == null) {
+                failures++;
+                continue;
+            }
+            images++;
+            totalSourceFilesLength += pair.srcImageSize;
+            totalCompressedFilesLength += pair.compressedImageSize;
+        }
+        return new SavingsAccumulator.Snapshot(images, failures, totalSourceFilesLength, totalCompressedFilesLength).toString();
+    }
+
+    /**
+     * Method to retrieve a string containing size of a file in bytes, Kbytes, Mbytes, Gbytes based on the size provided in bytes
+     * @param filesize  Size of a file in bytes
+     * @return Return a string containing the size converted to K, M, G bytes
+     */
+    public static String getSizeInString(long filesize) {
+        double size = filesize;
+        String sizeStr = String.valueOf(filesize) + " bytes";
+        if (size >= KILOBYTE) {
+            size = size / KILOBYTE;
+            sizeStr = String.format("%.2f", size) + "K bytes";
+        }
+        if (size >= KILOBYTE) {
+            size = size / KILOBYTE;
+            sizeStr = String.format("%.2f", size) + "M bytes";
+        }
+        if (size >= KILOBYTE) {
+            size = size / KILOBYTE;
+            sizeStr = String.format("%.2f", size) + "G bytes";
+        }
+        return sizeStr;
+    }
+
+    /**
+     * Method to convert a filesize in bytes to Mega bytes
+     * @param filesize in bytes
+     * @return size in Mega bytes
+     */
+    public static double getSizeInMbytes(long filesize) {
+        double size = filesize;
+        size = size / (KILOBYTE * KILOBYTE);
+        return size;
+    }
+
+    /**
+     * Method to calculate the sample size for decoding an image of the given dimensions into the requested dimensions
+     * @param width width of the image
+     * @param height height of the image
+     * @param reqWidth required width
+     * @param reqHeight required height
+     * @return the largest power of 2 sample size keeping both dimensions larger than the requested ones
+     */
+    public static int calculateInSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int inSampleSize = 1;
+
+        if (height > reqHeight || width > reqWidth) {
+
+            final int halfHeight = height / 2;
+            final int halfWidth = width / 2;
+
+            // Calculate the largest inSampleSize value that is a power of 2 and keeps both
+            // height and width larger than the requested height and width.
+            while ((halfHeight / inSampleSize) > reqHeight
+                    && (halfWidth / inSampleSize) > reqWidth) {
+                inSampleSize *= 2;
+            }
+        }
+        return inSampleSize;
+    }
+}
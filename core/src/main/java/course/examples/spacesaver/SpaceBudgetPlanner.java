@@ -0,0 +1,181 @@
+package course.examples.spacesaver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class choosing the images to be compressed to bring the used space back under a threshold <br/>
+ * The deficit is the number of bytes to be freed. Candidates are taken greedily by predicted bytes saved per estimated
+ * CPU millisecond until the deficit is covered. The last image taken is then replaced by the cheapest single image
+ * covering what was left, and images that are no longer needed for the coverage are dropped, so a plan neither
+ * overshoots by a large image nor leaves a remainder for another pass. Savings assume the original images are removed
+ * once compressed: when they are kept, compressing only adds files and no image frees anything.
+ */
+public class SpaceBudgetPlanner {
+
+    private static final Comparator<ImageCandidate> BEST_RATIO_FIRST = new Comparator<ImageCandidate>() {
+        @Override
+        public int compare(ImageCandidate lhs, ImageCandidate rhs) {
+            return Double.compare(rhs.getSavingPerCpuMs(), lhs.getSavingPerCpuMs());
+        }
+    };
+
+    private final int maxImages;
+
+    /**
+     * Wrapper class holding the images chosen and what they are expected to achieve
+     */
+    public static class Plan {
+        List<ImageCandidate> images = new ArrayList<ImageCandidate>();
+        long deficit;
+        long predictedSaving;
+        double estimatedCpuMs;
+
+        public List<ImageCandidate> getImages() {
+            return images;
+        }
+
+        public long getDeficit() {
+            return deficit;
+        }
+
+        public long getPredictedSaving() {
+            return predictedSaving;
+        }
+
+        public double getEstimatedCpuMs() {
+            return estimatedCpuMs;
+        }
+
+        /**
+         * @return true if the images are predicted to free at least the deficit
+         */
+        public boolean coversDeficit() {
+            return predictedSaving >= deficit;
+        }
+
+        /**
+         * @return absolute paths of the images, in the order they should be compressed
+         */
+        public List<String> getPaths() {
+            ArrayList<String> paths = new ArrayList<String>(images.size());
+            for (ImageCandidate image : images) {
+                paths.add(image.path);
+            }
+            return paths;
+        }
+
+        @Override
+        public String toString() {
+            return images.size() + " images, predicted saving: " + SizeUtility.getSizeInString(predictedSaving) + " of deficit: "
+                    + SizeUtility.getSizeInString(deficit) + " estimated cpu: " + (long) estimatedCpuMs + " ms";
+        }
+    }
+
+    /**
+     * Constructor taking the largest batch a plan may contain
+     * @param maxImages maximum number of images in a plan, bounding the time a single pass takes
+     */
+    public SpaceBudgetPlanner(int maxImages) {
+        this.maxImages = maxImages;
+    }
+
+    /**
+     * Method to compute the number of bytes to be freed for the used space to fall below a threshold
+     * @param totalBytes capacity of the storage
+     * @param freeBytes free space of the storage
+     * @param thresholdPercent used space percentage to get under
+     * @param marginPercent additional distance below the threshold to aim for, so the next write doesn't cross it again
+     * @return bytes to be freed, 0 if the used space is already low enough
+     */
+    public static long getDeficit(long totalBytes, long freeBytes, int thresholdPercent, int marginPercent) {
+        int targetPercent = Math.max(0, thresholdPercent - marginPercent);
+        long targetUsed = totalBytes / 100 * targetPercent + totalBytes % 100 * targetPercent / 100;
+        long used = totalBytes - freeBytes;
+        return Math.max(0, used - targetUsed);
+    }
+
+    /**
+     * Method to choose the images to be compressed
+     * @param candidates images with their estimates, e.g. from CompressionPipeline.selectCandidates. Images without an
+     *                   estimate or a predicted saving are ignored.
+     * @param deficit bytes to be freed
+     * @return the plan, with all usable candidates up to maxImages if even they don't cover the deficit
+     */
+    public Plan plan(List<ImageCandidate> candidates, long deficit) {
+        return plan(candidates, deficit, true);
+    }
+
+    /**
+     * Method to choose the images to be compressed
+     * @param candidates images with their estimates, images without an estimate or a predicted saving are ignored
+     * @param deficit bytes to be freed
+     * @param originalsRemoved true if the original images are deleted once compressed, otherwise the plan is empty
+     * @return the plan, with all usable candidates up to maxImages if even they don't cover the deficit
+     */
+    public Plan plan(List<ImageCandidate> candidates, long deficit, boolean originalsRemoved) {
+        Plan plan = new Plan();
+        plan.deficit = deficit;
+        if (deficit <= 0 || !originalsRemoved) {
+            return plan;
+        }
+        ArrayList<ImageCandidate> sorted = new ArrayList<ImageCandidate>(candidates.size());
+        for (ImageCandidate candidate : candidates) {
+            if (candidate.estimate != null && getSaving(candidate) > 0) {
+                sorted.add(candidate);
+            }
+        }
+        Collections.sort(sorted, BEST_RATIO_FIRST);
+
+        //greedy prefix by saving per cpu ms
+        ArrayList<ImageCandidate> chosen = new ArrayList<ImageCandidate>();
+        long saving = 0;
+        int next = 0;
+        while (next < sorted.size() && saving < deficit && chosen.size() < maxImages) {
+            ImageCandidate candidate = sorted.get(next++);
+            chosen.add(candidate);
+            saving += getSaving(candidate);
+        }
+
+        if (saving >= deficit) {
+            //replace the last image by the cheapest image alone covering what the others leave
+            ImageCandidate last = chosen.remove(chosen.size() - 1);
+            long gap = deficit - (saving - getSaving(last));
+            ImageCandidate best = last;
+            for (int i = next - 1; i < sorted.size(); i++) {
+                ImageCandidate candidate = sorted.get(i);
+                if (getSaving(candidate) >= gap && getCpuMs(candidate) < getCpuMs(best)) {
+                    best = candidate;
+                }
+            }
+            chosen.add(best);
+            saving += getSaving(best) - getSaving(last);
+
+            //drop images not needed for the coverage, least efficient first
+            for (int i = chosen.size() - 1; i >= 0; i--) {
+                ImageCandidate candidate = chosen.get(i);
+                if (saving - getSaving(candidate) >= deficit) {
+                    chosen.remove(i);
+                    saving -= getSaving(candidate);
+                }
+            }
+        }
+
+        plan.images = chosen;
+        plan.predictedSaving = saving;
+        for (ImageCandidate image : chosen) {
+            plan.estimatedCpuMs += getCpuMs(image);
+        }
+        return plan;
+    }
+
+    private static long getSaving(ImageCandidate candidate) {
+        return candidate.estimate.getPredictedSaving();
+    }
+
+    private static double getCpuMs(ImageCandidate candidate) {
+        return candidate.estimate.estimatedCpuMs;
+    }
+}
@@ -0,0 +1,216 @@
+package course.examples.spacesaver;
+
+import java.util.Arrays;
+
+/**
+ * Class summarizing the sizes of original and compressed images for the statistics screen <br/>
+ * Totals, extremes and a size histogram are computed in a single pass over primitive arrays; percentiles come from
+ * sorted copies of the same arrays. Series too long to be plotted point by point are downsampled with
+ * Largest-Triangle-Three-Buckets, which keeps the first and last point and, in each bucket, the point forming the
+ * largest triangle with its neighbours, so spikes survive the reduction.
+ */
+public class StatsAggregator {
+
+    public static final int DEFAULT_MAX_POINTS = 300;
+    /** upper bounds of the histogram buckets in bytes, the last bucket takes everything larger */
+    public static final long[] BUCKET_LIMITS = { 128 * SizeUtility.KILOBYTE, 256 * SizeUtility.KILOBYTE,
+            512 * SizeUtility.KILOBYTE, SizeUtility.KILOBYTE * SizeUtility.KILOBYTE,
+            2 * SizeUtility.KILOBYTE * SizeUtility.KILOBYTE, 4 * SizeUtility.KILOBYTE * SizeUtility.KILOBYTE,
+            8 * SizeUtility.KILOBYTE * SizeUtility.KILOBYTE };
+
+    /**
+     * Wrapper class holding the summary of a set of images
+     */
+    public static class Summary {
+        int count;
+        long totalOriginal;
+        long totalCompressed;
+        long maxSize;
+        long[] sortedOriginal;
+        long[] sortedCompressed;
+        int[] originalHistogram = new int[BUCKET_LIMITS.length + 1];
+        int[] compressedHistogram = new int[BUCKET_LIMITS.length + 1];
+
+        public int getCount() {
+            return count;
+        }
+
+        public long getTotalOriginal() {
+            return totalOriginal;
+        }
+
+        public long getTotalCompressed() {
+            return totalCompressed;
+        }
+
+        public long getTotalSaved() {
+            return totalOriginal - totalCompressed;
+        }
+
+        /**
+         * @return space saved in percent of the original size, 0 if there are no images
+         */
+        public double getSavedPercent() {
+            return totalOriginal == 0 ? 0 : 100.0 * getTotalSaved() / totalOriginal;
+        }
+
+        /**
+         * @return size of the largest original or compressed image
+         */
+        public long getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * @param percentile percentile between 0 and 100
+         * @return original size at the percentile, 0 if there are no images
+         */
+        public long getOriginalPercentile(double percentile) {
+            return StatsAggregator.getPercentile(sortedOriginal, percentile);
+        }
+
+        /**
+         * @param percentile percentile between 0 and 100
+         * @return compressed size at the percentile, 0 if there are no images
+         */
+        public long getCompressedPercentile(double percentile) {
+            return StatsAggregator.getPercentile(sortedCompressed, percentile);
+        }
+
+        /**
+         * @return number of original images per bucket of BUCKET_LIMITS
+         */
+        public int[] getOriginalHistogram() {
+            return originalHistogram;
+        }
+
+        /**
+         * @return number of compressed images per bucket of BUCKET_LIMITS
+         */
+        public int[] getCompressedHistogram() {
+            return compressedHistogram;
+        }
+
+        @Override
+        public String toString() {
+            return count + " images, " + SizeUtility.getSizeInString(totalOriginal) + " -> "
+                    + SizeUtility.getSizeInString(totalCompressed) + " (" + Math.round(getSavedPercent()) + "% saved)"
+                    + ", original p50/p90/p99: " + SizeUtility.getSizeInString(getOriginalPercentile(50)) + "/"
+                    + SizeUtility.getSizeInString(getOriginalPercentile(90)) + "/"
+                    + SizeUtility.getSizeInString(getOriginalPercentile(99))
+                    + ", compressed p50/p90/p99: " + SizeUtility.getSizeInString(getCompressedPercentile(50)) + "/"
+                    + SizeUtility.getSizeInString(getCompressedPercentile(90)) + "/"
+                    + SizeUtility.getSizeInString(getCompressedPercentile(99));
+        }
+    }
+
+    /**
+     * Method to summarize the sizes of a set of images
+     * @param original sizes of the original images
+     * @param compressed sizes of the compressed images, in the same order
+     * @param count number of images, the arrays may be longer
+     * @return the summary
+     */
+    public static Summary summarize(long[] original, long[] compressed, int count) {
+        Summary summary = new Summary();
+        summary.count = count;
+        for (int i = 0; i < count; i++) {
+            long src = original[i];
+            long dst = compressed[i];
+            summary.totalOriginal += src;
+            summary.totalCompressed += dst;
+            summary.maxSize = Math.max(summary.maxSize, Math.max(src, dst));
+            summary.originalHistogram[getBucket(src)]++;
+            summary.compressedHistogram[getBucket(dst)]++;
+        }
+        summary.sortedOriginal = Arrays.copyOf(original, count);
+        summary.sortedCompressed = Arrays.copyOf(compressed, count);
+        Arrays.sort(summary.sortedOriginal);
+        Arrays.sort(summary.sortedCompressed);
+        return summary;
+    }
+
+    /**
+     * Method to return the histogram bucket of a size
+     * @param size size in bytes
+     * @return index of the first bucket of BUCKET_LIMITS the size is below, BUCKET_LIMITS.length if none
+     */
+    static int getBucket(long size) {
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (size < BUCKET_LIMITS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_LIMITS.length;
+    }
+
+    /**
+     * Method to return a percentile of sorted values by the nearest rank method
+     * @param sorted values in ascending order
+     * @param percentile percentile between 0 and 100
+     * @return value at the percentile, 0 if there are no values
+     */
+    static long getPercentile(long[] sorted, double percentile) {
+        if (sorted == null || sorted.length == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    /**
+     * Method to downsample a series whose x values are the indices, with Largest-Triangle-Three-Buckets
+     * @param values y values of the series
+     * @param count number of values, the array may be longer
+     * @param maxPoints number of points to keep, at least 3
+     * @return ascending indices of the points to keep, all of them if there are no more than maxPoints
+     */
+    public static int[] downsample(long[] values, int count, int maxPoints) {
+        if (count <= maxPoints || maxPoints < 3) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] sampled = new int[maxPoints];
+        double bucketSize = (double) (count - 2) / (maxPoints - 2);  //the first and last point are kept as they are
+        int selected = 0;   //point chosen in the previous bucket
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            //average of the next bucket, the last point for the last bucket
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min(count, (int) ((bucket + 2) * bucketSize) + 1);
+            double avgX = 0;
+            double avgY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                avgX += i;
+                avgY += values[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            if (nextCount > 0) {
+                avgX /= nextCount;
+                avgY /= nextCount;
+            } else {
+                avgX = count - 1;
+                avgY = values[count - 1];
+            }
+
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double maxArea = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((selected - avgX) * (values[i] - values[selected])
+                        - (selected - i) * (avgY - values[selected]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            sampled[bucket + 1] = chosen;
+            selected = chosen;
+        }
+        sampled[maxPoints - 1] = count - 1;
+        return sampled;
+    }
+}
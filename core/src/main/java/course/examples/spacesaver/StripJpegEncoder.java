@@ -0,0 +1,380 @@
+package course.examples.spacesaver;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Baseline JPEG encoder (YCbCr 4:2:0, standard Huffman tables) that is fed a few rows of pixels at a time <br/>
+ * Only one row of MCUs (16 pixel rows) is buffered, so memory used is proportional to the image width and
+ * not to the image size. This lets images that are too large to decode into a single Bitmap be compressed strip by strip.
+ */
+public class StripJpegEncoder {
+
+    private static final int MCU_SIZE = 16;
+
+    private static final double[] AAN_SCALE = {
+            1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379
+    };
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final int quality;
+
+    private final int[] lumQuant;
+    private final int[] chromQuant;
+    private final float[] lumDivisors = new float[64];
+    private final float[] chromDivisors = new float[64];
+
+    private final int[] dcLumCodes = new int[256];
+    private final int[] dcLumSizes = new int[256];
+    private final int[] dcChromCodes = new int[256];
+    private final int[] dcChromSizes = new int[256];
+    private final int[] acLumCodes = new int[256];
+    private final int[] acLumSizes = new int[256];
+    private final int[] acChromCodes = new int[256];
+    private final int[] acChromSizes = new int[256];
+
+    private final int[] rowBuffer;     //ARGB pixels of the MCU row currently being filled
+    private int bufferedRows = 0;
+    private int rowsWritten = 0;
+
+    private final float[] block = new float[64];
+    private final int[] coefficients = new int[64];
+    private final float[] cbBlock = new float[64];
+    private final float[] crBlock = new float[64];
+    private int lastDcY = 0;
+    private int lastDcCb = 0;
+    private int lastDcCr = 0;
+
+    private int bitBuffer = 0;
+    private int bitCount = 0;
+    private boolean headerWritten = false;
+
+    /**
+     * Constructor preparing the quantization and Huffman tables for the given quality
+     * @param ostream stream the encoded image is written to, ideally buffered
+     * @param width width of the image in pixels
+     * @param height height of the image in pixels
+     * @param imageQuality quality level between 1 and 100
+     */
+    public StripJpegEncoder(OutputStream ostream, int width, int height, int imageQuality) {
+        if (width <= 0 || height <= 0 || width > 65535 || height > 65535) {
+            throw new IllegalArgumentException("Unsupported image dimensions: " + width + "x" + height);
+        }
+        this.out = ostream;
+        this.width = width;
+        this.height = height;
+        this.quality = imageQuality;
+        lumQuant = JpegTables.scaleQuantTable(JpegTables.STD_LUMINANCE_QUANT, imageQuality);
+        chromQuant = JpegTables.scaleQuantTable(JpegTables.STD_CHROMINANCE_QUANT, imageQuality);
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                int i = row * 8 + col;
+                lumDivisors[i] = (float) (1.0 / (lumQuant[i] * AAN_SCALE[row] * AAN_SCALE[col] * 8.0));
+                chromDivisors[i] = (float) (1.0 / (chromQuant[i] * AAN_SCALE[row] * AAN_SCALE[col] * 8.0));
+            }
+        }
+        JpegTables.buildHuffmanCodes(JpegTables.DC_LUMINANCE_BITS, JpegTables.DC_LUMINANCE_VALUES, dcLumCodes, dcLumSizes);
+        JpegTables.buildHuffmanCodes(JpegTables.DC_CHROMINANCE_BITS, JpegTables.DC_CHROMINANCE_VALUES, dcChromCodes, dcChromSizes);
+        JpegTables.buildHuffmanCodes(JpegTables.AC_LUMINANCE_BITS, JpegTables.AC_LUMINANCE_VALUES, acLumCodes, acLumSizes);
+        JpegTables.buildHuffmanCodes(JpegTables.AC_CHROMINANCE_BITS, JpegTables.AC_CHROMINANCE_VALUES, acChromCodes, acChromSizes);
+        rowBuffer = new int[width * MCU_SIZE];
+    }
+
+    /**
+     * Method to return the quality level the image is encoded with
+     * @return quality level between 1 and 100
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Method to append rows of pixels to the image, from top to bottom
+     * @param pixels ARGB pixels, alpha is ignored
+     * @param offset index of the first pixel of the first row in pixels
+     * @param stride number of entries between the start of two rows in pixels
+     * @param rows number of rows to append
+     * @throws IOException if writing to the output stream fails
+     */
+    public void writeRows(int[] pixels, int offset, int stride, int rows) throws IOException {
+        if (rowsWritten + bufferedRows + rows > height) {
+            throw new IllegalStateException("More rows written than the image height " + height);
+        }
+        if (!headerWritten) {
+            writeHeaders();
+        }
+        for (int r = 0; r < rows; r++) {
+            System.arraycopy(pixels, offset + r * stride, rowBuffer, bufferedRows * width, width);
+            bufferedRows++;
+            if (bufferedRows == MCU_SIZE) {
+                encodeMcuRow();
+            }
+        }
+    }
+
+    /**
+     * Method to encode the last partial row of MCUs and terminate the image. The output stream is flushed, not closed.
+     * @throws IOException if writing to the output stream fails
+     */
+    public void finish() throws IOException {
+        if (rowsWritten + bufferedRows != height) {
+            throw new IllegalStateException("Only " + (rowsWritten + bufferedRows) + " of " + height + " rows written");
+        }
+        if (!headerWritten) {
+            writeHeaders();
+        }
+        if (bufferedRows > 0) {
+            for (int r = bufferedRows; r < MCU_SIZE; r++) {  //pad the last MCU row by repeating the bottom line
+                System.arraycopy(rowBuffer, (bufferedRows - 1) * width, rowBuffer, r * width, width);
+            }
+            encodeMcuRow();
+        }
+        flushBits();
+        out.write(0xFF);
+        out.write(0xD9);  //EOI
+        out.flush();
+    }
+
+    /**
+     * Method to encode the buffered row of MCUs, each MCU being four luminance blocks and one block of each chrominance
+     * @throws IOException if writing to the output stream fails
+     */
+    private void encodeMcuRow() throws IOException {
+        for (int x = 0; x < width; x += MCU_SIZE) {
+            for (int by = 0; by < MCU_SIZE; by += 8) {
+                for (int bx = 0; bx < MCU_SIZE; bx += 8) {
+                    fillLuminanceBlock(x + bx, by);
+                    lastDcY = encodeBlock(block, lumDivisors, lastDcY, dcLumCodes, dcLumSizes, acLumCodes, acLumSizes);
+                }
+            }
+            fillChrominanceBlocks(x);
+            lastDcCb = encodeBlock(cbBlock, chromDivisors, lastDcCb, dcChromCodes, dcChromSizes, acChromCodes, acChromSizes);
+            lastDcCr = encodeBlock(crBlock, chromDivisors, lastDcCr, dcChromCodes, dcChromSizes, acChromCodes, acChromSizes);
+        }
+        rowsWritten += bufferedRows;
+        bufferedRows = 0;
+    }
+
+    /**
+     * Method to fill the working block with level shifted luminance of the 8x8 pixels at (x, y) of the row buffer
+     */
+    private void fillLuminanceBlock(int x, int y) {
+        for (int row = 0; row < 8; row++) {
+            int base = (y + row) * width;
+            for (int col = 0; col < 8; col++) {
+                int pixel = rowBuffer[base + Math.min(x + col, width - 1)];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                block[row * 8 + col] = 0.299f * r + 0.587f * g + 0.114f * b - 128f;
+            }
+        }
+    }
+
+    /**
+     * Method to fill both chrominance blocks with the 2x2 averaged chrominance of the 16x16 pixels starting at column x
+     */
+    private void fillChrominanceBlocks(int x) {
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                float cb = 0;
+                float cr = 0;
+                for (int dy = 0; dy < 2; dy++) {
+                    int base = (row * 2 + dy) * width;
+                    for (int dx = 0; dx < 2; dx++) {
+                        int pixel = rowBuffer[base + Math.min(x + col * 2 + dx, width - 1)];
+                        int r = (pixel >> 16) & 0xFF;
+                        int g = (pixel >> 8) & 0xFF;
+                        int b = pixel & 0xFF;
+                        cb += -0.168736f * r - 0.331264f * g + 0.5f * b;
+                        cr += 0.5f * r - 0.418688f * g - 0.081312f * b;
+                    }
+                }
+                cbBlock[row * 8 + col] = cb / 4;  //+128 level shift and -128 centering cancel out
+                crBlock[row * 8 + col] = cr / 4;
+            }
+        }
+    }
+
+    /**
+     * Method to transform, quantize and entropy code one block
+     * @return DC coefficient of the block, used to predict the next block of the same component
+     */
+    private int encodeBlock(float[] data, float[] divisors, int lastDc, int[] dcCodes, int[] dcSizes,
+                            int[] acCodes, int[] acSizes) throws IOException {
+        forwardDct(data);
+        for (int i = 0; i < 64; i++) {
+            coefficients[i] = Math.round(data[i] * divisors[i]);
+        }
+
+        int dc = coefficients[0];
+        int diff = dc - lastDc;
+        int category = bitLength(diff);
+        writeBits(dcCodes[category], dcSizes[category]);
+        if (category > 0) {
+            writeBits(diff < 0 ? diff - 1 : diff, category);
+        }
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[JpegTables.ZIGZAG[k]];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                writeBits(acCodes[0xF0], acSizes[0xF0]);  //ZRL, run of 16 zeros
+                run -= 16;
+            }
+            int size = bitLength(value);
+            int symbol = (run << 4) | size;
+            writeBits(acCodes[symbol], acSizes[symbol]);
+            writeBits(value < 0 ? value - 1 : value, size);
+            run = 0;
+        }
+        if (run > 0) {
+            writeBits(acCodes[0x00], acSizes[0x00]);  //EOB
+        }
+        return dc;
+    }
+
+    /**
+     * Method to compute the number of bits needed for the magnitude of a coefficient
+     */
+    static int bitLength(int value) {
+        value = value < 0 ? -value : value;
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * In place forward DCT of an 8x8 block using the AAN algorithm. Output is scaled, the scale is folded into the divisors
+     */
+    private static void forwardDct(float[] d) {
+        for (int pass = 0; pass < 2; pass++) {
+            int step = pass == 0 ? 1 : 8;    //rows, then columns
+            int next = pass == 0 ? 8 : 1;
+            for (int line = 0; line < 8; line++) {
+                int p = line * next;
+                float tmp0 = d[p] + d[p + 7 * step];
+                float tmp7 = d[p] - d[p + 7 * step];
+                float tmp1 = d[p + step] + d[p + 6 * step];
+                float tmp6 = d[p + step] - d[p + 6 * step];
+                float tmp2 = d[p + 2 * step] + d[p + 5 * step];
+                float tmp5 = d[p + 2 * step] - d[p + 5 * step];
+                float tmp3 = d[p + 3 * step] + d[p + 4 * step];
+                float tmp4 = d[p + 3 * step] - d[p + 4 * step];
+
+                float tmp10 = tmp0 + tmp3;
+                float tmp13 = tmp0 - tmp3;
+                float tmp11 = tmp1 + tmp2;
+                float tmp12 = tmp1 - tmp2;
+
+                d[p] = tmp10 + tmp11;
+                d[p + 4 * step] = tmp10 - tmp11;
+                float z1 = (tmp12 + tmp13) * 0.707106781f;
+                d[p + 2 * step] = tmp13 + z1;
+                d[p + 6 * step] = tmp13 - z1;
+
+                tmp10 = tmp4 + tmp5;
+                tmp11 = tmp5 + tmp6;
+                tmp12 = tmp6 + tmp7;
+                float z5 = (tmp10 - tmp12) * 0.382683433f;
+                float z2 = 0.541196100f * tmp10 + z5;
+                float z4 = 1.306562965f * tmp12 + z5;
+                float z3 = tmp11 * 0.707106781f;
+                float z11 = tmp7 + z3;
+                float z13 = tmp7 - z3;
+
+                d[p + 5 * step] = z13 + z2;
+                d[p + 3 * step] = z13 - z2;
+                d[p + step] = z11 + z4;
+                d[p + 7 * step] = z11 - z4;
+            }
+        }
+    }
+
+    /**
+     * Method to append the low order bits of value to the entropy coded data, stuffing a zero byte after every 0xFF
+     */
+    private void writeBits(int value, int count) throws IOException {
+        bitBuffer = (bitBuffer << count) | (value & ((1 << count) - 1));
+        bitCount += count;
+        while (bitCount >= 8) {
+            int b = (bitBuffer >> (bitCount - 8)) & 0xFF;
+            out.write(b);
+            if (b == 0xFF) {
+                out.write(0);
+            }
+            bitCount -= 8;
+        }
+        bitBuffer &= (1 << bitCount) - 1;
+    }
+
+    /**
+     * Method to pad the last partial byte of entropy coded data with one bits
+     */
+    private void flushBits() throws IOException {
+        if (bitCount > 0) {
+            writeBits(0x7F, 8 - bitCount);
+        }
+    }
+
+    /**
+     * Method to write SOI, JFIF, quantization tables, frame header, Huffman tables and the scan header
+     */
+    private void writeHeaders() throws IOException {
+        headerWritten = true;
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xD8});  //SOI
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});  //APP0
+
+        writeMarker(0xDB, 2 + 2 * 65);  //DQT
+        out.write(0);
+        for (int k = 0; k < 64; k++) {
+            out.write(lumQuant[JpegTables.ZIGZAG[k]]);
+        }
+        out.write(1);
+        for (int k = 0; k < 64; k++) {
+            out.write(chromQuant[JpegTables.ZIGZAG[k]]);
+        }
+
+        writeMarker(0xC0, 17);  //SOF0
+        out.write(8);
+        writeShort(height);
+        writeShort(width);
+        out.write(3);
+        out.write(new byte[]{1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1});
+
+        writeMarker(0xC4, 2 + 4 + 4 * 16 + JpegTables.DC_LUMINANCE_VALUES.length + JpegTables.DC_CHROMINANCE_VALUES.length
+                + JpegTables.AC_LUMINANCE_VALUES.length + JpegTables.AC_CHROMINANCE_VALUES.length);  //DHT
+        writeHuffmanTable(0x00, JpegTables.DC_LUMINANCE_BITS, JpegTables.DC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x10, JpegTables.AC_LUMINANCE_BITS, JpegTables.AC_LUMINANCE_VALUES);
+        writeHuffmanTable(0x01, JpegTables.DC_CHROMINANCE_BITS, JpegTables.DC_CHROMINANCE_VALUES);
+        writeHuffmanTable(0x11, JpegTables.AC_CHROMINANCE_BITS, JpegTables.AC_CHROMINANCE_VALUES);
+
+        writeMarker(0xDA, 12);  //SOS
+        out.write(new byte[]{3, 1, 0x00, 2, 0x11, 3, 0x11, 0, 63, 0});
+    }
+
+    private void writeHuffmanTable(int classAndId, int[] bits, int[] values) throws IOException {
+        out.write(classAndId);
+        for (int b : bits) {
+            out.write(b);
+        }
+        for (int v : values) {
+            out.write(v);
+        }
+    }
+
+    private void writeMarker(int marker, int length) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+        writeShort(length);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write((value >> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+}
@@ -0,0 +1,145 @@
+package course.examples.spacesaver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for DuplicateFinder
+ */
+public class DuplicateFinderTest {
+
+    private static final int LARGE = 300 * 1024;
+    private static final int SMALL = 10 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<ImageCandidate> images = new ArrayList<ImageCandidate>();
+
+    private void image(String name, byte[] content, long modified) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        images.add(new ImageCandidate(images.size(), file.getPath(), content.length, modified, 0, 0));
+    }
+
+    private void createImages() throws Exception {
+        byte[] large = new byte[LARGE];
+        new Random(1).nextBytes(large);
+        image("a.jpg", large, 20);
+        image("copy_of_a.jpg", large.clone(), 10);
+        byte[] middle = large.clone();
+        middle[LARGE / 2] ^= 1;             //same head and tail, found by the full hash only
+        image("middle.jpg", middle, 30);
+        byte[] head = large.clone();
+        head[0] ^= 1;
+        image("head.jpg", head, 40);
+        byte[] small = new byte[SMALL];
+        new Random(2).nextBytes(small);
+        image("small.jpg", small, 50);
+        image("copy_of_small.jpg", small.clone(), 60);
+        image("unique.jpg", new byte[SMALL + 1], 70);
+    }
+
+    /**
+     * HashCache keeping the hashes in maps, counting the hashes stored
+     */
+    private static class MapCache implements DuplicateFinder.HashCache {
+        final Map<String, String> partial = new HashMap<String, String>();
+        final Map<String, String> full = new HashMap<String, String>();
+
+        @Override
+        public synchronized String getPartialHash(ImageCandidate image) {
+            return partial.get(image.path + image.modified);
+        }
+
+        @Override
+        public synchronized String getFullHash(ImageCandidate image) {
+            return full.get(image.path + image.modified);
+        }
+
+        @Override
+        public synchronized void putPartialHash(ImageCandidate image, String hash) {
+            partial.put(image.path + image.modified, hash);
+        }
+
+        @Override
+        public synchronized void putFullHash(ImageCandidate image, String hash) {
+            full.put(image.path + image.modified, hash);
+        }
+    }
+
+    @Test
+    public void findDuplicates_groupsIdenticalFilesOriginalFirst() throws Exception {
+        createImages();
+        DuplicateFinder finder = new DuplicateFinder(null, null);
+        List<NearDuplicateIndex.Group> groups = finder.findDuplicates(images);
+        assertEquals(2, groups.size());
+        assertEquals(2, groups.get(0).getImages().size());
+        assertTrue(groups.get(0).getBest().path.endsWith("copy_of_a.jpg"));    //oldest first
+        assertEquals(LARGE, groups.get(0).getReclaimableBytes());
+        assertTrue(groups.get(1).getBest().path.endsWith("small.jpg"));
+
+        //unique.jpg is never opened, the 4 large files are read partially and the 3 sharing head and tail in full
+        long expected = 4 * 2 * DuplicateFinder.PARTIAL_HASH_BYTES + 2 * SMALL + 3 * LARGE;
+        assertEquals(expected, finder.getBytesRead());
+        assertEquals(4 + 2 + 3, finder.getFilesRead());
+    }
+
+    @Test
+    public void findDuplicates_inParallelWithACacheReadsOnlyChangedFiles() throws Exception {
+        createImages();
+        MapCache cache = new MapCache();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            DuplicateFinder first = new DuplicateFinder(cache, executor);
+            assertEquals(2, first.findDuplicates(images).size());
+            assertEquals(6, cache.partial.size());
+            assertEquals(5, cache.full.size());     //3 large files colliding on their partial hash, 2 small ones
+
+            DuplicateFinder second = new DuplicateFinder(cache, executor);
+            assertEquals(2, second.findDuplicates(images).size());
+            assertEquals(0, second.getBytesRead());
+
+            images.remove(images.size() - 1);
+            image("another_copy_of_a.jpg", readAll(new File(images.get(0).path)), 5);
+            DuplicateFinder third = new DuplicateFinder(cache, executor);
+            List<NearDuplicateIndex.Group> groups = third.findDuplicates(images);
+            assertEquals(3, groups.get(0).getImages().size());
+            assertTrue(groups.get(0).getBest().path.endsWith("another_copy_of_a.jpg"));
+            assertEquals(2 * DuplicateFinder.PARTIAL_HASH_BYTES + LARGE, third.getBytesRead());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static byte[] readAll(File file) throws Exception {
+        byte[] content = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(content);
+        } finally {
+            in.close();
+        }
+        return content;
+    }
+}
@@ -0,0 +1,79 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for JpegHeaderEstimator, using images produced by StripJpegEncoder
+ */
+public class JpegHeaderEstimatorTest {
+
+    private static byte[] encode(int width, int height, int quality) throws Exception {
+        int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | (i * 7919);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StripJpegEncoder encoder = new StripJpegEncoder(out, width, height, quality);
+        encoder.writeRows(pixels, 0, width, height);
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void readHeader_returnsDimensionsAndQuality() throws Exception {
+        JpegHeaderEstimator.Estimate estimate = JpegHeaderEstimator.readHeader(new ByteArrayInputStream(encode(40, 24, 85)));
+        assertNotNull(estimate);
+        assertEquals(40, estimate.width);
+        assertEquals(24, estimate.height);
+        assertEquals(85, estimate.sourceQuality);
+    }
+
+    @Test
+    public void readHeader_rejectsNonJpeg() throws Exception {
+        assertNull(JpegHeaderEstimator.readHeader(new ByteArrayInputStream(new byte[]{(byte) 0x89, 'P', 'N', 'G'})));
+    }
+
+    @Test
+    public void estimateQuality_matchesScaledStandardTables() {
+        for (int quality = 20; quality <= 95; quality += 5) {
+            int[] table = JpegTables.scaleQuantTable(JpegTables.STD_LUMINANCE_QUANT, quality);
+            assertEquals(quality, JpegHeaderEstimator.estimateQuality(table));
+        }
+    }
+
+    @Test
+    public void predict_savesNothingAtHigherQuality() {
+        JpegHeaderEstimator.Estimate estimate = new JpegHeaderEstimator.Estimate();
+        estimate.sourceSize = 1000000;
+        estimate.sourceQuality = 70;
+        JpegHeaderEstimator.predict(estimate, 80);
+        assertEquals(0, estimate.getPredictedSaving());
+        assertFalse(estimate.isWorthCompressing(JpegHeaderEstimator.MIN_PREDICTED_GAIN_PERCENT));
+
+        estimate.sourceQuality = 95;
+        JpegHeaderEstimator.predict(estimate, 80);
+        assertTrue(estimate.getPredictedSaving() > 0);
+        assertTrue(estimate.isWorthCompressing(JpegHeaderEstimator.MIN_PREDICTED_GAIN_PERCENT));
+    }
+
+    @Test
+    public void predictLossless_savesOnlyOnBaselineJpegs() throws Exception {
+        JpegHeaderEstimator.Estimate estimate = JpegHeaderEstimator.readHeader(new ByteArrayInputStream(encode(40, 24, 40)));
+        assertNotNull(estimate);
+        assertTrue(estimate.baseline);
+        estimate.sourceSize = 1000000;
+        JpegHeaderEstimator.predictLossless(estimate);
+        assertTrue(estimate.getPredictedSaving() > 0);
+        assertTrue(estimate.isWorthCompressing(1));
+
+        estimate.baseline = false;  //progressive
+        JpegHeaderEstimator.predictLossless(estimate);
+        assertEquals(0, estimate.getPredictedSaving());
+        assertFalse(estimate.isWorthCompressing(1));
+    }
+}
@@ -0,0 +1,248 @@
+package course.examples.spacesaver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.w3c.dom.Element;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for JpegHuffmanOptimizer
+ */
+public class JpegHuffmanOptimizerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static BufferedImage scene(int width, int height, int type) {
+        Random random = new Random(7);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (int) (127 + 100 * Math.sin(x / 17.0)) + random.nextInt(16);
+                int g = (int) (127 + 100 * Math.cos(y / 23.0)) + random.nextInt(16);
+                int b = (x * y) % 256;
+                image.setRGB(x, y, (Math.min(r, 255) << 16) | (Math.min(g, 255) << 8) | b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Method to encode an image with ImageIO, which uses the example Huffman tables of the JPEG standard
+     * @param restartInterval MCUs between restart markers, 0 for none
+     */
+    private static byte[] encode(BufferedImage image, int restartInterval) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.9f);
+        IIOMetadata metadata = writer.getDefaultImageMetadata(new ImageTypeSpecifier(image), param);
+        if (restartInterval > 0) {
+            String format = "javax_imageio_jpeg_image_1.0";
+            Element root = (Element) metadata.getAsTree(format);
+            Element dri = new IIOMetadataNode("dri");
+            dri.setAttribute("interval", Integer.toString(restartInterval));
+            Element sequence = (Element) root.getElementsByTagName("markerSequence").item(0);
+            sequence.insertBefore(dri, sequence.getFirstChild());
+            metadata.setFromTree(format, root);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(bytes);
+        writer.setOutput(stream);
+        writer.write(null, new IIOImage(image, null, metadata), param);
+        stream.close();
+        writer.dispose();
+        return bytes.toByteArray();
+    }
+
+    private File file(String name, byte[] content) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] optimize(File src, boolean strip) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(JpegHuffmanOptimizer.optimize(src, out, strip));
+        return out.toByteArray();
+    }
+
+    private static void assertSamePixels(byte[] expected, byte[] actual) throws Exception {
+        BufferedImage a = ImageIO.read(new ByteArrayInputStream(expected));
+        BufferedImage b = ImageIO.read(new ByteArrayInputStream(actual));
+        assertEquals(a.getWidth(), b.getWidth());
+        assertEquals(a.getHeight(), b.getHeight());
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                assertEquals(a.getRGB(x, y), b.getRGB(x, y));
+            }
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void optimize_shrinksWithoutChangingAPixel() throws Exception {
+        //odd sizes leave partial MCUs, grayscale is a single non interleaved scan, color is subsampled 2x2
+        byte[][] originals = {
+                encode(scene(301, 199, BufferedImage.TYPE_INT_RGB), 0),
+                encode(scene(301, 199, BufferedImage.TYPE_INT_RGB), 7),
+                encode(scene(150, 97, BufferedImage.TYPE_BYTE_GRAY), 5)
+        };
+        for (int i = 0; i < originals.length; i++) {
+            byte[] optimized = optimize(file("image" + i + ".jpg", originals[i]), false);
+            assertTrue(optimized.length + " < " + originals[i].length, optimized.length < originals[i].length);
+            assertSamePixels(originals[i], optimized);
+            assertArrayEquals(optimized, optimize(file("again" + i + ".jpg", optimized), false));    //already optimal
+        }
+    }
+
+    @Test
+    public void optimize_stripsOptionalSegmentsAndTheExifThumbnail() throws Exception {
+        byte[] original = encode(scene(64, 48, BufferedImage.TYPE_INT_RGB), 0);
+        byte[] thumbnail = new byte[2000];
+        byte[] exif = {
+                'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 42, 0, 0, 0, 8,
+                0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0, 0, 0, 0, 26,      //IFD0: orientation 6, IFD1 at 26
+                0, 2, 0x02, 0x01, 0, 4, 0, 0, 0, 1, 0, 0, 0, 56,                  //IFD1: thumbnail at 56
+                0x02, 0x02, 0, 4, 0, 0, 0, 1, 0, 0, 0x07, (byte) 0xD0, 0, 0, 0, 0
+        };
+        ByteArrayOutputStream tagged = new ByteArrayOutputStream();
+        tagged.write(original, 0, 2);
+        segment(tagged, 0xE1, concat(exif, thumbnail));
+        segment(tagged, 0xE1, "http://ns.adobe.com/xap/1.0/\0<x:xmpmeta/>".getBytes("US-ASCII"));
+        segment(tagged, 0xFE, "made by a test".getBytes("US-ASCII"));
+        tagged.write(original, 2, original.length - 2);
+        File src = file("tagged.jpg", tagged.toByteArray());
+
+        byte[] kept = optimize(src, false);
+        assertTrue(indexOf(kept, "made by a test".getBytes("US-ASCII")) > 0);
+        assertTrue(indexOf(kept, "xmpmeta".getBytes("US-ASCII")) > 0);
+
+        byte[] stripped = optimize(src, true);
+        assertEquals(-1, indexOf(stripped, "made by a test".getBytes("US-ASCII")));
+        assertEquals(-1, indexOf(stripped, "xmpmeta".getBytes("US-ASCII")));
+        assertTrue(indexOf(stripped, "JFIF".getBytes("US-ASCII")) > 0);
+        int exifStart = indexOf(stripped, "Exif".getBytes("US-ASCII"));
+        assertTrue(exifStart > 0);
+        int exifLength = ((stripped[exifStart - 2] & 0xFF) << 8) | (stripped[exifStart - 1] & 0xFF);
+        assertEquals(2 + 6 + 26, exifLength);   //TIFF header and IFD0 with its orientation, IFD1 unlinked
+        assertEquals(kept.length - (thumbnail.length + 30) - (4 + 41) - (4 + 14), stripped.length);
+        assertSamePixels(original, stripped);
+    }
+
+    @Test
+    public void optimize_patchesTheMultiPictureIndex() throws Exception {
+        byte[] primary = encode(scene(301, 199, BufferedImage.TYPE_INT_RGB), 0);
+        byte[] second = encode(scene(64, 48, BufferedImage.TYPE_INT_RGB), 0);
+        final int mpHeader = 2 + 4 + 4;        //SOI, APP2 marker and length, "MPF\0"
+        final int entries = 8 + 2 + 2 * 12 + 4;  //TIFF header, IFD with the image count and the MP entry
+        int segmentLength = 4 + 4 + entries + 2 * 16;
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream mpf = new DataOutputStream(payload);
+        mpf.writeBytes("MPF\0");
+        mpf.writeBytes("MM");
+        mpf.writeShort(42);
+        mpf.writeInt(8);
+        mpf.writeShort(2);
+        mpf.writeShort(0xB001);     //number of images
+        mpf.writeShort(4);
+        mpf.writeInt(1);
+        mpf.writeInt(2);
+        mpf.writeShort(0xB002);     //MP entries, 16 bytes per image
+        mpf.writeShort(7);
+        mpf.writeInt(32);
+        mpf.writeInt(entries);
+        mpf.writeInt(0);
+        mpf.writeInt(0x20030000);   //primary image: size, offset 0
+        mpf.writeInt(primary.length + segmentLength);
+        mpf.writeInt(0);
+        mpf.writeInt(0);
+        mpf.writeInt(0);            //second image: size, offset from the MP header
+        mpf.writeInt(second.length);
+        mpf.writeInt(primary.length + segmentLength - mpHeader);
+        mpf.writeInt(0);
+        ByteArrayOutputStream original = new ByteArrayOutputStream();
+        original.write(primary, 0, 2);
+        segment(original, 0xE2, payload.toByteArray());
+        original.write(primary, 2, primary.length - 2);
+        original.write(second, 0, second.length);
+        File src = file("mpo.jpg", original.toByteArray());
+
+        byte[] optimized = optimize(src, false);
+        assertTrue(optimized.length < original.size());
+        ByteBuffer index = ByteBuffer.wrap(optimized);
+        int primarySize = index.getInt(mpHeader + entries + 4);
+        int secondOffset = index.getInt(mpHeader + entries + 16 + 8);
+        assertEquals(optimized.length - second.length, primarySize);
+        assertEquals(primarySize, mpHeader + secondOffset);
+        assertArrayEquals(second, Arrays.copyOfRange(optimized, primarySize, optimized.length));
+        assertSamePixels(original.toByteArray(), Arrays.copyOf(optimized, primarySize));
+
+        byte[] stripped = optimize(src, true);
+        assertEquals(-1, indexOf(stripped, "MPF".getBytes("US-ASCII")));
+        assertTrue(stripped.length < primarySize);  //the second image goes with its index
+    }
+
+    @Test
+    public void optimize_leavesUnsupportedFilesAlone() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertFalse(JpegHuffmanOptimizer.optimize(file("not.jpg", "GIF89a".getBytes("US-ASCII")), out, false));
+        byte[] progressive = encode(scene(32, 32, BufferedImage.TYPE_INT_RGB), 0);
+        progressive[indexOf(progressive, new byte[] { (byte) 0xFF, (byte) 0xC0 }) + 1] = (byte) 0xC2;
+        assertFalse(JpegHuffmanOptimizer.optimize(file("progressive.jpg", progressive), out, false));
+        assertEquals(0, out.size());
+    }
+
+    private static void segment(ByteArrayOutputStream out, int marker, byte[] payload) {
+        out.write(0xFF);
+        out.write(marker);
+        out.write((payload.length + 2) >> 8);
+        out.write((payload.length + 2) & 0xFF);
+        out.write(payload, 0, payload.length);
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = new byte[a.length + b.length];
+        System.arraycopy(a, 0, result, 0, a.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
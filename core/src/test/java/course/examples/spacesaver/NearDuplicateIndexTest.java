@@ -0,0 +1,114 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PerceptualHash, MultiIndexHash and NearDuplicateIndex
+ */
+public class NearDuplicateIndexTest {
+
+    private static int[] scene(int width, int height, int shift, int seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int sx = (x + shift) * 64 / width;
+                int sy = y * 64 / height;
+                int gray = (int) (127 + 60 * Math.sin(sx / 5.0) + 60 * Math.cos(sy / 7.0)) + random.nextInt(9) - 4;
+                gray = Math.max(0, Math.min(255, gray));
+                pixels[y * width + x] = 0xFF000000 | (gray << 16) | (gray << 8) | gray;
+            }
+        }
+        return pixels;
+    }
+
+    private static ImageCandidate image(long id, long size, int width) {
+        return new ImageCandidate(id, "/sdcard/DCIM/img" + id + ".jpg", size, id, width, width * 3 / 4);
+    }
+
+    @Test
+    public void dHash_sameSceneIsNearOtherSceneIsFar() {
+        long original = PerceptualHash.dHash(scene(640, 480, 0, 1), 640, 480);
+        long scaledAndNoisy = PerceptualHash.dHash(scene(80, 60, 0, 2), 80, 60);
+        long burstShot = PerceptualHash.dHash(scene(640, 480, 8, 3), 640, 480);
+        int[] inverted = scene(640, 480, 0, 1);
+        for (int i = 0; i < inverted.length; i++) {
+            inverted[i] = 0xFF000000 | (0xFFFFFF - (inverted[i] & 0xFFFFFF));
+        }
+        long other = PerceptualHash.dHash(inverted, 640, 480);
+
+        assertTrue(PerceptualHash.distance(original, scaledAndNoisy) <= 2);
+        assertTrue(PerceptualHash.distance(original, burstShot) <= NearDuplicateIndex.DEFAULT_MAX_DISTANCE);
+        assertTrue(PerceptualHash.distance(original, other) > 32);
+        PerceptualHash.dHash(new int[] { 0xFF808080 }, 1, 1);  //smaller than the grid
+    }
+
+    @Test
+    public void multiIndexHash_findsTheSameHashesAsAScanWhileCheckingFew() {
+        Random random = new Random(42);
+        int maxDistance = NearDuplicateIndex.DEFAULT_MAX_DISTANCE;
+        MultiIndexHash<Integer> index = new MultiIndexHash<Integer>(maxDistance);
+        long[] hashes = new long[20000];
+        for (int i = 0; i < hashes.length; i++) {
+            //every tenth hash is a few bits from the previous one, like the shots of a burst
+            long near = hashes[Math.max(0, i - 1)] ^ (1L << random.nextInt(64)) ^ (1L << random.nextInt(64));
+            hashes[i] = i % 10 == 0 && i > 0 ? near : random.nextLong();
+            index.add(hashes[i], i);
+        }
+        assertEquals(hashes.length, index.size());
+        for (int q = 0; q < 50; q++) {
+            long query = hashes[random.nextInt(hashes.length)];
+            for (int bit = 0; bit < 3; bit++) {
+                query ^= 1L << random.nextInt(64);
+            }
+            for (int distance = 0; distance <= maxDistance + 1; distance++) {
+                List<Integer> found = new ArrayList<Integer>();
+                int checked = index.search(query, distance, found);
+                List<Integer> expected = new ArrayList<Integer>();
+                for (int i = 0; i < hashes.length; i++) {
+                    if (PerceptualHash.distance(query, hashes[i]) <= distance) {
+                        expected.add(i);
+                    }
+                }
+                Collections.sort(found);
+                assertEquals(expected, found);
+                if (distance <= maxDistance) {
+                    //about one entry in 80 shares one of the 7 bands of a random hash
+                    assertTrue("checked " + checked, checked < hashes.length / 40);
+                } else {
+                    assertEquals(hashes.length, checked);   //not indexed for that distance, scans
+                }
+            }
+        }
+    }
+
+    @Test
+    public void findGroups_chainsNearImagesBestFirst() {
+        NearDuplicateIndex index = new NearDuplicateIndex();
+        long burst = 0x0123456789ABCDEFL;
+        index.add(image(1, 3000000, 4000), burst);
+        index.add(image(2, 3500000, 4000), burst ^ 0x7);            //3 bits from the first
+        index.add(image(3, 3200000, 4000), burst ^ 0x7 ^ 0x1F00);   //5 bits from the second, 8 from the first
+        index.add(image(4, 9000000, 4000), ~burst);
+        index.add(image(5, 500000, 1000), 0x5555555555555555L);
+        index.add(image(6, 400000, 1000), 0x5555555555555555L);     //exact copy
+
+        List<NearDuplicateIndex.Group> groups = index.findGroups(NearDuplicateIndex.DEFAULT_MAX_DISTANCE);
+        assertEquals(2, groups.size());
+        NearDuplicateIndex.Group first = groups.get(0);
+        assertEquals(3, first.getImages().size());
+        assertEquals(2, first.getBest().id);    //largest file at the same resolution
+        assertEquals(6200000, first.getReclaimableBytes());
+        assertEquals(5, groups.get(1).getBest().id);
+        assertEquals(400000, groups.get(1).getReclaimableBytes());
+
+        assertEquals(2, index.findNear(burst, 3).size());
+    }
+}
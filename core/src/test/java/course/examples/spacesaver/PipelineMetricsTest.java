@@ -0,0 +1,112 @@
+package course.examples.spacesaver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for PipelineMetrics and the verification of CompressedImageWriter
+ */
+public class PipelineMetricsTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void histogram_percentilesWithinABucket() {
+        PipelineMetrics.Histogram histogram = new PipelineMetrics().getHistogram(PipelineMetrics.Stage.DECODE);
+        for (int i = 0; i < 98; i++) {
+            histogram.record(100 * 1000, 10);  //100 us, in the 64..128 us bucket
+        }
+        histogram.record(5000 * 1000, 10);
+        histogram.record(20000 * 1000, 10);
+        assertEquals(100, histogram.getCount());
+        assertEquals(1000, histogram.getBytes());
+        assertEquals(128, histogram.getPercentileMicros(50));
+        assertEquals(128, histogram.getPercentileMicros(95));
+        assertEquals(8192, histogram.getPercentileMicros(99));
+        assertEquals(20000, histogram.getPercentileMicros(100));   //capped at the maximum
+        assertEquals((98 * 100 + 5000 + 20000) / 100, histogram.getMeanMicros());
+        assertEquals(0, new PipelineMetrics().getHistogram(PipelineMetrics.Stage.QUERY).getPercentileMicros(50));
+    }
+
+    @Test
+    public void record_fromParallelWorkersAndDisabled() throws Exception {
+        final PipelineMetrics metrics = new PipelineMetrics();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        metrics.imageAllocated(1000);
+                        metrics.record(PipelineMetrics.Stage.ENCODE, metrics.start(), 3);
+                        metrics.imageReleased(1000);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        PipelineMetrics.Histogram encode = metrics.getHistogram(PipelineMetrics.Stage.ENCODE);
+        assertEquals(80000, encode.getCount());
+        assertEquals(240000, encode.getBytes());
+        assertEquals(0, metrics.getImageBytes());
+        assertTrue(metrics.getPeakImageBytes() >= 1000 && metrics.getPeakImageBytes() <= 8000);
+
+        metrics.setEnabled(false);
+        assertEquals(0, metrics.start());
+        metrics.record(PipelineMetrics.Stage.ENCODE, metrics.start(), 3);
+        assertEquals(80000, encode.getCount());
+        assertEquals(80000, metrics.getUpdateCount());
+        metrics.imageAllocated(500);
+        metrics.setEnabled(true);
+        metrics.imageReleased(500);     //allocated while disabled, the gauge still balances
+        assertEquals(0, metrics.getImageBytes());
+        metrics.setEnabled(false);
+
+        metrics.reset();
+        assertEquals(0, encode.getCount());
+        assertEquals(0, metrics.getPeakImageBytes());
+        assertTrue(metrics.report().contains("encode"));
+    }
+
+    @Test
+    public void write_recordsWriteAndRejectsOutputThatIsNotAJpeg() throws Exception {
+        PipelineMetrics.Histogram verify = PipelineMetrics.getInstance().getHistogram(PipelineMetrics.Stage.VERIFY);
+        long verified = verify.getCount();
+        CompressedImageWriter writer = new CompressedImageWriter(folder.getRoot().getPath() + "/");
+
+        Pair jpeg = writer.write("a.jpg", new OutputStore.Encoder() {
+            @Override
+            public boolean encode(OutputStream ostream) throws IOException {
+                StripJpegEncoder encoder = new StripJpegEncoder(ostream, 16, 16, 80);
+                encoder.writeRows(new int[16 * 16], 0, 16, 16);
+                encoder.finish();
+                return true;
+            }
+        });
+        assertNotNull(jpeg.compressedImageFile);
+
+        Pair truncated = writer.write("b.jpg", new OutputStore.Encoder() {
+            @Override
+            public boolean encode(OutputStream ostream) throws IOException {
+                ostream.write(new byte[] { (byte) 0xFF, (byte) 0xD8, 1, 2, 3 });
+                return true;
+            }
+        });
+        assertNull(truncated.compressedImageFile);
+        assertEquals(1, folder.getRoot().list().length);
+        assertEquals(verified + 2, verify.getCount());
+    }
+}
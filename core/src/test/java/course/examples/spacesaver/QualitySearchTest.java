@@ -0,0 +1,77 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for QualitySearch, with an encoder whose output grows linearly with the quality
+ */
+public class QualitySearchTest {
+
+    /**
+     * TrialEncoder writing bytesPerQuality bytes for every quality level and recording the qualities tried
+     */
+    private static class FakeEncoder implements QualitySearch.TrialEncoder {
+        final int bytesPerQuality;
+        final List<Integer> trials = new ArrayList<Integer>();
+
+        FakeEncoder(int bytesPerQuality) {
+            this.bytesPerQuality = bytesPerQuality;
+        }
+
+        @Override
+        public boolean encode(int quality, ByteArrayOutputStream buffer) throws IOException {
+            trials.add(quality);
+            buffer.write(new byte[quality * bytesPerQuality]);
+            return true;
+        }
+    }
+
+    private static ByteArrayOutputStream[] buffers() {
+        return new ByteArrayOutputStream[] { new ByteArrayOutputStream(), new ByteArrayOutputStream() };
+    }
+
+    @Test
+    public void search_findsTheHighestQualityMeetingTheTargetWithinTheTrialBudget() throws Exception {
+        FakeEncoder encoder = new FakeEncoder(1000);
+        QualitySearch.Result result = QualitySearch.percentOfOriginal(50).search(90, 62500, encoder, buffers());
+        assertEquals(QualitySearch.DEFAULT_MAX_TRIALS, encoder.trials.size());
+        assertEquals(90, (int) encoder.trials.get(0));
+        assertTrue(result.output.size() <= 62500);
+        assertEquals(result.quality * 1000, result.output.size());  //the output kept is the one of the chosen quality
+        assertTrue("quality " + result.quality, result.quality >= 55 && result.quality <= 62);
+        assertEquals(encoder.trials.size(), result.trials);
+    }
+
+    @Test
+    public void search_stopsAtTheFirstTrialWhenTheMaximumQualityFits() throws Exception {
+        FakeEncoder encoder = new FakeEncoder(10);
+        QualitySearch.Result result = QualitySearch.percentOfOriginal(50).search(80, 1000, encoder, buffers());
+        assertEquals(1, encoder.trials.size());
+        assertEquals(80, result.quality);
+    }
+
+    @Test
+    public void search_returnsTheSmallestOutputWhenNothingMeetsTheTarget() throws Exception {
+        FakeEncoder encoder = new FakeEncoder(1000);
+        QualitySearch.Result result = QualitySearch.percentOfOriginal(1).search(90, 100, encoder, buffers());
+        int smallest = Integer.MAX_VALUE;
+        for (int quality : encoder.trials) {
+            smallest = Math.min(smallest, quality);
+        }
+        assertEquals(smallest, result.quality);
+        assertEquals(smallest * 1000, result.output.size());
+    }
+
+    @Test
+    public void getTargetSize_byPercentOrPerMegapixel() {
+        assertEquals(1500000, QualitySearch.percentOfOriginal(50).getTargetSize(3000000, 4000, 3000));
+        assertEquals(3600000, QualitySearch.bytesPerMegapixel(300000).getTargetSize(9000000, 4000, 3000));
+    }
+}
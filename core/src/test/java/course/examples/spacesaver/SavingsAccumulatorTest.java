@@ -0,0 +1,69 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for SavingsAccumulator and SizeUtility.calculateSpaceSaved
+ */
+public class SavingsAccumulatorTest {
+
+    private static final long GIGABYTE = SizeUtility.KILOBYTE * SizeUtility.KILOBYTE * SizeUtility.KILOBYTE;
+
+    @Test
+    public void add_countsImagesAndFailures() {
+        SavingsAccumulator savings = new SavingsAccumulator(4);
+        savings.add(new Pair("a.jpg", "c/a.jpg", 1000, 400, 0));
+        savings.add(new Pair("b.jpg", null, 2000, 0, 0));
+        savings.add(null);
+        SavingsAccumulator.Snapshot snapshot = savings.snapshot();
+        assertEquals(1, snapshot.getImages());
+        assertEquals(2, snapshot.getFailures());
+        assertEquals(1000, snapshot.getBytesIn());
+        assertEquals(600, snapshot.getSaved());
+        assertEquals(60, snapshot.getSavedPercent());
+    }
+
+    @Test
+    public void add_fromParallelWorkers() throws Exception {
+        final SavingsAccumulator savings = new SavingsAccumulator(2);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        savings.addImage(GIGABYTE, GIGABYTE / 4);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        SavingsAccumulator.Snapshot snapshot = savings.snapshot();
+        assertEquals(80000, snapshot.getImages());
+        assertEquals(80000 * GIGABYTE, snapshot.getBytesIn());
+        assertEquals(75, snapshot.getSavedPercent());
+    }
+
+    @Test
+    public void calculateSpaceSaved_doesNotOverflowOrDivideByZero() {
+        List<Pair> pairs = new ArrayList<Pair>();
+        pairs.add(new Pair("a.jpg", "c/a.jpg", 3 * GIGABYTE, GIGABYTE, 0));
+        pairs.add(new Pair("b.jpg", null, GIGABYTE, 0, 0));   //failed, saves nothing
+        String saved = SizeUtility.calculateSpaceSaved(pairs);
+        assertTrue(saved, saved.contains("[ 66 %]"));
+        assertTrue(saved, saved.contains("3.00G bytes"));
+
+        String none = SizeUtility.calculateSpaceSaved(Collections.<Pair>emptyList());
+        assertTrue(none, none.contains("[ 0 %]"));
+    }
+}
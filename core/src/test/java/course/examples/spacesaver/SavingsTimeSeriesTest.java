@@ -0,0 +1,117 @@
+package course.examples.spacesaver;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for SavingsTimeSeries
+ */
+public class SavingsTimeSeriesTest {
+
+    private static final long HOUR = SavingsTimeSeries.Resolution.HOURLY.getInterval();
+    private static final long DAY = SavingsTimeSeries.Resolution.DAILY.getInterval();
+    private static final long START = 1000 * DAY;  //midnight UTC
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static SavingsTimeSeries.Event event(long timestamp, long saved, int source) {
+        return new SavingsTimeSeries.Event(timestamp, 1000 + saved, 1000, 10, 80, source);
+    }
+
+    @Test
+    public void query_sumsBucketsOfTheRange() throws Exception {
+        SavingsTimeSeries series = new SavingsTimeSeries(folder.getRoot());
+        series.append(event(START + 5 * 60 * 1000, 100, SavingsTimeSeries.SOURCE_USER));
+        series.append(event(START + 30 * 60 * 1000, 200, SavingsTimeSeries.SOURCE_SERVICE));
+        series.append(event(START + 3 * HOUR, 400, SavingsTimeSeries.SOURCE_SERVICE));
+        series.append(event(START + 2 * DAY + HOUR, 800, SavingsTimeSeries.SOURCE_USER));
+
+        assertEquals(4, series.getEventCount());
+        assertEquals(3, series.getBucketCount(SavingsTimeSeries.Resolution.DAILY));
+        assertEquals(2 * 24 + 2, series.getBucketCount(SavingsTimeSeries.Resolution.HOURLY));
+        assertEquals(START, series.getBucketStart(SavingsTimeSeries.Resolution.DAILY, 0));
+
+        SavingsTimeSeries.Totals all = series.query(SavingsTimeSeries.Resolution.HOURLY, 0, Long.MAX_VALUE);
+        assertEquals(4, all.getCount());
+        assertEquals(1500, all.getSaved());
+        assertEquals(600, all.getServiceSaved());
+        assertEquals(40, all.getDurationMs());
+
+        SavingsTimeSeries.Totals firstHours = series.query(SavingsTimeSeries.Resolution.HOURLY, START + HOUR, START + 4 * HOUR);
+        assertEquals(1, firstHours.getCount());
+        assertEquals(400, firstHours.getSaved());
+
+        assertEquals(0, series.getBucket(SavingsTimeSeries.Resolution.DAILY, 1).getCount());  //gap between events
+        assertEquals(800, series.getBucket(SavingsTimeSeries.Resolution.DAILY, 2).getSaved());
+        series.close();
+    }
+
+    @Test
+    public void append_lateEventUpdatesLaterBuckets() throws Exception {
+        SavingsTimeSeries series = new SavingsTimeSeries(folder.getRoot());
+        series.append(event(START, 100, SavingsTimeSeries.SOURCE_USER));
+        series.append(event(START + 2 * DAY, 200, SavingsTimeSeries.SOURCE_USER));
+        series.append(event(START + DAY, 400, SavingsTimeSeries.SOURCE_USER));
+        assertEquals(400, series.getBucket(SavingsTimeSeries.Resolution.DAILY, 1).getSaved());
+        assertEquals(200, series.getBucket(SavingsTimeSeries.Resolution.DAILY, 2).getSaved());
+        assertEquals(700, series.query(SavingsTimeSeries.Resolution.DAILY, START, START + 3 * DAY).getSaved());
+        series.close();
+    }
+
+    @Test
+    public void open_keepsEventsAndRebuildsMissingRollups() throws Exception {
+        SavingsTimeSeries series = new SavingsTimeSeries(folder.getRoot());
+        for (int i = 0; i < 1000; i++) {    //more than the initial mapping holds
+            series.append(event(START + i * HOUR, 1, i % 2));
+        }
+        series.close();
+        assertTrue(new File(folder.getRoot(), "daily.bin").delete());
+
+        series = new SavingsTimeSeries(folder.getRoot());
+        assertEquals(1000, series.getEventCount());
+        assertEquals(START + 999 * HOUR, series.getEvent(999).getTimestamp());
+        assertEquals(1, series.getEvent(999).getSource());
+        SavingsTimeSeries.Totals daily = series.query(SavingsTimeSeries.Resolution.DAILY, START, START + 1000 * HOUR);
+        assertEquals(1000, daily.getCount());
+        assertEquals(500, daily.getServiceSaved());
+        assertEquals(24, series.getBucket(SavingsTimeSeries.Resolution.DAILY, 0).getCount());
+        series.close();
+    }
+
+    @Test
+    public void open_doesNotCountAnEventTwiceAfterACrashDuringItsRollup() throws Exception {
+        SavingsTimeSeries series = new SavingsTimeSeries(folder.getRoot());
+        series.append(event(START, 100, SavingsTimeSeries.SOURCE_USER));
+        series.append(event(START + HOUR, 200, SavingsTimeSeries.SOURCE_SERVICE));
+        series.close();
+        //the buckets hold the last event but the crash came before the number of events applied was written
+        RandomAccessFile rollup = new RandomAccessFile(new File(folder.getRoot(), "daily.bin"), "rw");
+        rollup.seek(24);
+        rollup.writeLong(1);
+        rollup.close();
+
+        series = new SavingsTimeSeries(folder.getRoot());
+        SavingsTimeSeries.Totals daily = series.query(SavingsTimeSeries.Resolution.DAILY, 0, Long.MAX_VALUE);
+        assertEquals(2, daily.getCount());
+        assertEquals(300, daily.getSaved());
+        assertEquals(200, daily.getServiceSaved());
+        series.close();
+    }
+
+    @Test
+    public void query_countsEveryOverlappingBucketInFull() throws Exception {
+        SavingsTimeSeries series = new SavingsTimeSeries(folder.getRoot());
+        series.append(event(START + HOUR, 100, SavingsTimeSeries.SOURCE_USER));
+        series.append(event(START + DAY + HOUR, 200, SavingsTimeSeries.SOURCE_USER));
+        assertEquals(300, series.query(SavingsTimeSeries.Resolution.DAILY, START + 2 * HOUR, START + DAY + 2 * HOUR).getSaved());
+        assertEquals(200, series.query(SavingsTimeSeries.Resolution.DAILY, START + DAY, START + DAY + 2 * HOUR).getSaved());
+        series.close();
+    }
+}
@@ -0,0 +1,87 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for SpaceBudgetPlanner
+ */
+public class SpaceBudgetPlannerTest {
+
+    private static ImageCandidate candidate(String name, long saving, double cpuMs) {
+        ImageCandidate candidate = new ImageCandidate(0, name, 4 * saving, 0, 0, 0);
+        candidate.estimate = new JpegHeaderEstimator.Estimate();
+        candidate.estimate.sourceSize = 4 * saving;
+        candidate.estimate.predictedSize = 3 * saving;
+        candidate.estimate.estimatedCpuMs = cpuMs;
+        return candidate;
+    }
+
+    @Test
+    public void getDeficit_aimsBelowThresholdMinusMargin() {
+        assertEquals(0, SpaceBudgetPlanner.getDeficit(1000, 500, 90, 2));
+        assertEquals(920 - 880, SpaceBudgetPlanner.getDeficit(1000, 80, 90, 2));
+        long total = 64L * 1024 * 1024 * 1024;
+        assertEquals(total - total * 90 / 100, SpaceBudgetPlanner.getDeficit(total, 0, 92, 2));  //no overflow, rounded up
+    }
+
+    @Test
+    public void plan_emptyWithoutDeficit() {
+        List<ImageCandidate> candidates = new ArrayList<ImageCandidate>();
+        candidates.add(candidate("a", 100, 1));
+        assertTrue(new SpaceBudgetPlanner(15).plan(candidates, 0).getImages().isEmpty());
+    }
+
+    @Test
+    public void plan_emptyWhenOriginalsAreKept() {
+        List<ImageCandidate> candidates = new ArrayList<ImageCandidate>();
+        candidates.add(candidate("a", 100, 1));
+        SpaceBudgetPlanner.Plan plan = new SpaceBudgetPlanner(15).plan(candidates, 50, false);
+        assertTrue(plan.getImages().isEmpty());
+        assertEquals(0, plan.getPredictedSaving());
+        assertFalse(plan.coversDeficit());
+        assertEquals(1, new SpaceBudgetPlanner(15).plan(candidates, 50, true).getImages().size());
+    }
+
+    @Test
+    public void plan_replacesOvershootingImageByCheaperOne() {
+        List<ImageCandidate> candidates = new ArrayList<ImageCandidate>();
+        candidates.add(candidate("efficient", 100, 1));     //100 bytes/ms
+        candidates.add(candidate("huge", 1000, 20));        //50 bytes/ms
+        candidates.add(candidate("small", 30, 1));          //30 bytes/ms
+        SpaceBudgetPlanner.Plan plan = new SpaceBudgetPlanner(15).plan(candidates, 120);
+        assertEquals(2, plan.getImages().size());
+        assertEquals("efficient", plan.getImages().get(0).path);
+        assertEquals("small", plan.getImages().get(1).path);
+        assertTrue(plan.coversDeficit());
+        assertEquals(2.0, plan.getEstimatedCpuMs(), 0.001);
+    }
+
+    @Test
+    public void plan_dropsImagesNoLongerNeeded() {
+        List<ImageCandidate> candidates = new ArrayList<ImageCandidate>();
+        candidates.add(candidate("a", 50, 1));
+        candidates.add(candidate("b", 40, 1));
+        candidates.add(candidate("c", 200, 5));
+        SpaceBudgetPlanner.Plan plan = new SpaceBudgetPlanner(15).plan(candidates, 150);
+        assertEquals(1, plan.getImages().size());
+        assertEquals("c", plan.getImages().get(0).path);
+    }
+
+    @Test
+    public void plan_takesEverythingUpToMaxWhenDeficitCannotBeCovered() {
+        List<ImageCandidate> candidates = new ArrayList<ImageCandidate>();
+        for (int i = 0; i < 10; i++) {
+            candidates.add(candidate("img" + i, 10, 1));
+        }
+        candidates.add(new ImageCandidate(0, "unknown", 1000, 0, 0, 0));
+        SpaceBudgetPlanner.Plan plan = new SpaceBudgetPlanner(4).plan(candidates, 1000);
+        assertEquals(4, plan.getImages().size());
+        assertFalse(plan.coversDeficit());
+        assertEquals(40, plan.getPredictedSaving());
+    }
+}
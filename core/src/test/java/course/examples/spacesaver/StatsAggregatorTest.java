@@ -0,0 +1,64 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StatsAggregator
+ */
+public class StatsAggregatorTest {
+
+    @Test
+    public void summarize_totalsPercentilesAndHistogram() {
+        long[] original = { 100 * 1024, 300 * 1024, 3 * 1024 * 1024, 0 };
+        long[] compressed = { 50 * 1024, 100 * 1024, 1024 * 1024, 0 };
+        StatsAggregator.Summary summary = StatsAggregator.summarize(original, compressed, 3);
+        assertEquals(3, summary.getCount());
+        assertEquals(3472 * 1024, summary.getTotalOriginal());
+        assertEquals(1174 * 1024, summary.getTotalCompressed());
+        assertEquals(3 * 1024 * 1024, summary.getMaxSize());
+        assertEquals(300 * 1024, summary.getOriginalPercentile(50));
+        assertEquals(3 * 1024 * 1024, summary.getOriginalPercentile(99));
+        assertEquals(50 * 1024, summary.getCompressedPercentile(0));
+        assertEquals(1, summary.getOriginalHistogram()[0]);     //< 128K
+        assertEquals(1, summary.getOriginalHistogram()[2]);     //256K - 512K
+        assertEquals(1, summary.getOriginalHistogram()[5]);     //2M - 4M
+        assertEquals(2, summary.getCompressedHistogram()[0]);
+        assertEquals(1, summary.getCompressedHistogram()[4]);   //1M - 2M
+    }
+
+    @Test
+    public void summarize_emptyWithoutDivisionByZero() {
+        StatsAggregator.Summary summary = StatsAggregator.summarize(new long[0], new long[0], 0);
+        assertEquals(0, summary.getSavedPercent(), 0);
+        assertEquals(0, summary.getOriginalPercentile(90));
+    }
+
+    @Test
+    public void downsample_keepsShortSeries() {
+        int[] indices = StatsAggregator.downsample(new long[] { 5, 1, 7 }, 3, 300);
+        assertArrayEquals(new int[] { 0, 1, 2 }, indices);
+    }
+
+    @Test
+    public void downsample_keepsEndsAndSpikes() {
+        long[] values = new long[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 1000 + i % 7;
+        }
+        values[4321] = 1000000;
+        int[] indices = StatsAggregator.downsample(values, values.length, 300);
+        assertEquals(300, indices.length);
+        assertEquals(0, indices[0]);
+        assertEquals(values.length - 1, indices[indices.length - 1]);
+        boolean spike = false;
+        for (int i = 0; i < indices.length; i++) {
+            if (i > 0) {
+                assertTrue(indices[i] > indices[i - 1]);
+            }
+            spike |= indices[i] == 4321;
+        }
+        assertTrue(spike);
+    }
+}
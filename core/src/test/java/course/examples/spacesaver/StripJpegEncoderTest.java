@@ -0,0 +1,86 @@
+package course.examples.spacesaver;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests for StripJpegEncoder, decoding its output with ImageIO
+ */
+public class StripJpegEncoderTest {
+
+    private static int[] gradient(int width, int height) {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = (x + y) * 255 / (width + height);
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Method to encode an image a few rows at a time, the way the app feeds it decoded strips
+     */
+    private static BufferedImage roundTrip(int[] pixels, int width, int height, int stripHeight, int quality) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StripJpegEncoder encoder = new StripJpegEncoder(out, width, height, quality);
+        for (int y = 0; y < height; y += stripHeight) {
+            encoder.writeRows(pixels, y * width, width, Math.min(stripHeight, height - y));
+        }
+        encoder.finish();
+        return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static double meanError(int[] expected, BufferedImage image) {
+        long error = 0;
+        int width = image.getWidth();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                int a = expected[y * width + x];
+                int b = image.getRGB(x, y);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    error += Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF));
+                }
+            }
+        }
+        return error / (3.0 * width * image.getHeight());
+    }
+
+    @Test
+    public void writeRows_decodesToTheSameImage() throws Exception {
+        //odd sizes leave partial MCUs on the right and at the bottom, strips don't line up with the MCU rows
+        int width = 203;
+        int height = 117;
+        int[] pixels = gradient(width, height);
+        BufferedImage image = roundTrip(pixels, width, height, 7, 90);
+        assertEquals(width, image.getWidth());
+        assertEquals(height, image.getHeight());
+        double error = meanError(pixels, image);
+        assertTrue("mean error " + error, error < 4);
+    }
+
+    @Test
+    public void writeRows_stripHeightDoesNotChangeTheOutput() throws Exception {
+        int width = 64;
+        int height = 50;
+        int[] pixels = gradient(width, height);
+        BufferedImage whole = roundTrip(pixels, width, height, height, 75);
+        BufferedImage strips = roundTrip(pixels, width, height, 3, 75);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                assertEquals(whole.getRGB(x, y), strips.getRGB(x, y));
+            }
+        }
+        assertTrue(meanError(pixels, roundTrip(pixels, width, height, 16, 10)) > meanError(pixels, whole));  //lower quality, larger error
+    }
+}